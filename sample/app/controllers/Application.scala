@@ -11,17 +11,19 @@
  */
 package controllers
 
+import com.linkedin.playparseq.utils.ParSeqWarmUp
 import javax.inject.Inject
 import play.api.mvc.{AbstractController, ControllerComponents}
 
 
 /**
- * The class Application is a Controller to show index page.
+ * The class Application is a Controller to show index page and the readiness of the application.
  *
+ * @param parSeqWarmUp The injected ParSeqWarmUp component
  * @param controllerComponents The injected Controller component.
  * @author Yinan Ding (yding@linkedin.com)
  */
-class Application @Inject()(controllerComponents: ControllerComponents) extends AbstractController(controllerComponents) {
+class Application @Inject()(parSeqWarmUp: ParSeqWarmUp, controllerComponents: ControllerComponents) extends AbstractController(controllerComponents) {
 
   /**
    * The method index returns the index page.
@@ -32,4 +34,15 @@ class Application @Inject()(controllerComponents: ControllerComponents) extends
     Ok(views.html.index())
   }
 
+  /**
+   * The method ready tells the load balancer whether the application is ready for traffic, which is once the ParSeq
+   * warm-up is done.
+   *
+   * @return The Action for readiness
+   */
+  def ready = Action {
+    if (parSeqWarmUp.isReady) Ok(s"Ready, warm-up took ${parSeqWarmUp.getWarmUpMillis} ms.")
+    else ServiceUnavailable("Warming up.")
+  }
+
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package controllers
+
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+
+
+/**
+ * The class Downstreams resolves the URLs of the sites called by the samples. If `sample.downstreams.baseUrl` is set
+ * in your conf file, e.g. by the load test to its stub downstream, a site is called as a path on that base URL rather
+ * than live, so the samples can run offline.
+ *
+ * @param configuration The injected Configuration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class Downstreams @Inject()(configuration: Configuration) {
+
+  /**
+   * The field baseUrl is the optional base URL replacing the live sites.
+   */
+  private[this] val baseUrl: Option[String] = configuration.getOptional[String]("sample.downstreams.baseUrl").map(_.stripSuffix("/"))
+
+  /**
+   * The method url gets the URL of a site.
+   *
+   * @param host The host of the site
+   * @return The URL
+   */
+  def url(host: String): String = baseUrl.map(base => s"$base/$host").getOrElse(s"http://$host")
+
+}
@@ -15,6 +15,7 @@ import com.linkedin.parseq.Task;
 import com.linkedin.parseq.httpclient.HttpClient;
 import com.linkedin.playparseq.j.PlayParSeq;
 import com.linkedin.playparseq.trace.j.ParSeqTraceAction;
+import controllers.Downstreams;
 import java.util.concurrent.CompletionStage;
 import javax.inject.Inject;
 import play.libs.ws.WSClient;
@@ -37,20 +38,27 @@ public class MultipleTasksSample extends Controller {
    */
   private final WSClient _ws;
 
+  /**
+   * The field _downstreams is the {@link Downstreams} for resolving the URLs of the sites.
+   */
+  private final Downstreams _downstreams;
+
   /**
    * The field _playParSeq is a {@link PlayParSeq} for conversion and execution of ParSeq Tasks.
    */
   private final PlayParSeq _playParSeq;
 
   /**
-   * The constructor injects the WSClient and the {@link PlayParSeq}.
+   * The constructor injects the WSClient, the {@link Downstreams} and the {@link PlayParSeq}.
    *
    * @param ws The injected {@link WSClient} component
+   * @param downstreams The injected {@link Downstreams} component
    * @param playParSeq The injected {@link PlayParSeq} component
    */
   @Inject
-  public MultipleTasksSample(final WSClient ws, final PlayParSeq playParSeq) {
+  public MultipleTasksSample(final WSClient ws, final Downstreams downstreams, final PlayParSeq playParSeq) {
     _ws = ws;
+    _downstreams = downstreams;
     _playParSeq = playParSeq;
   }
 
@@ -66,15 +74,16 @@ public class MultipleTasksSample extends Controller {
   public CompletionStage<Result> demo() {
     Http.Context context = Http.Context.current();
     // Run an independent Task
-    _playParSeq.runTask(context, getLengthTask("http://www.yahoo.com"));
+    _playParSeq.runTask(context, getLengthTask(_downstreams.url("www.yahoo.com")));
     // Run another Task
     return _playParSeq.runTask(context,
         // In parallel
         Task.par(
             // Convert to ParSeq Task
-            _playParSeq.toTask("http://www.bing.com", () -> getLengthCompletionStage("http://www.bing.com")),
+            _playParSeq.toTask(_downstreams.url("www.bing.com"),
+                () -> getLengthCompletionStage(_downstreams.url("www.bing.com"))),
             // Complex ParSeq Task
-            getLengthTask("http://www.google.com")
+            getLengthTask(_downstreams.url("www.google.com"))
         ).map((g, b) -> ok(String.valueOf(g + b))));
   }
 
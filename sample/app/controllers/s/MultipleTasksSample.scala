@@ -17,6 +17,7 @@ import com.linkedin.playparseq.s.PlayParSeq
 import com.linkedin.playparseq.s.PlayParSeqImplicits._
 import com.linkedin.playparseq.trace.s.ParSeqTraceAction
 import com.ning.http.client.Response
+import controllers.Downstreams
 import javax.inject.Inject
 import play.api.libs.ws.WSClient
 import play.api.mvc._
@@ -28,13 +29,14 @@ import scala.concurrent.{ExecutionContext, Future}
  * multiple ParSeq Tasks.
  *
  * @param ws The injected WSClient component
+ * @param downstreams The injected [[Downstreams]] component
  * @param playParSeq The injected [[PlayParSeq]] component
  * @param parSeqTraceAction The injected [[ParSeqTraceAction]] component
  * @param controllerComponents The injected Controller component
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
-class MultipleTasksSample @Inject()(ws: WSClient, playParSeq: PlayParSeq, parSeqTraceAction: ParSeqTraceAction, controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends AbstractController(controllerComponents) {
+class MultipleTasksSample @Inject()(ws: WSClient, downstreams: Downstreams, playParSeq: PlayParSeq, parSeqTraceAction: ParSeqTraceAction, controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends AbstractController(controllerComponents) {
 
   /**
    * The method demo runs two independent Tasks, and is able to show the ParSeq Trace if the request has
@@ -46,15 +48,15 @@ class MultipleTasksSample @Inject()(ws: WSClient, playParSeq: PlayParSeq, parSeq
    */
   def demo: Action[AnyContent] = parSeqTraceAction.async(implicit request => {
     // Run an independent Task
-    playParSeq.runTask(getLengthTask("http://www.yahoo.com"))
+    playParSeq.runTask(getLengthTask(downstreams.url("www.yahoo.com")))
     // Run another Task
     playParSeq.runTask(
       // In parallel
       Task.par(
         // Convert to ParSeq Task
-        playParSeq.toTask("http://www.bing.com", () => getLengthFuture("http://www.bing.com")),
+        playParSeq.toTask(downstreams.url("www.bing.com"), () => getLengthFuture(downstreams.url("www.bing.com"))),
         // Complex ParSeq Task
-        getLengthTask("http://www.google.com")
+        getLengthTask(downstreams.url("www.google.com"))
       ).map("sum", (g: Int, b: Int) => Ok((g + b).toString)))
   })
 
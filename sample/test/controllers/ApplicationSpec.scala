@@ -29,6 +29,13 @@ class ApplicationSpec extends PlaySpecification {
       contentType(result) must beSome("text/html")
       contentAsString(result) must contain("Sample")
     }
+
+    "respond to GET ready" in new WithApplication {
+      val result = route(app, FakeRequest(GET, routes.Application.ready().url)).get
+      // Assert the status without warm-up
+      status(result) must equalTo(OK)
+      contentAsString(result) must contain("Ready")
+    }
   }
 
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package loadtest
+
+import java.util.concurrent.{ConcurrentLinkedQueue, Executors, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import play.api.libs.ws.WSClient
+import scala.collection.JavaConverters._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+import scala.concurrent.duration.{Duration, FiniteDuration}
+import scala.util.{Failure, Success}
+
+
+/**
+ * The class LoadReport is the outcome of one run of the [[LoadGenerator]].
+ *
+ * @param name The name of the run
+ * @param seconds The measured time in seconds
+ * @param latenciesNanos The latencies of the completed requests in nanoseconds
+ * @param errors The number of failed requests, including responses with a 5xx status
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+case class LoadReport(name: String, seconds: Double, latenciesNanos: Array[Long], errors: Int) {
+
+  /**
+   * The field sorted are the latencies in ascending order.
+   */
+  private[this] lazy val sorted: Array[Long] = latenciesNanos.sorted
+
+  /**
+   * The method throughput gets the completed requests per second.
+   *
+   * @return The throughput
+   */
+  def throughput: Double = if (seconds > 0) latenciesNanos.length / seconds else 0
+
+  /**
+   * The method percentileMillis gets a latency percentile with the nearest-rank method.
+   *
+   * @param percentile The percentile, between 0 and 100
+   * @return The latency in milliseconds, or 0 without any request
+   */
+  def percentileMillis(percentile: Double): Double =
+    if (sorted.isEmpty) 0
+    else sorted(Math.min(sorted.length - 1, Math.max(0, Math.ceil(percentile / 100 * sorted.length).toInt - 1))) / 1e6
+
+  /**
+   * @inheritdoc
+   */
+  override def toString: String =
+    f"$name%-28s requests=${latenciesNanos.length}%-7d errors=$errors%-5d rps=$throughput%8.1f " +
+      f"p50=${percentileMillis(50)}%7.2fms p90=${percentileMillis(90)}%7.2fms p99=${percentileMillis(99)}%7.2fms " +
+      f"p99.9=${percentileMillis(99.9)}%7.2fms max=${percentileMillis(100)}%7.2fms"
+
+}
+
+/**
+ * The class LoadGenerator drives URLs in a round robin, either closed-loop, where a fixed number of clients send their
+ * next request once the previous one completes, or open-loop, where requests arrive at a fixed rate regardless of
+ * the completions. The latency of an open-loop request counts from the moment it was due, so a stalled server shows up
+ * in the percentiles rather than slowing the load down.
+ *
+ * @param ws The WSClient
+ * @param urls The URLs to drive
+ * @param executionContext The ExecutionContext for the completions
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class LoadGenerator(ws: WSClient, urls: IndexedSeq[String])(implicit executionContext: ExecutionContext) {
+
+  /**
+   * The class Recorder collects the outcomes of one run.
+   */
+  private[this] class Recorder {
+
+    /**
+     * The field latencies are the latencies of the completed requests in nanoseconds.
+     */
+    val latencies = new ConcurrentLinkedQueue[java.lang.Long]
+
+    /**
+     * The field errors is the number of failed requests.
+     */
+    val errors = new AtomicInteger
+
+    /**
+     * The field next is the index of the next URL.
+     */
+    private[this] val next = new AtomicLong
+
+    /**
+     * The method send sends the next request and records its outcome.
+     *
+     * @param dueNanos The time the request was due
+     * @return The Future of the completion
+     */
+    def send(dueNanos: Long): Future[Unit] = {
+      val url = urls((next.getAndIncrement % urls.size).toInt)
+      ws.url(url).get().transform {
+        case Success(response) =>
+          if (response.status >= 500) errors.incrementAndGet
+          latencies.add(System.nanoTime - dueNanos)
+          Success(())
+        case Failure(_) =>
+          errors.incrementAndGet
+          Success(())
+      }
+    }
+
+    /**
+     * The method report creates the report of the run.
+     *
+     * @param name The name of the run
+     * @param nanos The measured time in nanoseconds
+     * @return The LoadReport
+     */
+    def report(name: String, nanos: Long): LoadReport =
+      LoadReport(name, nanos / 1e9, latencies.asScala.map(_.longValue).toArray, errors.get)
+
+  }
+
+  /**
+   * The method closedLoop runs a fixed number of clients for a while.
+   *
+   * @param name The name of the run
+   * @param concurrency The number of clients
+   * @param duration The time to run
+   * @return The LoadReport
+   */
+  def closedLoop(name: String, concurrency: Int, duration: FiniteDuration): LoadReport = {
+    val recorder = new Recorder
+    val start = System.nanoTime
+    val end = start + duration.toNanos
+    def client(): Future[Unit] =
+      if (System.nanoTime >= end) Future.successful(())
+      else recorder.send(System.nanoTime).flatMap(_ => client())
+    Await.ready(Future.sequence((1 to concurrency).map(_ => client())), Duration.Inf)
+    recorder.report(name, System.nanoTime - start)
+  }
+
+  /**
+   * The method openLoop sends requests at a fixed rate for a while, and waits for the outstanding ones at the end.
+   *
+   * @param name The name of the run
+   * @param ratePerSecond The number of requests per second
+   * @param duration The time to run
+   * @return The LoadReport
+   */
+  def openLoop(name: String, ratePerSecond: Int, duration: FiniteDuration): LoadReport = {
+    val recorder = new Recorder
+    val intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, ratePerSecond)
+    val total = duration.toNanos / intervalNanos
+    val pending = new ConcurrentLinkedQueue[Future[Unit]]
+    val sent = new AtomicLong
+    val done = Promise[Unit]()
+    val scheduler = Executors.newSingleThreadScheduledExecutor
+    val start = System.nanoTime
+    scheduler.scheduleAtFixedRate(new Runnable {
+      override def run(): Unit = {
+        // Catch up with the requests which are due, in case the scheduler fell behind
+        val due = Math.min(total, (System.nanoTime - start) / intervalNanos + 1)
+        while (sent.get < due) pending.add(recorder.send(start + sent.getAndIncrement * intervalNanos))
+        if (sent.get >= total) done.trySuccess(())
+      }
+    }, 0, intervalNanos, TimeUnit.NANOSECONDS)
+    try {
+      Await.ready(done.future, Duration.Inf)
+      Await.ready(Future.sequence(pending.asScala.toSeq), Duration.Inf)
+    } finally {
+      scheduler.shutdownNow()
+    }
+    recorder.report(name, System.nanoTime - start)
+  }
+
+}
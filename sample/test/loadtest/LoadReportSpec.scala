@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package loadtest
+
+import org.specs2.mutable.Specification
+
+
+/**
+ * The class LoadReportSpec is a specification class for [[LoadReport]] and [[LatencyDistribution]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class LoadReportSpec extends Specification {
+
+  "The LoadReport" should {
+    "be able to get the percentiles" in {
+      val report = LoadReport("test", 2, (1 to 100).map(_ * 1000000L).reverse.toArray, 3)
+      // Assert the throughput and the nearest-rank percentiles
+      report.throughput must equalTo(50)
+      report.percentileMillis(50) must equalTo(50)
+      report.percentileMillis(99) must equalTo(99)
+      report.percentileMillis(100) must equalTo(100)
+      LoadReport("empty", 1, Array.empty, 0).percentileMillis(99) must equalTo(0)
+    }
+  }
+
+  "The LatencyDistribution" should {
+    "be able to parse its specs" in {
+      LatencyDistribution.parse("fixed:20") must equalTo(LatencyDistribution.Fixed(20))
+      LatencyDistribution.parse("lognormal:20:0.5") must equalTo(LatencyDistribution.LogNormal(20, 0.5))
+      LatencyDistribution.parse("unknown:1") must throwA[IllegalArgumentException]
+    }
+  }
+
+}
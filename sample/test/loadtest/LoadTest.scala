@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package loadtest
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import play.api.Mode
+import play.api.inject.guice.GuiceApplicationBuilder
+import play.api.libs.ws.ahc.AhcWSClient
+import play.api.test.{Helpers, TestServer}
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration._
+
+
+/**
+ * The object LoadTest runs the Java and Scala sample routes against a [[StubDownstream]] with the ParSeq Trace off,
+ * on for every request, and tail-sampled, and prints the throughput and the latency percentiles of each. Run it with
+ * `sbt "play-parseq-sample/test:runMain loadtest.LoadTest [key=value ...]"`, where the keys are
+ *  - `loop`: `closed` (default) or `open`
+ *  - `concurrency`: the number of clients of the closed loop, 32 by default
+ *  - `rate`: the requests per second of the open loop, 500 by default
+ *  - `seconds`: the measured time per run, 30 by default
+ *  - `warmUpSeconds`: the unmeasured time before every run, 10 by default
+ *  - `latency`: the latency distribution of the stub, `lognormal:20:0.5` by default, see [[LatencyDistribution]]
+ *  - `errorRate`: the ratio of failed stub responses, 0.01 by default
+ *  - `bodyBytes`: the size of a stub body in bytes, 1024 by default
+ *  - `modes`: the comma-separated tracing modes to run, `off,on,sampled` by default
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object LoadTest {
+
+  /**
+   * The field Paths are the sample routes to drive, for both Java and Scala.
+   */
+  val Paths: IndexedSeq[String] = for {
+    language <- IndexedSeq("j", "s")
+    path <- IndexedSeq("single/demo", "multiple/demo", "core/demo?text=parseq&start=1")
+  } yield s"/$language/$path"
+
+  /**
+   * The class TracingMode is one way of running the ParSeq Trace.
+   *
+   * @param name The name of the mode
+   * @param mode The mode of the application
+   * @param query The query string added to every request
+   * @param settings The additional settings of the application
+   */
+  case class TracingMode(name: String, mode: Mode, query: String, settings: Map[String, Any])
+
+  /**
+   * The field TracingModes are the supported tracing modes. Rendering the ParSeq Trace on request needs the dev mode.
+   */
+  val TracingModes: Seq[TracingMode] = Seq(
+    TracingMode("off", Mode.Test, "", Map("parseq.trace.tail.enabled" -> false)),
+    TracingMode("on", Mode.Dev, "parseq-trace=true", Map("parseq.trace.tail.enabled" -> false)),
+    TracingMode("sampled", Mode.Test, "", Map("parseq.trace.tail.enabled" -> true,
+      "parseq.trace.tail.latencyThresholdMilliseconds" -> 100)))
+
+  /**
+   * The method main runs the load test.
+   *
+   * @param args The settings as key=value
+   */
+  def main(args: Array[String]): Unit = {
+    val settings: Map[String, String] = args.map(_.split("=", 2)).collect { case Array(key, value) => key -> value }.toMap
+    val closed = settings.getOrElse("loop", "closed") == "closed"
+    val concurrency = settings.get("concurrency").map(_.toInt).getOrElse(32)
+    val rate = settings.get("rate").map(_.toInt).getOrElse(500)
+    val seconds = settings.get("seconds").map(_.toInt).getOrElse(30).seconds
+    val warmUpSeconds = settings.get("warmUpSeconds").map(_.toInt).getOrElse(10).seconds
+    val modes = settings.getOrElse("modes", "off,on,sampled").split(",").toSet
+    val stub = new StubDownstream(LatencyDistribution.parse(settings.getOrElse("latency", "lognormal:20:0.5")),
+      settings.get("errorRate").map(_.toDouble).getOrElse(0.01), settings.get("bodyBytes").map(_.toInt).getOrElse(1024))
+    implicit val actorSystem: ActorSystem = ActorSystem("load-test")
+    implicit val executionContext: ExecutionContext = actorSystem.dispatcher
+    val ws = AhcWSClient()(ActorMaterializer())
+    try {
+      println(s"Stub downstream at ${stub.baseUrl}, ${if (closed) s"closed loop with $concurrency clients" else s"open loop at $rate rps"}")
+      TracingModes.filter(mode => modes.contains(mode.name)).foreach(mode => {
+        val application = new GuiceApplicationBuilder().in(mode.mode)
+          .configure(mode.settings + ("sample.downstreams.baseUrl" -> stub.baseUrl)).build
+        val port = Helpers.testServerPort
+        val server = TestServer(port, application)
+        server.start()
+        try {
+          val generator = new LoadGenerator(ws, Paths.map(path =>
+            s"http://127.0.0.1:$port$path${if (mode.query.isEmpty) "" else (if (path.contains("?")) "&" else "?") + mode.query}"))
+          // Warm up, then measure
+          if (closed) generator.closedLoop("warm-up", concurrency, warmUpSeconds) else generator.openLoop("warm-up", rate, warmUpSeconds)
+          println(if (closed) generator.closedLoop(s"tracing ${mode.name}", concurrency, seconds)
+          else generator.openLoop(s"tracing ${mode.name}", rate, seconds))
+        } finally {
+          server.stop()
+        }
+      })
+    } finally {
+      ws.close()
+      stub.stop()
+      actorSystem.terminate()
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package loadtest
+
+import akka.pattern.after
+import java.util.concurrent.ThreadLocalRandom
+import play.api.Mode
+import play.api.mvc.Results
+import play.core.server.{AkkaHttpServer, Server, ServerConfig}
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+
+/**
+ * The trait LatencyDistribution is the distribution of the latency of a [[StubDownstream]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+sealed trait LatencyDistribution {
+
+  /**
+   * The method sampleMillis draws one latency.
+   *
+   * @param random The random generator
+   * @return The latency in milliseconds
+   */
+  def sampleMillis(random: ThreadLocalRandom): Long
+
+}
+
+/**
+ * The object LatencyDistribution defines the supported distributions, and parses them from specs like `fixed:20`,
+ * `uniform:10:50`, `exponential:20` or `lognormal:20:0.5` (the median and the sigma of the log).
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object LatencyDistribution {
+
+  /**
+   * The class Fixed is a constant latency.
+   *
+   * @param millis The latency in milliseconds
+   */
+  case class Fixed(millis: Long) extends LatencyDistribution {
+    override def sampleMillis(random: ThreadLocalRandom): Long = millis
+  }
+
+  /**
+   * The class Uniform is a latency evenly spread between two bounds.
+   *
+   * @param minMillis The lower bound in milliseconds
+   * @param maxMillis The upper bound in milliseconds
+   */
+  case class Uniform(minMillis: Long, maxMillis: Long) extends LatencyDistribution {
+    override def sampleMillis(random: ThreadLocalRandom): Long = random.nextLong(minMillis, maxMillis + 1)
+  }
+
+  /**
+   * The class Exponential is a latency with an exponential distribution.
+   *
+   * @param meanMillis The mean in milliseconds
+   */
+  case class Exponential(meanMillis: Double) extends LatencyDistribution {
+    override def sampleMillis(random: ThreadLocalRandom): Long = Math.round(-meanMillis * Math.log(1 - random.nextDouble))
+  }
+
+  /**
+   * The class LogNormal is a latency with a log-normal distribution, which has the long tail of most real services.
+   *
+   * @param medianMillis The median in milliseconds
+   * @param sigma The standard deviation of the log of the latency
+   */
+  case class LogNormal(medianMillis: Double, sigma: Double) extends LatencyDistribution {
+    override def sampleMillis(random: ThreadLocalRandom): Long = Math.round(medianMillis * Math.exp(sigma * random.nextGaussian))
+  }
+
+  /**
+   * The method parse parses a distribution from its spec.
+   *
+   * @param spec The spec
+   * @return The distribution
+   * @throws IllegalArgumentException If the spec is not supported
+   */
+  def parse(spec: String): LatencyDistribution = spec.split(":").toList match {
+    case "fixed" :: millis :: Nil => Fixed(millis.toLong)
+    case "uniform" :: min :: max :: Nil => Uniform(min.toLong, max.toLong)
+    case "exponential" :: mean :: Nil => Exponential(mean.toDouble)
+    case "lognormal" :: median :: sigma :: Nil => LogNormal(median.toDouble, sigma.toDouble)
+    case _ => throw new IllegalArgumentException(s"Unsupported latency distribution $spec.")
+  }
+
+}
+
+/**
+ * The class StubDownstream is an in-process HTTP server standing in for the sites called by the samples. Every path
+ * responds after a latency drawn from the distribution, and fails with a 500 at the given error rate.
+ *
+ * @param latency The latency distribution
+ * @param errorRate The ratio of failed responses, between 0 and 1
+ * @param bodyBytes The size of a successful body in bytes
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class StubDownstream(latency: LatencyDistribution, errorRate: Double, bodyBytes: Int) {
+
+  /**
+   * The field body is the body of a successful response.
+   */
+  private[this] val body: String = "x" * bodyBytes
+
+  /**
+   * The field server is the HTTP server on a free port.
+   */
+  private[this] val server: Server = AkkaHttpServer.fromRouterWithComponents(ServerConfig(port = Some(0), mode = Mode.Test))(components => {
+    case _ => components.defaultActionBuilder.async {
+      val random = ThreadLocalRandom.current
+      val failed = random.nextDouble < errorRate
+      after(latency.sampleMillis(random).millis, components.actorSystem.scheduler)(
+        Future.successful(if (failed) Results.InternalServerError("Stub failure") else Results.Ok(body)))(components.executionContext)
+    }
+  })
+
+  /**
+   * The method baseUrl gets the base URL of the stub, to be set as `sample.downstreams.baseUrl`.
+   *
+   * @return The base URL
+   */
+  def baseUrl: String = s"http://127.0.0.1:${server.httpPort.get}"
+
+  /**
+   * The method stop stops the stub.
+   */
+  def stop(): Unit = server.stop()
+
+}
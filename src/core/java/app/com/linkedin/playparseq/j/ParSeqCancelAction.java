@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.j;
+
+import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import com.linkedin.playparseq.utils.ParSeqTaskCanceller;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import play.mvc.Action.Simple;
+import play.mvc.Http;
+import play.mvc.Result;
+
+
+/**
+ * The class ParSeqCancelAction is an Action composition which sets up a normal HTTP Context with
+ * {@link ParSeqTaskStore}, and cancels the ParSeq Tasks of the request which are still running once the Result is
+ * completely sent, or the request fails. Tasks which have to keep running can be marked with
+ * {@link ParSeqTaskCanceller#fireAndForget}.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+public class ParSeqCancelAction extends Simple {
+
+  /**
+   * The field _parSeqTaskStore is a {@link ParSeqTaskStore} for getting ParSeq Tasks.
+   */
+  private final ParSeqTaskStore _parSeqTaskStore;
+
+  /**
+   * The field _parSeqTaskCanceller is a {@link ParSeqTaskCanceller} for cancelling ParSeq Tasks.
+   */
+  private final ParSeqTaskCanceller _parSeqTaskCanceller;
+
+  /**
+   * The constructor injects the {@link ParSeqTaskStore} and the {@link ParSeqTaskCanceller}.
+   *
+   * @param parSeqTaskStore The injected {@link ParSeqTaskStore} component
+   * @param parSeqTaskCanceller The injected {@link ParSeqTaskCanceller} component
+   */
+  @Inject
+  public ParSeqCancelAction(final ParSeqTaskStore parSeqTaskStore, final ParSeqTaskCanceller parSeqTaskCanceller) {
+    super();
+    _parSeqTaskStore = parSeqTaskStore;
+    _parSeqTaskCanceller = parSeqTaskCanceller;
+  }
+
+  /**
+   * The method call sets up a normal HTTP Context with {@link ParSeqTaskStore} and cancels the remaining ParSeq Tasks
+   * when the request is done.
+   *
+   * @param context The HTTP Context
+   * @return The CompletionStage of Result
+   */
+  @Override
+  public CompletionStage<Result> call(final Http.Context context) {
+    Http.Context newContext = _parSeqTaskStore.initialize(context);
+    return delegate.call(newContext).whenComplete((result, throwable) -> {
+      if (throwable != null) {
+        _parSeqTaskCanceller.cancel(_parSeqTaskStore.get(newContext));
+      }
+    }).thenApply(result -> _parSeqTaskCanceller.cancelOnComplete(result, () -> _parSeqTaskStore.get(newContext)));
+  }
+
+}
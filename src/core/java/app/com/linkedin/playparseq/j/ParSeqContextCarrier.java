@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.j;
+
+import com.linkedin.parseq.function.Consumer1;
+import com.linkedin.parseq.function.Function1;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import org.slf4j.MDC;
+import play.mvc.Http;
+
+
+/**
+ * The class ParSeqContextCarrier carries the state of a request across the ParSeq boundary, which is the HTTP Context,
+ * the MDC entries and the context ClassLoader of the request thread. It is captured once per request, and
+ * re-established only around the callbacks which are wrapped with it, e.g. a {@code map} rendering a template which
+ * needs the HTTP Context, rather than around every Task of a plan.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+public final class ParSeqContextCarrier {
+
+  /**
+   * The field ARGS_KEY is the key of the carrier in the arguments of the HTTP Context.
+   */
+  public final static String ARGS_KEY = "ParSeqContextCarrier";
+
+  /**
+   * The field _context is the HTTP Context of the request.
+   */
+  private final Http.Context _context;
+
+  /**
+   * The field _mdc is the copy of the MDC entries of the request thread, or null if there are none.
+   */
+  private final Map<String, String> _mdc;
+
+  /**
+   * The field _classLoader is the context ClassLoader of the request thread.
+   */
+  private final ClassLoader _classLoader;
+
+  /**
+   * The constructor captures the state of the current thread for the HTTP Context.
+   *
+   * @param context The HTTP Context
+   */
+  private ParSeqContextCarrier(final Http.Context context) {
+    _context = context;
+    _mdc = MDC.getCopyOfContextMap();
+    _classLoader = Thread.currentThread().getContextClassLoader();
+  }
+
+  /**
+   * The method of gets the carrier of a request, capturing it from the current thread on first use.
+   *
+   * @param context The HTTP Context
+   * @return The carrier
+   */
+  public static ParSeqContextCarrier of(final Http.Context context) {
+    if (context.args == null) {
+      return new ParSeqContextCarrier(context);
+    }
+    Object carrier = context.args.get(ARGS_KEY);
+    if (carrier instanceof ParSeqContextCarrier) {
+      return (ParSeqContextCarrier) carrier;
+    }
+    ParSeqContextCarrier captured = new ParSeqContextCarrier(context);
+    context.args.put(ARGS_KEY, captured);
+    return captured;
+  }
+
+  /**
+   * The method capture captures the state of a request from the current thread into the HTTP Context, unless it has
+   * been captured already, so that later calls of the method of and the method current share the same carrier.
+   *
+   * @param context The HTTP Context
+   */
+  public static void capture(final Http.Context context) {
+    of(context);
+  }
+
+  /**
+   * The method current gets the carrier of the request of the current thread.
+   *
+   * @return The carrier
+   */
+  public static ParSeqContextCarrier current() {
+    return of(Http.Context.current());
+  }
+
+  /**
+   * The method call calls a Callable with the state of the request established, and restores the state of the current
+   * thread afterwards.
+   *
+   * @param callable The Callable
+   * @param <T> The type parameter of the Callable
+   * @return The value of the Callable
+   * @throws Exception The exception of the Callable
+   */
+  public <T> T call(final Callable<T> callable) throws Exception {
+    Thread thread = Thread.currentThread();
+    Http.Context previousContext = Http.Context.current.get();
+    Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+    ClassLoader previousClassLoader = thread.getContextClassLoader();
+    Http.Context.current.set(_context);
+    setMdc(_mdc);
+    thread.setContextClassLoader(_classLoader);
+    try {
+      return callable.call();
+    } finally {
+      thread.setContextClassLoader(previousClassLoader);
+      setMdc(previousMdc);
+      Http.Context.current.set(previousContext);
+    }
+  }
+
+  /**
+   * The method wrap wraps a Callable to be called with the state of the request.
+   *
+   * @param callable The Callable
+   * @param <T> The type parameter of the Callable
+   * @return The wrapped Callable
+   */
+  public <T> Callable<T> wrap(final Callable<T> callable) {
+    return () -> call(callable);
+  }
+
+  /**
+   * The method wrap wraps a ParSeq Function1, e.g. of {@code map} or {@code flatMap}, to be applied with the state of
+   * the request.
+   *
+   * @param f The Function1
+   * @param <A> The type parameter of the argument
+   * @param <R> The type parameter of the result
+   * @return The wrapped Function1
+   */
+  public <A, R> Function1<A, R> wrap(final Function1<A, R> f) {
+    return a -> call(() -> f.apply(a));
+  }
+
+  /**
+   * The method wrapConsumer wraps a ParSeq Consumer1, e.g. of {@code andThen}, to be accepted with the state of the
+   * request. It is not an overload of wrap, since a lambda like {@code data -> ok(data)} fits both a Function1 and a
+   * Consumer1, which javac could not choose between.
+   *
+   * @param consumer The Consumer1
+   * @param <A> The type parameter of the argument
+   * @return The wrapped Consumer1
+   */
+  public <A> Consumer1<A> wrapConsumer(final Consumer1<A> consumer) {
+    return a -> call(() -> {
+      consumer.accept(a);
+      return null;
+    });
+  }
+
+  /**
+   * The method setMdc replaces the MDC entries of the current thread.
+   *
+   * @param mdc The MDC entries, or null for none
+   */
+  private static void setMdc(final Map<String, String> mdc) {
+    if (mdc == null) {
+      MDC.clear();
+    } else {
+      MDC.setContextMap(mdc);
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.j;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import com.linkedin.parseq.Task;
+import java.util.List;
+import java.util.function.Function;
+import play.mvc.Http;
+
+
+/**
+ * The interface ParSeqStreams defines the interop between ParSeq Tasks and Akka Streams, so that large collections can
+ * be processed incrementally with backpressure instead of being fully buffered in one ParSeq Task. Every Task run by a
+ * stage is put into store, so it shows up in the ParSeq Trace of the request.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+public interface ParSeqStreams {
+
+  /**
+   * The method mapTask creates a Flow which runs a ParSeq Task for every element, with at most {@code parallelism}
+   * Tasks running at a time, and emits the results in the order of the elements.
+   *
+   * @param context The HTTP Context
+   * @param parallelism The number of Tasks running at a time
+   * @param f The Function which creates the ParSeq Task of an element
+   * @param <In> The type parameter of the elements
+   * @param <Out> The type parameter of the ParSeq Tasks and the results
+   * @return The Flow
+   */
+  <In, Out> Flow<In, Out, NotUsed> mapTask(final Http.Context context, final int parallelism,
+      final Function<In, Task<Out>> f);
+
+  /**
+   * The method mapTaskUnordered creates a Flow which runs a ParSeq Task for every element, with at most
+   * {@code parallelism} Tasks running at a time, and emits the results as soon as they are done.
+   *
+   * @param context The HTTP Context
+   * @param parallelism The number of Tasks running at a time
+   * @param f The Function which creates the ParSeq Task of an element
+   * @param <In> The type parameter of the elements
+   * @param <Out> The type parameter of the ParSeq Tasks and the results
+   * @return The Flow
+   */
+  <In, Out> Flow<In, Out, NotUsed> mapTaskUnordered(final Http.Context context, final int parallelism,
+      final Function<In, Task<Out>> f);
+
+  /**
+   * The method toSource converts a ParSeq {@code Task<List<T>>} to a {@code Source<T>}, which runs the Task when
+   * materialized.
+   *
+   * @param context The HTTP Context
+   * @param task The ParSeq Task
+   * @param <T> The type parameter of the elements
+   * @return The Source
+   */
+  <T> Source<T, NotUsed> toSource(final Http.Context context, final Task<? extends List<T>> task);
+
+  /**
+   * The method toTask converts a {@code Source<T>} to a ParSeq {@code Task<List<T>>}, which runs the Source when the
+   * Task runs.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param source The Source
+   * @param <T> The type parameter of the elements
+   * @return The ParSeq Task
+   */
+  <T> Task<List<T>> toTask(final String name, final Source<T, ?> source);
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.j;
+
+import akka.NotUsed;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.linkedin.parseq.Task;
+import java.util.List;
+import java.util.function.Function;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.mvc.Http;
+
+
+/**
+ * The class ParSeqStreamsImpl is an implementation of the interface {@link ParSeqStreams} with the help from the
+ * interface {@link PlayParSeq}.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+public class ParSeqStreamsImpl implements ParSeqStreams {
+
+  /**
+   * The field _playParSeq is a {@link PlayParSeq} for converting and running ParSeq Tasks.
+   */
+  private final PlayParSeq _playParSeq;
+
+  /**
+   * The field _materializer is an Akka Materializer for running the Sources of toTask.
+   */
+  private final Materializer _materializer;
+
+  /**
+   * The constructor injects the {@link PlayParSeq} and the Materializer.
+   *
+   * @param playParSeq The injected {@link PlayParSeq} component
+   * @param materializer The injected Materializer component
+   */
+  @Inject
+  public ParSeqStreamsImpl(final PlayParSeq playParSeq, final Materializer materializer) {
+    _playParSeq = playParSeq;
+    _materializer = materializer;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <In, Out> Flow<In, Out, NotUsed> mapTask(final Http.Context context, final int parallelism,
+      final Function<In, Task<Out>> f) {
+    return Flow.<In>create().mapAsync(parallelism, in -> _playParSeq.runTask(context, f.apply(in)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <In, Out> Flow<In, Out, NotUsed> mapTaskUnordered(final Http.Context context, final int parallelism,
+      final Function<In, Task<Out>> f) {
+    return Flow.<In>create().mapAsyncUnordered(parallelism, in -> _playParSeq.runTask(context, f.apply(in)));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <T> Source<T, NotUsed> toSource(final Http.Context context, final Task<? extends List<T>> task) {
+    // Run the Task on demand of the first element rather than when the Source is created
+    return Source.single(task).mapAsync(1, t -> _playParSeq.runTask(context, t)).mapConcat(list -> list);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <T> Task<List<T>> toTask(final String name, final Source<T, ?> source) {
+    return _playParSeq.toTask(name, () -> source.runWith(Sink.seq(), _materializer));
+  }
+
+}
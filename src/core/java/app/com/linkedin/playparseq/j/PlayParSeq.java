@@ -12,9 +12,14 @@
 package com.linkedin.playparseq.j;
 
 import com.linkedin.parseq.Task;
+import com.linkedin.parseq.function.Function1;
+import com.linkedin.parseq.function.Try;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionStage;
 import play.mvc.Http;
+import play.mvc.Result;
 
 
 /**
@@ -48,6 +53,72 @@ public interface PlayParSeq {
    */
   <T> Task<T> toTask(final Callable<CompletionStage<T>> f);
 
+  /**
+   * The method traverse converts items to a ParSeq {@code Task<List<B>>}, which runs a ParSeq Task for every item with
+   * at most {@code parallelism} Tasks in flight, and collects their results in the order of the items. The items are
+   * split into chunks of {@code chunkSize} items, which are grouped in a trace. No more chunks are started once a Task
+   * fails, and the ParSeq Task fails with the first failure.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param chunkSize The number of items per chunk
+   * @param f The Function1 which creates the ParSeq Task of an item
+   * @param <A> The type parameter of the items
+   * @param <B> The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  <A, B> Task<List<B>> traverse(final String name, final List<A> items, final int parallelism, final int chunkSize,
+      final Function1<A, Task<B>> f);
+
+  /**
+   * The method traverse converts items to a ParSeq {@code Task<List<B>>} like the method above, with one item per
+   * chunk.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param f The Function1 which creates the ParSeq Task of an item
+   * @param <A> The type parameter of the items
+   * @param <B> The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  <A, B> Task<List<B>> traverse(final String name, final List<A> items, final int parallelism,
+      final Function1<A, Task<B>> f);
+
+  /**
+   * The method traverseTry converts items to a ParSeq {@code Task<List<Try<B>>>}, which runs a ParSeq Task for every
+   * item with at most {@code parallelism} Tasks in flight, and collects their outcomes in the order of the items,
+   * whether they succeed or fail. The items are split into chunks of {@code chunkSize} items, which are grouped in a
+   * trace.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param chunkSize The number of items per chunk
+   * @param f The Function1 which creates the ParSeq Task of an item
+   * @param <A> The type parameter of the items
+   * @param <B> The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  <A, B> Task<List<Try<B>>> traverseTry(final String name, final List<A> items, final int parallelism,
+      final int chunkSize, final Function1<A, Task<B>> f);
+
+  /**
+   * The method traverseTry converts items to a ParSeq {@code Task<List<Try<B>>>} like the method above, with one item
+   * per chunk.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param f The Function1 which creates the ParSeq Task of an item
+   * @param <A> The type parameter of the items
+   * @param <B> The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  <A, B> Task<List<Try<B>>> traverseTry(final String name, final List<A> items, final int parallelism,
+      final Function1<A, Task<B>> f);
+
   /**
    * The method runTask executes a ParSeq {@code Task<T>} then generates a {@code CompletionStage<T>}, and puts into the
    * store.
@@ -59,4 +130,48 @@ public interface PlayParSeq {
    */
   <T> CompletionStage<T> runTask(final Http.Context context, final Task<T> task);
 
+  /**
+   * The method runTask executes a ParSeq {@code Task<T>} like the method above, with the HTTP Context of the current
+   * thread. The state of the request is captured once into a {@link ParSeqContextCarrier}, and callbacks which need it,
+   * e.g. for rendering templates, can be wrapped with {@code ParSeqContextCarrier.current().wrap(...)} while the plan
+   * is built.
+   *
+   * @param task The ParSeq Task
+   * @param <T> The type parameter of the ParSeq Task and the CompletionStage
+   * @return The CompletionStage
+   */
+  default <T> CompletionStage<T> runTask(final Task<T> task) {
+    return runTask(Http.Context.current(), task);
+  }
+
+  /**
+   * The method runTask executes a ParSeq {@code Task<T>} like the method above with a request rather than an HTTP
+   * Context, e.g. when the store is set up by a filter, so it needs neither the ThreadLocal HTTP Context nor a copy of
+   * the request. By default it falls back to the HTTP Context of the current thread, so implementations which can run
+   * a Task without the HTTP Context should override it.
+   *
+   * @param request The request
+   * @param task The ParSeq Task
+   * @param <T> The type parameter of the ParSeq Task and the CompletionStage
+   * @return The CompletionStage
+   */
+  default <T> CompletionStage<T> runTask(final Http.RequestHeader request, final Task<T> task) {
+    return runTask(Http.Context.current(), task);
+  }
+
+  /**
+   * The method runTaskStreaming executes the ParSeq Tasks of named fragments as one ParSeq Task, and puts it into the
+   * store. It generates a chunked {@code Result}, which flushes the page shell right away and then writes every
+   * fragment as soon as its Task resolves, in the order of completion. The shell contains the placeholders of the
+   * fragments from {@code ParSeqFragments.placeholder}.
+   *
+   * @param context The HTTP Context
+   * @param shell The markup of the page shell with the placeholders
+   * @param fragments The ParSeq Tasks of the fragments by name
+   * @param tail The markup after all fragments
+   * @return The chunked Result
+   */
+  Result runTaskStreaming(final Http.Context context, final String shell, final Map<String, Task<String>> fragments,
+      final String tail);
+
 }
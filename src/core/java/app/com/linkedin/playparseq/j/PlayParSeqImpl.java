@@ -11,18 +11,39 @@
  */
 package com.linkedin.playparseq.j;
 
+import akka.NotUsed;
+import akka.stream.scaladsl.Source;
+import akka.util.ByteString;
 import com.linkedin.parseq.Engine;
 import com.linkedin.parseq.Task;
+import com.linkedin.parseq.function.Function1;
+import com.linkedin.parseq.function.Try;
 import com.linkedin.parseq.promise.Promises;
 import com.linkedin.parseq.promise.SettablePromise;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import com.linkedin.playparseq.utils.ConcurrencyLimitExceededException;
+import com.linkedin.playparseq.utils.ConcurrencyLimiter;
+import com.linkedin.playparseq.utils.ParSeqFragments;
+import com.linkedin.playparseq.utils.ParSeqPlanBudget;
+import com.linkedin.playparseq.utils.ParSeqTraceMode;
 import com.linkedin.playparseq.utils.PlayParSeqHelper;
+import com.linkedin.playparseq.utils.ShardedEngine;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import play.api.Configuration;
+import play.api.inject.DefaultApplicationLifecycle;
 import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import scala.Tuple2;
+import scala.collection.JavaConverters;
+import scala.concurrent.ExecutionContext$;
 
 
 /**
@@ -40,9 +61,9 @@ public class PlayParSeqImpl extends PlayParSeqHelper implements PlayParSeq {
   public final static String DEFAULT_TASK_NAME = "fromPlayCompletionStage";
 
   /**
-   * The field _engine is a ParSeq Engine for running ParSeq Task.
+   * The field _shardedEngine is a {@link ShardedEngine} for selecting the ParSeq Engine to run ParSeq Task.
    */
-  private final Engine _engine;
+  private final ShardedEngine _shardedEngine;
 
   /**
    * The field _parSeqTaskStore is a {@link ParSeqTaskStore} for storing ParSeq Tasks.
@@ -50,22 +71,52 @@ public class PlayParSeqImpl extends PlayParSeqHelper implements PlayParSeq {
   private final ParSeqTaskStore _parSeqTaskStore;
 
   /**
-   * The field _httpExecutionContext is a {@link HttpExecutionContext} for keeping ThreadLocal state for toTask.
+   * The field _httpExecutionContext is a {@link HttpExecutionContext} for keeping ThreadLocal state for runTaskStreaming.
    */
   private final HttpExecutionContext _httpExecutionContext;
 
   /**
-   * The constructor injects the ParSeq Engine and the {@link ParSeqTaskStore}.
+   * The field _concurrencyLimiter is a {@link ConcurrencyLimiter} for limiting in-flight Tasks per name in toTask.
+   */
+  private final ConcurrencyLimiter _concurrencyLimiter;
+
+  /**
+   * The field _parSeqPlanBudget is a {@link ParSeqPlanBudget} for limiting what a single plan may use.
+   */
+  private final ParSeqPlanBudget _parSeqPlanBudget;
+
+  /**
+   * The constructor injects the {@link ShardedEngine}, the {@link ParSeqTaskStore}, the {@link ConcurrencyLimiter} and
+   * the {@link ParSeqPlanBudget}.
    *
-   * @param engine The injected ParSeq Engine component
+   * @param shardedEngine The injected {@link ShardedEngine} component
    * @param parSeqTaskStore The injected {@link ParSeqTaskStore} component
    * @param httpExecutionContext The injected {@link HttpExecutionContext} component
+   * @param concurrencyLimiter The injected {@link ConcurrencyLimiter} component
+   * @param parSeqPlanBudget The injected {@link ParSeqPlanBudget} component
    */
   @Inject
-  public PlayParSeqImpl(final Engine engine, final ParSeqTaskStore parSeqTaskStore, HttpExecutionContext httpExecutionContext) {
-    _engine = engine;
+  public PlayParSeqImpl(final ShardedEngine shardedEngine, final ParSeqTaskStore parSeqTaskStore,
+      final HttpExecutionContext httpExecutionContext, final ConcurrencyLimiter concurrencyLimiter,
+      final ParSeqPlanBudget parSeqPlanBudget) {
+    _shardedEngine = shardedEngine;
     _parSeqTaskStore = parSeqTaskStore;
     _httpExecutionContext = httpExecutionContext;
+    _concurrencyLimiter = concurrencyLimiter;
+    _parSeqPlanBudget = parSeqPlanBudget;
+  }
+
+  /**
+   * The constructor uses one ParSeq Engine for running all ParSeq Tasks.
+   *
+   * @param engine The ParSeq Engine
+   * @param parSeqTaskStore The {@link ParSeqTaskStore}
+   * @param httpExecutionContext The {@link HttpExecutionContext}
+   */
+  public PlayParSeqImpl(final Engine engine, final ParSeqTaskStore parSeqTaskStore, HttpExecutionContext httpExecutionContext) {
+    this(new ShardedEngine(engine), parSeqTaskStore, httpExecutionContext,
+        new ConcurrencyLimiter(Configuration.empty()),
+        new ParSeqPlanBudget(Configuration.empty(), new DefaultApplicationLifecycle()));
   }
 
   /**
@@ -74,15 +125,38 @@ public class PlayParSeqImpl extends PlayParSeqHelper implements PlayParSeq {
   @Override
   public <T> Task<T> toTask(final String name, final Callable<CompletionStage<T>> f) {
     // Bind a Task to the CompletionStage for both success and failure
-    return Task.async(name, () -> {
+    return Task.async(name, context -> {
+      // Fail the plan if it has made too many calls or has too many Tasks in flight
+      ParSeqPlanBudget.InFlight inFlight = _parSeqPlanBudget.acquireInFlight(context);
+      // Fail fast if too many Tasks with the same name are in flight
+      ConcurrencyLimiter.Permit permit;
+      try {
+        permit = _concurrencyLimiter.acquire(name, context.getShallowTraceBuilder());
+      } catch (ConcurrencyLimitExceededException e) {
+        inFlight.release();
+        throw e;
+      }
       SettablePromise<T> promise = Promises.settable();
-      f.call().whenCompleteAsync((result, exception) -> {
+      // Complete the promise on the completing thread, the ParSeq continuations run on the Engine anyway, so hopping to
+      // the HTTP Context here would only cost a thread switch per Task, see ParSeqContextCarrier for callbacks instead
+      CompletionStage<T> completionStage;
+      try {
+        completionStage = f.call();
+      } catch (Throwable e) {
+        // Give the slot and the permit back if the call fails before it starts, otherwise they would never be released
+        inFlight.release();
+        permit.release(false);
+        throw e;
+      }
+      completionStage.whenComplete((result, exception) -> {
+        inFlight.release();
+        permit.release(exception == null);
         if (exception != null) {
           promise.fail(exception);
         } else {
           promise.done(result);
         }
-      }, _httpExecutionContext.current());
+      });
       return promise;
     });
   }
@@ -95,19 +169,114 @@ public class PlayParSeqImpl extends PlayParSeqHelper implements PlayParSeq {
     return toTask(DEFAULT_TASK_NAME, f);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <A, B> Task<List<B>> traverse(final String name, final List<A> items, final int parallelism,
+      final int chunkSize, final Function1<A, Task<B>> f) {
+    return traverseToTask(name, items, parallelism, chunkSize, true, f,
+        outcomes -> outcomes.stream().map(Try::get).collect(Collectors.toList()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <A, B> Task<List<B>> traverse(final String name, final List<A> items, final int parallelism,
+      final Function1<A, Task<B>> f) {
+    return traverse(name, items, parallelism, 1, f);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <A, B> Task<List<Try<B>>> traverseTry(final String name, final List<A> items, final int parallelism,
+      final int chunkSize, final Function1<A, Task<B>> f) {
+    return traverseToTask(name, items, parallelism, chunkSize, false, f, outcomes -> outcomes);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <A, B> Task<List<Try<B>>> traverseTry(final String name, final List<A> items, final int parallelism,
+      final Function1<A, Task<B>> f) {
+    return traverseTry(name, items, parallelism, 1, f);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public <T> CompletionStage<T> runTask(final Http.Context context, final Task<T> task) {
+    // Capture the state of the request once and cache it in the HTTP Context, for the callbacks wrapped with
+    // ParSeqContextCarrier.current() while the plan is built
+    ParSeqContextCarrier.capture(context);
     // Bind a CompletionStage to the ParSeq Task
     CompletionStage<T> completionStage = bindTaskToCompletionStage(task);
     // Put the ParSeq Task into store
     _parSeqTaskStore.put(context, task);
-    // Run the ParSeq Task
-    _engine.run(task);
+    // Run the ParSeq Task on the Engine of the request, so all Tasks of one request stay on one shard, within the
+    // budgets of a plan
+    _parSeqPlanBudget.run(selectEngine(context.request(), getShardKey(context)), task);
+    // Return the CompletionStage
+    return completionStage;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public <T> CompletionStage<T> runTask(final Http.RequestHeader request, final Task<T> task) {
+    // Bind a CompletionStage to the ParSeq Task
+    CompletionStage<T> completionStage = bindTaskToCompletionStage(task);
+    // Put the ParSeq Task into store
+    _parSeqTaskStore.put(request, task);
+    // Run the ParSeq Task on the Engine of the request, so all Tasks of one request stay on one shard, within the
+    // budgets of a plan
+    _parSeqPlanBudget.run(selectEngine(request, request.asScala().id()), task);
     // Return the CompletionStage
     return completionStage;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Result runTaskStreaming(final Http.Context context, final String shell,
+      final Map<String, Task<String>> fragments, final String tail) {
+    Tuple2<Task<List<String>>, Source<String, NotUsed>> bound = bindTasksToFragments(shell,
+        JavaConverters.mapAsScalaMapConverter(fragments).asScala().toSeq(), tail,
+        ExecutionContext$.MODULE$.fromExecutor(_httpExecutionContext.current()));
+    runTask(context, bound._1());
+    return Results.ok()
+        .chunked(bound._2().asJava().map(ByteString::fromString))
+        .as(ParSeqFragments.ContentType());
+  }
+
+  /**
+   * The method selectEngine selects the ParSeq Engine of the request, which records the relationships between Tasks
+   * only if the request may be traced.
+   *
+   * @param request The request
+   * @param key The key of the shard
+   * @return The ParSeq Engine
+   */
+  private Engine selectEngine(final Http.RequestHeader request, final long key) {
+    return ParSeqTraceMode.isTraced(request) ? _shardedEngine.select(key) : _shardedEngine.selectLowTrace(key);
+  }
+
+  /**
+   * The method getShardKey gets the key for selecting the ParSeq Engine of the request.
+   *
+   * @param context The HTTP Context
+   * @return The key
+   */
+  private static long getShardKey(final Http.Context context) {
+    Long id = context.id();
+    return id == null ? 0L : id;
+  }
+
 }
@@ -12,11 +12,16 @@
 package com.linkedin.playparseq.j.modules;
 
 import com.linkedin.parseq.Engine;
+import com.linkedin.playparseq.j.ParSeqStreams;
+import com.linkedin.playparseq.j.ParSeqStreamsImpl;
 import com.linkedin.playparseq.j.PlayParSeq;
 import com.linkedin.playparseq.j.PlayParSeqImpl;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStoreImpl;
 import com.linkedin.playparseq.utils.EngineProvider;
+import com.linkedin.playparseq.utils.ParSeqWarmUp;
+import com.linkedin.playparseq.utils.ShardedEngine;
+import com.linkedin.playparseq.utils.ShardedEngineProvider;
 import play.api.Configuration;
 import play.api.Environment;
 import play.api.inject.Binding;
@@ -26,8 +31,8 @@ import scala.collection.Seq;
 
 /**
  * The class PlayParSeqModule is a preset Module for the dependency injection bindings of {@link PlayParSeq}.
- * This {@link PlayParSeq} configuration includes {@link PlayParSeqImpl}, {@link ParSeqTaskStoreImpl} and
- * {@link EngineProvider}.
+ * This {@link PlayParSeq} configuration includes {@link PlayParSeqImpl}, {@link ParSeqTaskStoreImpl},
+ * {@link EngineProvider}, {@link ShardedEngineProvider}, and the {@link ParSeqWarmUp}, which is created eagerly.
  * The key `play.modules.enabled += "com.linkedin.playparseq.j.modules.PlayParSeqModule"` needs to be added into your
  * conf file, if you want to use this {@link PlayParSeq} configuration.
  *
@@ -46,8 +51,11 @@ public class PlayParSeqModule extends Module {
   public Seq<Binding<?>> bindings(final Environment environment, final Configuration configuration) {
     return seq(
         bind(PlayParSeq.class).to(PlayParSeqImpl.class),
+        bind(ParSeqStreams.class).to(ParSeqStreamsImpl.class),
         bind(ParSeqTaskStore.class).to(ParSeqTaskStoreImpl.class),
-        bind(Engine.class).toProvider(EngineProvider.class));
+        bind(Engine.class).toProvider(EngineProvider.class),
+        bind(ShardedEngine.class).toProvider(ShardedEngineProvider.class),
+        bind(ParSeqWarmUp.class).toSelf().eagerly());
   }
 
 }
@@ -50,4 +50,29 @@ public interface ParSeqTaskStore {
    */
   Http.Context initialize(final Http.Context context);
 
+  /**
+   * The method put puts ParSeq Task into the store of a request, without an HTTP Context.
+   *
+   * @param request The request
+   * @param task The ParSeq Task
+   */
+  void put(final Http.RequestHeader request, final Task<?> task);
+
+  /**
+   * The method get gets all Tasks of a request out of store as an unmodifiable Set, without an HTTP Context.
+   *
+   * @param request The request
+   * @return A set of Tasks
+   */
+  Set<Task<?>> get(final Http.RequestHeader request);
+
+  /**
+   * The method initialize sets up the store of a request properly for put/get APIs, without an HTTP Context, e.g. in
+   * a filter.
+   *
+   * @param request The origin request
+   * @return The request with store set up properly
+   */
+  Http.RequestHeader initialize(final Http.RequestHeader request);
+
 }
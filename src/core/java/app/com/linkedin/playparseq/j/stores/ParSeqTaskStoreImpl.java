@@ -42,7 +42,7 @@ public class ParSeqTaskStoreImpl implements ParSeqTaskStore {
    */
   @Override
   public void put(final Http.Context context, final Task<?> task) {
-    getOptional(context).map(tasks -> tasks.add(task));
+    put(context.request(), task);
   }
 
   /**
@@ -50,7 +50,7 @@ public class ParSeqTaskStoreImpl implements ParSeqTaskStore {
    */
   @Override
   public Set<Task<?>> get(final Http.Context context) {
-    return getOptional(context).map(Collections::unmodifiableSet).orElse(Collections.emptySet());
+    return get(context.request());
   }
 
   /**
@@ -58,17 +58,49 @@ public class ParSeqTaskStoreImpl implements ParSeqTaskStore {
    */
   @Override
   public Http.Context initialize(final Http.Context context) {
+    // Keep an existing store, so that several Actions initializing the store can be composed
+    if (context.request().attrs().containsKey(ARGUMENTS_KEY)) {
+      return context;
+    }
     return context.withRequest(context.request().addAttr(ARGUMENTS_KEY, ConcurrentHashMap.newKeySet()));
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void put(final Http.RequestHeader request, final Task<?> task) {
+    getOptional(request).map(tasks -> tasks.add(task));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Task<?>> get(final Http.RequestHeader request) {
+    return getOptional(request).map(Collections::unmodifiableSet).orElse(Collections.emptySet());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Http.RequestHeader initialize(final Http.RequestHeader request) {
+    // Keep an existing store, so that a filter and several Actions initializing the store can be composed
+    if (request.attrs().containsKey(ARGUMENTS_KEY)) {
+      return request;
+    }
+    return request.addAttr(ARGUMENTS_KEY, ConcurrentHashMap.newKeySet());
+  }
+
   /**
    * The method getOptional gets the optional modifiable Set of Tasks from one request out of store for modifications.
    *
-   * @param context The HTTP Context
+   * @param request The request
    * @return A Set of Tasks
    */
-  private Optional<Set<Task<?>>> getOptional(final Http.Context context) {
-    return context.request().attrs().getOptional(ARGUMENTS_KEY);
+  private Optional<Set<Task<?>>> getOptional(final Http.RequestHeader request) {
+    return request.attrs().getOptional(ARGUMENTS_KEY);
   }
 
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.j;
+
+import com.linkedin.parseq.Engine;
+import com.linkedin.parseq.EngineBuilder;
+import com.linkedin.parseq.Task;
+import com.linkedin.parseq.promise.Promises;
+import com.linkedin.parseq.promise.SettablePromise;
+import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import play.libs.concurrent.HttpExecutionContext;
+import play.mvc.Http;
+
+import static org.mockito.Mockito.mock;
+
+
+/**
+ * The class ParSeqContextBenchmark compares the cost per Task of re-establishing the HTTP Context on every completion
+ * in a plan of 50 Tasks, which toTask used to do, with completing the Tasks directly and carrying the state of the
+ * request in a {@link ParSeqContextCarrier} to the callbacks which need it. The CompletionStages are already complete,
+ * e.g. from a cache, so the hop is the only thread switch measured. Run it with
+ * {@code sbt "play-parseq/test:runMain com.linkedin.playparseq.j.ParSeqContextBenchmark [iterations]"}.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+public class ParSeqContextBenchmark {
+
+  /**
+   * The field TASKS is the number of Tasks per plan.
+   */
+  private final static int TASKS = 50;
+
+  /**
+   * The method hop converts a CompletionStage to a ParSeq Task by completing it on the HTTP Context like toTask used
+   * to.
+   *
+   * @param executor The Executor of the HTTP Context
+   * @param stage The CompletionStage
+   * @return The ParSeq Task
+   */
+  private static Task<Integer> hop(final HttpExecutionContext executor, final CompletionStage<Integer> stage) {
+    return Task.async("hop", () -> {
+      SettablePromise<Integer> promise = Promises.settable();
+      stage.whenCompleteAsync((result, exception) -> {
+        if (exception != null) {
+          promise.fail(exception);
+        } else {
+          promise.done(result);
+        }
+      }, executor.current());
+      return promise;
+    });
+  }
+
+  /**
+   * The method measure measures the average time per Task of running plans after warming them up.
+   *
+   * @param engine The ParSeq Engine
+   * @param iterations The number of plans
+   * @param plan The function which builds a plan
+   * @return The average time per Task in nanoseconds
+   * @throws InterruptedException The exception from await
+   */
+  private static long measure(final Engine engine, final int iterations, final IntFunction<Task<?>> plan)
+      throws InterruptedException {
+    for (int i = 0; i < iterations; i++) {
+      run(engine, plan.apply(i));
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      run(engine, plan.apply(i));
+    }
+    return (System.nanoTime() - start) / iterations / TASKS;
+  }
+
+  /**
+   * The method run runs a plan and waits for it.
+   *
+   * @param engine The ParSeq Engine
+   * @param task The plan
+   * @throws InterruptedException The exception from await
+   */
+  private static void run(final Engine engine, final Task<?> task) throws InterruptedException {
+    engine.run(task);
+    if (!task.await(5, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("The plan timed out.");
+    }
+  }
+
+  /**
+   * The method main prints the comparison.
+   *
+   * @param args The number of iterations
+   * @throws InterruptedException The exception from await
+   */
+  public static void main(final String[] args) throws InterruptedException {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    ExecutorService taskScheduler = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
+    ScheduledExecutorService timerScheduler = Executors.newSingleThreadScheduledExecutor();
+    Engine engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build();
+    HttpExecutionContext httpExecutionContext = new HttpExecutionContext(ForkJoinPool.commonPool());
+    PlayParSeqImpl playParSeq = new PlayParSeqImpl(engine, mock(ParSeqTaskStore.class), httpExecutionContext);
+    Http.Context context = mock(Http.Context.class);
+    try {
+      long hop = measure(engine, iterations, i -> {
+        List<Task<Integer>> tasks = new ArrayList<>(TASKS);
+        for (int j = 0; j < TASKS; j++) {
+          int value = j;
+          tasks.add(hop(httpExecutionContext, CompletableFuture.completedFuture(value)));
+        }
+        return Task.par(tasks);
+      });
+      long direct = measure(engine, iterations, i -> {
+        List<Task<Integer>> tasks = new ArrayList<>(TASKS);
+        for (int j = 0; j < TASKS; j++) {
+          int value = j;
+          tasks.add(playParSeq.toTask("direct", () -> CompletableFuture.completedFuture(value)));
+        }
+        return Task.par(tasks);
+      });
+      long carried = measure(engine, iterations, i -> {
+        ParSeqContextCarrier carrier = ParSeqContextCarrier.of(context);
+        List<Task<Integer>> tasks = new ArrayList<>(TASKS);
+        for (int j = 0; j < TASKS; j++) {
+          int value = j;
+          tasks.add(playParSeq.toTask("direct", () -> CompletableFuture.completedFuture(value)));
+        }
+        // Only the callback which renders the response needs the state of the request
+        return Task.par(tasks).map("render", carrier.wrap(values -> Http.Context.current().hashCode() + values.size()));
+      });
+      System.out.println(String.format("%-16s ns/task=%d", "hop per task", hop));
+      System.out.println(String.format("%-16s ns/task=%d", "direct", direct));
+      System.out.println(String.format("%-16s ns/task=%d", "direct + carrier", carried));
+    } finally {
+      engine.shutdown();
+      engine.awaitTermination(1, TimeUnit.SECONDS);
+      taskScheduler.shutdown();
+      timerScheduler.shutdown();
+    }
+  }
+
+}
@@ -11,10 +11,27 @@
  */
 package com.linkedin.playparseq.j;
 
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
 import com.linkedin.parseq.Engine;
 import com.linkedin.parseq.EngineBuilder;
 import com.linkedin.parseq.Task;
+import com.linkedin.parseq.function.Try;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import com.linkedin.playparseq.j.stores.ParSeqTaskStoreImpl;
+import com.linkedin.playparseq.utils.ConcurrencyLimiter;
+import com.linkedin.playparseq.utils.ParSeqFragments;
+import com.linkedin.playparseq.utils.ParSeqBudgetExceededException;
+import com.linkedin.playparseq.utils.ParSeqPlanBudget;
+import com.linkedin.playparseq.utils.ShardedEngine;
+import com.typesafe.config.ConfigFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executors;
@@ -22,15 +39,22 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.MDC;
+import play.api.Configuration;
+import play.api.inject.DefaultApplicationLifecycle;
 import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Http;
+import play.mvc.Result;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static play.mvc.Results.ok;
 
 
 /**
@@ -83,6 +107,7 @@ public class PlayParSeqImplTest {
     _engine = new EngineBuilder().setTaskExecutor(_taskScheduler).setTimerScheduler(_timerScheduler).build();
     _playParSeqImpl = new PlayParSeqImpl(_engine, mock(ParSeqTaskStore.class), when(mock(HttpExecutionContext.class).current()).thenReturn(ForkJoinPool.commonPool()).getMock());
     _mockContext = mock(Http.Context.class);
+    when(_mockContext.request()).thenReturn(new Http.RequestBuilder().build());
   }
 
   /**
@@ -220,6 +245,147 @@ public class PlayParSeqImplTest {
     getResultUnwrapException(completionStage);
   }
 
+  /**
+   * The method canRunTaskWithRequest tests the ability of running a ParSeq Task with a request set up by a filter.
+   */
+  @Test
+  public void canRunTaskWithRequest() {
+    ParSeqTaskStoreImpl parSeqTaskStore = new ParSeqTaskStoreImpl();
+    PlayParSeqImpl playParSeqImpl = new PlayParSeqImpl(_engine, parSeqTaskStore, mock(HttpExecutionContext.class));
+    Http.RequestHeader request = parSeqTaskStore.initialize(new Http.RequestBuilder().build());
+    // Run with the request rather than an HTTP Context
+    Task<String> task = Task.value("test", "Test");
+    assertEquals("Test", getResultUnchecked(playParSeqImpl.runTask(request, task)));
+    // Assert the Task in the store of the request
+    assertEquals(Collections.singleton(task), parSeqTaskStore.get(request));
+  }
+
+  /**
+   * The method canFailPlanOverBudget tests the ability of failing a plan with too many Tasks in flight.
+   *
+   * @throws Throwable The exception from the CompletionStage
+   */
+  @Test(expected = ParSeqBudgetExceededException.class)
+  public void canFailPlanOverBudget() throws Throwable {
+    ParSeqPlanBudget budget = new ParSeqPlanBudget(new Configuration(ConfigFactory.parseMap(
+        Collections.singletonMap("parseq.budget.maxInFlightTasks", 1))), new DefaultApplicationLifecycle());
+    PlayParSeqImpl playParSeqImpl = new PlayParSeqImpl(new ShardedEngine(_engine), mock(ParSeqTaskStore.class),
+        mock(HttpExecutionContext.class), new ConcurrencyLimiter(Configuration.empty()), budget);
+    // Run two Tasks in flight at the same time, which never complete
+    Task<?> task = Task.par(playParSeqImpl.toTask(CompletableFuture::new), playParSeqImpl.toTask(CompletableFuture::new));
+    // Assert the typed failure
+    getResultUnwrapException(playParSeqImpl.runTask(_mockContext, task));
+  }
+
+  /**
+   * The method canReleasePermitOfThrowingCall tests the ability of giving back the concurrency permit of a call which
+   * throws before returning its CompletionStage.
+   */
+  @Test
+  public void canReleasePermitOfThrowingCall() {
+    Map<String, Object> settings = new HashMap<>();
+    settings.put("parseq.limiter.enabled", true);
+    settings.put("parseq.limiter.initialLimit", 1);
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(new Configuration(ConfigFactory.parseMap(settings)));
+    PlayParSeqImpl playParSeqImpl = new PlayParSeqImpl(new ShardedEngine(_engine), mock(ParSeqTaskStore.class),
+        mock(HttpExecutionContext.class), limiter,
+        new ParSeqPlanBudget(Configuration.empty(), new DefaultApplicationLifecycle()));
+    // Run a call which throws instead of returning its CompletionStage
+    Task<String> task = playParSeqImpl.toTask("throwing", () -> {
+      throw new IllegalStateException();
+    });
+    try {
+      getResultUnwrapException(playParSeqImpl.runTask(_mockContext, task));
+    } catch (Throwable e) {
+      assertEquals(IllegalStateException.class, e.getClass());
+    }
+    // Assert the permit is back, so the next call with the same name gets through
+    assertEquals(0, limiter.getInFlight("throwing"));
+    assertEquals("Test", getResultUnchecked(playParSeqImpl.runTask(_mockContext,
+        playParSeqImpl.toTask("throwing", () -> CompletableFuture.completedFuture("Test")))));
+  }
+
+  /**
+   * The method canTraverse tests the ability of traversing items into a ParSeq Task and collecting the failures.
+   */
+  @Test
+  public void canTraverse() {
+    // Traverse two items at a time, failing at the even items
+    Task<List<Try<Integer>>> traverseTask = _playParSeqImpl.traverseTry("check", Arrays.asList(1, 2, 3, 4), 2,
+        i -> i % 2 == 0 ? Task.failure(new IllegalStateException()) : Task.value(i));
+    // Assert the outcomes in order
+    List<Try<Integer>> outcomes = getResultUnchecked(_playParSeqImpl.runTask(_mockContext, traverseTask));
+    assertEquals(Arrays.asList(false, true, false, true),
+        outcomes.stream().map(Try::isFailed).collect(Collectors.toList()));
+  }
+
+  /**
+   * The method canRunTaskStreaming tests the ability of streaming the fragments of ParSeq Tasks.
+   */
+  @Test
+  public void canRunTaskStreaming() {
+    ActorSystem actorSystem = ActorSystem.create("PlayParSeqImplTest");
+    String shell = "<html>" + ParSeqFragments.placeholder("hello");
+    // Run a succeeding and a failing fragment
+    Map<String, Task<String>> fragments = new LinkedHashMap<>();
+    fragments.put("hello", Task.value("hello", "Hello"));
+    fragments.put("failed", Task.failure("failed", new RuntimeException()));
+    Result result = _playParSeqImpl.runTaskStreaming(_mockContext, shell, fragments, "</html>");
+    // Assert the body with the shell, the succeeded fragment and the tail
+    try {
+      assertEquals(shell + ParSeqFragments.fragment("hello", "Hello") + "</html>",
+          getResultUnchecked(result.body().consumeData(ActorMaterializer.create(actorSystem))).utf8String());
+    } finally {
+      actorSystem.terminate();
+    }
+  }
+
+  /**
+   * The method canCarryContext tests the ability of re-establishing the state of the request around wrapped callbacks.
+   */
+  @Test
+  public void canCarryContext() {
+    _mockContext.args = new HashMap<>();
+    Http.Context.current.set(_mockContext);
+    MDC.put("request", "42");
+    try {
+      ParSeqContextCarrier carrier = ParSeqContextCarrier.current();
+      // Read the state of the request in a wrapped and an unwrapped callback on the Engine
+      Task<String> task = Task.value("value", "state")
+          .map("wrapped", carrier.wrap(s -> s + ":" + (Http.Context.current.get() == _mockContext) + ":" + MDC.get("request")))
+          .map("unwrapped", s -> s + ":" + (Http.Context.current.get() == _mockContext));
+      // Assert the state only in the wrapped callback, and the carrier is captured once per request
+      assertEquals("state:true:42:false", getResultUnchecked(_playParSeqImpl.runTask(task)));
+      assertSame(carrier, _mockContext.args.get(ParSeqContextCarrier.ARGS_KEY));
+    } finally {
+      MDC.clear();
+      Http.Context.current.remove();
+    }
+  }
+
+  /**
+   * The method canWrapCallbacks tests the ability of wrapping a callback returning a Result and a consumer, in the
+   * forms shown by the README.
+   */
+  @Test
+  public void canWrapCallbacks() {
+    _mockContext.args = new HashMap<>();
+    Http.Context.current.set(_mockContext);
+    try {
+      ParSeqContextCarrier carrier = ParSeqContextCarrier.current();
+      List<Boolean> consumed = new ArrayList<>();
+      // Render a Result and consume the data in wrapped callbacks
+      Task<String> task = Task.value("data", "Hello")
+          .andThen("consume", carrier.wrapConsumer(data -> consumed.add(Http.Context.current.get() == _mockContext)));
+      Result result = getResultUnchecked(_playParSeqImpl.runTask(task.map("render", carrier.wrap(data -> ok(data)))));
+      // Assert the Result and the state in the consumer
+      assertEquals(Http.Status.OK, result.status());
+      assertEquals(Collections.singletonList(true), consumed);
+    } finally {
+      Http.Context.current.remove();
+    }
+  }
+
   private static <T> T getResult(final CompletionStage<T> completionStage) throws Exception {
     return completionStage.toCompletableFuture().get(DEFAULT_TIME_OUT, TimeUnit.MILLISECONDS);
   }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.s
+
+import com.linkedin.playparseq.s.stores.ParSeqTaskStore
+import com.linkedin.playparseq.utils.ParSeqTaskCanceller
+import javax.inject.Inject
+import play.api.mvc._
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqCancelAction is an ActionBuilder which sets up a normal HTTP Request with [[ParSeqTaskStore]], and
+ * cancels the ParSeq Tasks of the request which are still running once the Result is completely sent, or the request
+ * fails. Tasks which have to keep running can be marked with [[ParSeqTaskCanceller.fireAndForget]].
+ *
+ * @param parSeqTaskStore The injected [[ParSeqTaskStore]] component
+ * @param parSeqTaskCanceller The injected [[ParSeqTaskCanceller]] component
+ * @param parser The injected BodyParser component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqCancelAction @Inject()(parSeqTaskStore: ParSeqTaskStore, parSeqTaskCanceller: ParSeqTaskCanceller, parser: BodyParsers.Default)(implicit executionContext: ExecutionContext) extends ActionBuilderImpl(parser) {
+
+  /**
+   * The method invokeBlock sets up a normal HTTP Request with [[ParSeqTaskStore]] and cancels the remaining ParSeq
+   * Tasks when the request is done.
+   *
+   * @param request The origin HTTP Request
+   * @param block The block of origin Request process
+   * @tparam A The type parameter of the Request
+   * @return The Future of Result
+   */
+  override def invokeBlock[A](request: Request[A], block: (Request[A]) => Future[Result]): Future[Result] = {
+    implicit val newRequest: Request[A] = parSeqTaskStore.initialize(request)
+    block(newRequest).transform(result => parSeqTaskCanceller.cancelOnComplete(result, () => parSeqTaskStore.get), throwable => {
+      parSeqTaskCanceller.cancel(parSeqTaskStore.get)
+      throwable
+    })
+  }
+
+}
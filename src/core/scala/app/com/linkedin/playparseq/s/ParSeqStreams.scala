@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.s
+
+import akka.NotUsed
+import akka.stream.Materializer
+import akka.stream.scaladsl.{Flow, Sink, Source}
+import com.linkedin.parseq.Task
+import javax.inject.{Inject, Singleton}
+import play.api.mvc.RequestHeader
+
+
+/**
+ * The trait ParSeqStreams defines the interop between ParSeq Tasks and Akka Streams, so that large collections can be
+ * processed incrementally with backpressure instead of being fully buffered in one ParSeq Task. Every Task run by a
+ * stage is put into store, so it shows up in the ParSeq Trace of the request.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+trait ParSeqStreams {
+
+  /**
+   * The method mapTask creates a Flow which runs a ParSeq Task for every element, with at most `parallelism` Tasks
+   * running at a time, and emits the results in the order of the elements.
+   *
+   * @param parallelism The number of Tasks running at a time
+   * @param f The function which creates the ParSeq Task of an element
+   * @param requestHeader The request
+   * @tparam In The type parameter of the elements
+   * @tparam Out The type parameter of the ParSeq Tasks and the results
+   * @return The Flow
+   */
+  def mapTask[In, Out](parallelism: Int)(f: In => Task[Out])(implicit requestHeader: RequestHeader): Flow[In, Out, NotUsed]
+
+  /**
+   * The method mapTaskUnordered creates a Flow which runs a ParSeq Task for every element, with at most `parallelism`
+   * Tasks running at a time, and emits the results as soon as they are done.
+   *
+   * @param parallelism The number of Tasks running at a time
+   * @param f The function which creates the ParSeq Task of an element
+   * @param requestHeader The request
+   * @tparam In The type parameter of the elements
+   * @tparam Out The type parameter of the ParSeq Tasks and the results
+   * @return The Flow
+   */
+  def mapTaskUnordered[In, Out](parallelism: Int)(f: In => Task[Out])(implicit requestHeader: RequestHeader): Flow[In, Out, NotUsed]
+
+  /**
+   * The method toSource converts a ParSeq `Task[Seq[T]]` to a `Source[T]`, which runs the Task when materialized.
+   *
+   * @param task The ParSeq Task
+   * @param requestHeader The request
+   * @tparam T The type parameter of the elements
+   * @return The Source
+   */
+  def toSource[T](task: Task[_ <: Seq[T]])(implicit requestHeader: RequestHeader): Source[T, NotUsed]
+
+  /**
+   * The method toTask converts a `Source[T]` to a ParSeq `Task[Seq[T]]`, which runs the Source when the Task runs.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param source The Source
+   * @tparam T The type parameter of the elements
+   * @return The ParSeq Task
+   */
+  def toTask[T](name: String, source: Source[T, _]): Task[Seq[T]]
+
+}
+
+/**
+ * The class ParSeqStreamsImpl is an implementation of the trait [[ParSeqStreams]] with the help from the trait
+ * [[PlayParSeq]].
+ *
+ * @param playParSeq The injected [[PlayParSeq]] component
+ * @param materializer The injected Materializer component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqStreamsImpl @Inject()(playParSeq: PlayParSeq)(implicit materializer: Materializer) extends ParSeqStreams {
+
+  /**
+   * @inheritdoc
+   */
+  override def mapTask[In, Out](parallelism: Int)(f: In => Task[Out])(implicit requestHeader: RequestHeader): Flow[In, Out, NotUsed] =
+    Flow[In].mapAsync(parallelism)(in => playParSeq.runTask(f(in)))
+
+  /**
+   * @inheritdoc
+   */
+  override def mapTaskUnordered[In, Out](parallelism: Int)(f: In => Task[Out])(implicit requestHeader: RequestHeader): Flow[In, Out, NotUsed] =
+    Flow[In].mapAsyncUnordered(parallelism)(in => playParSeq.runTask(f(in)))
+
+  /**
+   * @inheritdoc
+   */
+  override def toSource[T](task: Task[_ <: Seq[T]])(implicit requestHeader: RequestHeader): Source[T, NotUsed] =
+    // Run the Task on demand of the first element rather than when the Source is created
+    Source.single(task).mapAsync(1)(t => playParSeq.runTask(t)).mapConcat(_.toList)
+
+  /**
+   * @inheritdoc
+   */
+  override def toTask[T](name: String, source: Source[T, _]): Task[Seq[T]] =
+    playParSeq.toTask(name, () => source.runWith(Sink.seq[T]))
+
+}
@@ -11,15 +11,19 @@
  */
 package com.linkedin.playparseq.s
 
-import com.linkedin.parseq.{Engine, Task}
+import com.linkedin.parseq.{Context, Engine, Task}
+import com.linkedin.parseq.function.{Try => ParSeqTry}
 import com.linkedin.parseq.promise.Promises
 import com.linkedin.playparseq.s.PlayParSeqImplicits._
 import com.linkedin.playparseq.s.stores.ParSeqTaskStore
-import com.linkedin.playparseq.utils.PlayParSeqHelper
+import com.linkedin.playparseq.utils.{ConcurrencyLimitExceededException, ConcurrencyLimiter, ParSeqFragments, ParSeqPlanBudget, ParSeqTraceMode, PlayParSeqHelper, ShardedEngine}
 import javax.inject.{Inject, Singleton}
-import play.api.mvc.RequestHeader
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.mvc.{RequestHeader, Result, Results}
 import scala.concurrent.{ExecutionContext, Future}
-import scala.util.{Failure, Success}
+import scala.collection.JavaConverters._
+import scala.util.{Failure, Success, Try}
 
 
 /**
@@ -51,6 +55,39 @@ trait PlayParSeq {
    */
   def toTask[T](f: () => Future[T]): Task[T]
 
+  /**
+   * The method traverse converts items to a ParSeq `Task[Seq[B]]`, which runs a ParSeq Task for every item with at
+   * most `parallelism` Tasks in flight, and collects their results in the order of the items. The items are split into
+   * chunks of `chunkSize` items, which are grouped in a trace. No more chunks are started once a Task fails, and the
+   * ParSeq Task fails with the first failure.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param chunkSize The number of items per chunk
+   * @param f The function which creates the ParSeq Task of an item
+   * @tparam A The type parameter of the items
+   * @tparam B The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  def traverse[A, B](name: String, items: Seq[A], parallelism: Int, chunkSize: Int = 1)(f: A => Task[B]): Task[Seq[B]]
+
+  /**
+   * The method traverseTry converts items to a ParSeq `Task[Seq[Try[B]]]`, which runs a ParSeq Task for every item
+   * with at most `parallelism` Tasks in flight, and collects their outcomes in the order of the items, whether they
+   * succeed or fail. The items are split into chunks of `chunkSize` items, which are grouped in a trace.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param chunkSize The number of items per chunk
+   * @param f The function which creates the ParSeq Task of an item
+   * @tparam A The type parameter of the items
+   * @tparam B The type parameter of the ParSeq Tasks of the items
+   * @return The ParSeq Task
+   */
+  def traverseTry[A, B](name: String, items: Seq[A], parallelism: Int, chunkSize: Int = 1)(f: A => Task[B]): Task[Seq[Try[B]]]
+
   /**
    * The method runTask executes a ParSeq `Task[T]` then generates a `Future[T]`, and puts into the store.
    *
@@ -61,19 +98,44 @@ trait PlayParSeq {
    */
   def runTask[T](task: Task[T])(implicit requestHeader: RequestHeader): Future[T]
 
+  /**
+   * The method runTaskStreaming executes the ParSeq Tasks of named fragments as one ParSeq Task, and puts it into the
+   * store. It generates a chunked `Result`, which flushes the page shell right away and then writes every fragment as
+   * soon as its Task resolves, in the order of completion. The shell contains the placeholders of the fragments from
+   * `ParSeqFragments.placeholder`.
+   *
+   * @param shell The markup of the page shell with the placeholders
+   * @param fragments The ParSeq Tasks of the fragments by name
+   * @param tail The markup after all fragments
+   * @param requestHeader The request
+   * @return The chunked Result
+   */
+  def runTaskStreaming(shell: String, fragments: Seq[(String, Task[String])], tail: String)(implicit requestHeader: RequestHeader): Result
+
 }
 
 /**
  * The class PlayParSeqImpl is an implementation of the trait [[PlayParSeq]] with the help from the class
  * [[PlayParSeqHelper]].
  *
- * @param engine The injected ParSeq Engine component
+ * @param shardedEngine The injected [[ShardedEngine]] component
  * @param parSeqTaskStore The injected [[ParSeqTaskStore]] component
+ * @param concurrencyLimiter The injected [[ConcurrencyLimiter]] component
+ * @param parSeqPlanBudget The injected [[ParSeqPlanBudget]] component
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
 @Singleton
-class PlayParSeqImpl @Inject()(engine: Engine, parSeqTaskStore: ParSeqTaskStore)(implicit executionContext: ExecutionContext) extends PlayParSeqHelper with PlayParSeq {
+class PlayParSeqImpl @Inject()(shardedEngine: ShardedEngine, parSeqTaskStore: ParSeqTaskStore, concurrencyLimiter: ConcurrencyLimiter, parSeqPlanBudget: ParSeqPlanBudget)(implicit executionContext: ExecutionContext) extends PlayParSeqHelper with PlayParSeq {
+
+  /**
+   * The constructor uses one ParSeq Engine for running all ParSeq Tasks.
+   *
+   * @param engine The ParSeq Engine
+   * @param parSeqTaskStore The [[ParSeqTaskStore]]
+   * @param executionContext The [[ExecutionContext]]
+   */
+  def this(engine: Engine, parSeqTaskStore: ParSeqTaskStore)(implicit executionContext: ExecutionContext) = this(new ShardedEngine(engine), parSeqTaskStore, new ConcurrencyLimiter(Configuration.empty), new ParSeqPlanBudget(Configuration.empty, new DefaultApplicationLifecycle))
 
   /**
    * The field DefaultTaskName is the default name of ParSeq Task.
@@ -85,11 +147,32 @@ class PlayParSeqImpl @Inject()(engine: Engine, parSeqTaskStore: ParSeqTaskStore)
    */
   override def toTask[T](name: String, f: () => Future[T]): Task[T] = {
     // Bind a Task to the Future for both success and failure
-    Task.async[T](name, {
+    Task.async[T](name, (context: Context) => {
+      // Fail the plan if it has made too many calls or has too many Tasks in flight
+      val inFlight = parSeqPlanBudget.acquireInFlight(context)
+      // Fail fast if too many Tasks with the same name are in flight
+      val permit = try concurrencyLimiter.acquire(name, context.getShallowTraceBuilder) catch {
+        case e: ConcurrencyLimitExceededException =>
+          inFlight.release()
+          throw e
+      }
       val promise = Promises.settable[T]()
-      f().onComplete {
-        case Failure(throwable) => promise.fail(throwable)
-        case Success(result) => promise.done(result)
+      val future = try f() catch {
+        case e: Throwable =>
+          // Give the slot and the permit back if the call fails before it starts, otherwise they would never be released
+          inFlight.release()
+          permit.release(false)
+          throw e
+      }
+      future.onComplete {
+        case Failure(throwable) =>
+          inFlight.release()
+          permit.release(false)
+          promise.fail(throwable)
+        case Success(result) =>
+          inFlight.release()
+          permit.release(true)
+          promise.done(result)
       }
       promise
     })
@@ -102,6 +185,21 @@ class PlayParSeqImpl @Inject()(engine: Engine, parSeqTaskStore: ParSeqTaskStore)
     toTask(DefaultTaskName, f)
   }
 
+  /**
+   * @inheritdoc
+   */
+  override def traverse[A, B](name: String, items: Seq[A], parallelism: Int, chunkSize: Int)(f: A => Task[B]): Task[Seq[B]] =
+    traverseToTask(name, items.toIndexedSeq.asJava, parallelism, chunkSize, failFast = true, f,
+      (outcomes: java.util.List[ParSeqTry[B]]) => outcomes.asScala.map(_.get).toIndexedSeq)
+
+  /**
+   * @inheritdoc
+   */
+  override def traverseTry[A, B](name: String, items: Seq[A], parallelism: Int, chunkSize: Int)(f: A => Task[B]): Task[Seq[Try[B]]] =
+    traverseToTask(name, items.toIndexedSeq.asJava, parallelism, chunkSize, failFast = false, f,
+      (outcomes: java.util.List[ParSeqTry[B]]) => outcomes.asScala.map(outcome =>
+        if (outcome.isFailed) Failure(outcome.getError) else Success(outcome.get)).toIndexedSeq)
+
   /**
    * @inheritdoc
    */
@@ -110,10 +208,21 @@ class PlayParSeqImpl @Inject()(engine: Engine, parSeqTaskStore: ParSeqTaskStore)
     val future: Future[T] = bindTaskToFuture(task)
     // Put the ParSeq Task into store
     parSeqTaskStore.put(task)
-    // Run the ParSeq Task
-    engine.run(task)
+    // Run the ParSeq Task on the Engine of the request, so all Tasks of one request stay on one shard, and record the
+    // relationships between its Tasks only if the request may be traced, within the budgets of a plan
+    parSeqPlanBudget.run(if (ParSeqTraceMode.isTraced(requestHeader)) shardedEngine.select(requestHeader.id)
+    else shardedEngine.selectLowTrace(requestHeader.id), task)
     // Return the Future
     future
   }
 
+  /**
+   * @inheritdoc
+   */
+  override def runTaskStreaming(shell: String, fragments: Seq[(String, Task[String])], tail: String)(implicit requestHeader: RequestHeader): Result = {
+    val (task, body) = bindTasksToFragments(shell, fragments, tail)
+    runTask(task)
+    Results.Ok.chunked(body).as(ParSeqFragments.ContentType)
+  }
+
 }
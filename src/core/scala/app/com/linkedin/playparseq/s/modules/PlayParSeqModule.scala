@@ -12,16 +12,17 @@
 package com.linkedin.playparseq.s.modules
 
 import com.linkedin.parseq.Engine
-import com.linkedin.playparseq.s.{PlayParSeq, PlayParSeqImpl}
+import com.linkedin.playparseq.s.{ParSeqStreams, ParSeqStreamsImpl, PlayParSeq, PlayParSeqImpl}
 import com.linkedin.playparseq.s.stores.{ParSeqTaskStore, ParSeqTaskStoreImpl}
-import com.linkedin.playparseq.utils.EngineProvider
+import com.linkedin.playparseq.utils.{EngineProvider, ParSeqWarmUp, ShardedEngine, ShardedEngineProvider}
 import play.api.{Configuration, Environment}
 import play.api.inject.{Binding, Module}
 
 
 /**
  * The class PlayParSeqModule is a preset Module for the dependency injection bindings of [[PlayParSeq]].
- * This [[PlayParSeq]] configuration includes [[PlayParSeqImpl]], [[ParSeqTaskStoreImpl]] and [[EngineProvider]].
+ * This [[PlayParSeq]] configuration includes [[PlayParSeqImpl]], [[ParSeqTaskStoreImpl]], [[EngineProvider]] and
+ * [[ShardedEngineProvider]], and the [[ParSeqWarmUp]], which is created eagerly.
  * The key `play.modules.enabled += "com.linkedin.playparseq.s.modules.PlayParSeqModule"` needs to be added into your
  * conf file, if you want to use this [[PlayParSeq]] configuration.
  *
@@ -38,7 +39,10 @@ class PlayParSeqModule extends Module {
    */
   override def bindings(environment: Environment, configuration: Configuration): Seq[Binding[_]] = Seq(
     bind[PlayParSeq].to[PlayParSeqImpl],
+    bind[ParSeqStreams].to[ParSeqStreamsImpl],
     bind[ParSeqTaskStore].to[ParSeqTaskStoreImpl],
-    bind[Engine].toProvider[EngineProvider])
+    bind[Engine].toProvider[EngineProvider],
+    bind[ShardedEngine].toProvider[ShardedEngineProvider],
+    bind[ParSeqWarmUp].toSelf.eagerly())
 
 }
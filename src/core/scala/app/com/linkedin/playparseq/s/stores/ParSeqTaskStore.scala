@@ -87,7 +87,10 @@ class ParSeqTaskStoreImpl extends ParSeqTaskStore {
   /**
    * @inheritdoc
    */
-  override def initialize[T <: RequestHeader](request: T): T = request.addAttr(ArgumentsKey, Collections.newSetFromMap[Task[_]](new ConcurrentHashMap).asScala).asInstanceOf[T]
+  override def initialize[T <: RequestHeader](request: T): T =
+    // Keep an existing store, so that several Actions initializing the store can be composed
+    if (request.attrs.contains(ArgumentsKey)) request
+    else request.addAttr(ArgumentsKey, Collections.newSetFromMap[Task[_]](new ConcurrentHashMap).asScala).asInstanceOf[T]
 
   /**
    * The method getOption gets the optional mutable Set of Tasks from one request out of store for modifications.
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.trace.ShallowTraceBuilder
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ConcurrencyLimitExceededException is the failure of a ParSeq Task which is rejected by the
+ * [[ConcurrencyLimiter]], because too many Tasks with the same name are in flight.
+ *
+ * @param name The name of the Task
+ * @param limit The concurrency limit of the name when the Task was rejected
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ConcurrencyLimitExceededException(val name: String, val limit: Int) extends RuntimeException(s"Concurrency limit $limit exceeded for Task $name.")
+
+/**
+ * The class ConcurrencyLimiter limits the number of in-flight ParSeq Tasks per Task name with an AIMD
+ * (additive-increase/multiplicative-decrease) algorithm. The limit of a name grows by one per round of successful
+ * calls, and shrinks by `parseq.limiter.backoffRatio` whenever a call fails or takes longer than
+ * `parseq.limiter.timeoutMilliseconds`. The limit shrinks at most once per round trip: only calls which started after
+ * the last decrease can shrink it again, so that a burst of failures of calls in flight together counts as one. Calls
+ * over the limit fail fast with [[ConcurrencyLimitExceededException]].
+ * The ConcurrencyLimiter is only active if `parseq.limiter.enabled` is true in your conf file.
+ *
+ * @param configuration The injected Configuration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ConcurrencyLimiter @Inject()(configuration: Configuration) {
+
+  /**
+   * The field enabled is whether the limiting is enabled.
+   */
+  val enabled: Boolean = configuration.getOptional[Boolean]("parseq.limiter.enabled").getOrElse(false)
+
+  /**
+   * The field initialLimit is the limit of a name which has no samples yet.
+   */
+  private[this] val initialLimit: Int = configuration.getOptional[Int]("parseq.limiter.initialLimit").getOrElse(20)
+
+  /**
+   * The field minLimit is the lowest limit of a name.
+   */
+  private[this] val minLimit: Int = Math.max(1, configuration.getOptional[Int]("parseq.limiter.minLimit").getOrElse(1))
+
+  /**
+   * The field maxLimit is the highest limit of a name.
+   */
+  private[this] val maxLimit: Int = Math.max(minLimit, configuration.getOptional[Int]("parseq.limiter.maxLimit").getOrElse(200))
+
+  /**
+   * The field backoffRatio is the ratio the limit of a name is multiplied with on a failed or slow call.
+   */
+  private[this] val backoffRatio: Double = configuration.getOptional[Double]("parseq.limiter.backoffRatio").getOrElse(0.9)
+
+  /**
+   * The field timeoutNanos is the latency above which a call counts as slow.
+   */
+  private[this] val timeoutNanos: Long = TimeUnit.MILLISECONDS.toNanos(configuration.getOptional[Long]("parseq.limiter.timeoutMilliseconds").getOrElse(1000))
+
+  /**
+   * The field limits are the limits per Task name.
+   */
+  private[this] val limits = new ConcurrentHashMap[String, Limit]
+
+  /**
+   * The method acquire acquires a permit for running a Task, and records the current limit in the Task's trace.
+   *
+   * @param name The name of the Task
+   * @param shallowTraceBuilder The ShallowTraceBuilder of the Task
+   * @return The permit, which has to be released when the Task completes
+   * @throws ConcurrencyLimitExceededException If the limit of the name is reached
+   */
+  def acquire(name: String, shallowTraceBuilder: ShallowTraceBuilder): ConcurrencyLimiter.Permit =
+    if (enabled) {
+      val limit = limits.computeIfAbsent(name, new java.util.function.Function[String, Limit] {
+        override def apply(name: String): Limit = new Limit
+      })
+      val permit = limit.acquire(name)
+      shallowTraceBuilder.addAttribute(ConcurrencyLimiter.TraceAttribute, limit.current.toString)
+      permit
+    } else ConcurrencyLimiter.NoopPermit
+
+  /**
+   * The method getLimit gets the current limit of a Task name.
+   *
+   * @param name The name of the Task
+   * @return The limit
+   */
+  def getLimit(name: String): Int = Option(limits.get(name)).map(_.current).getOrElse(initialLimit)
+
+  /**
+   * The method getInFlight gets the number of in-flight Tasks of a Task name.
+   *
+   * @param name The name of the Task
+   * @return The number of in-flight Tasks
+   */
+  def getInFlight(name: String): Int = Option(limits.get(name)).map(_.inFlight.get).getOrElse(0)
+
+  /**
+   * The method getRejected gets the number of rejected Tasks of a Task name.
+   *
+   * @param name The name of the Task
+   * @return The number of rejected Tasks
+   */
+  def getRejected(name: String): Long = Option(limits.get(name)).map(_.rejected.get).getOrElse(0L)
+
+  /**
+   * The method getNames gets all Task names which have been limited so far.
+   *
+   * @return The Task names
+   */
+  def getNames: Set[String] = limits.keySet.asScala.toSet
+
+  /**
+   * The class Limit is the AIMD state of one Task name.
+   */
+  private[this] class Limit {
+
+    /**
+     * The field limit is the current limit, kept as a fraction for the additive increase.
+     */
+    @volatile private[this] var limit: Double = initialLimit
+
+    /**
+     * The field backoffNanos is the time of the last decrease of the limit, or of the creation of the Limit.
+     */
+    private[this] var backoffNanos: Long = System.nanoTime
+
+    /**
+     * The field inFlight is the number of in-flight Tasks.
+     */
+    val inFlight = new AtomicInteger
+
+    /**
+     * The field rejected is the number of rejected Tasks.
+     */
+    val rejected = new AtomicLong
+
+    /**
+     * The method current gets the current limit.
+     *
+     * @return The limit
+     */
+    def current: Int = limit.toInt
+
+    /**
+     * The method acquire takes one in-flight slot if the limit allows.
+     *
+     * @param name The name of the Task
+     * @return The permit
+     */
+    def acquire(name: String): ConcurrencyLimiter.Permit = {
+      var acquired = false
+      while (!acquired) {
+        val count = inFlight.get
+        if (count >= current) {
+          rejected.incrementAndGet
+          throw new ConcurrencyLimitExceededException(name, current)
+        }
+        acquired = inFlight.compareAndSet(count, count + 1)
+      }
+      val startNanos = System.nanoTime
+      new ConcurrencyLimiter.Permit {
+        override def release(success: Boolean): Unit = {
+          update(success && System.nanoTime - startNanos <= timeoutNanos, inFlight.getAndDecrement, startNanos)
+        }
+      }
+    }
+
+    /**
+     * The method update adjusts the limit with one sample.
+     *
+     * @param good Whether the call succeeded in time
+     * @param count The number of in-flight Tasks when the call completed
+     * @param startNanos The time the call started
+     */
+    private[this] def update(good: Boolean, count: Int, startNanos: Long): Unit = synchronized {
+      if (!good) {
+        // Calls which were in flight at the last decrease have already been accounted for by it
+        if (startNanos - backoffNanos >= 0) {
+          limit = Math.max(minLimit, limit * backoffRatio)
+          backoffNanos = System.nanoTime
+        }
+      } else if (count * 2 >= limit) {
+        // Only grow when the limit is actually used, otherwise an idle name would grow without bound
+        limit = Math.min(maxLimit, limit + 1 / limit)
+      }
+    }
+
+  }
+
+}
+
+/**
+ * The object ConcurrencyLimiter defines the permit of the [[ConcurrencyLimiter]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ConcurrencyLimiter {
+
+  /**
+   * The field TraceAttribute is the key of the trace attribute holding the concurrency limit.
+   */
+  val TraceAttribute = "concurrencyLimit"
+
+  /**
+   * The trait Permit is one acquired in-flight slot.
+   */
+  trait Permit {
+
+    /**
+     * The method release releases the slot and feeds the outcome of the call back to the limit.
+     *
+     * @param success Whether the call succeeded
+     */
+    def release(success: Boolean): Unit
+
+  }
+
+  /**
+   * The field NoopPermit is the permit used when limiting is disabled.
+   */
+  val NoopPermit: Permit = new Permit {
+    override def release(success: Boolean): Unit = ()
+  }
+
+}
@@ -13,7 +13,7 @@ package com.linkedin.playparseq.utils
 
 import com.linkedin.parseq.{Engine, EngineBuilder}
 import javax.inject.{Inject, Provider, Singleton}
-import java.util.concurrent.{ExecutorService, Executors, ScheduledExecutorService, TimeUnit}
+import java.util.concurrent.{ExecutorService, Executors, ScheduledExecutorService, ThreadPoolExecutor, TimeUnit}
 import play.api.Configuration
 import play.api.inject.ApplicationLifecycle
 import scala.concurrent.{ExecutionContext, Future}
@@ -23,7 +23,8 @@ import scala.concurrent.{ExecutionContext, Future}
  * The class EngineProvider is a preset Provider which provides a ParSeq Engine for dependency injection.
  * The EngineProvider will try to load the key-value of `parseq.engine.numThreads` (The number of threads in Engine's
  * pool) and `parseq.engine.terminationWaitSeconds` (The maximum time to wait for Engine's termination in the unit of
- * seconds) from your conf file, otherwise it will use the default values.
+ * seconds) from your conf file, otherwise it will use the default values. The threads of the pool are started right
+ * away if the [[ParSeqWarmUp]] is enabled.
  *
  * @param applicationLifecycle The injected ApplicationLifecycle component
  * @param configuration The injected Configuration component
@@ -50,6 +51,10 @@ class EngineProvider @Inject()(applicationLifecycle: ApplicationLifecycle, confi
   private[this] val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
 
   // Setup
+  taskScheduler match {
+    case pool: ThreadPoolExecutor if ParSeqWarmUp.isEnabled(configuration) => pool.prestartAllCoreThreads()
+    case _ =>
+  }
   applicationLifecycle.addStopHook(() => Future {
     // Tear down the ParSeq Engine
     engine.shutdown()
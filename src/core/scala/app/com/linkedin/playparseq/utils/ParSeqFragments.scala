@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+
+/**
+ * The object ParSeqFragments defines the markup of progressive responses, which flush a page shell with placeholders
+ * first and then write every fragment as soon as its ParSeq Task resolves. A fragment is written as a `template`
+ * together with a small inline script which moves it into its placeholder, so fragments may arrive in any order. The
+ * placeholder of a fragment whose Task fails keeps its fallback content.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqFragments {
+
+  /**
+   * The field ContentType is the content type of progressive responses.
+   */
+  val ContentType = "text/html; charset=utf-8"
+
+  /**
+   * The field IdPrefix is the prefix of the element ids of placeholders.
+   */
+  private[this] val IdPrefix = "parseq-fragment-"
+
+  /**
+   * The field NamePattern is the pattern of fragment names, which are used in element ids and scripts unescaped.
+   */
+  private[this] val NamePattern = "[A-Za-z0-9_-]+".r.pattern
+
+  /**
+   * The method placeholder creates the placeholder of a fragment for the page shell.
+   *
+   * @param name The name of the fragment
+   * @param fallback The markup shown until the fragment arrives, or if its Task fails
+   * @return The markup of the placeholder
+   */
+  def placeholder(name: String, fallback: String): String = s"""<div id="$IdPrefix${checkName(name)}">$fallback</div>"""
+
+  /**
+   * The method placeholder creates the empty placeholder of a fragment for the page shell.
+   *
+   * @param name The name of the fragment
+   * @return The markup of the placeholder
+   */
+  def placeholder(name: String): String = placeholder(name, "")
+
+  /**
+   * The method fragment creates the markup which fills the placeholder of a fragment.
+   *
+   * @param name The name of the fragment
+   * @param content The markup of the fragment
+   * @return The markup of the fragment
+   */
+  def fragment(name: String, content: String): String =
+    s"""<template>$content</template><script>(function(t){var p=document.getElementById("$IdPrefix${checkName(name)}");""" +
+      """if(p){p.innerHTML="";p.appendChild(t.content)}t.parentNode.removeChild(t)})""" +
+      """(document.currentScript.previousElementSibling)</script>"""
+
+  /**
+   * The method checkName checks the name of a fragment.
+   *
+   * @param name The name of the fragment
+   * @return The name
+   */
+  private[playparseq] def checkName(name: String): String = {
+    if (name == null || !NamePattern.matcher(name).matches) {
+      throw new IllegalArgumentException(s"Invalid fragment name $name, only letters, digits, '_' and '-' are allowed.")
+    }
+    name
+  }
+
+}
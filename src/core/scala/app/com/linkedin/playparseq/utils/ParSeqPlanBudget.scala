@@ -0,0 +1,270 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Context, Engine, Exceptions, Task}
+import com.linkedin.parseq.promise.{Promise => ParSeqPromise, PromiseListener}
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import java.util.concurrent.{ConcurrentHashMap, ScheduledExecutorService, ScheduledThreadPoolExecutor, ThreadFactory, TimeUnit}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong}
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.inject.ApplicationLifecycle
+import scala.concurrent.Future
+
+
+/**
+ * The class ParSeqBudgetExceededException is the failure of a ParSeq plan which has exceeded one of the budgets of the
+ * [[ParSeqPlanBudget]].
+ *
+ * @param budget The name of the exceeded budget, one of [[ParSeqPlanBudget.MaxCalls]],
+ *               [[ParSeqPlanBudget.MaxInFlightTasks]] and [[ParSeqPlanBudget.MaxWallTime]]
+ * @param limit The limit of the budget
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqBudgetExceededException(val budget: String, val limit: Long) extends RuntimeException(s"Budget $budget of $limit exceeded by the ParSeq plan.")
+
+/**
+ * The class ParSeqPlanBudget limits what a single plan run by `runTask` may use: the number of its calls of `toTask`
+ * (`parseq.budget.maxCalls`), the number of the Tasks created by those calls which are in flight at the same time
+ * (`parseq.budget.maxInFlightTasks`), and its wall time (`parseq.budget.maxWallTimeMilliseconds`). A limit of 0, which
+ * is the default, means no limit. A plan exceeding a budget gets its root Task cancelled, fails with
+ * [[ParSeqBudgetExceededException]], and is counted per budget. A plan within budgets is started by a Task named
+ * [[ParSeqPlanBudget.TaskName]], which registers the plan under its plan id, so that the Tasks created by `toTask` find
+ * their plan through their Context. `parseq.budget.maxCalls` does not bound the number of Tasks a plan creates:
+ * Tasks other than those of `toTask`, e.g. of `map`, `flatMap` or `Task.par`, are neither counted nor limited, so a
+ * recursive `flatMap` which never calls `toTask` is only bounded by the wall time.
+ *
+ * @param configuration The injected Configuration component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqPlanBudget @Inject()(configuration: Configuration, applicationLifecycle: ApplicationLifecycle) {
+
+  /**
+   * The field maxCalls is the maximum number of calls of `toTask` in one plan. It does not bound the other Tasks of the
+   * plan.
+   */
+  val maxCalls: Int = Math.max(0, configuration.getOptional[Int]("parseq.budget.maxCalls").getOrElse(0))
+
+  /**
+   * The field maxInFlightTasks is the maximum number of Tasks created by `toTask` in flight in one plan.
+   */
+  val maxInFlightTasks: Int = Math.max(0, configuration.getOptional[Int]("parseq.budget.maxInFlightTasks").getOrElse(0))
+
+  /**
+   * The field maxWallTimeMillis is the maximum wall time of one plan in milliseconds.
+   */
+  val maxWallTimeMillis: Long = Math.max(0L, configuration.getOptional[Long]("parseq.budget.maxWallTimeMilliseconds").getOrElse(0L))
+
+  /**
+   * The field enabled is whether any budget is limited.
+   */
+  val enabled: Boolean = maxCalls > 0 || maxInFlightTasks > 0 || maxWallTimeMillis > 0
+
+  /**
+   * The field tripped is the number of plans which have exceeded each budget.
+   */
+  private[this] val tripped: Map[String, AtomicLong] =
+    Seq(ParSeqPlanBudget.MaxCalls, ParSeqPlanBudget.MaxInFlightTasks, ParSeqPlanBudget.MaxWallTime).map(_ -> new AtomicLong).toMap
+
+  /**
+   * The field plans is the running plans within budgets by their plan ids.
+   */
+  private[this] val plans = new ConcurrentHashMap[java.lang.Long, Plan]
+
+  /**
+   * The field timer is the scheduler for the wall time of the plans, which is only created if the wall time is limited.
+   */
+  private[this] lazy val timer: ScheduledExecutorService = {
+    val executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory {
+      override def newThread(runnable: Runnable): Thread = {
+        val thread = new Thread(runnable, "parseq-budget-timer")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+    // Drop the timeouts of completed plans right away
+    executor.setRemoveOnCancelPolicy(true)
+    applicationLifecycle.addStopHook(() => Future.successful(executor.shutdown()))
+    executor
+  }
+
+  /**
+   * The method run runs a ParSeq Task as a plan on the Engine within the budgets.
+   *
+   * @param engine The ParSeq Engine
+   * @param task The ParSeq Task
+   * @tparam T The type parameter of the ParSeq Task
+   */
+  def run[T](engine: Engine, task: Task[T]): Unit =
+    if (enabled) {
+      val plan = new Plan(task)
+      // Register the plan under the id the Engine gives it, then run the Task in the same plan
+      engine.run(Task.async[T](ParSeqPlanBudget.TaskName, (context: Context) => {
+        val planId: java.lang.Long = context.getPlanId
+        plans.put(planId, plan)
+        task.addListener(new PromiseListener[T] {
+          override def onResolved(promise: ParSeqPromise[T]): Unit = plans.remove(planId)
+        })
+        context.run(task)
+        task
+      }))
+      if (maxWallTimeMillis > 0 && !task.isDone) {
+        val timeout = timer.schedule(new Runnable {
+          override def run(): Unit = plan.trip(ParSeqPlanBudget.MaxWallTime, maxWallTimeMillis)
+        }, maxWallTimeMillis, TimeUnit.MILLISECONDS)
+        task.addListener(new PromiseListener[T] {
+          override def onResolved(promise: ParSeqPromise[T]): Unit = timeout.cancel(false)
+        })
+      }
+    } else engine.run(task)
+
+  /**
+   * The method acquireInFlight counts one call of `toTask` against the plan of the Context and takes one in-flight
+   * slot of the plan for it. Exceeding a budget fails the whole plan.
+   *
+   * @param context The Context of the Task created by `toTask`
+   * @return The slot, which has to be released when the Task completes
+   * @throws ParSeqBudgetExceededException If the plan has made too many calls or has no in-flight slot left
+   */
+  def acquireInFlight(context: Context): ParSeqPlanBudget.InFlight = Option(plans.get(context.getPlanId)) match {
+    case Some(plan) =>
+      if (maxCalls > 0 && plan.calls.incrementAndGet > maxCalls) throw plan.trip(ParSeqPlanBudget.MaxCalls, maxCalls)
+      if (maxInFlightTasks > 0) {
+        if (plan.inFlight.incrementAndGet > maxInFlightTasks) {
+          plan.inFlight.decrementAndGet
+          throw plan.trip(ParSeqPlanBudget.MaxInFlightTasks, maxInFlightTasks)
+        }
+        new ParSeqPlanBudget.InFlight {
+          override def release(): Unit = plan.inFlight.decrementAndGet
+        }
+      } else ParSeqPlanBudget.NoopInFlight
+    case None => ParSeqPlanBudget.NoopInFlight
+  }
+
+  /**
+   * The method getTripped gets the number of plans which have exceeded a budget.
+   *
+   * @param budget The name of the budget
+   * @return The number of plans
+   */
+  def getTripped(budget: String): Long = tripped.get(budget).map(_.get).getOrElse(0L)
+
+  /**
+   * The class Plan is the usage of one plan.
+   *
+   * @param root The root Task of the plan
+   */
+  private[this] class Plan(root: Task[_]) {
+
+    /**
+     * The field calls is the number of calls of `toTask` so far.
+     */
+    val calls = new AtomicInteger
+
+    /**
+     * The field inFlight is the number of in-flight Tasks created by `toTask`.
+     */
+    val inFlight = new AtomicInteger
+
+    /**
+     * The field exceeded is whether the plan has exceeded a budget already.
+     */
+    private[this] val exceeded = new AtomicBoolean
+
+    /**
+     * The method trip fails the plan by cancelling its root Task, unless it has failed for a budget already.
+     *
+     * @param budget The name of the budget
+     * @param limit The limit of the budget
+     * @return The failure
+     */
+    def trip(budget: String, limit: Long): ParSeqBudgetExceededException = {
+      val exception = new ParSeqBudgetExceededException(budget, limit)
+      if (exceeded.compareAndSet(false, true) && !root.isDone) {
+        tripped(budget).incrementAndGet
+        root.getShallowTraceBuilder.addAttribute(ParSeqPlanBudget.TraceAttribute, budget)
+        root.cancel(exception)
+      }
+      exception
+    }
+
+  }
+
+}
+
+/**
+ * The object ParSeqPlanBudget defines the names of the budgets of the [[ParSeqPlanBudget]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqPlanBudget {
+
+  /**
+   * The field TaskName is the name of the Task which starts a plan within budgets.
+   */
+  val TaskName = "budget"
+
+  /**
+   * The field MaxCalls is the name of the budget for the number of calls of `toTask`.
+   */
+  val MaxCalls = "maxCalls"
+
+  /**
+   * The field MaxInFlightTasks is the name of the budget for the number of in-flight Tasks.
+   */
+  val MaxInFlightTasks = "maxInFlightTasks"
+
+  /**
+   * The field MaxWallTime is the name of the budget for the wall time.
+   */
+  val MaxWallTime = "maxWallTime"
+
+  /**
+   * The field TraceAttribute is the key of the trace attribute of the root Task holding the exceeded budget.
+   */
+  val TraceAttribute = "budgetExceeded"
+
+  /**
+   * The trait InFlight is one acquired in-flight slot of a plan.
+   */
+  trait InFlight {
+
+    /**
+     * The method release releases the slot.
+     */
+    def release(): Unit
+
+  }
+
+  /**
+   * The field NoopInFlight is the slot used when the in-flight Tasks are not limited.
+   */
+  val NoopInFlight: InFlight = new InFlight {
+    override def release(): Unit = ()
+  }
+
+  /**
+   * The method unwrap gets the [[ParSeqBudgetExceededException]] out of the cancellation of a plan which exceeded a
+   * budget, so that callers see the typed failure.
+   *
+   * @param throwable The failure of the root Task
+   * @return The failure to pass on
+   */
+  def unwrap(throwable: Throwable): Throwable = Option(throwable.getCause) match {
+    case Some(cause: ParSeqBudgetExceededException) if Exceptions.isCancellation(throwable) => cause
+    case _ => throwable
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Task, Tuple2Task}
+import com.linkedin.parseq.function.{Function1 => ParSeqFunction1, Tuple2 => ParSeqTuple2}
+import java.util.concurrent.Callable
+import scala.util.control.NonFatal
+
+
+/**
+ * The class ParSeqPlanTemplate defines the shape of a ParSeq plan once, e.g. at startup, and instantiates it per
+ * request from its input. As ParSeq Tasks can only run once, every instance still creates its own Tasks, but the names
+ * and the functions of the steps are resolved and allocated once in the template, so an instance costs its Tasks and
+ * little else. A template starts with [[ParSeqPlanTemplate.input]], which is the typed input slot. The input slot is
+ * not a Task of its own, the first steps consume the input directly, which saves a Task per branch compared with
+ * starting the plan from `Task.value`. A template is immutable, so it can be shared by all requests.
+ *
+ * @param name The name of the input, which shows up in a trace when the template has no steps
+ * @param build The function which builds the plan from the input, or None for the input itself
+ * @tparam I The type parameter of the input
+ * @tparam O The type parameter of the output
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqPlanTemplate[I, O] private (name: String, build: Option[I => Task[O]]) {
+
+  /**
+   * The method map adds a step which transforms the output.
+   *
+   * @param stepName The name of the step
+   * @param f The function of the step
+   * @tparam R The type parameter of the new output
+   * @return The new template
+   */
+  def map[R](stepName: String, f: ParSeqFunction1[O, R]): ParSeqPlanTemplate[I, R] = new ParSeqPlanTemplate[I, R](name, Some(build match {
+    case Some(b) => input => b(input).map(stepName, f)
+    case None => input => Task.callable(stepName, new Callable[R] {
+      override def call(): R = f(input.asInstanceOf[O])
+    })
+  }))
+
+  /**
+   * The method flatMap adds a step which runs another ParSeq Task on the output.
+   *
+   * @param stepName The name of the step
+   * @param f The function which creates the ParSeq Task of the step
+   * @tparam R The type parameter of the new output
+   * @return The new template
+   */
+  def flatMap[R](stepName: String, f: ParSeqFunction1[O, Task[R]]): ParSeqPlanTemplate[I, R] = new ParSeqPlanTemplate[I, R](name, Some(build match {
+    case Some(b) => input => b(input).flatMap(stepName, f)
+    case None => input => try f(input.asInstanceOf[O]) catch {
+      case NonFatal(e) => Task.failure(stepName, e)
+    }
+  }))
+
+  /**
+   * The method zip combines the template with another template of the same input, whose plans run in parallel.
+   *
+   * @param other The other template
+   * @tparam R The type parameter of the output of the other template
+   * @return The new template
+   */
+  def zip[R](other: ParSeqPlanTemplate[I, R]): ParSeqPlanTemplate[I, ParSeqTuple2[O, R]] =
+    new ParSeqPlanTemplate[I, ParSeqTuple2[O, R]](name, Some(input => {
+      val tuple: Tuple2Task[O, R] = Task.par(instantiate(input), other.instantiate(input))
+      tuple
+    }))
+
+  /**
+   * The method instantiate creates the plan for an input.
+   *
+   * @param input The input
+   * @return The ParSeq Task of the plan
+   */
+  def instantiate(input: I): Task[O] = build match {
+    case Some(b) => b(input)
+    case None => Task.value(name, input.asInstanceOf[O])
+  }
+
+}
+
+/**
+ * The object ParSeqPlanTemplate creates a [[ParSeqPlanTemplate]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqPlanTemplate {
+
+  /**
+   * The method input creates a template which outputs its input.
+   *
+   * @param name The name of the input Task
+   * @tparam I The type parameter of the input
+   * @return The template
+   */
+  def input[I](name: String): ParSeqPlanTemplate[I, I] = new ParSeqPlanTemplate[I, I](name, None)
+
+}
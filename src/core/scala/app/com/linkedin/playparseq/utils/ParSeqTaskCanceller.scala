@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.Task
+import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Supplier
+import javax.inject.{Inject, Singleton}
+import play.api.mvc.Result
+import play.mvc.{Result => JavaResult}
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext
+
+
+/**
+ * The class ParSeqTaskCanceller cancels the ParSeq Tasks of a request which are still running once its response is
+ * completely sent, or the client has gone away. Such Tasks were started independently of the `Result`, e.g. as side
+ * computations, and nobody is waiting for them anymore. Tasks marked with [[ParSeqTaskCanceller.fireAndForget]] are
+ * left running.
+ *
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTaskCanceller @Inject()(implicit executionContext: ExecutionContext) extends PlayParSeqHelper {
+
+  /**
+   * The field cancelledTasks is the number of Tasks cancelled so far.
+   */
+  private[this] val cancelledTasks = new AtomicLong
+
+  /**
+   * The field cancelledTaskNanos is the accumulated running time of the cancelled Tasks at the moment of cancellation.
+   */
+  private[this] val cancelledTaskNanos = new AtomicLong
+
+  /**
+   * The method cancelOnComplete cancels the given Tasks once the `Result` is completely sent.
+   *
+   * @param result The Result
+   * @param tasks The Tasks to cancel, resolved when the Result completes
+   * @return The Result to be sent instead of the origin Result
+   */
+  def cancelOnComplete(result: Result, tasks: () => Iterable[Task[_]]): Result = watchResult(result, () => cancel(tasks()))
+
+  /**
+   * The method cancelOnComplete cancels the given Tasks once the Java `Result` is completely sent.
+   *
+   * @param result The Result
+   * @param tasks The Tasks to cancel, resolved when the Result completes
+   * @return The Result to be sent instead of the origin Result
+   */
+  def cancelOnComplete(result: JavaResult, tasks: Supplier[java.util.Set[Task[_]]]): JavaResult = watchResult(result, new Runnable {
+    override def run(): Unit = cancel(tasks.get)
+  })
+
+  /**
+   * The method cancel cancels the given Java Set of Tasks which are neither done nor marked as fire-and-forget.
+   *
+   * @param tasks The Tasks to cancel
+   */
+  def cancel(tasks: java.util.Set[Task[_]]): Unit = cancel(tasks.asScala)
+
+  /**
+   * The method cancel cancels the given Tasks which are neither done nor marked as fire-and-forget.
+   *
+   * @param tasks The Tasks to cancel
+   */
+  def cancel(tasks: Iterable[Task[_]]): Unit = {
+    val now = System.nanoTime
+    tasks.filterNot(task => task.isDone || ParSeqTaskCanceller.isFireAndForget(task)).foreach(task => {
+      if (task.cancel(new CancellationException("Response of the request is completed."))) {
+        cancelledTasks.incrementAndGet
+        val startNanos = Option(task.getShallowTrace.getStartNanos).map(_.longValue).getOrElse(now)
+        cancelledTaskNanos.addAndGet(Math.max(0L, now - startNanos))
+      }
+    })
+  }
+
+  /**
+   * The method getCancelledTasks gets the number of Tasks cancelled so far.
+   *
+   * @return The number of Tasks
+   */
+  def getCancelledTasks: Long = cancelledTasks.get
+
+  /**
+   * The method getCancelledTaskNanos gets the accumulated running time of the cancelled Tasks at the moment of
+   * cancellation, which is a lower bound of the time they would have kept the Engine busy.
+   *
+   * @return The time in nanoseconds
+   */
+  def getCancelledTaskNanos: Long = cancelledTaskNanos.get
+
+}
+
+/**
+ * The object ParSeqTaskCanceller provides the marking of fire-and-forget Tasks.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTaskCanceller {
+
+  /**
+   * The field FireAndForgetAttribute is the key of the trace attribute marking a fire-and-forget Task.
+   */
+  val FireAndForgetAttribute = "fireAndForget"
+
+  /**
+   * The method fireAndForget marks a Task, so that it keeps running after the response is completed.
+   *
+   * @param task The Task
+   * @tparam T The type parameter of the Task
+   * @return The same Task
+   */
+  def fireAndForget[T](task: Task[T]): Task[T] = {
+    task.getShallowTraceBuilder.addAttribute(FireAndForgetAttribute, "true")
+    task
+  }
+
+  /**
+   * The method isFireAndForget checks whether a Task is marked as fire-and-forget.
+   *
+   * @param task The Task
+   * @return Whether the Task is marked
+   */
+  def isFireAndForget(task: Task[_]): Boolean = task.getShallowTrace.getAttributes.containsKey(FireAndForgetAttribute)
+
+}
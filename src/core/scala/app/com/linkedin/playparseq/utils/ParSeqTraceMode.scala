@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import play.api.libs.typedmap.TypedKey
+import play.api.mvc.RequestHeader
+import play.mvc.Http
+import play.libs.typedmap.{TypedKey => JavaTypedKey}
+
+
+/**
+ * The object ParSeqTraceMode marks the requests whose plans may be looked at in a ParSeq Trace, e.g. by the ParSeq
+ * Trace feature, tail-based sampling or stitching. If `parseq.engine.lowTrace.enabled` is true, the plans of the other
+ * requests run on the low-trace Engines of the [[ShardedEngine]], which record no relationships between Tasks, so a
+ * plan costs its Tasks and their ShallowTraces only. The mark is set by the ParSeq Trace feature once per request, so requests without it need no copy.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceMode {
+
+  /**
+   * The field TracedKey is the key of the mark.
+   */
+  val TracedKey: TypedKey[java.lang.Boolean] = TypedKey("ParSeqTraced")
+
+  /**
+   * The field JavaTracedKey is the key of the mark for Java requests.
+   */
+  val JavaTracedKey: JavaTypedKey[java.lang.Boolean] = new JavaTypedKey(TracedKey)
+
+  /**
+   * The method isTraced gets whether the plans of a request may be looked at in a ParSeq Trace.
+   *
+   * @param requestHeader The request
+   * @return Whether the request is traced
+   */
+  def isTraced(requestHeader: RequestHeader): Boolean = requestHeader.attrs.contains(TracedKey)
+
+  /**
+   * The method isTraced gets whether the plans of a Java request may be looked at in a ParSeq Trace.
+   *
+   * @param request The Java request
+   * @return Whether the request is traced
+   */
+  def isTraced(request: Http.RequestHeader): Boolean = request.attrs.containsKey(JavaTracedKey)
+
+  /**
+   * The method markTraced marks a request as traced.
+   *
+   * @param requestHeader The request
+   * @tparam T The type parameter of the request
+   * @return The marked request
+   */
+  def markTraced[T <: RequestHeader](requestHeader: T): T =
+    if (isTraced(requestHeader)) requestHeader else requestHeader.addAttr(TracedKey, java.lang.Boolean.TRUE).asInstanceOf[T]
+
+  /**
+   * The method markTraced marks a Java request as traced.
+   *
+   * @param request The Java request
+   * @return The marked request
+   */
+  def markTraced(request: Http.Request): Http.Request =
+    if (isTraced(request)) request else request.addAttr(JavaTracedKey, java.lang.Boolean.TRUE)
+
+  /**
+   * The method markTraced marks a Java request as traced.
+   *
+   * @param request The Java request
+   * @return The marked request
+   */
+  def markTraced(request: Http.RequestHeader): Http.RequestHeader =
+    if (isTraced(request)) request else request.addAttr(JavaTracedKey, java.lang.Boolean.TRUE)
+
+}
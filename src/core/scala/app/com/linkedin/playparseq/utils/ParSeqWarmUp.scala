@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.playparseq.j
+import com.linkedin.playparseq.s.PlayParSeqImpl
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import com.linkedin.playparseq.s.stores.ParSeqTaskStoreImpl
+import java.util.concurrent.{Callable, CompletableFuture, CompletionStage, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Supplier
+import javax.inject.{Inject, Singleton}
+import play.api.{Configuration, Environment, Logger}
+import play.api.inject.Injector
+import play.api.libs.typedmap.TypedMap
+import play.api.mvc.{Headers, RequestHeader}
+import play.api.mvc.request.{RemoteConnection, RequestAttrKey, RequestFactory, RequestTarget}
+import play.libs.concurrent.HttpExecutionContext
+import scala.compat.java8.FutureConverters._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+import scala.concurrent.duration.Duration
+import scala.util.control.NonFatal
+
+
+/**
+ * The trait ParSeqWarmUpStep is an additional step of the [[ParSeqWarmUp]], which is listed by its class name in
+ * `parseq.warmUp.steps` and created by the injector.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+trait ParSeqWarmUpStep {
+
+  /**
+   * The method warmUp does the lazy work of a component ahead of the first request.
+   */
+  def warmUp(): Unit
+
+}
+
+/**
+ * The class ParSeqWarmUp does the lazy work of play-parseq at application start rather than on the first requests,
+ * if `parseq.warmUp.enabled` is true in your conf file. It runs `parseq.warmUp.plans` synthetic plans through `runTask`
+ * and `toTask` of both the Scala and the Java API on every Engine, so that the hot paths are compiled by the JIT, and
+ * then the steps listed in
+ * `parseq.warmUp.steps`, e.g. the ParSeq Trace one. The pools of the Engines are prestarted by their providers. The
+ * warm-up runs on a thread of its own, and `isReady` tells when it is done, which is meant to gate the readiness of the
+ * application.
+ *
+ * @param shardedEngine The injected [[ShardedEngine]] component
+ * @param concurrencyLimiter The injected [[ConcurrencyLimiter]] component
+ * @param parSeqPlanBudget The injected [[ParSeqPlanBudget]] component
+ * @param httpExecutionContext The injected HttpExecutionContext component
+ * @param injector The injected Injector component
+ * @param environment The injected Environment component
+ * @param configuration The injected Configuration component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqWarmUp @Inject()(shardedEngine: ShardedEngine, concurrencyLimiter: ConcurrencyLimiter, parSeqPlanBudget: ParSeqPlanBudget, httpExecutionContext: HttpExecutionContext, injector: Injector, environment: Environment, configuration: Configuration)(implicit executionContext: ExecutionContext) {
+
+  /**
+   * A happy logger.
+   */
+  private[this] val logger = Logger(classOf[ParSeqWarmUp])
+
+  /**
+   * The field enabled is whether the warm-up is enabled.
+   */
+  val enabled: Boolean = ParSeqWarmUp.isEnabled(configuration)
+
+  /**
+   * The field plans is the number of synthetic plans.
+   */
+  private[this] val plans: Int = Math.max(0, configuration.getOptional[Int]("parseq.warmUp.plans").getOrElse(1000))
+
+  /**
+   * The field timeoutMillis is the maximum time to wait for the synthetic plans in milliseconds.
+   */
+  private[this] val timeoutMillis: Long = configuration.getOptional[Long]("parseq.warmUp.timeoutMilliseconds").getOrElse(30000L)
+
+  /**
+   * The field steps are the class names of the additional steps.
+   */
+  private[this] val steps: Seq[String] = configuration.getOptional[Seq[String]]("parseq.warmUp.steps").getOrElse(Seq.empty)
+
+  /**
+   * The field warmUpMillis is the time the warm-up took in milliseconds, or -1 until it is done.
+   */
+  private[this] val warmUpMillis = new AtomicLong(-1L)
+
+  /**
+   * The field done is completed with the time the warm-up took in milliseconds once it is done.
+   */
+  private[this] val done = Promise[Long]()
+
+  // Setup
+  if (enabled) {
+    val thread = new Thread(new Runnable {
+      override def run(): Unit = warmUp()
+    }, "parseq-warm-up")
+    thread.setDaemon(true)
+    thread.start()
+  } else {
+    done.success(0L)
+  }
+
+  /**
+   * The method isReady gets whether the warm-up is done, which is always true if it is disabled.
+   *
+   * @return Whether the warm-up is done
+   */
+  def isReady: Boolean = done.isCompleted
+
+  /**
+   * The method ready gets the Future of the time the warm-up took in milliseconds.
+   *
+   * @return The Future
+   */
+  def ready: Future[Long] = done.future
+
+  /**
+   * The method getWarmUpMillis gets the time the warm-up took in milliseconds, or -1 until it is done.
+   *
+   * @return The time in milliseconds
+   */
+  def getWarmUpMillis: Long = warmUpMillis.get
+
+  /**
+   * The method warmUp runs the synthetic plans and the additional steps, and reports the time it took. Failures are
+   * logged, as the warm-up is best effort and must not keep the application from getting ready.
+   */
+  private[this] def warmUp(): Unit = {
+    val start = System.nanoTime
+    try {
+      runPlans()
+      steps.foreach(runStep)
+    } finally {
+      val millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime - start)
+      warmUpMillis.set(millis)
+      logger.info(s"ParSeq warm-up took $millis ms.")
+      done.success(millis)
+    }
+  }
+
+  /**
+   * The method runPlans runs the synthetic plans through `runTask` and `toTask` of both the Scala and the Java API, half
+   * of them as traced requests, so that both the regular and the low-trace Engines of every shard are warmed up. The
+   * CompletionStages of the Java plans complete on the HttpExecutionContext, as those of Java Actions usually do.
+   */
+  private[this] def runPlans(): Unit = try {
+    val playParSeq = new PlayParSeqImpl(shardedEngine, new ParSeqTaskStoreImpl, concurrencyLimiter, parSeqPlanBudget)
+    val javaPlayParSeq = new j.PlayParSeqImpl(shardedEngine, new j.stores.ParSeqTaskStoreImpl, httpExecutionContext,
+      concurrencyLimiter, parSeqPlanBudget)
+    val results = (1 to plans).flatMap(i => {
+      val request = if (i % 2 == 0) ParSeqTraceMode.markTraced(ParSeqWarmUp.syntheticRequest(i)) else ParSeqWarmUp.syntheticRequest(i)
+      val remote: Task[Int] = playParSeq.toTask(ParSeqWarmUp.TaskName, () => Future.successful(i))
+      val javaRemote: Task[Int] = javaPlayParSeq.toTask(ParSeqWarmUp.TaskName, new Callable[CompletionStage[Int]] {
+        override def call(): CompletionStage[Int] = CompletableFuture.supplyAsync(new Supplier[Int] {
+          override def get(): Int = i
+        }, httpExecutionContext.current())
+      })
+      Seq(playParSeq.runTask(ParSeqWarmUp.syntheticPlan(i, remote))(request),
+        javaPlayParSeq.runTask(request.asJava, ParSeqWarmUp.syntheticPlan(i, javaRemote)).toScala)
+    })
+    Await.ready(Future.sequence(results), Duration(timeoutMillis, TimeUnit.MILLISECONDS))
+  } catch {
+    case NonFatal(e) => logger.warn("ParSeq warm-up of the Engines failed.", e)
+  }
+
+  /**
+   * The method runStep runs an additional step.
+   *
+   * @param className The class name of the step
+   */
+  private[this] def runStep(className: String): Unit = try {
+    injector.instanceOf(environment.classLoader.loadClass(className)).asInstanceOf[ParSeqWarmUpStep].warmUp()
+  } catch {
+    case NonFatal(e) => logger.warn(s"ParSeq warm-up step $className failed.", e)
+  }
+
+}
+
+/**
+ * The object ParSeqWarmUp provides the synthetic plans and requests of the [[ParSeqWarmUp]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqWarmUp {
+
+  /**
+   * The field TaskName is the name of the Tasks of the synthetic plans.
+   */
+  val TaskName = "parseq-warm-up"
+
+  /**
+   * The method isEnabled gets whether the warm-up is enabled. It will load from conf file, otherwise it will use a
+   * default value, which is false.
+   *
+   * @param configuration The Configuration
+   * @return Whether the warm-up is enabled
+   */
+  def isEnabled(configuration: Configuration): Boolean = configuration.getOptional[Boolean]("parseq.warmUp.enabled").getOrElse(false)
+
+  /**
+   * The method syntheticPlan builds a synthetic plan around a Task created by `toTask`.
+   *
+   * @param i The number of the plan
+   * @param remote The Task created by `toTask`
+   * @return The ParSeq Task
+   */
+  private def syntheticPlan(i: Int, remote: Task[Int]): Task[Int] = {
+    val local: Task[Int] = Task.value(TaskName, i).map(TaskName, (n: Int) => n + 1)
+    Task.par(remote, local).flatMap(TaskName, (a: Int, b: Int) => Task.value(TaskName, a + b))
+  }
+
+  /**
+   * The method syntheticRequest creates a synthetic request, whose id picks the shard.
+   *
+   * @param id The id of the request
+   * @return The RequestHeader
+   */
+  private def syntheticRequest(id: Long): RequestHeader = RequestFactory.plain.createRequestHeader(
+    RemoteConnection("127.0.0.1", secure = false, None), "GET", RequestTarget("/", "/", Map.empty), "HTTP/1.1",
+    Headers(), TypedMap.empty).addAttr(RequestAttrKey.Id, id)
+
+}
@@ -11,14 +11,25 @@
  */
 package com.linkedin.playparseq.utils
 
+import akka.NotUsed
+import akka.stream.scaladsl.Source
 import com.linkedin.parseq.Task
+import com.linkedin.parseq.function.{Failure, Success, Function1 => ParSeqFunction1, Try => ParSeqTry}
 import com.linkedin.parseq.promise.{Promise => ParSeqPromise, PromiseListener}
 import java.util.concurrent.{CompletableFuture, CompletionStage}
-import scala.concurrent.{Future, Promise}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+import play.api.http.HttpEntity
+import play.api.mvc.Result
+import play.mvc.{Result => JavaResult}
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
 
 
 /**
- * The class PlayParSeqHelper provides bindings between a ParSeq `Task[T]` to a `Future[T]` or a `CompletionStage[T]`.
+ * The class PlayParSeqHelper provides bindings between a ParSeq `Task[T]` to a `Future[T]` or a `CompletionStage[T]`,
+ * binding several named ParSeq Tasks to the body of a progressive response, traversing items with bounded parallelism,
+ * and watching for the completion of a `Result`.
  *
  * @author Yinan Ding (yding@linkedin.com)
  */
@@ -57,6 +68,98 @@ private[playparseq] abstract class PlayParSeqHelper {
     completableFuture
   }
 
+  /**
+   * The method bindTasksToFragments binds the ParSeq Tasks of fragments to a Source, which emits the page shell first,
+   * then every fragment in the order of completion as defined by [[ParSeqFragments]], and the tail last. The fragment
+   * Tasks are combined into one ParSeq Task, which is to be run by the caller.
+   *
+   * @param shell The markup of the page shell with the placeholders
+   * @param fragments The ParSeq Tasks of the fragments by name
+   * @param tail The markup after all fragments
+   * @param executionContext The ExecutionContext
+   * @return The ParSeq Task of all fragments and the Source of the response body
+   */
+  private[playparseq] def bindTasksToFragments(shell: String, fragments: Seq[(String, Task[String])], tail: String)
+    (implicit executionContext: ExecutionContext): (Task[java.util.List[String]], Source[String, NotUsed]) = {
+    fragments.foreach(fragment => ParSeqFragments.checkName(fragment._1))
+    // Fill the slots in the order of completion, binding before running so that no completion is missed
+    val slots: IndexedSeq[Promise[Option[String]]] = fragments.map(_ => Promise[Option[String]]()).toIndexedSeq
+    val next: AtomicInteger = new AtomicInteger
+    fragments.foreach {
+      case (name, task) => bindTaskToFuture(task).onComplete(content =>
+        // Leave the placeholder of a failed fragment as it is
+        slots(next.getAndIncrement).success(content.toOption.map(ParSeqFragments.fragment(name, _))))
+    }
+    val source: Source[String, NotUsed] = Source.single(shell)
+      .concat(Source(slots.toList).mapAsync(1)(_.future).mapConcat(_.toList))
+      .concat(Source.single(tail))
+    (Task.par(fragments.map(_._2).asJava), source)
+  }
+
+  /**
+   * The method traverseToTask creates a ParSeq Task which runs a ParSeq Task for every item with at most `parallelism`
+   * Tasks in flight. The items are split into chunks of `chunkSize` items, capped by `parallelism`, whose Tasks run in
+   * parallel and show up grouped under one node per chunk in a trace. Chunks are taken by `parallelism / chunkSize`
+   * lanes one after another, and the Task of an item is only created once its chunk is taken, so large collections
+   * neither flood the Engine nor the trace. With `failFast`, no more chunks are taken after a Task fails, and the
+   * ParSeq Task fails with the first failure.
+   *
+   * @param name The String which describes the Task and shows up in a trace
+   * @param items The items
+   * @param parallelism The number of Tasks in flight at a time
+   * @param chunkSize The number of items per chunk
+   * @param failFast Whether to stop at the first failure
+   * @param f The function which creates the ParSeq Task of an item
+   * @param finish The function which creates the result from the outcomes of the items in order
+   * @tparam A The type parameter of the items
+   * @tparam B The type parameter of the ParSeq Tasks of the items
+   * @tparam R The type parameter of the result
+   * @return The ParSeq Task
+   */
+  private[playparseq] def traverseToTask[A, B, R](name: String, items: java.util.List[A], parallelism: Int, chunkSize: Int,
+    failFast: Boolean, f: ParSeqFunction1[A, Task[B]], finish: ParSeqFunction1[java.util.List[ParSeqTry[B]], R]): Task[R] = {
+    require(parallelism > 0, "The parallelism must be positive.")
+    require(chunkSize > 0, "The chunk size must be positive.")
+    val size: Int = Math.min(chunkSize, parallelism)
+    val chunks: Int = (items.size + size - 1) / size
+    val outcomes: java.util.List[ParSeqTry[B]] = java.util.Arrays.asList(new Array[ParSeqTry[B]](items.size): _*)
+    val next: AtomicInteger = new AtomicInteger
+    val firstFailure: AtomicReference[Throwable] = new AtomicReference[Throwable]
+    // Record the outcome of every item rather than failing its chunk, so that the other chunks keep going
+    val item: Int => Task[Unit] = index => (try f(items.get(index)) catch {
+      case NonFatal(e) => Task.failure[B](e)
+    }).transform(s"$name[$index]", new ParSeqFunction1[ParSeqTry[B], ParSeqTry[Unit]] {
+      override def apply(outcome: ParSeqTry[B]): ParSeqTry[Unit] = {
+        outcomes.set(index, outcome)
+        if (outcome.isFailed) firstFailure.compareAndSet(null, outcome.getError)
+        Success.of(())
+      }
+    })
+    val chunk: Int => Task[Unit] = index => {
+      val from = index * size
+      val until = Math.min(from + size, items.size)
+      if (until - from == 1) item(from)
+      else Task.par((from until until).map(item).asJava).map(s"$name[$from..${until - 1}]", new ParSeqFunction1[java.util.List[Unit], Unit] {
+        override def apply(units: java.util.List[Unit]): Unit = ()
+      })
+    }
+    // Every lane takes the next chunk once its current chunk is done
+    def lane(): Task[Unit] = {
+      val index = next.getAndIncrement
+      if (index >= chunks || (failFast && firstFailure.get != null)) Task.value(s"$name done", ())
+      else chunk(index).flatMap(new ParSeqFunction1[Unit, Task[Unit]] {
+        override def apply(unit: Unit): Task[Unit] = lane()
+      })
+    }
+    val lanes: Seq[Task[Unit]] = (0 until Math.max(1, Math.min(parallelism / size, chunks))).map(_ => lane())
+    Task.par(lanes.asJava).transform(name, new ParSeqFunction1[ParSeqTry[java.util.List[Unit]], ParSeqTry[R]] {
+      override def apply(done: ParSeqTry[java.util.List[Unit]]): ParSeqTry[R] =
+        if (done.isFailed) Failure.of(done.getError)
+        else if (failFast && firstFailure.get != null) Failure.of(firstFailure.get)
+        else Success.of(finish(outcomes))
+    })
+  }
+
   /**
    * The method addTaskListener adds a `PromiseListener[T]` to a ParSeq `Task[T]` for binding success and failure to
    * the corresponding handlers.
@@ -69,10 +172,54 @@ private[playparseq] abstract class PlayParSeqHelper {
   private def addTaskListener[T](task: Task[T], success: T => Any, failure: Throwable => Any): Unit = {
     task.addListener(new PromiseListener[T] {
       override def onResolved(parSeqPromise: ParSeqPromise[T]): Unit = {
-        if (parSeqPromise.isFailed) failure(parSeqPromise.getError)
+        // Pass on the failure of a plan which exceeded its budget as the typed failure rather than a cancellation
+        if (parSeqPromise.isFailed) failure(ParSeqPlanBudget.unwrap(parSeqPromise.getError))
         else success(parSeqPromise.get)
       }
     })
   }
 
+  /**
+   * The method watchResult calls back once the body of a `Result` is completely sent, or its stream is terminated, e.g.
+   * when the client disconnects. The body itself is passed through untouched, so nothing is buffered or drained.
+   *
+   * @param result The Result
+   * @param callback The callback
+   * @param executionContext The ExecutionContext for running the callback
+   * @return The Result to be sent instead of the origin Result
+   */
+  private[playparseq] def watchResult(result: Result, callback: () => Unit)(implicit executionContext: ExecutionContext): Result = result.body match {
+    case HttpEntity.Streamed(data, contentLength, contentType) =>
+      result.copy(body = HttpEntity.Streamed(data.watchTermination()((materialized, done) => {
+        done.onComplete(_ => callback())
+        materialized
+      }), contentLength, contentType))
+    case HttpEntity.Chunked(chunks, contentType) =>
+      result.copy(body = HttpEntity.Chunked(chunks.watchTermination()((materialized, done) => {
+        done.onComplete(_ => callback())
+        materialized
+      }), contentType))
+    case _ =>
+      // A strict body is already complete
+      callback()
+      result
+  }
+
+  /**
+   * The method watchResult calls back once the body of a Java `Result` is completely sent, or its stream is
+   * terminated, e.g. when the client disconnects.
+   *
+   * @param result The Result
+   * @param callback The callback
+   * @param executionContext The ExecutionContext for running the callback
+   * @return The Result to be sent instead of the origin Result
+   */
+  private[playparseq] def watchResult(result: JavaResult, callback: Runnable)(implicit executionContext: ExecutionContext): JavaResult = result.body match {
+    case _: play.http.HttpEntity.Strict =>
+      // A strict body is already complete
+      callback.run()
+      result
+    case _ => watchResult(result.asScala, () => callback.run()).asJava
+  }
+
 }
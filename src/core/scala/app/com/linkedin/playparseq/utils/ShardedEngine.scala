@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder}
+import java.util.concurrent.{ExecutorService, Executors, ScheduledExecutorService, ThreadFactory, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.{Inject, Provider, Singleton}
+import play.api.Configuration
+import play.api.inject.ApplicationLifecycle
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ShardedEngine holds a fixed set of ParSeq Engines, each of them with its own task scheduler, and selects
+ * one Engine per key. All plans run for the same key, e.g. the id of a request, end up on the same Engine, while
+ * different keys are spread over all Engines, which avoids contention on one shared task queue. Every shard may also
+ * have a low-trace Engine, which runs the plans whose ParSeq Trace is never looked at without recording the
+ * relationships between their Tasks. Only the ShallowTraceBuilders of the Tasks themselves are left, so the requests
+ * which need the timings of their Tasks, e.g. for the Server-Timing header, are marked as traced and run on the regular
+ * Engines.
+ *
+ * @param engines The ParSeq Engines
+ * @param lowTraceEngines The low-trace ParSeq Engines of the shards
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ShardedEngine(engines: IndexedSeq[Engine], lowTraceEngines: IndexedSeq[Engine]) {
+
+  require(engines.nonEmpty, "ShardedEngine needs at least one Engine.")
+
+  require(lowTraceEngines.size == engines.size, "ShardedEngine needs one low-trace Engine per shard.")
+
+  /**
+   * The constructor uses the ParSeq Engines of the shards for low-trace plans as well.
+   *
+   * @param engines The ParSeq Engines
+   */
+  def this(engines: IndexedSeq[Engine]) = this(engines, engines)
+
+  /**
+   * The constructor wraps one ParSeq Engine as the only shard.
+   *
+   * @param engine The ParSeq Engine
+   */
+  def this(engine: Engine) = this(IndexedSeq(engine))
+
+  /**
+   * The method size gets the number of shards.
+   *
+   * @return The number of shards
+   */
+  def size: Int = engines.size
+
+  /**
+   * The method get gets the ParSeq Engine of a shard.
+   *
+   * @param index The index of the shard
+   * @return The ParSeq Engine
+   */
+  def get(index: Int): Engine = engines(index)
+
+  /**
+   * The method select selects the ParSeq Engine for a key.
+   *
+   * @param key The key, e.g. the id of a request
+   * @return The ParSeq Engine
+   */
+  def select(key: Long): Engine = engines(index(key))
+
+  /**
+   * The method selectLowTrace selects the low-trace ParSeq Engine for a key, which is on the same shard as the Engine
+   * selected by the method select.
+   *
+   * @param key The key, e.g. the id of a request
+   * @return The low-trace ParSeq Engine
+   */
+  def selectLowTrace(key: Long): Engine = lowTraceEngines(index(key))
+
+  /**
+   * The method index gets the index of the shard for a key.
+   *
+   * @param key The key
+   * @return The index of the shard
+   */
+  private[this] def index(key: Long): Int = if (engines.size == 1) 0 else Math.floorMod(java.lang.Long.hashCode(key), engines.size)
+
+}
+
+/**
+ * The class ShardedEngineProvider is a preset Provider which provides a [[ShardedEngine]] for dependency injection.
+ * The first shard is always the injected ParSeq Engine. The ShardedEngineProvider will try to load the key-value of
+ * `parseq.engine.numShards` (The number of Engines) from your conf file, otherwise it will use the default value, which
+ * is 1. Every additional shard gets its own pool with `parseq.engine.numThreads` threads and shares one timer scheduler.
+ * If `parseq.engine.lowTrace.enabled` is true, every shard also gets a low-trace Engine on the pool of the shard, except
+ * that the low-trace Engine of the injected Engine gets a pool of its own with the default settings, as the pool of the
+ * injected Engine is not known. The plans of untraced requests then bypass the executor, the timer, the plan listeners
+ * and the properties of the injected Engine, which is why it is off by default. The threads of the pools are started
+ * right away if the [[ParSeqWarmUp]] is enabled.
+ *
+ * @param engine The injected ParSeq Engine component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @param configuration The injected Configuration component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ShardedEngineProvider @Inject()(engine: Engine, applicationLifecycle: ApplicationLifecycle, configuration: Configuration)(implicit executionContext: ExecutionContext) extends Provider[ShardedEngine] {
+
+  /**
+   * The field taskSchedulers are the task schedulers for the additional ParSeq Engines.
+   */
+  private[this] val taskSchedulers: IndexedSeq[ExecutorService] = (1 until getNumShards).map(shard => Executors.newFixedThreadPool(getNumThreads, new ShardThreadFactory(shard.toString)))
+
+  /**
+   * The field lowTraceTaskScheduler is the task scheduler for the low-trace ParSeq Engine of the injected Engine.
+   */
+  private[this] val lowTraceTaskScheduler: Option[ExecutorService] =
+    if (isLowTraceEnabled) Some(Executors.newFixedThreadPool(getNumThreads, new ShardThreadFactory("0-lowtrace"))) else None
+
+  /**
+   * The field timerScheduler is the timer scheduler shared by the additional ParSeq Engines.
+   */
+  private[this] lazy val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+
+  /**
+   * The field engines are the additional ParSeq Engines.
+   */
+  private[this] val engines: IndexedSeq[Engine] = taskSchedulers.map(new EngineBuilder().setTaskExecutor(_).setTimerScheduler(timerScheduler).build)
+
+  /**
+   * The field lowTraceEngines are the low-trace ParSeq Engines, which record no relationships between Tasks.
+   */
+  private[this] val lowTraceEngines: IndexedSeq[Engine] = (lowTraceTaskScheduler.toIndexedSeq ++ taskSchedulers).map(taskScheduler =>
+    new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler)
+      .setEngineProperty(Engine.MAX_RELATIONSHIPS_PER_TRACE, 0).build)
+
+  /**
+   * The field shardedEngine is the [[ShardedEngine]] to be provided to the injector.
+   */
+  private[this] val shardedEngine: ShardedEngine =
+    if (lowTraceEngines.isEmpty) new ShardedEngine(engine +: engines) else new ShardedEngine(engine +: engines, lowTraceEngines)
+
+  // Setup
+  if (ParSeqWarmUp.isEnabled(configuration)) (taskSchedulers ++ lowTraceTaskScheduler).foreach {
+    case pool: ThreadPoolExecutor => pool.prestartAllCoreThreads()
+    case _ =>
+  }
+  if (engines.nonEmpty || lowTraceEngines.nonEmpty) {
+    applicationLifecycle.addStopHook(() => Future {
+      // Tear down the additional and the low-trace ParSeq Engines
+      (engines ++ lowTraceEngines).foreach(_.shutdown())
+      (engines ++ lowTraceEngines).foreach(_.awaitTermination(getTerminationWaitSeconds, TimeUnit.SECONDS))
+      (taskSchedulers ++ lowTraceTaskScheduler).foreach(_.shutdown())
+      timerScheduler.shutdown()
+    })
+  }
+
+  /**
+   * The method get gets the [[ShardedEngine]].
+   *
+   * @return The ShardedEngine
+   */
+  override def get(): ShardedEngine = shardedEngine
+
+  /**
+   * The method getNumShards gets the number of Engines. It will load from conf file, otherwise it will use a default
+   * value, which is 1.
+   *
+   * @return The number of shards
+   */
+  private[this] def getNumShards: Int = Math.max(1, configuration.getOptional[Int]("parseq.engine.numShards").getOrElse(1))
+
+  /**
+   * The method getNumThreads gets the number of threads in each additional Engine's pool. It will load from conf file,
+   * otherwise it will use a default value, which is the number of available processors plus 1.
+   *
+   * @return The number of threads
+   */
+  private[this] def getNumThreads: Int = configuration.getOptional[Int]("parseq.engine.numThreads").getOrElse(Runtime.getRuntime.availableProcessors + 1)
+
+  /**
+   * The method isLowTraceEnabled gets whether the shards have low-trace Engines. It will load from conf file, otherwise
+   * it will use a default value, which is false.
+   *
+   * @return Whether the low-trace Engines are enabled
+   */
+  private[this] def isLowTraceEnabled: Boolean = configuration.getOptional[Boolean]("parseq.engine.lowTrace.enabled").getOrElse(false)
+
+  /**
+   * The method getTerminationWaitSeconds gets the maximum time to wait for Engine's termination in the unit of seconds.
+   * It will load from conf file, otherwise it will use a default value, which is 1.
+   *
+   * @return The time to wait in seconds
+   */
+  private[this] def getTerminationWaitSeconds: Int = configuration.getOptional[Int]("parseq.engine.terminationWaitSeconds").getOrElse(1)
+
+  /**
+   * The class ShardThreadFactory names the threads of one shard, so that each shard shows up as its own thread group.
+   *
+   * @param shard The name of the shard
+   */
+  private[this] class ShardThreadFactory(shard: String) extends ThreadFactory {
+
+    /**
+     * The field count is the number of threads created so far.
+     */
+    private[this] val count = new AtomicInteger
+
+    /**
+     * @inheritdoc
+     */
+    override def newThread(runnable: Runnable): Thread = new Thread(runnable, s"parseq-engine-$shard-${count.incrementAndGet}")
+
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.s
+
+import akka.actor.ActorSystem
+import akka.stream.{ActorMaterializer, Materializer}
+import akka.stream.scaladsl.{Sink, Source}
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import com.linkedin.playparseq.s.stores.ParSeqTaskStoreImpl
+import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import org.specs2.specification.BeforeAfterEach
+import play.api.mvc.RequestHeader
+import play.api.test.{FakeRequest, PlaySpecification}
+import scala.concurrent.ExecutionContext
+import scala.concurrent.ExecutionContext.Implicits._
+import scala.concurrent.Future
+
+
+/**
+ * The class ParSeqStreamsImplSpec is a specification class for [[ParSeqStreamsImpl]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqStreamsImplSpec extends PlaySpecification with BeforeAfterEach {
+
+  sequential
+
+  /**
+   * The field parSeqStreamsImpl is the [[ParSeqStreamsImpl]] to be tested.
+   */
+  private[this] var parSeqStreamsImpl: ParSeqStreamsImpl = _
+
+  /**
+   * The field playParSeqImpl is the [[PlayParSeqImpl]] for running the ParSeq Tasks of the stages.
+   */
+  private[this] var playParSeqImpl: PlayParSeqImpl = _
+
+  /**
+   * The field parSeqTaskStore is the store of the Tasks run by the stages.
+   */
+  private[this] val parSeqTaskStore: ParSeqTaskStoreImpl = new ParSeqTaskStoreImpl
+
+  /**
+   * The field engine is a ParSeq Engine for running ParSeq Task.
+   */
+  private[this] var engine: Engine = _
+
+  /**
+   * The field taskScheduler is a task scheduler for ParSeq Engine.
+   */
+  private[this] var taskScheduler: ExecutorService = _
+
+  /**
+   * The field timerScheduler is a timer scheduler for ParSeq Engine.
+   */
+  private[this] var timerScheduler: ScheduledExecutorService = _
+
+  /**
+   * The field actorSystem is an ActorSystem for the Materializer.
+   */
+  private[this] var actorSystem: ActorSystem = _
+
+  /**
+   * The field materializer is a Materializer for running streams.
+   */
+  private[this] implicit var materializer: Materializer = _
+
+  /**
+   * The method before sets the ParSeq Engine, the Materializer and the [[ParSeqStreamsImpl]].
+   */
+  def before: Any = {
+    taskScheduler = Executors.newFixedThreadPool(Runtime.getRuntime.availableProcessors + 1)
+    timerScheduler = Executors.newSingleThreadScheduledExecutor
+    engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    actorSystem = ActorSystem("ParSeqStreamsImplSpec")
+    materializer = ActorMaterializer()(actorSystem)
+    playParSeqImpl = new PlayParSeqImpl(engine, parSeqTaskStore)(ExecutionContext.global)
+    parSeqStreamsImpl = new ParSeqStreamsImpl(playParSeqImpl)
+  }
+
+  /**
+   * The method after tears the ParSeq Engine and the Materializer.
+   */
+  def after: Any = {
+    engine.shutdown()
+    engine.awaitTermination(1, TimeUnit.SECONDS)
+    taskScheduler.shutdown()
+    timerScheduler.shutdown()
+    await(actorSystem.terminate())
+  }
+
+  "The ParSeqStreamsImpl" should {
+    "be able to run a ParSeq Task for every element with bounded parallelism" in {
+      implicit val requestHeader: RequestHeader = parSeqTaskStore.initialize(FakeRequest())
+      val running: AtomicInteger = new AtomicInteger
+      val maxRunning: AtomicInteger = new AtomicInteger
+      // Run the elements through Tasks which take a while
+      val resultFuture: Future[Seq[Int]] = Source(1 to 20).via(parSeqStreamsImpl.mapTask[Int, Int](3)(i =>
+        Task.blocking("double", {
+          maxRunning.accumulateAndGet(running.incrementAndGet, Math.max(_: Int, _: Int))
+          Thread.sleep(10)
+          running.decrementAndGet
+          i * 2
+        }, taskScheduler))).runWith(Sink.seq)
+      // Assert the results keep the order, the parallelism is bounded and the Tasks are in store
+      await(resultFuture) must equalTo((1 to 20).map(_ * 2))
+      maxRunning.get must beLessThanOrEqualTo(3)
+      parSeqTaskStore.get.size must equalTo(20)
+    }
+
+    "be able to convert between a ParSeq Task of a list and a Source" in {
+      implicit val requestHeader: RequestHeader = parSeqTaskStore.initialize(FakeRequest())
+      // Convert a Task to a Source, and then the Source back to a Task
+      val source: Source[String, _] = parSeqStreamsImpl.toSource(Task.value("list", Seq("a", "b", "c")))
+      val resultTask: Task[Seq[String]] = parSeqStreamsImpl.toTask("collect", source.map(_.toUpperCase))
+      // Assert the elements and the Tasks in store
+      await(playParSeqImpl.runTask(resultTask)) must equalTo(Seq("A", "B", "C"))
+      parSeqTaskStore.get.map(_.getName) must equalTo(Set("list", "collect"))
+    }
+  }
+
+}
@@ -11,17 +11,26 @@
  */
 package com.linkedin.playparseq.s
 
+import akka.actor.ActorSystem
+import akka.stream.{ActorMaterializer, Materializer}
 import com.linkedin.parseq.{Engine, EngineBuilder, Task}
 import com.linkedin.playparseq.s.PlayParSeqImplicits._
 import com.linkedin.playparseq.s.stores.ParSeqTaskStore
+import com.linkedin.playparseq.utils.{ConcurrencyLimiter, ParSeqFragments, ParSeqPlanBudget, ParSeqTraceMode, ShardedEngine}
 import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
 import org.specs2.mock.Mockito
 import org.specs2.specification.BeforeAfterEach
-import play.api.mvc.RequestHeader
-import play.api.test.PlaySpecification
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.libs.typedmap.TypedMap
+import play.api.mvc.{RequestHeader, Result}
+import play.api.test.{FakeRequest, PlaySpecification}
 import scala.concurrent.ExecutionContext
 import scala.concurrent.ExecutionContext.Implicits._
+import scala.collection.JavaConverters._
 import scala.concurrent.Future
+import scala.util.Try
 
 
 /**
@@ -66,6 +75,7 @@ class PlayParSeqImplSpec extends PlaySpecification with BeforeAfterEach with Moc
     timerScheduler = Executors.newSingleThreadScheduledExecutor
     engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
     playParSeqImpl = new PlayParSeqImpl(engine, mock[ParSeqTaskStore])(ExecutionContext.global)
+    requestHeader.attrs returns TypedMap.empty
   }
 
   /**
@@ -177,6 +187,106 @@ class PlayParSeqImplSpec extends PlaySpecification with BeforeAfterEach with Moc
       // Assert the exception from the Future
       await(substringFuture) must throwA[StringIndexOutOfBoundsException]
     }
+
+    "be able to traverse items with bounded parallelism in chunks" in {
+      val running: AtomicInteger = new AtomicInteger
+      val maxRunning: AtomicInteger = new AtomicInteger
+      // Traverse with Tasks which take a while
+      val traverseTask: Task[Seq[Int]] = playParSeqImpl.traverse("double", 1 to 20, 4, 2)(i => Task.blocking("double", {
+        maxRunning.accumulateAndGet(running.incrementAndGet, Math.max(_: Int, _: Int))
+        Thread.sleep(5)
+        running.decrementAndGet
+        i * 2
+      }, taskScheduler))
+      // Assert the results keep the order and the parallelism is bounded
+      await(playParSeqImpl.runTask(traverseTask)) must equalTo((1 to 20).map(_ * 2))
+      maxRunning.get must beLessThanOrEqualTo(4)
+      // Assert the items are grouped per chunk in the trace
+      traverseTask.getTrace.getTraceMap.values.asScala.map(_.getName).count(_.startsWith("double[")) must equalTo(30)
+    }
+
+    "be able to traverse items and fail with the first failure" in {
+      val created: AtomicInteger = new AtomicInteger
+      // Traverse one item at a time, failing at the third
+      val traverseTask: Task[Seq[Int]] = playParSeqImpl.traverse("check", 1 to 10, 1) { i =>
+        created.incrementAndGet
+        if (i == 3) Task.failure[Int](new IllegalStateException) else Task.value(i)
+      }
+      // Assert the failure and that no more items were started
+      await(playParSeqImpl.runTask(traverseTask)) must throwA[IllegalStateException]
+      created.get must equalTo(3)
+    }
+
+    "be able to traverse items and collect the failures" in {
+      // Traverse, failing at the even items
+      val traverseTask: Task[Seq[Try[Int]]] = playParSeqImpl.traverseTry("check", 1 to 4, 2, 2) { i =>
+        if (i % 2 == 0) Task.failure[Int](new IllegalStateException) else Task.value(i)
+      }
+      // Assert the outcomes in order
+      await(playParSeqImpl.runTask(traverseTask)).map(_.isSuccess) must equalTo(Seq(true, false, true, false))
+    }
+
+    "be able to stream the fragments of ParSeq Tasks in the order of completion" in {
+      val actorSystem: ActorSystem = ActorSystem("PlayParSeqImplSpec")
+      implicit val materializer: Materializer = ActorMaterializer()(actorSystem)
+      val shell: String = "<html>" + ParSeqFragments.placeholder("slow") + ParSeqFragments.placeholder("fast")
+      // Run a slow, a fast and a failing fragment
+      val result: Result = playParSeqImpl.runTaskStreaming(shell, Seq(
+        "slow" -> Task.blocking("slow", {
+          Thread.sleep(100)
+          "Slow"
+        }, taskScheduler),
+        "fast" -> Task.value("fast", "Fast"),
+        "failed" -> Task.failure[String]("failed", new RuntimeException)), "</html>")
+      // Assert the shell comes first, the fragments follow as they complete and the failed one is left out
+      try {
+        result.body.contentType must beSome(ParSeqFragments.ContentType)
+        contentAsString(Future.successful(result)) must equalTo(shell + ParSeqFragments.fragment("fast", "Fast") +
+          ParSeqFragments.fragment("slow", "Slow") + "</html>")
+      } finally {
+        await(actorSystem.terminate())
+      }
+    }
+
+    "be able to reject a fragment whose name is unsafe in markup" in {
+      // Run with a name which would break out of the script
+      playParSeqImpl.runTaskStreaming("", Seq("</script>" -> Task.value("x")), "") must throwA[IllegalArgumentException]
+    }
+
+    "be able to give back the concurrency permit of a call which throws" in {
+      val limiter: ConcurrencyLimiter = new ConcurrencyLimiter(Configuration(
+        "parseq.limiter.enabled" -> true, "parseq.limiter.initialLimit" -> 1))
+      val limitedPlayParSeqImpl: PlayParSeqImpl = new PlayParSeqImpl(new ShardedEngine(engine), mock[ParSeqTaskStore],
+        limiter, new ParSeqPlanBudget(Configuration.empty, new DefaultApplicationLifecycle))(ExecutionContext.global)
+      // Run a call which throws instead of returning its Future
+      await(limitedPlayParSeqImpl.runTask(limitedPlayParSeqImpl.toTask[String]("throwing",
+        () => throw new IllegalStateException))) must throwA[IllegalStateException]
+      // Assert the permit is back, so the next call with the same name gets through
+      limiter.getInFlight("throwing") must equalTo(0)
+      await(limitedPlayParSeqImpl.runTask(limitedPlayParSeqImpl.toTask("throwing",
+        () => Future.successful("Test")))) must equalTo("Test")
+    }
+
+    "be able to run a ParSeq Task in low-trace mode unless the request is traced" in {
+      val lowTraceEngine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler)
+        .setEngineProperty(Engine.MAX_RELATIONSHIPS_PER_TRACE, 0).build
+      try {
+        val shardedPlayParSeqImpl: PlayParSeqImpl = new PlayParSeqImpl(new ShardedEngine(IndexedSeq(engine),
+          IndexedSeq(lowTraceEngine)), mock[ParSeqTaskStore], new ConcurrencyLimiter(Configuration.empty),
+          new ParSeqPlanBudget(Configuration.empty, new DefaultApplicationLifecycle))(ExecutionContext.global)
+        // Run the same plan for an untraced and a traced request
+        val untraced: Task[_] = Task.par(Task.value("a", 1), Task.value("b", 2))
+        val traced: Task[_] = Task.par(Task.value("a", 1), Task.value("b", 2))
+        await(shardedPlayParSeqImpl.runTask(untraced)(FakeRequest()))
+        await(shardedPlayParSeqImpl.runTask(traced)(ParSeqTraceMode.markTraced(FakeRequest())))
+        // Assert the relationships only for the traced request, and the timings for both
+        untraced.getTrace.getRelationships.isEmpty must beTrue
+        traced.getTrace.getRelationships.isEmpty must beFalse
+        untraced.getShallowTrace.getEndNanos must not(beNull)
+      } finally {
+        lowTraceEngine.shutdown()
+      }
+    }
   }
 
 }
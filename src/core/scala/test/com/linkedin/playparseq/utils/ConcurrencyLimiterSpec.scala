@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.trace.ShallowTraceBuilder
+import play.api.Configuration
+import play.api.test.PlaySpecification
+
+
+/**
+ * The class ConcurrencyLimiterSpec is a specification class for [[ConcurrencyLimiter]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ConcurrencyLimiterSpec extends PlaySpecification {
+
+  /**
+   * The method newLimiter creates an enabled [[ConcurrencyLimiter]] with the given initial limit.
+   *
+   * @param initialLimit The initial limit
+   * @return The ConcurrencyLimiter
+   */
+  private[this] def newLimiter(initialLimit: Int): ConcurrencyLimiter = new ConcurrencyLimiter(Configuration(
+    "parseq.limiter.enabled" -> true,
+    "parseq.limiter.initialLimit" -> initialLimit,
+    "parseq.limiter.backoffRatio" -> 0.5))
+
+  "The ConcurrencyLimiter" should {
+    "be able to let every Task through when disabled" in {
+      val limiter: ConcurrencyLimiter = new ConcurrencyLimiter(Configuration.empty)
+      // Assert no limiting
+      (1 to 1000).foreach(_ => limiter.acquire("test", new ShallowTraceBuilder(0L)))
+      limiter.getInFlight("test") must equalTo(0)
+    }
+
+    "be able to fail fast over the limit" in {
+      val limiter: ConcurrencyLimiter = newLimiter(2)
+      val traceBuilder: ShallowTraceBuilder = new ShallowTraceBuilder(0L)
+      // Acquire up to the limit
+      limiter.acquire("test", traceBuilder)
+      val permit: ConcurrencyLimiter.Permit = limiter.acquire("test", traceBuilder)
+      // Assert the rejection and the metrics
+      limiter.acquire("test", traceBuilder) must throwA[ConcurrencyLimitExceededException]
+      limiter.getInFlight("test") must equalTo(2)
+      limiter.getRejected("test") must equalTo(1)
+      traceBuilder.getAttributes.get(ConcurrencyLimiter.TraceAttribute) must equalTo("2")
+      // Assert other names are not affected
+      limiter.acquire("other", traceBuilder) must not(throwA[ConcurrencyLimitExceededException])
+      // Assert a released slot can be acquired again
+      permit.release(true)
+      limiter.acquire("test", traceBuilder) must not(throwA[ConcurrencyLimitExceededException])
+    }
+
+    "be able to decrease the limit on failures" in {
+      val limiter: ConcurrencyLimiter = newLimiter(8)
+      // Fail one call
+      limiter.acquire("test", new ShallowTraceBuilder(0L)).release(false)
+      // Assert the limit
+      limiter.getLimit("test") must equalTo(4)
+    }
+
+    "be able to decrease the limit once for a burst of failures" in {
+      val limiter: ConcurrencyLimiter = newLimiter(8)
+      // Fail several calls which were in flight together
+      val permits = Seq.fill(4)(limiter.acquire("test", new ShallowTraceBuilder(0L)))
+      permits.foreach(_.release(false))
+      // Assert one decrease
+      limiter.getLimit("test") must equalTo(4)
+      // Assert a call started after the decrease decreases it again
+      limiter.acquire("test", new ShallowTraceBuilder(0L)).release(false)
+      limiter.getLimit("test") must equalTo(2)
+    }
+
+    "be able to increase the limit on successes under load" in {
+      val limiter: ConcurrencyLimiter = newLimiter(2)
+      // Complete calls while the limit is fully used
+      (1 to 10).foreach(_ => {
+        val permits = Seq.fill(2)(limiter.acquire("test", new ShallowTraceBuilder(0L)))
+        permits.foreach(_.release(true))
+      })
+      // Assert the limit
+      limiter.getLimit("test") must greaterThan(2)
+    }
+  }
+
+}
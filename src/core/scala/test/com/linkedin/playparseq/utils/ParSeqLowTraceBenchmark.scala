@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import java.lang.management.ManagementFactory
+import java.util.concurrent.{Executors, ThreadFactory, TimeUnit}
+import scala.collection.JavaConverters._
+
+
+/**
+ * The object ParSeqLowTraceBenchmark compares the allocation and the time of running a 1,000-Task plan on a regular
+ * Engine with running it on a low-trace Engine, which is what [[ShardedEngine]] selects for untraced requests. Run it
+ * with `sbt "play-parseq-scala/test:runMain com.linkedin.playparseq.utils.ParSeqLowTraceBenchmark [iterations]"`.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqLowTraceBenchmark {
+
+  /**
+   * The field Width is the number of Tasks in the plan.
+   */
+  private[this] val Width: Int = 1000
+
+  /**
+   * The field threads is the ThreadMXBean for measuring the allocation.
+   */
+  private[this] val threads = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+
+  /**
+   * The method plan builds a plan of 1,000 parallel Tasks.
+   *
+   * @return The ParSeq Task
+   */
+  private[this] def plan: Task[_] = Task.par((1 to Width).map(i => Task.value("task" + i, Int.box(i))).asJava)
+
+  /**
+   * The method measure measures the average allocation in bytes, across the caller and the Engine thread, and the
+   * average time in nanoseconds of running the plan after warming it up.
+   *
+   * @param iterations The number of iterations
+   * @param lowTrace Whether to build a low-trace Engine
+   * @return The average allocation and time
+   */
+  private[this] def measure(iterations: Int, lowTrace: Boolean): (Long, Long) = {
+    @volatile var engineThread: Long = -1L
+    val taskScheduler = Executors.newSingleThreadExecutor(new ThreadFactory {
+      override def newThread(r: Runnable): Thread = {
+        val thread = new Thread(r, "benchmark-engine")
+        engineThread = thread.getId
+        thread
+      }
+    })
+    val timerScheduler = Executors.newSingleThreadScheduledExecutor
+    val builder = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler)
+    val engine: Engine = (if (lowTrace) builder.setEngineProperty(Engine.MAX_RELATIONSHIPS_PER_TRACE, 0) else builder).build
+    try {
+      val run = () => {
+        val task = plan
+        engine.run(task)
+        task.await()
+      }
+      (1 to iterations).foreach(_ => run())
+      val caller: Long = Thread.currentThread.getId
+      val allocated = () => threads.getThreadAllocatedBytes(caller) + threads.getThreadAllocatedBytes(engineThread)
+      val bytes: Long = allocated()
+      val start: Long = System.nanoTime
+      (1 to iterations).foreach(_ => run())
+      val nanos: Long = System.nanoTime - start
+      ((allocated() - bytes) / iterations, nanos / iterations)
+    } finally {
+      engine.shutdown()
+      engine.awaitTermination(1, TimeUnit.SECONDS)
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  /**
+   * The method main prints the comparison.
+   *
+   * @param args The number of iterations
+   */
+  def main(args: Array[String]): Unit = {
+    val iterations: Int = args.headOption.map(_.toInt).getOrElse(2000)
+    Seq("traced" -> false, "low-trace" -> true).foreach {
+      case (name, lowTrace) =>
+        val (bytes, nanos) = measure(iterations, lowTrace)
+        println(f"$name%-9s bytes/plan=$bytes%d ns/plan=$nanos%d")
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Context, Engine, EngineBuilder, Task}
+import com.linkedin.parseq.promise.Promises
+import com.linkedin.playparseq.s.PlayParSeqImpl
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import com.linkedin.playparseq.s.stores.ParSeqTaskStore
+import java.util.concurrent.{ConcurrentHashMap, Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import org.specs2.mock.Mockito
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.mvc.RequestHeader
+import play.api.test.{FakeRequest, PlaySpecification}
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+
+/**
+ * The class ParSeqPlanBudgetSpec is a specification class for [[ParSeqPlanBudget]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqPlanBudgetSpec extends PlaySpecification with Mockito {
+
+  /**
+   * The method withBudget runs a block with a [[PlayParSeqImpl]] within the [[ParSeqPlanBudget]] of the given
+   * configuration.
+   *
+   * @param settings The budget settings
+   * @param block The block
+   * @tparam T The type parameter of the result
+   * @return The result of the block
+   */
+  private[this] def withBudget[T](settings: (String, Any)*)(block: (ParSeqPlanBudget, PlayParSeqImpl) => T): T = {
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val lifecycle: DefaultApplicationLifecycle = new DefaultApplicationLifecycle
+    val budget: ParSeqPlanBudget = new ParSeqPlanBudget(Configuration(settings: _*), lifecycle)
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      block(budget, new PlayParSeqImpl(new ShardedEngine(engine), mock[ParSeqTaskStore],
+        new ConcurrencyLimiter(Configuration.empty), budget)(ExecutionContext.global))
+    } finally {
+      engine.shutdown()
+      engine.awaitTermination(1, TimeUnit.SECONDS)
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+      lifecycle.stop()
+    }
+  }
+
+  /**
+   * The method loop builds a plan which never stops calling `toTask`.
+   *
+   * @param playParSeqImpl The [[PlayParSeqImpl]]
+   * @param i The current step
+   * @return The ParSeq Task
+   */
+  private[this] def loop(playParSeqImpl: PlayParSeqImpl, i: Int): Task[Int] =
+    playParSeqImpl.toTask("step", () => Future.successful(i)).flatMap("next", (step: Int) => loop(playParSeqImpl, step + 1))
+
+  /**
+   * The field requestHeader is the request for running Tasks.
+   */
+  private[this] implicit val requestHeader: RequestHeader = FakeRequest()
+
+  "The ParSeqPlanBudget" should {
+    "be able to run plans without limits by default" in withBudget() { (budget, playParSeqImpl) =>
+      val task: Task[Int] = Task.par((1 to 100).map(i => Task.value("task", i)).asJava).map("count", (list: java.util.List[Int]) => list.size)
+      // Assert the plan is not limited
+      budget.enabled must beFalse
+      await(playParSeqImpl.runTask(task)) must equalTo(100)
+    }
+
+    "be able to run the Tasks of a plan in the plan of its budget" in withBudget("parseq.budget.maxCalls" -> 100) { (budget, playParSeqImpl) =>
+      val planIds: java.util.Set[java.lang.Long] = ConcurrentHashMap.newKeySet[java.lang.Long]
+      val task: Task[_] = Task.par((1 to 10).map(i => Task.async[Int]("task", (context: Context) => {
+        planIds.add(context.getPlanId)
+        Promises.value(i)
+      })).asJava)
+      await(playParSeqImpl.runTask(task))
+      // Assert the Tasks see one plan id, which is what the calls of toTask are counted by
+      planIds.size must equalTo(1)
+    }
+
+    "be able to fail a plan which calls toTask too often" in withBudget("parseq.budget.maxCalls" -> 100) { (budget, playParSeqImpl) =>
+      val task: Task[Int] = loop(playParSeqImpl, 0)
+      // Assert the typed failure, the metrics and the trace
+      await(playParSeqImpl.runTask(task)) must throwA[ParSeqBudgetExceededException].like {
+        case e: ParSeqBudgetExceededException => e.budget must equalTo(ParSeqPlanBudget.MaxCalls)
+      }
+      budget.getTripped(ParSeqPlanBudget.MaxCalls) must equalTo(1)
+      task.getShallowTrace.getAttributes.get(ParSeqPlanBudget.TraceAttribute) must equalTo(ParSeqPlanBudget.MaxCalls)
+      // Assert the calls are per plan
+      await(playParSeqImpl.runTask(playParSeqImpl.toTask(() => Future.successful(1)))) must equalTo(1)
+    }
+
+    "be able to fail a plan with too many Tasks in flight" in withBudget("parseq.budget.maxInFlightTasks" -> 2) { (budget, playParSeqImpl) =>
+      val pending: Promise[Int] = Promise[Int]()
+      val task: Task[_] = Task.par((1 to 3).map(_ => playParSeqImpl.toTask("pending", () => pending.future)).asJava)
+      // Assert the typed failure and the metrics
+      await(playParSeqImpl.runTask(task)) must throwA[ParSeqBudgetExceededException].like {
+        case e: ParSeqBudgetExceededException => e.budget must equalTo(ParSeqPlanBudget.MaxInFlightTasks)
+      }
+      budget.getTripped(ParSeqPlanBudget.MaxInFlightTasks) must equalTo(1)
+      // Assert the slots are per plan
+      await(playParSeqImpl.runTask(Task.par(playParSeqImpl.toTask(() => Future.successful(1)),
+        playParSeqImpl.toTask(() => Future.successful(2))))) must not(beNull)
+    }
+
+    "be able to give back the in-flight slot of a call which throws" in withBudget("parseq.budget.maxInFlightTasks" -> 1) { (budget, playParSeqImpl) =>
+      // Run a call which throws, then another one in the same plan
+      val task: Task[Int] = playParSeqImpl.toTask[Int]("throwing", () => throw new IllegalStateException)
+        .recoverWith("next", (_: Throwable) => playParSeqImpl.toTask("next", () => Future.successful(1)))
+      // Assert the slot is back
+      await(playParSeqImpl.runTask(task)) must equalTo(1)
+      budget.getTripped(ParSeqPlanBudget.MaxInFlightTasks) must equalTo(0)
+    }
+
+    "be able to fail a plan which runs for too long" in withBudget("parseq.budget.maxWallTimeMilliseconds" -> 100) { (budget, playParSeqImpl) =>
+      val task: Task[Int] = playParSeqImpl.toTask("pending", () => Promise[Int]().future)
+      // Assert the typed failure and the metrics
+      await(playParSeqImpl.runTask(task)) must throwA[ParSeqBudgetExceededException].like {
+        case e: ParSeqBudgetExceededException => e.budget must equalTo(ParSeqPlanBudget.MaxWallTime)
+      }
+      budget.getTripped(ParSeqPlanBudget.MaxWallTime) must equalTo(1)
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.function.{Tuple2 => ParSeqTuple2}
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import java.lang.management.ManagementFactory
+
+
+/**
+ * The object ParSeqPlanTemplateBenchmark compares the allocation and the time of building a plan per request by hand
+ * with instantiating it from a [[ParSeqPlanTemplate]]. Run it with
+ * `sbt "play-parseq-scala/test:runMain com.linkedin.playparseq.utils.ParSeqPlanTemplateBenchmark [iterations]"`.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqPlanTemplateBenchmark {
+
+  /**
+   * The class Controller stands for an Action building its plan from its own methods, whose functions capture the
+   * Controller like they usually do.
+   */
+  private[this] class Controller {
+
+    /**
+     * The method fetchMember stands for a remote call.
+     *
+     * @param id The id of the member
+     * @return The ParSeq Task
+     */
+    def fetchMember(id: Int): Task[Int] = Task.value("member", id * 2)
+
+    /**
+     * The method toProfile stands for rendering.
+     *
+     * @param member The member
+     * @return The profile
+     */
+    def toProfile(member: Int): String = s"profile $member"
+
+    /**
+     * The field template is the template of the plan.
+     */
+    val template: ParSeqPlanTemplate[Int, ParSeqTuple2[String, String]] = ParSeqPlanTemplate.input[Int]("memberId")
+      .flatMap("fetchMember", (id: Int) => fetchMember(id))
+      .map("toProfile", (member: Int) => toProfile(member))
+      .zip(ParSeqPlanTemplate.input[Int]("memberId").map("toUrl", (id: Int) => s"/members/$id"))
+
+    /**
+     * The method handBuilt builds the same plan by hand.
+     *
+     * @param id The input
+     * @return The ParSeq Task
+     */
+    def handBuilt(id: Int): Task[ParSeqTuple2[String, String]] = {
+      val input: Task[Int] = Task.value("memberId", id)
+      Task.par(
+        input.flatMap("fetchMember", (id: Int) => fetchMember(id)).map("toProfile", (member: Int) => toProfile(member)),
+        input.map("toUrl", (id: Int) => s"/members/$id"))
+    }
+
+  }
+
+  /**
+   * The method measure measures the average allocation in bytes and time in nanoseconds of a block after warming it up.
+   *
+   * @param iterations The number of iterations
+   * @param f The block
+   * @return The average allocation and time
+   */
+  private[this] def measure(iterations: Int)(f: Int => Any): (Long, Long) = {
+    val threads = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+    val thread: Long = Thread.currentThread.getId
+    (1 to iterations).foreach(f)
+    val bytes: Long = threads.getThreadAllocatedBytes(thread)
+    val start: Long = System.nanoTime
+    (1 to iterations).foreach(f)
+    val nanos: Long = System.nanoTime - start
+    ((threads.getThreadAllocatedBytes(thread) - bytes) / iterations, nanos / iterations)
+  }
+
+  /**
+   * The method main prints the comparison.
+   *
+   * @param args The number of iterations
+   */
+  def main(args: Array[String]): Unit = {
+    val iterations: Int = args.headOption.map(_.toInt).getOrElse(200000)
+    val controller: Controller = new Controller
+    Seq[(String, Int => Any)]("hand-built" -> controller.handBuilt, "template" -> controller.template.instantiate).foreach {
+      case (name, build) =>
+        val (bytes, nanos) = measure(iterations)(build)
+        println(f"$name%-10s bytes/plan=$bytes%d ns/plan=$nanos%d")
+    }
+  }
+
+}
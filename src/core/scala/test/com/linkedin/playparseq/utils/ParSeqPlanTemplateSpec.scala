@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.function.{Tuple2 => ParSeqTuple2}
+import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import org.specs2.specification.BeforeAfterEach
+import play.api.test.PlaySpecification
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqPlanTemplateSpec is a specification class for [[ParSeqPlanTemplate]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqPlanTemplateSpec extends PlaySpecification with BeforeAfterEach {
+
+  /**
+   * The field engine is a ParSeq Engine for running ParSeq Task.
+   */
+  private[this] var engine: Engine = _
+
+  /**
+   * The field taskScheduler is a task scheduler for ParSeq Engine.
+   */
+  private[this] var taskScheduler: ExecutorService = _
+
+  /**
+   * The field timerScheduler is a timer scheduler for ParSeq Engine.
+   */
+  private[this] var timerScheduler: ScheduledExecutorService = _
+
+  /**
+   * The method before sets the ParSeq Engine.
+   */
+  def before: Any = {
+    taskScheduler = Executors.newFixedThreadPool(Runtime.getRuntime.availableProcessors + 1)
+    timerScheduler = Executors.newSingleThreadScheduledExecutor
+    engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+  }
+
+  /**
+   * The method after tears the ParSeq Engine.
+   */
+  def after: Any = {
+    engine.shutdown()
+    engine.awaitTermination(1, TimeUnit.SECONDS)
+    taskScheduler.shutdown()
+    timerScheduler.shutdown()
+  }
+
+  /**
+   * The method run runs a ParSeq Task and gets its value.
+   *
+   * @param task The ParSeq Task
+   * @tparam T The type parameter of the ParSeq Task
+   * @return The value
+   */
+  private[this] def run[T](task: Task[T]): T = {
+    engine.run(task)
+    task.await(5, TimeUnit.SECONDS)
+    task.get
+  }
+
+  "The ParSeqPlanTemplate" should {
+    "be able to instantiate the same plan for different inputs" in {
+      val template: ParSeqPlanTemplate[Int, String] = ParSeqPlanTemplate.input[Int]("id")
+        .map("double", (i: Int) => i * 2)
+        .flatMap("fetch", (i: Int) => Task.value("fetched", s"item $i"))
+      // Instantiate twice
+      val first: Task[String] = template.instantiate(1)
+      val second: Task[String] = template.instantiate(2)
+      // Assert the values, the names of the steps and that the input slot is no Task of its own
+      run(first) must equalTo("item 2")
+      run(second) must equalTo("item 4")
+      val names: Set[String] = first.getTrace.getTraceMap.values.asScala.map(_.getName).toSet
+      names must containAllOf(Seq("double", "fetch", "fetched"))
+      names must not contain "id"
+    }
+
+    "be able to run zipped templates in parallel on the same input" in {
+      val template: ParSeqPlanTemplate[Int, ParSeqTuple2[Int, String]] = ParSeqPlanTemplate.input[Int]("id")
+        .map("double", (i: Int) => i * 2)
+        .zip(ParSeqPlanTemplate.input[Int]("id").map("format", (i: Int) => i.toString))
+      // Instantiate and run
+      val tuple: ParSeqTuple2[Int, String] = run(template.instantiate(21))
+      // Assert both outputs
+      tuple._1 must equalTo(42)
+      tuple._2 must equalTo("21")
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.function.Function1
+import com.linkedin.parseq.promise.{Promise, PromiseListener}
+import java.util.concurrent.{CountDownLatch, ExecutorService, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.JavaConverters._
+
+
+/**
+ * The object ParSeqShardedEngineBenchmark measures the scaling of the throughput of small plans from 4 to 64 threads,
+ * once on a single Engine with all threads in one pool, and once on a [[ShardedEngine]] with one Engine per 4 threads,
+ * which is what `parseq.engine.numShards` sets up. The plans are submitted by as many callers as there are threads, and
+ * every plan picks its shard by its own key, as a request does. Run it with
+ * `sbt "play-parseq-scala/test:runMain com.linkedin.playparseq.utils.ParSeqShardedEngineBenchmark [plans]"`.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqShardedEngineBenchmark {
+
+  /**
+   * The field ThreadCounts are the total numbers of threads to measure.
+   */
+  private[this] val ThreadCounts: Seq[Int] = Seq(4, 8, 16, 32, 64)
+
+  /**
+   * The field ThreadsPerShard is the number of threads of one shard of the [[ShardedEngine]].
+   */
+  private[this] val ThreadsPerShard: Int = 4
+
+  /**
+   * The field Width is the number of parallel Tasks in a plan.
+   */
+  private[this] val Width: Int = 16
+
+  /**
+   * The method plan builds a small plan of parallel Tasks and a merge.
+   *
+   * @return The ParSeq Task
+   */
+  private[this] def plan: Task[Integer] = Task.par((1 to Width).map(i => Task.value("task", Int.box(i))).asJava)
+    .map("merge", new Function1[java.util.List[Integer], Integer] {
+      override def apply(list: java.util.List[Integer]): Integer = list.size
+    })
+
+  /**
+   * The method measure measures the throughput of the plans in plans per second after warming it up.
+   *
+   * @param plans The number of plans per round
+   * @param threads The total number of threads
+   * @param shards The number of Engines the threads are split into
+   * @return The plans per second
+   */
+  private[this] def measure(plans: Int, threads: Int, shards: Int): Long = {
+    val taskSchedulers: IndexedSeq[ExecutorService] = (1 to shards).map(_ => Executors.newFixedThreadPool(threads / shards))
+    val timerScheduler = Executors.newSingleThreadScheduledExecutor
+    val engines: IndexedSeq[Engine] = taskSchedulers.map(new EngineBuilder().setTaskExecutor(_).setTimerScheduler(timerScheduler).build)
+    val shardedEngine = new ShardedEngine(engines)
+    val callers = Executors.newFixedThreadPool(threads)
+    val key = new AtomicLong
+    try {
+      val round = () => {
+        val done = new CountDownLatch(plans / threads * threads)
+        (1 to threads).foreach(_ => callers.execute(new Runnable {
+          override def run(): Unit = (1 to plans / threads).foreach(_ => {
+            val task = plan
+            shardedEngine.select(key.incrementAndGet).run(task)
+            task.addListener(new PromiseListener[Integer] {
+              override def onResolved(promise: Promise[Integer]): Unit = done.countDown()
+            })
+          })
+        }))
+        done.await()
+      }
+      round()
+      val start: Long = System.nanoTime
+      round()
+      plans / threads * threads * TimeUnit.SECONDS.toNanos(1) / Math.max(1L, System.nanoTime - start)
+    } finally {
+      callers.shutdown()
+      engines.foreach(engine => {
+        engine.shutdown()
+        engine.awaitTermination(1, TimeUnit.SECONDS)
+      })
+      taskSchedulers.foreach(_.shutdown())
+      timerScheduler.shutdown()
+    }
+  }
+
+  /**
+   * The method main prints the scaling curves.
+   *
+   * @param args The number of plans per round
+   */
+  def main(args: Array[String]): Unit = {
+    val plans: Int = args.headOption.map(_.toInt).getOrElse(200000)
+    ThreadCounts.foreach(threads => {
+      val single = measure(plans, threads, 1)
+      val sharded = measure(plans, threads, threads / ThreadsPerShard)
+      println(f"threads=$threads%-3d single plans/s=$single%-9d sharded(${threads / ThreadsPerShard}%d) plans/s=$sharded%d")
+    })
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import akka.actor.ActorSystem
+import akka.stream.{ActorMaterializer, Materializer}
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.promise.Promises
+import play.api.http.HttpEntity
+import play.api.mvc.Result
+import play.api.mvc.Results.Ok
+import play.api.test.PlaySpecification
+import scala.concurrent.ExecutionContext.Implicits.global
+
+
+/**
+ * The class ParSeqTaskCancellerSpec is a specification class for [[ParSeqTaskCanceller]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTaskCancellerSpec extends PlaySpecification {
+
+  /**
+   * The method newTask creates a ParSeq Task which never completes on its own.
+   *
+   * @return The ParSeq Task
+   */
+  private[this] def newTask: Task[String] = Task.async[String]("pending", () => Promises.settable[String]())
+
+  "The ParSeqTaskCanceller" should {
+    "be able to cancel the pending Tasks of a strict Result" in {
+      val canceller: ParSeqTaskCanceller = new ParSeqTaskCanceller
+      val task: Task[String] = newTask
+      canceller.cancelOnComplete(Ok("test"), () => Set(task))
+      // Assert the cancellation
+      task.isDone must beTrue
+      canceller.getCancelledTasks must equalTo(1)
+    }
+
+    "be able to cancel the pending Tasks of a streamed Result once its body is sent" in {
+      implicit val actorSystem: ActorSystem = ActorSystem()
+      implicit val materializer: Materializer = ActorMaterializer()
+      try {
+        val canceller: ParSeqTaskCanceller = new ParSeqTaskCanceller
+        val task: Task[String] = newTask
+        val result: Result = canceller.cancelOnComplete(Ok.sendEntity(HttpEntity.Streamed(Source.single(ByteString("test")), None, None)), () => Set(task))
+        // Assert nothing is cancelled before the body is sent
+        task.isDone must beFalse
+        await(result.body.consumeData) must equalTo(ByteString("test"))
+        // Assert the cancellation
+        task.isDone must beTrue.eventually
+      } finally {
+        await(actorSystem.terminate())
+      }
+    }
+
+    "be able to keep fire-and-forget Tasks running" in {
+      val canceller: ParSeqTaskCanceller = new ParSeqTaskCanceller
+      val task: Task[String] = ParSeqTaskCanceller.fireAndForget(newTask)
+      canceller.cancelOnComplete(Ok("test"), () => Set(task))
+      // Assert no cancellation
+      task.isDone must beFalse
+      canceller.getCancelledTasks must equalTo(0)
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder}
+import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import org.specs2.mock.Mockito
+import play.api.{Configuration, Environment}
+import play.api.inject.{DefaultApplicationLifecycle, Injector}
+import play.api.test.PlaySpecification
+import play.libs.concurrent.HttpExecutionContext
+import scala.concurrent.ExecutionContext
+
+
+/**
+ * The class ParSeqWarmUpSpec is a specification class for [[ParSeqWarmUp]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqWarmUpSpec extends PlaySpecification with Mockito {
+
+  /**
+   * The class CountingStep is a [[ParSeqWarmUpStep]] counting its runs.
+   */
+  class CountingStep extends ParSeqWarmUpStep {
+
+    /**
+     * The field runs is the number of runs.
+     */
+    val runs = new AtomicInteger
+
+    /**
+     * @inheritdoc
+     */
+    override def warmUp(): Unit = runs.incrementAndGet
+
+  }
+
+  /**
+   * The method withWarmUp runs a block with a [[ParSeqWarmUp]] of the given configuration and its spied
+   * [[ConcurrencyLimiter]], which sees every call of `toTask`.
+   *
+   * @param injector The Injector for the additional steps
+   * @param settings The warm-up settings
+   * @param block The block
+   * @tparam T The type parameter of the result
+   * @return The result of the block
+   */
+  private[this] def withWarmUp[T](injector: Injector, settings: (String, Any)*)(block: (ParSeqWarmUp, ConcurrencyLimiter) => T): T = {
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    val concurrencyLimiter: ConcurrencyLimiter = spy(new ConcurrencyLimiter(Configuration.empty))
+    try {
+      block(new ParSeqWarmUp(new ShardedEngine(engine), concurrencyLimiter,
+        new ParSeqPlanBudget(Configuration.empty, new DefaultApplicationLifecycle),
+        new HttpExecutionContext(ExecutionContext.global), injector, Environment.simple(),
+        Configuration(settings: _*))(ExecutionContext.global), concurrencyLimiter)
+    } finally {
+      engine.shutdown()
+      engine.awaitTermination(1, TimeUnit.SECONDS)
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  "The ParSeqWarmUp" should {
+    "be able to be ready right away when disabled" in withWarmUp(mock[Injector]) { (warmUp, _) =>
+      // Assert the readiness without warm-up
+      warmUp.isReady must beTrue
+      warmUp.getWarmUpMillis must equalTo(-1L)
+    }
+
+    "be able to run the synthetic plans and the additional steps before getting ready" in {
+      val step: CountingStep = new CountingStep
+      val injector: Injector = mock[Injector]
+      injector.instanceOf(classOf[CountingStep]) returns step
+      withWarmUp(injector, "parseq.warmUp.enabled" -> true, "parseq.warmUp.plans" -> 10,
+        "parseq.warmUp.steps" -> Seq(classOf[CountingStep].getName)) { (warmUp, concurrencyLimiter) =>
+        // Assert the readiness, the reported time and the step
+        await(warmUp.ready) must beGreaterThanOrEqualTo(0L)
+        warmUp.isReady must beTrue
+        warmUp.getWarmUpMillis must beGreaterThanOrEqualTo(0L)
+        step.runs.get must equalTo(1)
+        // Assert the plans went through toTask of both the Scala and the Java API
+        there were 20.times(concurrencyLimiter).acquire(anyString, any)
+      }
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.utils
+
+import com.linkedin.parseq.Engine
+import org.specs2.mock.Mockito
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.test.PlaySpecification
+import scala.concurrent.ExecutionContext
+
+
+/**
+ * The class ShardedEngineSpec is a specification class for [[ShardedEngine]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ShardedEngineSpec extends PlaySpecification with Mockito {
+
+  "The ShardedEngine" should {
+    "be able to select the only Engine for every key" in {
+      val engine: Engine = mock[Engine]
+      val shardedEngine: ShardedEngine = new ShardedEngine(engine)
+      // Assert the selection
+      shardedEngine.size must equalTo(1)
+      (0L to 10L).map(shardedEngine.select).toSet must equalTo(Set(engine))
+    }
+
+    "be able to select the same Engine for the same key" in {
+      val shardedEngine: ShardedEngine = new ShardedEngine(IndexedSeq.fill(4)(mock[Engine]))
+      // Assert the selection
+      shardedEngine.select(42L) must be(shardedEngine.select(42L))
+      shardedEngine.select(-42L) must be(shardedEngine.select(-42L))
+    }
+
+    "be able to spread keys over all Engines" in {
+      val engines: IndexedSeq[Engine] = IndexedSeq.fill(4)(mock[Engine])
+      val shardedEngine: ShardedEngine = new ShardedEngine(engines)
+      // Assert the selection
+      (0L until 100L).map(shardedEngine.select).toSet must equalTo(engines.toSet)
+    }
+
+    "be able to select the low-trace Engine of the same shard" in {
+      val engines: IndexedSeq[Engine] = IndexedSeq.fill(4)(mock[Engine])
+      val lowTraceEngines: IndexedSeq[Engine] = IndexedSeq.fill(4)(mock[Engine])
+      val shardedEngine: ShardedEngine = new ShardedEngine(engines, lowTraceEngines)
+      // Assert the selection on the same shard, and the Engines themselves without low-trace Engines
+      (0L until 100L).forall(key => engines.indexOf(shardedEngine.select(key)) == lowTraceEngines.indexOf(shardedEngine.selectLowTrace(key))) must beTrue
+      new ShardedEngine(engines).selectLowTrace(42L) must be(new ShardedEngine(engines).select(42L))
+    }
+  }
+
+  "The ShardedEngineProvider" should {
+    "be able to keep low-trace plans on the injected Engine by default" in {
+      val engine: Engine = mock[Engine]
+      val shardedEngine: ShardedEngine = new ShardedEngineProvider(engine, new DefaultApplicationLifecycle, Configuration.empty)(ExecutionContext.global).get
+      // Assert no low-trace Engine of its own
+      shardedEngine.selectLowTrace(42L) must be(engine)
+    }
+  }
+
+}
@@ -14,6 +14,10 @@ package com.linkedin.playparseq.trace.j;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
 import com.linkedin.playparseq.trace.j.renderers.ParSeqTraceRenderer;
 import com.linkedin.playparseq.trace.j.sensors.ParSeqTraceSensor;
+import com.linkedin.playparseq.trace.utils.ParSeqServerTiming;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceSampler;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceStitcher;
+import com.linkedin.playparseq.utils.ParSeqTraceMode;
 import java.util.concurrent.CompletionStage;
 import javax.inject.Inject;
 import play.mvc.Action.Simple;
@@ -27,6 +31,9 @@ import play.mvc.Result;
  * Trace.
  * And it also composes with {@link ParSeqTraceBuilder} to hand origin Result off in order to determine whether to show
  * ParSeq Trace data or the origin Result, if so generate the ParSeq Trace Result.
+ * If tail-based sampling is enabled, the completed request is also handed to the {@link ParSeqTraceSampler}, and if
+ * the Server-Timing header is enabled, the {@link ParSeqServerTiming} adds it to the origin Result. If the request comes
+ * from another service with a correlation id, its Tasks are kept by the {@link ParSeqTraceStitcher} under that id.
  *
  * @author Yinan Ding (yding@linkedin.com)
  */
@@ -53,22 +60,47 @@ public class ParSeqTraceAction extends Simple {
   private final ParSeqTraceRenderer _parSeqTraceRenderer;
 
   /**
-   * The constructor injects the {@link ParSeqTaskStore}, the {@link ParSeqTraceBuilder}, the {@link ParSeqTraceSensor}
-   * and the {@link ParSeqTraceRenderer}.
+   * The field _parSeqTraceSampler is a {@link ParSeqTraceSampler} for tail-based sampling of ParSeq Trace.
+   */
+  private final ParSeqTraceSampler _parSeqTraceSampler;
+
+  /**
+   * The field _parSeqServerTiming is a {@link ParSeqServerTiming} for adding the Server-Timing header.
+   */
+  private final ParSeqServerTiming _parSeqServerTiming;
+
+  /**
+   * The field _parSeqTraceStitcher is a {@link ParSeqTraceStitcher} for keeping the Tasks of requests from other
+   * services.
+   */
+  private final ParSeqTraceStitcher _parSeqTraceStitcher;
+
+  /**
+   * The constructor injects the {@link ParSeqTaskStore}, the {@link ParSeqTraceBuilder}, the {@link ParSeqTraceSensor},
+   * the {@link ParSeqTraceRenderer}, the {@link ParSeqTraceSampler}, the {@link ParSeqServerTiming} and the
+   * {@link ParSeqTraceStitcher}.
    *
    * @param parSeqTaskStore The injected {@link ParSeqTaskStore} component
    * @param parSeqTraceBuilder The injected {@link ParSeqTraceBuilder} component
    * @param parSeqTraceSensor The injected {@link ParSeqTraceSensor} component
    * @param parSeqTraceRenderer The injected {@link ParSeqTraceRenderer} component
+   * @param parSeqTraceSampler The injected {@link ParSeqTraceSampler} component
+   * @param parSeqServerTiming The injected {@link ParSeqServerTiming} component
+   * @param parSeqTraceStitcher The injected {@link ParSeqTraceStitcher} component
    */
   @Inject
   public ParSeqTraceAction(final ParSeqTaskStore parSeqTaskStore, final ParSeqTraceBuilder parSeqTraceBuilder,
-      final ParSeqTraceSensor parSeqTraceSensor, final ParSeqTraceRenderer parSeqTraceRenderer) {
+      final ParSeqTraceSensor parSeqTraceSensor, final ParSeqTraceRenderer parSeqTraceRenderer,
+      final ParSeqTraceSampler parSeqTraceSampler, final ParSeqServerTiming parSeqServerTiming,
+      final ParSeqTraceStitcher parSeqTraceStitcher) {
     super();
     _parSeqTaskStore = parSeqTaskStore;
     _parSeqTraceBuilder = parSeqTraceBuilder;
     _parSeqTraceSensor = parSeqTraceSensor;
     _parSeqTraceRenderer = parSeqTraceRenderer;
+    _parSeqTraceSampler = parSeqTraceSampler;
+    _parSeqServerTiming = parSeqServerTiming;
+    _parSeqTraceStitcher = parSeqTraceStitcher;
   }
 
   /**
@@ -80,9 +112,32 @@ public class ParSeqTraceAction extends Simple {
    */
   @Override
   public CompletionStage<Result> call(final Http.Context context) {
-    Http.Context newContext = _parSeqTaskStore.initialize(context);
-    return _parSeqTraceBuilder.build(newContext, delegate.call(newContext), _parSeqTaskStore, _parSeqTraceSensor,
-        _parSeqTraceRenderer);
+    // Initialize the store, and record the relationships between Tasks only if the request may be traced
+    Http.Context initialized = _parSeqTaskStore.initialize(context);
+    boolean recorded = _parSeqTraceSampler.record();
+    Http.Context newContext = mayBeTraced(initialized.request(), recorded)
+        ? initialized.withRequest(ParSeqTraceMode.markTraced(initialized.request())) : initialized;
+    long startNanos = System.nanoTime();
+    _parSeqTraceStitcher.keep(newContext.request(), () -> _parSeqTaskStore.get(newContext));
+    CompletionStage<Result> origin = _parSeqServerTiming.enabled()
+        ? delegate.call(newContext).thenApply(r -> _parSeqServerTiming.addHeader(r, _parSeqTaskStore.get(newContext)))
+        : delegate.call(newContext);
+    return _parSeqTraceSampler.capture(
+        _parSeqTraceBuilder.build(newContext, origin, _parSeqTaskStore, _parSeqTraceSensor, _parSeqTraceRenderer), recorded,
+        ParSeqTraceSampler.route(newContext.request().asScala()), startNanos, () -> _parSeqTaskStore.get(newContext));
+  }
+
+  /**
+   * The method mayBeTraced decides whether the plans of the request may be looked at in a ParSeq Trace or in the
+   * Server-Timing header.
+   *
+   * @param request The request
+   * @param recorded Whether the request is recorded by the {@link ParSeqTraceSampler}
+   * @return The decision
+   */
+  private boolean mayBeTraced(final Http.RequestHeader request, final boolean recorded) {
+    return recorded || _parSeqServerTiming.enabled() || _parSeqTraceSensor.mayBeEnabled(request)
+        || _parSeqTraceStitcher.isStitched(request.asScala());
   }
 
 }
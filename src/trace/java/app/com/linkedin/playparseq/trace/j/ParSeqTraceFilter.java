@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.j;
+
+import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import com.linkedin.playparseq.trace.j.renderers.ParSeqTraceRenderer;
+import com.linkedin.playparseq.trace.j.sensors.ParSeqTraceSensor;
+import com.linkedin.playparseq.trace.utils.ParSeqServerTiming;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceRoutes;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceSampler;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceStitcher;
+import com.linkedin.playparseq.utils.ParSeqTraceMode;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.core.j.JavaContextComponents;
+import play.core.j.JavaHelpers$;
+import play.libs.concurrent.HttpExecutionContext;
+import play.mvc.EssentialAction;
+import play.mvc.EssentialFilter;
+import play.mvc.Http;
+import play.mvc.Result;
+
+
+/**
+ * The class ParSeqTraceFilter is an EssentialFilter which does what the {@link ParSeqTraceAction} does for every
+ * request covered by the {@link ParSeqTraceRoutes}, so the whole app is covered without composing every Action. The
+ * store is set up once per request before routing to the Action, so Actions can run their Tasks with
+ * {@code PlayParSeq.runTask(request(), task)}. An HTTP Context for the {@link ParSeqTraceBuilder} is only created once
+ * the Result is there. Use either the filter or the {@link ParSeqTraceAction} for a request, not both.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+public class ParSeqTraceFilter extends EssentialFilter {
+
+  /**
+   * The field _parSeqTaskStore is a {@link ParSeqTaskStore} for getting ParSeq Tasks.
+   */
+  private final ParSeqTaskStore _parSeqTaskStore;
+
+  /**
+   * The field _parSeqTraceBuilder is a {@link ParSeqTraceBuilder} for building ParSeq Trace.
+   */
+  private final ParSeqTraceBuilder _parSeqTraceBuilder;
+
+  /**
+   * The field _parSeqTraceSensor is a {@link ParSeqTraceSensor} for deciding whether ParSeq Trace is enabled or not.
+   */
+  private final ParSeqTraceSensor _parSeqTraceSensor;
+
+  /**
+   * The field _parSeqTraceRenderer is a {@link ParSeqTraceRenderer} for generating ParSeq Trace.
+   */
+  private final ParSeqTraceRenderer _parSeqTraceRenderer;
+
+  /**
+   * The field _parSeqTraceSampler is a {@link ParSeqTraceSampler} for tail-based sampling of ParSeq Trace.
+   */
+  private final ParSeqTraceSampler _parSeqTraceSampler;
+
+  /**
+   * The field _parSeqServerTiming is a {@link ParSeqServerTiming} for adding the Server-Timing header.
+   */
+  private final ParSeqServerTiming _parSeqServerTiming;
+
+  /**
+   * The field _parSeqTraceStitcher is a {@link ParSeqTraceStitcher} for keeping the Tasks of requests from other
+   * services.
+   */
+  private final ParSeqTraceStitcher _parSeqTraceStitcher;
+
+  /**
+   * The field _parSeqTraceRoutes is a {@link ParSeqTraceRoutes} for deciding which requests are covered.
+   */
+  private final ParSeqTraceRoutes _parSeqTraceRoutes;
+
+  /**
+   * The field _contextComponents is the {@link JavaContextComponents} for creating HTTP Contexts.
+   */
+  private final JavaContextComponents _contextComponents;
+
+  /**
+   * The field _httpExecutionContext is a {@link HttpExecutionContext} for composing with the Result.
+   */
+  private final HttpExecutionContext _httpExecutionContext;
+
+  /**
+   * The constructor injects the {@link ParSeqTaskStore}, the {@link ParSeqTraceBuilder}, the {@link ParSeqTraceSensor},
+   * the {@link ParSeqTraceRenderer}, the {@link ParSeqTraceSampler}, the {@link ParSeqServerTiming}, the
+   * {@link ParSeqTraceStitcher}, the {@link ParSeqTraceRoutes}, the {@link JavaContextComponents} and the
+   * {@link HttpExecutionContext}.
+   *
+   * @param parSeqTaskStore The injected {@link ParSeqTaskStore} component
+   * @param parSeqTraceBuilder The injected {@link ParSeqTraceBuilder} component
+   * @param parSeqTraceSensor The injected {@link ParSeqTraceSensor} component
+   * @param parSeqTraceRenderer The injected {@link ParSeqTraceRenderer} component
+   * @param parSeqTraceSampler The injected {@link ParSeqTraceSampler} component
+   * @param parSeqServerTiming The injected {@link ParSeqServerTiming} component
+   * @param parSeqTraceStitcher The injected {@link ParSeqTraceStitcher} component
+   * @param parSeqTraceRoutes The injected {@link ParSeqTraceRoutes} component
+   * @param contextComponents The injected {@link JavaContextComponents} component
+   * @param httpExecutionContext The injected {@link HttpExecutionContext} component
+   */
+  @Inject
+  public ParSeqTraceFilter(final ParSeqTaskStore parSeqTaskStore, final ParSeqTraceBuilder parSeqTraceBuilder,
+      final ParSeqTraceSensor parSeqTraceSensor, final ParSeqTraceRenderer parSeqTraceRenderer,
+      final ParSeqTraceSampler parSeqTraceSampler, final ParSeqServerTiming parSeqServerTiming,
+      final ParSeqTraceStitcher parSeqTraceStitcher, final ParSeqTraceRoutes parSeqTraceRoutes,
+      final JavaContextComponents contextComponents, final HttpExecutionContext httpExecutionContext) {
+    super();
+    _parSeqTaskStore = parSeqTaskStore;
+    _parSeqTraceBuilder = parSeqTraceBuilder;
+    _parSeqTraceSensor = parSeqTraceSensor;
+    _parSeqTraceRenderer = parSeqTraceRenderer;
+    _parSeqTraceSampler = parSeqTraceSampler;
+    _parSeqServerTiming = parSeqServerTiming;
+    _parSeqTraceStitcher = parSeqTraceStitcher;
+    _parSeqTraceRoutes = parSeqTraceRoutes;
+    _contextComponents = contextComponents;
+    _httpExecutionContext = httpExecutionContext;
+  }
+
+  /**
+   * The method apply sets up the store for a covered request and composes with {@link ParSeqTraceBuilder} to build
+   * ParSeq Trace for it.
+   *
+   * @param next The next EssentialAction
+   * @return The EssentialAction
+   */
+  @Override
+  public EssentialAction apply(final EssentialAction next) {
+    return EssentialAction.of(request -> {
+      if (!_parSeqTraceRoutes.covers(request.asScala())) {
+        return next.apply(request);
+      }
+      // Initialize the store, and record the relationships between Tasks only if the request may be traced
+      Http.RequestHeader initialized = _parSeqTaskStore.initialize(request);
+      boolean recorded = _parSeqTraceSampler.record();
+      Http.RequestHeader newRequest = mayBeTraced(initialized, recorded) ? ParSeqTraceMode.markTraced(initialized) : initialized;
+      long startNanos = System.nanoTime();
+      _parSeqTraceStitcher.keep(newRequest, () -> _parSeqTaskStore.get(newRequest));
+      // Compose once the origin Result is there, or once the origin has failed, so that failed requests are sampled too
+      return next.apply(newRequest)
+          .<CompletionStage<Result>>map(CompletableFuture::completedFuture, _httpExecutionContext.current())
+          .recover(ParSeqTraceFilter::failed, _httpExecutionContext.current())
+          .mapFuture(result -> {
+            CompletionStage<Result> origin = result.thenApply(r -> _parSeqServerTiming.enabled()
+                ? _parSeqServerTiming.addHeader(r, _parSeqTaskStore.get(newRequest)) : r);
+            Http.Context context = JavaHelpers$.MODULE$.createJavaContext(newRequest.asScala(), _contextComponents);
+            return _parSeqTraceSampler.capture(
+                _parSeqTraceBuilder.build(context, origin, _parSeqTaskStore, _parSeqTraceSensor, _parSeqTraceRenderer),
+                recorded, ParSeqTraceSampler.route(newRequest.asScala()), startNanos,
+                () -> _parSeqTaskStore.get(newRequest));
+          }, _httpExecutionContext.current());
+    });
+  }
+
+  /**
+   * The method failed creates a CompletionStage of the failure of the origin, so that it is composed like a Result.
+   *
+   * @param throwable The failure of the origin
+   * @return The failed CompletionStage
+   */
+  private static CompletionStage<Result> failed(final Throwable throwable) {
+    CompletableFuture<Result> completableFuture = new CompletableFuture<>();
+    completableFuture.completeExceptionally(throwable);
+    return completableFuture;
+  }
+
+  /**
+   * The method mayBeTraced decides whether the plans of the request may be looked at in a ParSeq Trace or in the
+   * Server-Timing header.
+   *
+   * @param request The request
+   * @param recorded Whether the request is recorded by the {@link ParSeqTraceSampler}
+   * @return The decision
+   */
+  private boolean mayBeTraced(final Http.RequestHeader request, final boolean recorded) {
+    return recorded || _parSeqServerTiming.enabled() || _parSeqTraceSensor.mayBeEnabled(request)
+        || _parSeqTraceStitcher.isStitched(request.asScala());
+  }
+
+}
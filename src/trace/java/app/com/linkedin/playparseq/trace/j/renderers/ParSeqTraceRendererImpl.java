@@ -11,26 +11,30 @@
  */
 package com.linkedin.playparseq.trace.j.renderers;
 
-import com.linkedin.parseq.trace.ShallowTrace;
 import com.linkedin.parseq.trace.Trace;
-import com.linkedin.parseq.trace.TraceRelationship;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceAnalyzer;
 import com.linkedin.playparseq.trace.utils.ParSeqTraceBaseVisualizer;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceCollapser;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceExecutor;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceMerger;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceSampler;
+import com.linkedin.playparseq.trace.utils.ParSeqTraceStitcher;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import play.api.Configuration;
 import play.api.http.HttpConfiguration;
+import play.api.inject.DefaultApplicationLifecycle;
 import play.Environment;
 import play.libs.concurrent.HttpExecutionContext;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
+import scala.compat.java8.FutureConverters;
 
 
 /**
@@ -53,23 +57,61 @@ public class ParSeqTraceRendererImpl extends ParSeqTraceBaseVisualizer implement
   private final HttpConfiguration _httpConfiguration;
 
   /**
-   * The field _httpExecutionContext is a {@link HttpExecutionContext} for setting Java async task's executor.
+   * The field _parSeqTraceExecutor is a {@link ParSeqTraceExecutor} for rendering off the request threads.
    */
-  private final HttpExecutionContext _httpExecutionContext;
+  private final ParSeqTraceExecutor _parSeqTraceExecutor;
 
   /**
-   * The constructor injects the Environment and the HttpConfiguration.
+   * The field _parSeqTraceAnalyzer is a {@link ParSeqTraceAnalyzer} for highlighting the critical path.
+   */
+  private final ParSeqTraceAnalyzer _parSeqTraceAnalyzer;
+
+  /**
+   * The field _parSeqTraceStitcher is a {@link ParSeqTraceStitcher} for inlining the Traces of other services.
+   */
+  private final ParSeqTraceStitcher _parSeqTraceStitcher;
+
+  /**
+   * The field _parSeqTraceCollapser is a {@link ParSeqTraceCollapser} for keeping huge Traces renderable.
+   */
+  private final ParSeqTraceCollapser _parSeqTraceCollapser;
+
+  /**
+   * The constructor injects the Environment, the HttpConfiguration, the {@link ParSeqTraceExecutor}, the
+   * {@link ParSeqTraceAnalyzer}, the {@link ParSeqTraceStitcher} and the {@link ParSeqTraceCollapser}.
    *
    * @param environment The injected Environment component
    * @param httpConfiguration The injected HttpConfiguration component
-   * @param httpExecutionContext The injected HttpExecutionContext component
+   * @param parSeqTraceExecutor The injected {@link ParSeqTraceExecutor} component
+   * @param parSeqTraceAnalyzer The injected {@link ParSeqTraceAnalyzer} component
+   * @param parSeqTraceStitcher The injected {@link ParSeqTraceStitcher} component
+   * @param parSeqTraceCollapser The injected {@link ParSeqTraceCollapser} component
    */
   @Inject
   public ParSeqTraceRendererImpl(final Environment environment, final HttpConfiguration httpConfiguration,
-      final HttpExecutionContext httpExecutionContext) {
+      final ParSeqTraceExecutor parSeqTraceExecutor, final ParSeqTraceAnalyzer parSeqTraceAnalyzer,
+      final ParSeqTraceStitcher parSeqTraceStitcher, final ParSeqTraceCollapser parSeqTraceCollapser) {
     _environment = environment;
     _httpConfiguration = httpConfiguration;
-    _httpExecutionContext = httpExecutionContext;
+    _parSeqTraceExecutor = parSeqTraceExecutor;
+    _parSeqTraceAnalyzer = parSeqTraceAnalyzer;
+    _parSeqTraceStitcher = parSeqTraceStitcher;
+    _parSeqTraceCollapser = parSeqTraceCollapser;
+  }
+
+  /**
+   * The constructor keeps the former signature working. It renders on a {@link ParSeqTraceExecutor} of its own with
+   * the default settings rather than on the HttpExecutionContext, and uses the other components with their defaults.
+   *
+   * @param environment The Environment
+   * @param httpConfiguration The HttpConfiguration
+   * @param httpExecutionContext The HttpExecutionContext, which is not used anymore
+   */
+  public ParSeqTraceRendererImpl(final Environment environment, final HttpConfiguration httpConfiguration,
+      final HttpExecutionContext httpExecutionContext) {
+    this(environment, httpConfiguration,
+        new ParSeqTraceExecutor(Configuration.empty(), new DefaultApplicationLifecycle()), new ParSeqTraceAnalyzer(),
+        new ParSeqTraceStitcher(Configuration.empty()), new ParSeqTraceCollapser(Configuration.empty(), httpConfiguration));
   }
 
   /**
@@ -77,20 +119,27 @@ public class ParSeqTraceRendererImpl extends ParSeqTraceBaseVisualizer implement
    */
   @Override
   public CompletionStage<Result> render(final Http.Context context, final ParSeqTaskStore parSeqTaskStore) {
-    return CompletableFuture.supplyAsync(() -> {
-      Map<Long, ShallowTrace> traceMap = new HashMap<>();
-      Set<TraceRelationship> relationships = new HashSet<>();
-      // Get all Tasks from the request out of the store and combine all Trace information
-      parSeqTaskStore.get(context).forEach(task -> {
-        Trace trace = task.getTrace();
-        traceMap.putAll(trace.getTraceMap());
-        relationships.addAll(trace.getRelationships());
-      });
-      // Generate Result of ParSeq Trace
-      return Optional.ofNullable(
-          showTrace(new Trace(traceMap, relationships), _environment.asScala(), _httpConfiguration))
-          .map(s -> Results.ok(s).as("text/html")).orElse(Results.internalServerError("Can't show Trace."));
-    }, _httpExecutionContext.current());
+    // Get all Tasks from the request out of the store and combine all Trace information, including other services
+    return _parSeqTraceExecutor.supply(() -> ParSeqTraceMerger.merge(parSeqTaskStore.get(context)))
+        .thenCompose(merged -> FutureConverters.toJava(_parSeqTraceStitcher.stitch(merged)))
+        .thenCompose((Trace trace) -> _parSeqTraceExecutor.supply(() -> {
+          // Highlight the critical path
+          ParSeqTraceAnalyzer.Analysis analysis =
+              _parSeqTraceAnalyzer.analyze(ParSeqTraceSampler.route(context.request().asScala()), trace);
+          // Generate Result of ParSeq Trace, collapsed if it is too large to render
+          return Optional.ofNullable(showTrace(_parSeqTraceCollapser.collapse(ParSeqTraceAnalyzer.annotate(trace, analysis)),
+              _environment.asScala(), _httpConfiguration))
+              .map(s -> Results.ok(s).as("text/html")).orElse(Results.internalServerError("Can't show Trace."));
+        })).handle((result, throwable) -> {
+      // Shed the rendering if the executor is overloaded
+      if (throwable instanceof RejectedExecutionException
+          || throwable instanceof CompletionException && throwable.getCause() instanceof RejectedExecutionException) {
+        return Results.status(Http.Status.SERVICE_UNAVAILABLE, "Too many ParSeq Traces are being rendered.");
+      } else if (throwable != null) {
+        throw new CompletionException(throwable);
+      }
+      return result;
+    });
   }
 
 }
@@ -33,4 +33,16 @@ public interface ParSeqTraceSensor {
    */
   boolean isEnabled(final Http.Context context, final ParSeqTaskStore parSeqTaskStore);
 
+  /**
+   * The method mayBeEnabled decides before the request is handled whether ParSeq Trace may be enabled for it, so that
+   * its plans record the relationships between their Tasks. Otherwise they run in low-trace mode. It is true unless
+   * overridden.
+   *
+   * @param request The request
+   * @return The decision
+   */
+  default boolean mayBeEnabled(final Http.RequestHeader request) {
+    return true;
+  }
+
 }
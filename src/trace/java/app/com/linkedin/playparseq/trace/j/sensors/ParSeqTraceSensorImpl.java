@@ -54,8 +54,16 @@ public class ParSeqTraceSensorImpl implements ParSeqTraceSensor {
    */
   @Override
   public boolean isEnabled(final Http.Context context, final ParSeqTaskStore parSeqTaskStore) {
-    return _environment.isDev() && Optional.ofNullable(context.request().getQueryString(QUERY_KEY))
-        .map(s -> s.equals("true")).orElse(false) && parSeqTaskStore.get(context).size() > 0;
+    return mayBeEnabled(context.request()) && parSeqTaskStore.get(context).size() > 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean mayBeEnabled(final Http.RequestHeader request) {
+    return _environment.isDev() && Optional.ofNullable(request.getQueryString(QUERY_KEY))
+        .map(s -> s.equals("true")).orElse(false);
   }
 
 }
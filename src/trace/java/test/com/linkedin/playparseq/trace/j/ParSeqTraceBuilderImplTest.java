@@ -13,6 +13,8 @@ package com.linkedin.playparseq.trace.j;
 
 import akka.Done$;
 import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.linkedin.playparseq.j.PlayParSeqImplTest;
 import com.linkedin.playparseq.j.stores.ParSeqTaskStore;
 import com.linkedin.playparseq.trace.j.renderers.ParSeqTraceRenderer;
@@ -29,6 +31,8 @@ import play.mvc.Result;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static play.mvc.Results.notFound;
 import static play.mvc.Results.ok;
@@ -76,6 +80,39 @@ public class ParSeqTraceBuilderImplTest {
     assertEquals(render, contentAsString(result));
   }
 
+  /**
+   * The method canBuildTraceWithoutRunningStreamedOrigin tests the ability of building ParSeq Trace without running the
+   * body of a streamed origin.
+   */
+  @Test
+  public void canBuildTraceWithoutRunningStreamedOrigin() {
+    String render = "render";
+    // Mock ParSeqTaskStore
+    ParSeqTaskStore mockStore = mock(ParSeqTaskStore.class);
+    when(mockStore.get(any(Http.Context.class))).thenReturn(new HashSet<>());
+    // Mock ParSeqTraceSensor
+    ParSeqTraceSensor mockTraceSensor = mock(ParSeqTraceSensor.class);
+    when(mockTraceSensor.isEnabled(any(Http.Context.class), any(ParSeqTaskStore.class))).thenReturn(true);
+    // Mock ParSeqTraceRenderer
+    ParSeqTraceRenderer mockTraceRenderer = mock(ParSeqTraceRenderer.class);
+    when(mockTraceRenderer.render(any(Http.Context.class), any(ParSeqTaskStore.class))).thenReturn(
+        CompletableFuture.completedFuture(ok(render)));
+    // Mock Materializer
+    Materializer mockMaterializer = mock(Materializer.class);
+    // Mock HttpExecutionContext
+    HttpExecutionContext mockHttpExecutionContext = mock(HttpExecutionContext.class);
+    when(mockHttpExecutionContext.current()).thenReturn(ForkJoinPool.commonPool());
+    // Build ParSeq Trace
+    ParSeqTraceBuilderImpl playParSeqTraceImpl = new ParSeqTraceBuilderImpl(mockMaterializer, mockHttpExecutionContext);
+    Result result = PlayParSeqImplTest.getResultUnchecked(
+        playParSeqTraceImpl.build(mock(Http.Context.class),
+            CompletableFuture.completedFuture(notFound().chunked(Source.single(ByteString.fromString("origin")))),
+            mockStore, mockTraceSensor, mockTraceRenderer));
+    // Assert the content and the stream not being run
+    assertEquals(render, contentAsString(result));
+    verify(mockMaterializer, never()).materialize(any());
+  }
+
   /**
    * The method canShowOriginWhenTraceDisabled tests the ability of returning origin when the ParSeq Trace is disabled.
    */
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceAnalyzer, ParSeqTraceBaseVisualizer, ParSeqTraceCollapser, ParSeqTraceExecutor, ParSeqTraceExporter, ParSeqTraceSampler, ParSeqTraceStitcher}
+import java.util.concurrent.{RejectedExecutionException, TimeUnit}
+import javax.inject.{Inject, Singleton}
+import play.api.Environment
+import play.api.http.HttpConfiguration
+import play.api.libs.json.Json
+import play.api.mvc.{Action, AnyContent, BaseController, ControllerComponents, Result}
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceCaptures is a Controller to list and show the ParSeq Traces kept by the [[ParSeqTraceSampler]],
+ * together with their analyses by the [[ParSeqTraceAnalyzer]].
+ *
+ * @param parSeqTraceSampler The injected [[ParSeqTraceSampler]] component
+ * @param parSeqTraceAnalyzer The injected [[ParSeqTraceAnalyzer]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param parSeqTraceStitcher The injected [[ParSeqTraceStitcher]] component
+ * @param parSeqTraceCollapser The injected [[ParSeqTraceCollapser]] component
+ * @param environment The injected Environment component
+ * @param httpConfiguration The injected HttpConfiguration component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
+ * @param controllerComponents The injected Controller component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceCaptures @Inject()(parSeqTraceSampler: ParSeqTraceSampler, parSeqTraceAnalyzer: ParSeqTraceAnalyzer, parSeqTraceExecutor: ParSeqTraceExecutor, parSeqTraceStitcher: ParSeqTraceStitcher, parSeqTraceCollapser: ParSeqTraceCollapser, environment: Environment, httpConfiguration: HttpConfiguration, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends ParSeqTraceBaseVisualizer with BaseController {
+
+  /**
+   * The method list lists the kept ParSeq Traces, the newest first.
+   *
+   * @return The Action
+   */
+  def list: Action[AnyContent] = parSeqTraceEndpointAction.async {
+    if (parSeqTraceSampler.enabled) {
+      // Decode and analyze the Traces off the request threads
+      submit {
+        Ok(Json.toJson(parSeqTraceSampler.getCaptures.map(capture => Json.obj(
+          "id" -> capture.id,
+          "route" -> capture.route,
+          "timestamp" -> capture.timestamp,
+          "latencyMilliseconds" -> TimeUnit.NANOSECONDS.toMillis(capture.latencyNanos),
+          "reason" -> capture.reason,
+          "sizeBytes" -> capture.encodedTrace.length,
+          "analysis" -> capture.analysis.toJson(capture.trace)))))
+      }
+    } else Future.successful(NotFound)
+  }
+
+  /**
+   * The method show shows one kept ParSeq Trace.
+   *
+   * @param id The id of the capture
+   * @return The Action
+   */
+  def show(id: Long): Action[AnyContent] = parSeqTraceEndpointAction.async {
+    parSeqTraceSampler.getCapture(id).map(capture =>
+      parSeqTraceExecutor.submit(ParSeqTraceAnalyzer.annotate(capture.trace, capture.analysis)).flatMap(parSeqTraceStitcher.stitch)
+        .flatMap(trace => submit {
+          Option(showTrace(parSeqTraceCollapser.collapse(trace), environment, httpConfiguration)).map(Ok(_).as("text/html"))
+            .getOrElse(InternalServerError("Can't show Trace."))
+        }).recover {
+          // Shed the annotation if the executor is overloaded
+          case _: RejectedExecutionException => ServiceUnavailable("Too many ParSeq Traces are being rendered.")
+        }
+    ).getOrElse(Future.successful(NotFound))
+  }
+
+  /**
+   * The method chrome exports one kept ParSeq Trace in the Chrome trace-event format, for `chrome://tracing` and
+   * Perfetto.
+   *
+   * @param id The id of the capture
+   * @return The Action
+   */
+  def chrome(id: Long): Action[AnyContent] = parSeqTraceEndpointAction.async {
+    parSeqTraceSampler.getCapture(id).map(capture => submit {
+      Ok(ParSeqTraceExporter.toChromeTrace(capture.trace))
+        .withHeaders(CONTENT_DISPOSITION -> s"attachment; filename=parseq-trace-$id.json")
+    }).getOrElse(Future.successful(NotFound))
+  }
+
+  /**
+   * The method routes shows the analyses of ParSeq Traces aggregated per route.
+   *
+   * @return The Action
+   */
+  def routes: Action[AnyContent] = parSeqTraceEndpointAction.async {
+    submit {
+      Ok(Json.toJson(parSeqTraceAnalyzer.getRoutes.map { case (route, stats) => route -> stats.toJson }))
+    }
+  }
+
+  /**
+   * The method submit builds a Result on the [[ParSeqTraceExecutor]], and sheds it if the executor is overloaded.
+   *
+   * @param f The building of the Result
+   * @return The Future of the Result
+   */
+  private[this] def submit(f: => Result): Future[Result] = parSeqTraceExecutor.submit(f).recover {
+    // Shed the rendering if the executor is overloaded
+    case _: RejectedExecutionException => ServiceUnavailable("Too many ParSeq Traces are being rendered.")
+  }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import javax.inject.{Inject, Singleton}
+import play.api.{Configuration, Environment, Mode}
+import play.api.mvc.{ActionBuilderImpl, BodyParsers, Request, Result, Results}
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceEndpointAction is an ActionBuilder for the endpoints serving the data of ParSeq Traces, e.g.
+ * `/tracevis/captures` or `/tracevis/remote/:id`, which responds NotFound unless they are enabled. They are enabled by
+ * `parseq.trace.endpoints.enabled`, which defaults to true in dev mode and to false otherwise, as ParSeq Traces carry
+ * the names and values of the Tasks of other users' requests.
+ *
+ * @param configuration The injected Configuration component
+ * @param environment The injected Environment component
+ * @param parser The injected default BodyParser
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceEndpointAction @Inject()(configuration: Configuration, environment: Environment, parser: BodyParsers.Default)(implicit executionContext: ExecutionContext) extends ActionBuilderImpl(parser) {
+
+  /**
+   * The field enabled is whether the endpoints are served.
+   */
+  val enabled: Boolean = configuration.getOptional[Boolean]("parseq.trace.endpoints.enabled").getOrElse(environment.mode == Mode.Dev)
+
+  /**
+   * The method invokeBlock runs the block of the endpoint only if the endpoints are enabled.
+   *
+   * @param request The origin Request
+   * @param block The block of the endpoint
+   * @tparam A The type parameter of the Request
+   * @return The Future of Result
+   */
+  override def invokeBlock[A](request: Request[A], block: (Request[A]) => Future[Result]): Future[Result] =
+    if (enabled) block(request) else Future.successful(Results.NotFound)
+
+}
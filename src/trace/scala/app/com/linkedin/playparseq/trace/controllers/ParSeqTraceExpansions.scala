@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceBaseVisualizer, ParSeqTraceCollapser, ParSeqTraceExecutor}
+import java.util.concurrent.RejectedExecutionException
+import javax.inject.{Inject, Singleton}
+import play.api.Environment
+import play.api.http.HttpConfiguration
+import play.api.mvc.{Action, AnyContent, BaseController, ControllerComponents}
+import scala.concurrent.ExecutionContext
+
+
+/**
+ * The class ParSeqTraceExpansions is a Controller to show the Tasks behind the aggregate Tasks of ParSeq Traces
+ * collapsed by the [[ParSeqTraceCollapser]], page by page.
+ *
+ * @param parSeqTraceCollapser The injected [[ParSeqTraceCollapser]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param environment The injected Environment component
+ * @param httpConfiguration The injected HttpConfiguration component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
+ * @param controllerComponents The injected Controller component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceExpansions @Inject()(parSeqTraceCollapser: ParSeqTraceCollapser, parSeqTraceExecutor: ParSeqTraceExecutor, environment: Environment, httpConfiguration: HttpConfiguration, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends ParSeqTraceBaseVisualizer with BaseController {
+
+  /**
+   * The method show shows a page of the Tasks behind an aggregate Task together with their descendants.
+   *
+   * @param token The token of the collapsed Trace
+   * @param parent The id of the parent, or empty for the roots
+   * @param name The name of the Tasks, or empty for all children
+   * @param offset The index of the first Task
+   * @param limit The number of Tasks
+   * @return The Action
+   */
+  def show(token: String, parent: Option[Long], name: Option[String], offset: Int, limit: Int): Action[AnyContent] = parSeqTraceEndpointAction.async {
+    parSeqTraceExecutor.submit {
+      parSeqTraceCollapser.expand(token, parent, name, offset, limit).map(trace =>
+        Option(showTrace(trace, environment, httpConfiguration)).map(Ok(_).as("text/html")).getOrElse(InternalServerError("Can't show Trace."))
+      ).getOrElse(NotFound)
+    }.recover {
+      // Shed the rendering if the executor is overloaded
+      case _: RejectedExecutionException => ServiceUnavailable("Too many ParSeq Traces are being rendered.")
+    }
+  }
+
+}
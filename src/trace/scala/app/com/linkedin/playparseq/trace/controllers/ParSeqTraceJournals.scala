@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceAnalyzer, ParSeqTraceBaseVisualizer, ParSeqTraceCollapser, ParSeqTraceExecutor, ParSeqTraceJournal}
+import java.util.concurrent.{RejectedExecutionException, TimeUnit}
+import javax.inject.{Inject, Singleton}
+import play.api.Environment
+import play.api.http.HttpConfiguration
+import play.api.libs.json.Json
+import play.api.mvc.{Action, AnyContent, BaseController, ControllerComponents}
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceJournals is a Controller to find and show the ParSeq Traces journaled by the
+ * [[ParSeqTraceJournal]], for post-mortem analysis.
+ *
+ * @param parSeqTraceJournal The injected [[ParSeqTraceJournal]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param parSeqTraceCollapser The injected [[ParSeqTraceCollapser]] component
+ * @param environment The injected Environment component
+ * @param httpConfiguration The injected HttpConfiguration component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
+ * @param controllerComponents The injected Controller component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceJournals @Inject()(parSeqTraceJournal: ParSeqTraceJournal, parSeqTraceExecutor: ParSeqTraceExecutor, parSeqTraceCollapser: ParSeqTraceCollapser, environment: Environment, httpConfiguration: HttpConfiguration, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends ParSeqTraceBaseVisualizer with BaseController {
+
+  /**
+   * The method list lists the journaled ParSeq Traces, the newest first.
+   *
+   * @param route The route of the requests, or all routes if empty
+   * @param from The earliest completion time in milliseconds since the epoch
+   * @param to The latest completion time in milliseconds since the epoch
+   * @param limit The maximum number of Traces
+   * @return The Action
+   */
+  def list(route: Option[String], from: Option[Long], to: Option[Long], limit: Int): Action[AnyContent] = parSeqTraceEndpointAction {
+    if (parSeqTraceJournal.enabled) {
+      Ok(Json.obj(
+        "routes" -> parSeqTraceJournal.getRoutes,
+        "traces" -> parSeqTraceJournal.find(route, from.getOrElse(0L), to.getOrElse(Long.MaxValue), Math.max(0, limit)).map(entry => Json.obj(
+          "id" -> entry.id,
+          "route" -> entry.route,
+          "timestamp" -> entry.timestamp,
+          "latencyMilliseconds" -> TimeUnit.NANOSECONDS.toMillis(entry.latencyNanos),
+          "reason" -> entry.reason))))
+    } else NotFound
+  }
+
+  /**
+   * The method show shows one journaled ParSeq Trace together with its analysis.
+   *
+   * @param id The id of the journaled Trace
+   * @return The Action
+   */
+  def show(id: Long): Action[AnyContent] = parSeqTraceEndpointAction.async {
+    if (parSeqTraceJournal.enabled) {
+      parSeqTraceExecutor.submit {
+        parSeqTraceJournal.get(id).map(trace =>
+          Option(showTrace(parSeqTraceCollapser.collapse(ParSeqTraceAnalyzer.annotate(trace, ParSeqTraceAnalyzer.analyze(trace))),
+            environment, httpConfiguration))
+            .map(Ok(_).as("text/html")).getOrElse(InternalServerError("Can't show Trace."))
+        ).getOrElse(NotFound)
+      }.recover {
+        // Shed the rendering if the executor is overloaded
+        case _: RejectedExecutionException => ServiceUnavailable("Too many ParSeq Traces are being rendered.")
+      }
+    } else Future.successful(NotFound)
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceExecutor, ParSeqTraceProfiler}
+import java.util.concurrent.RejectedExecutionException
+import javax.inject.{Inject, Singleton}
+import play.api.libs.json.Json
+import play.api.mvc.{Action, AnyContent, BaseController, ControllerComponents}
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceProfiles is a Controller to show the profiles of ParSeq Task time aggregated per route by the
+ * [[ParSeqTraceProfiler]], as a flame graph, as folded stacks or as JSON.
+ *
+ * @param parSeqTraceProfiler The injected [[ParSeqTraceProfiler]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
+ * @param controllerComponents The injected Controller component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceProfiles @Inject()(parSeqTraceProfiler: ParSeqTraceProfiler, parSeqTraceExecutor: ParSeqTraceExecutor, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends BaseController {
+
+  /**
+   * The method list lists the profiled routes with their numbers of Traces.
+   *
+   * @return The Action
+   */
+  def list: Action[AnyContent] = parSeqTraceEndpointAction {
+    Ok(Json.toJson(parSeqTraceProfiler.getRoutes))
+  }
+
+  /**
+   * The method show shows the profile of one route.
+   *
+   * @param route The route
+   * @param format The format, which is `svg` for the flame graph, `folded` for the folded stacks or `json`
+   * @return The Action
+   */
+  def show(route: String, format: String): Action[AnyContent] = parSeqTraceEndpointAction.async {
+    parSeqTraceProfiler.getProfile(route).map(profile => parSeqTraceExecutor.submit {
+      format match {
+        case "svg" => Ok(profile.toSvg).as("image/svg+xml")
+        case "folded" => Ok(profile.toFolded).as(TEXT)
+        case "json" => Ok(profile.toJson)
+        case _ => BadRequest(s"Unknown format $format.")
+      }
+    }.recover {
+      // Shed the rendering if the executor is overloaded
+      case _: RejectedExecutionException => ServiceUnavailable("Too many profiles are being rendered.")
+    }).getOrElse(Future.successful(NotFound))
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import com.linkedin.parseq.trace.codec.json.JsonTraceCodec
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceBinaryCodec, ParSeqTraceExecutor, ParSeqTraceStitcher}
+import java.util.concurrent.RejectedExecutionException
+import javax.inject.{Inject, Singleton}
+import play.api.mvc.{Action, AnyContent, BaseController, ControllerComponents}
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceRemotes is a Controller to serve the ParSeq Traces of the requests kept by the
+ * [[ParSeqTraceStitcher]] to the services calling them.
+ *
+ * @param parSeqTraceStitcher The injected [[ParSeqTraceStitcher]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
+ * @param controllerComponents The injected Controller component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceRemotes @Inject()(parSeqTraceStitcher: ParSeqTraceStitcher, parSeqTraceExecutor: ParSeqTraceExecutor, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends BaseController {
+
+  /**
+   * The method show serves the ParSeq Trace of one kept request in the binary form of the [[ParSeqTraceBinaryCodec]]
+   * if the caller accepts it, otherwise in JSON.
+   *
+   * @param id The correlation id of the request
+   * @return The Action
+   */
+  def show(id: String): Action[AnyContent] = parSeqTraceEndpointAction.async(request => {
+    val binary: Boolean = request.acceptedTypes.exists(_.mediaSubType == ParSeqTraceBinaryCodec.ContentType.stripPrefix("application/"))
+    // Stitch the Traces of the services this one has called in turn
+    parSeqTraceExecutor.submit(parSeqTraceStitcher.get(id)).flatMap {
+      case Some(trace) => parSeqTraceStitcher.stitch(trace).flatMap(stitched => parSeqTraceExecutor.submit {
+        if (binary) Ok(new ParSeqTraceBinaryCodec().toBytes(stitched)).as(ParSeqTraceBinaryCodec.ContentType)
+        else Ok(new JsonTraceCodec().encode(stitched)).as(JSON)
+      })
+      case None => Future.successful(NotFound)
+    }.recover {
+      // Shed the encoding if the executor is overloaded
+      case _: RejectedExecutionException => ServiceUnavailable("Too many ParSeq Traces are being rendered.")
+    }
+  })
+
+}
@@ -13,10 +13,12 @@ package com.linkedin.playparseq.trace.controllers
 
 import com.linkedin.parseq.{Engine, GraphvizEngine, HttpResponse, Task}
 import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import com.linkedin.playparseq.trace.utils.ParSeqTraceDotScheduler
 import com.linkedin.playparseq.utils.PlayParSeqHelper
 import controllers.Assets
 import java.io.ByteArrayInputStream
 import java.nio.file.{Files, Path}
+import java.util.concurrent.RejectedExecutionException
 import javax.inject.{Inject, Singleton}
 import javax.servlet.http.HttpServletResponse
 import org.apache.commons.io.FileUtils
@@ -37,12 +39,14 @@ import scala.util.{Failure, Success, Try}
  * @param applicationLifecycle The injected ApplicationLifeCycle component
  * @param configuration The injected Configuration component
  * @param assets The injected Assets Controller
+ * @param parSeqTraceDotScheduler The injected [[ParSeqTraceDotScheduler]] component
+ * @param parSeqTraceEndpointAction The injected [[ParSeqTraceEndpointAction]] component
  * @param controllerComponents The injected Controller component
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
 @Singleton
-class ParSeqTraceViewer @Inject()(engine: Engine, applicationLifecycle: ApplicationLifecycle, configuration: Configuration, assets: Assets, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends PlayParSeqHelper with BaseController {
+class ParSeqTraceViewer @Inject()(engine: Engine, applicationLifecycle: ApplicationLifecycle, configuration: Configuration, assets: Assets, parSeqTraceDotScheduler: ParSeqTraceDotScheduler, parSeqTraceEndpointAction: ParSeqTraceEndpointAction, val controllerComponents: ControllerComponents)(implicit executionContext: ExecutionContext) extends PlayParSeqHelper with BaseController {
 
   /**
    * A happy logger.
@@ -74,6 +78,11 @@ class ParSeqTraceViewer @Inject()(engine: Engine, applicationLifecycle: Applicat
     })
   }
 
+  /**
+   * The method warmUp starts the GraphvizEngine and creates the cache directory ahead of the first request.
+   */
+  def warmUp(): Unit = setup
+
   /**
    * The method at returns the ParSeq Trace resource file.
    *
@@ -94,7 +103,8 @@ class ParSeqTraceViewer @Inject()(engine: Engine, applicationLifecycle: Applicat
   }
 
   /**
-   * The method dot generates graphviz files and returns the build response as result.
+   * The method dot generates graphviz files and returns the build response as result. Builds of the same hash are
+   * coalesced and admitted by the [[ParSeqTraceDotScheduler]], and get a 429 if too many are waiting.
    *
    * @return The Action
    */
@@ -104,20 +114,37 @@ class ParSeqTraceViewer @Inject()(engine: Engine, applicationLifecycle: Applicat
     // Get body info
     val body = request.body.asText.map((b) => new ByteArrayInputStream(b.getBytes)).orNull
     // Build files
-    val task: Task[Result] = graphvizEngine.build(hash, body).map((response: HttpResponse) => {
-      // Generate Result
-      response.getStatus.intValue match {
-        case HttpServletResponse.SC_OK => Ok(response.getBody)
-        case HttpServletResponse.SC_BAD_GATEWAY => BadRequest(response.getBody)
-        case _ => InternalServerError(response.getBody)
-      }
-    })
-    // Run task
-    val result = bindTaskToFuture(task)
-    engine.run(task)
-    result
+    val build: () => Future[Result] = () => {
+      val task: Task[Result] = graphvizEngine.build(hash, body).map((response: HttpResponse) => {
+        // Generate Result
+        response.getStatus.intValue match {
+          case HttpServletResponse.SC_OK => Ok(response.getBody)
+          case HttpServletResponse.SC_BAD_GATEWAY => BadRequest(response.getBody)
+          case _ => InternalServerError(response.getBody)
+        }
+      })
+      // Run task
+      val result = bindTaskToFuture(task)
+      engine.run(task)
+      result
+    }
+    if (hash == null) build()
+    else parSeqTraceDotScheduler.submit(hash, Files.exists(cachePath.resolve(s"${hash.replaceAll("[^\\w-]", "")}.svg")))(build).recover {
+      // Shed the build if too many are waiting
+      case _: RejectedExecutionException => TooManyRequests("Too many graphviz builds are waiting.").withHeaders(RETRY_AFTER -> "1")
+    }
   })
 
+  /**
+   * The method dotStats shows the metrics of the graphviz builds, which are the queue wait, the run time and the cache
+   * effectiveness.
+   *
+   * @return The Action
+   */
+  def dotStats: Action[AnyContent] = parSeqTraceEndpointAction {
+    Ok(parSeqTraceDotScheduler.getStats)
+  }
+
   /**
    * The methods getDotLocation gets the file path of the dot from conf file, otherwise it will get from the system.
    *
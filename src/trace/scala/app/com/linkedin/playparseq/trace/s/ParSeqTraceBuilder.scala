@@ -15,7 +15,8 @@ import akka.stream.Materializer
 import com.linkedin.playparseq.s.stores.ParSeqTaskStore
 import com.linkedin.playparseq.trace.s.renderers.ParSeqTraceRenderer
 import com.linkedin.playparseq.trace.s.sensors.ParSeqTraceSensor
-import com.linkedin.playparseq.trace.utils.PlayParSeqTraceHelper
+import com.linkedin.playparseq.trace.utils.{ParSeqServerTiming, ParSeqTraceSampler, ParSeqTraceStitcher, PlayParSeqTraceHelper}
+import com.linkedin.playparseq.utils.ParSeqTraceMode
 import javax.inject.{Inject, Singleton}
 import play.api.mvc._
 import scala.concurrent.{ExecutionContext, Future}
@@ -48,7 +49,8 @@ trait ParSeqTraceBuilder {
  * The class ParSeqTraceBuilderImpl is an implementation of [[ParSeqTraceBuilder]] with the help from the class
  * [[PlayParSeqTraceHelper]].
  *
- * @param materializer The injected [[Materializer]] component
+ * @param materializer The injected [[Materializer]] component, no longer needed since the origin body is not run, and kept
+ *                     for compatibility
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
@@ -61,10 +63,8 @@ class ParSeqTraceBuilderImpl @Inject()(implicit materializer: Materializer, exec
   override def build(origin: Future[Result], parSeqTaskStore: ParSeqTaskStore, parSeqTraceSensor: ParSeqTraceSensor, parSeqTraceRenderer: ParSeqTraceRenderer)(implicit requestHeader: RequestHeader): Future[Result] = {
     // Sense
     if (parSeqTraceSensor.isEnabled(parSeqTaskStore)) {
-      // Consume the origin and bind independent Tasks
-      val futures: Set[Future[Any]] = Set(origin.flatMap(consumeResult)) ++ parSeqTaskStore.get.map(bindTaskToFuture(_))
-      // Render
-      Future.sequence(futures).flatMap(_ => parSeqTraceRenderer.render(parSeqTaskStore))
+      // Wait for the origin and the Tasks of the request, then render
+      completeResult(origin, () => parSeqTaskStore.get).flatMap(_ => parSeqTraceRenderer.render(parSeqTaskStore))
     } else origin
   }
 
@@ -75,16 +75,22 @@ class ParSeqTraceBuilderImpl @Inject()(implicit materializer: Materializer, exec
  * to put ParSeq Task into store for retrieving all Tasks within the scope of one request when building ParSeq Trace.
  * And it also composes with [[ParSeqTraceBuilder]] to hand origin Result off in order to determine whether to show
  * ParSeq Trace data or the origin Result, if so generate the ParSeq Trace Result.
+ * If tail-based sampling is enabled, the completed request is also handed to the [[ParSeqTraceSampler]], and if the
+ * Server-Timing header is enabled, the [[ParSeqServerTiming]] adds it to the origin Result. If the request comes from
+ * another service with a correlation id, its Tasks are kept by the [[ParSeqTraceStitcher]] under that id.
  *
  * @param parSeqTaskStore The injected [[ParSeqTaskStore]] component
  * @param parSeqTraceBuilder The injected [[ParSeqTraceBuilder]] component
  * @param parSeqTraceSensor The injected [[ParSeqTraceSensor]] component
  * @param parSeqTraceRenderer The injected [[ParSeqTraceRenderer]] component
+ * @param parSeqTraceSampler The injected [[ParSeqTraceSampler]] component
+ * @param parSeqServerTiming The injected [[ParSeqServerTiming]] component
+ * @param parSeqTraceStitcher The injected [[ParSeqTraceStitcher]] component
  * @param parser The injected [[BodyParser]] component
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
-class ParSeqTraceAction @Inject()(parSeqTaskStore: ParSeqTaskStore, parSeqTraceBuilder: ParSeqTraceBuilder, parSeqTraceSensor: ParSeqTraceSensor, parSeqTraceRenderer: ParSeqTraceRenderer, parser: BodyParsers.Default)(implicit executionContext: ExecutionContext) extends ActionBuilderImpl(parser) {
+class ParSeqTraceAction @Inject()(parSeqTaskStore: ParSeqTaskStore, parSeqTraceBuilder: ParSeqTraceBuilder, parSeqTraceSensor: ParSeqTraceSensor, parSeqTraceRenderer: ParSeqTraceRenderer, parSeqTraceSampler: ParSeqTraceSampler, parSeqServerTiming: ParSeqServerTiming, parSeqTraceStitcher: ParSeqTraceStitcher, parser: BodyParsers.Default)(implicit executionContext: ExecutionContext) extends ActionBuilderImpl(parser) {
 
   /**
    * The method invokeBlock sets up a normal Request with [[ParSeqTaskStore]] and composes with [[ParSeqTraceBuilder]]
@@ -96,10 +102,17 @@ class ParSeqTraceAction @Inject()(parSeqTaskStore: ParSeqTaskStore, parSeqTraceB
    * @return The Future of Result
    */
   override def invokeBlock[A](request: Request[A], block: (Request[A]) => Future[Result]): Future[Result] = {
-    // Initialize the store
-    implicit val newRequest = parSeqTaskStore.initialize(request)
+    // Initialize the store, and record the relationships between Tasks only if the request may be traced
+    val initialized = parSeqTaskStore.initialize(request)
+    val recorded = parSeqTraceSampler.record()
+    implicit val newRequest = if (recorded || parSeqServerTiming.enabled || parSeqTraceSensor.mayBeEnabled(initialized) ||
+      parSeqTraceStitcher.isStitched(initialized)) ParSeqTraceMode.markTraced(initialized) else initialized
+    val startNanos = System.nanoTime
+    parSeqTraceStitcher.keep(newRequest, () => parSeqTaskStore.get)
+    val origin = if (parSeqServerTiming.enabled) block(newRequest).map(parSeqServerTiming.addHeader(_, parSeqTaskStore.get)) else block(newRequest)
     // Compose
-    parSeqTraceBuilder.build(block(newRequest), parSeqTaskStore, parSeqTraceSensor, parSeqTraceRenderer)
+    parSeqTraceSampler.capture(parSeqTraceBuilder.build(origin, parSeqTaskStore, parSeqTraceSensor, parSeqTraceRenderer), recorded,
+      ParSeqTraceSampler.route(newRequest), startNanos, () => parSeqTaskStore.get)
   }
 
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.s
+
+import com.linkedin.playparseq.s.stores.ParSeqTaskStore
+import com.linkedin.playparseq.trace.s.renderers.ParSeqTraceRenderer
+import com.linkedin.playparseq.trace.s.sensors.ParSeqTraceSensor
+import com.linkedin.playparseq.trace.utils.{ParSeqServerTiming, ParSeqTraceRoutes, ParSeqTraceSampler, ParSeqTraceStitcher}
+import com.linkedin.playparseq.utils.ParSeqTraceMode
+import javax.inject.{Inject, Singleton}
+import play.api.mvc.{EssentialAction, EssentialFilter, RequestHeader, Result}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success, Try}
+
+
+/**
+ * The class ParSeqTraceFilter is an EssentialFilter which does what the [[ParSeqTraceAction]] does for every request
+ * covered by the [[ParSeqTraceRoutes]], so the whole app is covered without composing every Action. The store is set
+ * up once per request before routing to the Action, and the ParSeq Trace is built once the Result is there. Use either
+ * the filter or the [[ParSeqTraceAction]] for a request, not both.
+ *
+ * @param parSeqTaskStore The injected [[ParSeqTaskStore]] component
+ * @param parSeqTraceBuilder The injected [[ParSeqTraceBuilder]] component
+ * @param parSeqTraceSensor The injected [[ParSeqTraceSensor]] component
+ * @param parSeqTraceRenderer The injected [[ParSeqTraceRenderer]] component
+ * @param parSeqTraceSampler The injected [[ParSeqTraceSampler]] component
+ * @param parSeqServerTiming The injected [[ParSeqServerTiming]] component
+ * @param parSeqTraceStitcher The injected [[ParSeqTraceStitcher]] component
+ * @param parSeqTraceRoutes The injected [[ParSeqTraceRoutes]] component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceFilter @Inject()(parSeqTaskStore: ParSeqTaskStore, parSeqTraceBuilder: ParSeqTraceBuilder, parSeqTraceSensor: ParSeqTraceSensor, parSeqTraceRenderer: ParSeqTraceRenderer, parSeqTraceSampler: ParSeqTraceSampler, parSeqServerTiming: ParSeqServerTiming, parSeqTraceStitcher: ParSeqTraceStitcher, parSeqTraceRoutes: ParSeqTraceRoutes)(implicit executionContext: ExecutionContext) extends EssentialFilter {
+
+  /**
+   * The method apply sets up the store for a covered request and composes with [[ParSeqTraceBuilder]] to build ParSeq
+   * Trace for it.
+   *
+   * @param next The next EssentialAction
+   * @return The EssentialAction
+   */
+  override def apply(next: EssentialAction): EssentialAction = EssentialAction(request =>
+    if (!parSeqTraceRoutes.covers(request)) next(request)
+    else {
+      // Initialize the store, and record the relationships between Tasks only if the request may be traced
+      val initialized: RequestHeader = parSeqTaskStore.initialize(request)
+      val recorded = parSeqTraceSampler.record()
+      implicit val newRequest: RequestHeader = if (recorded || parSeqServerTiming.enabled || parSeqTraceSensor.mayBeEnabled(initialized) ||
+        parSeqTraceStitcher.isStitched(initialized)) ParSeqTraceMode.markTraced(initialized) else initialized
+      val startNanos = System.nanoTime
+      parSeqTraceStitcher.keep(newRequest, () => parSeqTaskStore.get)
+      // Compose once the origin Result is there, or once the origin has failed, so that failed requests are sampled too
+      next(newRequest).map(Success(_): Try[Result]).recover({ case throwable => Failure(throwable) }).mapFuture(result => {
+        val origin = Future.fromTry(result).map(r => if (parSeqServerTiming.enabled) parSeqServerTiming.addHeader(r, parSeqTaskStore.get) else r)
+        parSeqTraceSampler.capture(parSeqTraceBuilder.build(origin, parSeqTaskStore, parSeqTraceSensor, parSeqTraceRenderer), recorded,
+          ParSeqTraceSampler.route(newRequest), startNanos, () => parSeqTaskStore.get)
+      })
+    })
+
+}
@@ -11,14 +11,15 @@
  */
 package com.linkedin.playparseq.trace.s.renderers
 
-import com.linkedin.parseq.trace.{ShallowTrace, Trace, TraceRelationship}
+import com.linkedin.parseq.trace.Trace
 import com.linkedin.playparseq.s.stores.ParSeqTaskStore
-import com.linkedin.playparseq.trace.utils.ParSeqTraceBaseVisualizer
+import com.linkedin.playparseq.trace.utils.{ParSeqTraceAnalyzer, ParSeqTraceBaseVisualizer, ParSeqTraceCollapser, ParSeqTraceExecutor, ParSeqTraceMerger, ParSeqTraceSampler, ParSeqTraceStitcher}
+import java.util.concurrent.RejectedExecutionException
 import javax.inject.{Inject, Singleton}
-import play.api.Environment
+import play.api.{Configuration, Environment}
 import play.api.http.HttpConfiguration
+import play.api.inject.DefaultApplicationLifecycle
 import play.api.mvc.{RequestHeader, Result, Results}
-import scala.collection.JavaConverters._
 import scala.concurrent.{ExecutionContext, Future}
 
 
@@ -47,23 +48,40 @@ trait ParSeqTraceRenderer {
  *
  * @param environment The injected [[Environment]] component
  * @param httpConfiguration The injected [[HttpConfiguration]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param parSeqTraceAnalyzer The injected [[ParSeqTraceAnalyzer]] component
+ * @param parSeqTraceStitcher The injected [[ParSeqTraceStitcher]] component
+ * @param parSeqTraceCollapser The injected [[ParSeqTraceCollapser]] component
  * @param executionContext The injected [[ExecutionContext]] component
  * @author Yinan Ding (yding@linkedin.com)
  */
 @Singleton
-class ParSeqTraceRendererImpl @Inject()(environment: Environment, httpConfiguration: HttpConfiguration)(implicit executionContext: ExecutionContext) extends ParSeqTraceBaseVisualizer with ParSeqTraceRenderer {
+class ParSeqTraceRendererImpl @Inject()(environment: Environment, httpConfiguration: HttpConfiguration, parSeqTraceExecutor: ParSeqTraceExecutor, parSeqTraceAnalyzer: ParSeqTraceAnalyzer, parSeqTraceStitcher: ParSeqTraceStitcher, parSeqTraceCollapser: ParSeqTraceCollapser)(implicit executionContext: ExecutionContext) extends ParSeqTraceBaseVisualizer with ParSeqTraceRenderer {
+
+  /**
+   * The constructor keeps the former signature working. It renders on a [[ParSeqTraceExecutor]] of its own with the
+   * default settings, and uses the other components with their defaults.
+   *
+   * @param environment The [[Environment]]
+   * @param httpConfiguration The [[HttpConfiguration]]
+   * @param executionContext The [[ExecutionContext]]
+   */
+  def this(environment: Environment, httpConfiguration: HttpConfiguration)(implicit executionContext: ExecutionContext) = this(environment, httpConfiguration, new ParSeqTraceExecutor(Configuration.empty, new DefaultApplicationLifecycle), new ParSeqTraceAnalyzer, new ParSeqTraceStitcher(Configuration.empty), new ParSeqTraceCollapser(Configuration.empty, httpConfiguration))
 
   /**
    * @inheritdoc
    */
   override def render(parSeqTaskStore: ParSeqTaskStore)(implicit requestHeader: RequestHeader): Future[Result] =
-    Future {
-      val traces: Set[Trace] = parSeqTaskStore.get.map(_.getTrace)
-      val traceMap: Map[java.lang.Long, ShallowTrace] = traces.foldLeft(Map[java.lang.Long, ShallowTrace]())(_ ++ _.getTraceMap.asScala)
-      val relationships: Set[TraceRelationship] = traces.foldLeft(Set[TraceRelationship]())(_ ++ _.getRelationships.asScala)
-      // Generate Result of ParSeq Trace
-      Option(showTrace(new Trace(traceMap.asJava, relationships.asJava), environment, httpConfiguration)).map(Results.Ok(_).as("text/html"))
+    // Get all Tasks from the request out of the store and combine all Trace information, including other services
+    parSeqTraceExecutor.submit(ParSeqTraceMerger.merge(parSeqTaskStore.get)).flatMap(parSeqTraceStitcher.stitch).flatMap(trace => parSeqTraceExecutor.submit {
+      // Highlight the critical path
+      val analysis = parSeqTraceAnalyzer.analyze(ParSeqTraceSampler.route(requestHeader), trace)
+      // Generate Result of ParSeq Trace, collapsed if it is too large to render
+      Option(showTrace(parSeqTraceCollapser.collapse(ParSeqTraceAnalyzer.annotate(trace, analysis)), environment, httpConfiguration)).map(Results.Ok(_).as("text/html"))
         .getOrElse(Results.InternalServerError("Can't show Trace."))
+    }).recover {
+      // Shed the rendering if the executor is overloaded
+      case _: RejectedExecutionException => Results.ServiceUnavailable("Too many ParSeq Traces are being rendered.")
     }
 
 }
@@ -34,6 +34,16 @@ trait ParSeqTraceSensor {
    */
   def isEnabled(parSeqTaskStore: ParSeqTaskStore)(implicit requestHeader: RequestHeader): Boolean
 
+  /**
+   * The method mayBeEnabled decides before the request is handled whether ParSeq Trace may be enabled for it, so that
+   * its plans record the relationships between their Tasks. Otherwise they run in low-trace mode. It is true unless
+   * overridden.
+   *
+   * @param requestHeader The request
+   * @return The decision
+   */
+  def mayBeEnabled(implicit requestHeader: RequestHeader): Boolean = true
+
 }
 
 /**
@@ -56,6 +66,12 @@ class ParSeqTraceSensorImpl @Inject()(environment: Environment) extends ParSeqTr
    * @inheritdoc
    */
   override def isEnabled(parSeqTaskStore: ParSeqTaskStore)(implicit requestHeader: RequestHeader): Boolean =
-    environment.mode == Mode.Dev && requestHeader.getQueryString(QueryKey).exists(_.equals("true")) && parSeqTaskStore.get.nonEmpty
+    mayBeEnabled && parSeqTaskStore.get.nonEmpty
+
+  /**
+   * @inheritdoc
+   */
+  override def mayBeEnabled(implicit requestHeader: RequestHeader): Boolean =
+    environment.mode == Mode.Dev && requestHeader.getQueryString(QueryKey).exists(_.equals("true"))
 
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.trace.{ShallowTrace, ShallowTraceBuilder}
+import java.util.Locale
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.mvc.Result
+import play.mvc.{Result => JavaResult}
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqServerTiming adds a `Server-Timing` header to the normal Result, which summarizes the slowest ParSeq
+ * Tasks put in the ParSeqTaskStore for the request by their durations. The durations are read from the
+ * ShallowTraceBuilders of those Tasks, so neither a Trace is built nor the request has to be traced. Only the header
+ * is touched, the body is neither buffered nor replaced. The ParSeqServerTiming will try to load the key-value of
+ * `parseq.trace.serverTiming.maxTasks` (The number of Tasks in the header) from your conf file, otherwise it will use
+ * the default value, which is 5. The ParSeqServerTiming is only active if `parseq.trace.serverTiming.enabled` is true
+ * in your conf file.
+ *
+ * @param configuration The injected Configuration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqServerTiming @Inject()(configuration: Configuration) {
+
+  /**
+   * The field enabled is whether the Server-Timing header is enabled.
+   */
+  val enabled: Boolean = configuration.getOptional[Boolean]("parseq.trace.serverTiming.enabled").getOrElse(false)
+
+  /**
+   * The field maxTasks is the number of Tasks in the header.
+   */
+  private[this] val maxTasks: Int = configuration.getOptional[Int]("parseq.trace.serverTiming.maxTasks").getOrElse(5)
+
+  /**
+   * The method addHeader adds the Server-Timing header for the given Tasks to the `Result`.
+   *
+   * @param result The Result
+   * @param tasks The ParSeq Tasks of the request
+   * @return The Result with the header
+   */
+  def addHeader(result: Result, tasks: Iterable[Task[_]]): Result =
+    if (enabled) header(tasks).map(value => result.withHeaders(ParSeqServerTiming.HeaderName -> value)).getOrElse(result)
+    else result
+
+  /**
+   * The method addHeader adds the Server-Timing header for the given Tasks to the Java `Result`.
+   *
+   * @param result The Result
+   * @param tasks The ParSeq Tasks of the request
+   * @return The Result with the header
+   */
+  def addHeader(result: JavaResult, tasks: java.util.Set[Task[_]]): JavaResult =
+    if (enabled) header(tasks.asScala).map(result.withHeader(ParSeqServerTiming.HeaderName, _)).getOrElse(result)
+    else result
+
+  /**
+   * The method header builds the value of the Server-Timing header from the slowest finished Tasks.
+   *
+   * @param tasks The ParSeq Tasks of the request
+   * @return The value of the header if there is any finished Task
+   */
+  private[playparseq] def header(tasks: Iterable[Task[_]]): Option[String] = {
+    val timings: Seq[(ShallowTraceBuilder, Long)] = tasks.toSeq.map(_.getShallowTraceBuilder)
+      .flatMap(trace => ParSeqServerTiming.duration(trace).map(trace -> _))
+      .sortBy(-_._2).take(maxTasks)
+    if (timings.isEmpty) None
+    else Some(timings.zipWithIndex.map {
+      case ((trace, nanos), index) =>
+        "task%d;desc=\"%s\";dur=%s".format(index, ParSeqServerTiming.escape(trace.getName), "%.3f".formatLocal(Locale.ROOT, nanos / 1e6))
+    }.mkString(", "))
+  }
+
+}
+
+/**
+ * The object ParSeqServerTiming defines the format of the Server-Timing header.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqServerTiming {
+
+  /**
+   * The field HeaderName is the name of the header.
+   */
+  val HeaderName = "Server-Timing"
+
+  /**
+   * The method duration gets the duration of a finished Task.
+   *
+   * @param trace The ShallowTrace of the Task
+   * @return The duration in nanoseconds if the Task has finished
+   */
+  def duration(trace: ShallowTrace): Option[Long] = for {
+    start <- Option(trace.getStartNanos)
+    end <- Option(trace.getEndNanos)
+  } yield end - start
+
+  /**
+   * The method duration gets the duration of a finished Task while it is being traced.
+   *
+   * @param trace The ShallowTraceBuilder of the Task
+   * @return The duration in nanoseconds if the Task has finished
+   */
+  def duration(trace: ShallowTraceBuilder): Option[Long] = for {
+    start <- Option(trace.getStartNanos)
+    end <- Option(trace.getEndNanos)
+  } yield end - start
+
+  /**
+   * The method escape makes a Task name safe for a quoted string of the header.
+   *
+   * @param name The name of the Task
+   * @return The escaped name
+   */
+  private def escape(name: String): String = Option(name).getOrElse("")
+    .replaceAll("[^\\x20-\\x7E]", "?").replace("\\", "\\\\").replace("\"", "\\\"")
+
+}
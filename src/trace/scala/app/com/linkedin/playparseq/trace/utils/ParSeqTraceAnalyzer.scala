@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ShallowTrace, ShallowTraceBuilder, Trace}
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Singleton
+import play.api.libs.json.{JsObject, Json}
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceAnalyzer analyzes merged ParSeq Traces. It computes the critical path, which is the chain of
+ * Tasks that determined the end of the plan, the slack of every other Task, which is how much later it could have
+ * finished without delaying what depends on it, and the parallelism achieved versus the parallelism the dependencies
+ * would allow. The analyses are also aggregated per route.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceAnalyzer {
+
+  /**
+   * The field routes are the aggregated analyses per route.
+   */
+  private[this] val routes = new ConcurrentHashMap[String, ParSeqTraceAnalyzer.RouteStats]
+
+  /**
+   * The method analyze analyzes a merged Trace and aggregates it into the stats of the route.
+   *
+   * @param route The route of the request
+   * @param trace The merged ParSeq Trace
+   * @return The analysis
+   */
+  def analyze(route: String, trace: Trace): ParSeqTraceAnalyzer.Analysis = {
+    val analysis = ParSeqTraceAnalyzer.analyze(trace)
+    routes.computeIfAbsent(route, new java.util.function.Function[String, ParSeqTraceAnalyzer.RouteStats] {
+      override def apply(route: String): ParSeqTraceAnalyzer.RouteStats = new ParSeqTraceAnalyzer.RouteStats
+    }).add(analysis)
+    analysis
+  }
+
+  /**
+   * The method getRoutes gets the aggregated analyses per route.
+   *
+   * @return The stats per route
+   */
+  def getRoutes: Map[String, ParSeqTraceAnalyzer.RouteStats] = routes.asScala.toMap
+
+}
+
+/**
+ * The object ParSeqTraceAnalyzer computes the analysis of a ParSeq Trace.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceAnalyzer {
+
+  /**
+   * The field CriticalPathAttribute is the key of the trace attribute marking a Task on the critical path.
+   */
+  val CriticalPathAttribute = "criticalPath"
+
+  /**
+   * The field SlackAttribute is the key of the trace attribute holding the slack of a Task in milliseconds.
+   */
+  val SlackAttribute = "slackMilliseconds"
+
+  /**
+   * The field VirtualRoot is the id of the root joining several plans of one request.
+   */
+  private val VirtualRoot: java.lang.Long = Long.MinValue
+
+  /**
+   * The class Analysis is the analysis of one Trace.
+   *
+   * @param criticalPath The ids of the Tasks on the critical path, the earliest first
+   * @param slackNanos The slack of every finished Task
+   * @param wallNanos The time from the start of the first Task to the end of the last Task
+   * @param workNanos The sum of the durations of all leaf Tasks
+   * @param criticalWorkNanos The sum of the durations of the leaf Tasks on the critical path
+   */
+  case class Analysis(criticalPath: Seq[Long], slackNanos: Map[Long, Long], wallNanos: Long, workNanos: Long, criticalWorkNanos: Long) {
+
+    /**
+     * The method achievedParallelism gets the parallelism achieved, which is the work divided by the wall time.
+     *
+     * @return The parallelism
+     */
+    def achievedParallelism: Double = if (wallNanos > 0) workNanos.toDouble / wallNanos else 1.0
+
+    /**
+     * The method maxParallelism gets the theoretical maximum of parallelism, which is the work divided by the work on
+     * the critical path.
+     *
+     * @return The parallelism
+     */
+    def maxParallelism: Double = if (criticalWorkNanos > 0) workNanos.toDouble / criticalWorkNanos else 1.0
+
+    /**
+     * The method toJson renders the analysis with the names of the Tasks.
+     *
+     * @param trace The analyzed Trace
+     * @return The JSON
+     */
+    def toJson(trace: Trace): JsObject = Json.obj(
+      "criticalPath" -> criticalPath.flatMap(id => Option(trace.getTraceMap.get(id)).map(shallowTrace => Json.obj(
+        "id" -> id,
+        "name" -> shallowTrace.getName,
+        "durationMilliseconds" -> millis(duration(shallowTrace).getOrElse(0L))))),
+      "slackMilliseconds" -> Json.toJson(slackNanos.map { case (id, nanos) => id.toString -> millis(nanos) }),
+      "wallMilliseconds" -> millis(wallNanos),
+      "workMilliseconds" -> millis(workNanos),
+      "criticalWorkMilliseconds" -> millis(criticalWorkNanos),
+      "achievedParallelism" -> achievedParallelism,
+      "maxParallelism" -> maxParallelism)
+
+  }
+
+  /**
+   * The class RouteStats is the aggregation of the analyses of one route.
+   */
+  class RouteStats {
+
+    /**
+     * The field count is the number of analyses.
+     */
+    val count = new AtomicLong
+
+    /**
+     * The field wallNanos is the sum of the wall times.
+     */
+    val wallNanos = new AtomicLong
+
+    /**
+     * The field workNanos is the sum of the work.
+     */
+    val workNanos = new AtomicLong
+
+    /**
+     * The field criticalWorkNanos is the sum of the work on the critical paths.
+     */
+    val criticalWorkNanos = new AtomicLong
+
+    /**
+     * The method add aggregates one analysis.
+     *
+     * @param analysis The analysis
+     */
+    def add(analysis: Analysis): Unit = {
+      count.incrementAndGet
+      wallNanos.addAndGet(analysis.wallNanos)
+      workNanos.addAndGet(analysis.workNanos)
+      criticalWorkNanos.addAndGet(analysis.criticalWorkNanos)
+    }
+
+    /**
+     * The method toJson renders the aggregation.
+     *
+     * @return The JSON
+     */
+    def toJson: JsObject = {
+      val n = Math.max(1L, count.get)
+      Json.obj(
+        "count" -> count.get,
+        "averageWallMilliseconds" -> millis(wallNanos.get / n),
+        "averageCriticalWorkMilliseconds" -> millis(criticalWorkNanos.get / n),
+        "achievedParallelism" -> (if (wallNanos.get > 0) workNanos.get.toDouble / wallNanos.get else 1.0),
+        "maxParallelism" -> (if (criticalWorkNanos.get > 0) workNanos.get.toDouble / criticalWorkNanos.get else 1.0))
+    }
+
+  }
+
+  /**
+   * The method analyze computes the analysis of a Trace. Only finished Tasks are taken into account.
+   *
+   * @param trace The merged ParSeq Trace
+   * @return The analysis
+   */
+  def analyze(trace: Trace): Analysis = {
+    val traces: Map[java.lang.Long, ShallowTrace] = finished(trace)
+    // Build the parent-child and the predecessor-successor relationships among finished Tasks
+    val edges = trace.getRelationships.asScala.toSeq.filter(r => traces.contains(r.getFrom) && traces.contains(r.getTo))
+    val parents: Map[java.lang.Long, java.lang.Long] = this.parents(trace, traces)
+    val children: Map[java.lang.Long, Seq[java.lang.Long]] = parents.toSeq.groupBy(_._2).mapValues(_.map(_._1))
+    val successors: Map[java.lang.Long, Seq[java.lang.Long]] = edges.collect {
+      case r if r.getRelationhsip == Relationship.SUCCESSOR_OF => r.getTo -> r.getFrom
+    }.groupBy(_._1).mapValues(_.map(_._2))
+    if (traces.isEmpty) Analysis(Seq.empty, Map.empty, 0L, 0L, 0L)
+    else {
+      // Join all plans under one root
+      val roots: Seq[java.lang.Long] = traces.keys.filterNot(parents.contains).toSeq
+      val start: Long = traces.values.map(_.getStartNanos.longValue).min
+      val end: Long = traces.values.map(_.getEndNanos.longValue).max
+      val startOf: java.lang.Long => Long = id => if (id == VirtualRoot) start else traces(id).getStartNanos
+      val endOf: java.lang.Long => Long = id => if (id == VirtualRoot) end else traces(id).getEndNanos
+      val childrenOf: java.lang.Long => Seq[java.lang.Long] = id => if (id == VirtualRoot) roots else children.getOrElse(id, Seq.empty)
+      // Walk back from the end: within a Task, the child finishing last before the cursor is on the critical path
+      def criticalPath(id: java.lang.Long, cursor: Long): Seq[Long] = {
+        val path = scala.collection.mutable.ArrayBuffer[Long]()
+        var current = cursor
+        var candidates = childrenOf(id).sortBy(c => -endOf(c))
+        while (candidates.nonEmpty) {
+          candidates.find(c => endOf(c) <= current) match {
+            case Some(child) =>
+              path.prependAll(criticalPath(child, endOf(child)))
+              current = startOf(child)
+              candidates = candidates.filter(c => c != child && endOf(c) <= current)
+            case None => candidates = Seq.empty
+          }
+        }
+        if (id == VirtualRoot) path else (id.longValue +: path).toSeq
+      }
+      val path: Seq[Long] = criticalPath(VirtualRoot, end).sortBy(id => traces(id).getStartNanos.longValue)
+      // The slack is the time until the first successor starts, or the parent ends
+      val slack: Map[Long, Long] = traces.keys.map(id => {
+        val deadline = successors.get(id).filter(_.nonEmpty).map(_.map(startOf).min)
+          .getOrElse(endOf(parents.getOrElse(id, VirtualRoot)))
+        id.longValue -> Math.max(0L, deadline - endOf(id))
+      }).toMap
+      val leaves: Set[java.lang.Long] = traces.keySet.filterNot(children.contains)
+      val work: Long = leaves.toSeq.map(id => duration(traces(id)).get).sum
+      val criticalWork: Long = path.filter(id => leaves.contains(id)).map(id => duration(traces(id)).get).sum
+      Analysis(path, slack, end - start, work, criticalWork)
+    }
+  }
+
+  /**
+   * The method annotate marks the Tasks on the critical path and their slack in the trace attributes, so that they
+   * show up in the ParSeq Trace page.
+   *
+   * @param trace The merged ParSeq Trace
+   * @param analysis The analysis of the Trace
+   * @return The annotated Trace
+   */
+  def annotate(trace: Trace, analysis: Analysis): Trace = {
+    val critical = analysis.criticalPath.toSet
+    val traceMap = new java.util.HashMap[java.lang.Long, ShallowTrace]
+    trace.getTraceMap.asScala.foreach {
+      case (id, shallowTrace) =>
+        val builder = new ShallowTraceBuilder(shallowTrace)
+        if (critical.contains(id)) builder.addAttribute(CriticalPathAttribute, "true")
+        analysis.slackNanos.get(id).foreach(nanos => builder.addAttribute(SlackAttribute, millis(nanos).toString))
+        traceMap.put(id, builder.build)
+    }
+    new Trace(traceMap, trace.getRelationships)
+  }
+
+  /**
+   * The method finished gets the ShallowTraces of the finished Tasks of a Trace.
+   *
+   * @param trace The merged ParSeq Trace
+   * @return The ShallowTraces by id
+   */
+  private[playparseq] def finished(trace: Trace): Map[java.lang.Long, ShallowTrace] =
+    trace.getTraceMap.asScala.toMap.filter(t => duration(t._2).isDefined)
+
+  /**
+   * The method parents gets the parent of every Task among the given Tasks of a Trace.
+   *
+   * @param trace The merged ParSeq Trace
+   * @param traces The ShallowTraces of the Tasks by id
+   * @return The parent ids by child id
+   */
+  private[playparseq] def parents(trace: Trace, traces: Map[java.lang.Long, ShallowTrace]): Map[java.lang.Long, java.lang.Long] =
+    trace.getRelationships.asScala.toSeq.filter(r => traces.contains(r.getFrom) && traces.contains(r.getTo)).collect {
+      case r if r.getRelationhsip == Relationship.PARENT_OF => r.getTo -> r.getFrom
+      case r if r.getRelationhsip == Relationship.CHILD_OF => r.getFrom -> r.getTo
+    }.toMap
+
+  /**
+   * The method duration gets the duration of a finished Task.
+   *
+   * @param trace The ShallowTrace of the Task
+   * @return The duration in nanoseconds if the Task has finished
+   */
+  private[playparseq] def duration(trace: ShallowTrace): Option[Long] = ParSeqServerTiming.duration(trace)
+
+  /**
+   * The method millis converts nanoseconds to fractional milliseconds.
+   *
+   * @param nanos The time in nanoseconds
+   * @return The time in milliseconds
+   */
+  private def millis(nanos: Long): Double = nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble
+
+}
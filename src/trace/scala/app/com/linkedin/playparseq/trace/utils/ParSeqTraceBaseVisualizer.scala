@@ -14,6 +14,8 @@ package com.linkedin.playparseq.trace.utils
 import com.linkedin.parseq.trace.Trace
 import com.linkedin.parseq.trace.codec.json.JsonTraceCodec
 import java.io.File
+import java.util.concurrent.atomic.AtomicReference
+import java.util.regex.Pattern
 import play.api.Environment
 import play.api.http.HttpConfiguration
 import scala.collection.immutable.ListMap
@@ -31,12 +33,12 @@ abstract class ParSeqTraceBaseVisualizer {
   /**
    * The field TracevisRoot is the root path of all Trace resources.
    */
-  val TracevisRoot = "/tracevis"
+  val TracevisRoot = ParSeqTraceBaseVisualizer.TracevisRoot
 
   /**
    * The field TraceName is the name of the Trace page.
    */
-  val TraceName = "trace.html"
+  val TraceName = ParSeqTraceBaseVisualizer.TraceName
 
   /**
    * The method showTrace generates the HTML page based on the ParSeq `Trace`.
@@ -79,13 +81,58 @@ abstract class ParSeqTraceBaseVisualizer {
     // Generate injected JSON placeholder
     val injectedJson = """<code id="injected-json"><!--__JSON__--></code>"""
     // Build HTML page
-    environment.resourceAsStream(new File(TracevisRoot, TraceName).getPath).map(stream => {
+    ParSeqTraceBaseVisualizer.preload(environment).map(template => {
       // Escape script and JSON
       val script = preFillScript.replace("__EMBED_ESCAPES__", """{"&":"&amp;","-":"&dsh;"}""")
       val json = injectedJson.replace("__JSON__", ListMap("&" -> "&amp;", "-" -> "&dsh;").foldLeft(traceJson)((acc, escape) => acc.replaceAll(escape._1, escape._2)))
-      // Inject script and JSON
-      Source.fromInputStream(stream).mkString.replace("<title>", script + "\n<title>").replace("</style>", "</style>\n" + json)
+      // Inject script and JSON between the pieces of the template
+      template.map(_.mkString("</style>\n" + json)).mkString(script + "\n<title>")
     }).orNull
   }
 
 }
+
+/**
+ * The object ParSeqTraceBaseVisualizer keeps the template of the Trace page, which is read from the resources once and
+ * split at the places where the script and the JSON are injected.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceBaseVisualizer {
+
+  /**
+   * The field TracevisRoot is the root path of all Trace resources.
+   */
+  val TracevisRoot = "/tracevis"
+
+  /**
+   * The field TraceName is the name of the Trace page.
+   */
+  val TraceName = "trace.html"
+
+  /**
+   * The field template is the split template with the Environment it was read from, which are the pieces between the
+   * `<title>` tags, each split into the pieces between the `</style>` tags. Only the template of the last Environment is
+   * kept, so that the Environments of stopped applications, e.g. in dev mode or tests, are not held on to.
+   */
+  private[this] val template = new AtomicReference[(Environment, Option[IndexedSeq[IndexedSeq[String]]])]
+
+  /**
+   * The method preload reads and splits the template of the Trace page, unless it has been done for the Environment.
+   *
+   * @param environment The Environment
+   * @return The split template, or None if the Trace page is missing from the resources
+   */
+  def preload(environment: Environment): Option[IndexedSeq[IndexedSeq[String]]] = Option(template.get) match {
+    case Some((cachedEnvironment, cached)) if cachedEnvironment eq environment => cached
+    case _ =>
+      val loaded = environment.resourceAsStream(new File(TracevisRoot, TraceName).getPath).map(stream => {
+        try Source.fromInputStream(stream).mkString.split(Pattern.quote("<title>"), -1)
+          .map(_.split(Pattern.quote("</style>"), -1).toIndexedSeq).toIndexedSeq
+        finally stream.close()
+      })
+      template.set((environment, loaded))
+      loaded
+  }
+
+}
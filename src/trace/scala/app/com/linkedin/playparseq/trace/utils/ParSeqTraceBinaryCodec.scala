@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import com.linkedin.parseq.trace.codec.TraceCodec
+import java.io.{ByteArrayOutputStream, EOFException, IOException, InputStream, OutputStream}
+import java.nio.charset.StandardCharsets
+import java.util.Base64
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceBinaryCodec is a compact binary `TraceCodec` for keeping ParSeq Traces in memory, spilling them
+ * to disk or sending them between services. Ids and times are written as variable-length integers relative to the
+ * previous id and to the start of the Task, and every distinct string, e.g. a Task name, is written once into a string
+ * table and referred to by its index. As a `TraceCodec` works with Strings as well, the String form is the Base64 of
+ * the binary form.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceBinaryCodec extends TraceCodec {
+
+  /**
+   * @inheritdoc
+   */
+  override def encode(trace: Trace, outputStream: OutputStream): Unit = outputStream.write(toBytes(trace))
+
+  /**
+   * @inheritdoc
+   */
+  override def encode(trace: Trace): String = Base64.getEncoder.encodeToString(toBytes(trace))
+
+  /**
+   * @inheritdoc
+   */
+  override def decode(inputStream: InputStream): Trace = fromBytes(readBytes(inputStream))
+
+  /**
+   * @inheritdoc
+   */
+  override def decode(string: String): Trace = fromBytes(Base64.getDecoder.decode(string))
+
+  /**
+   * The method toBytes encodes a Trace into bytes.
+   *
+   * @param trace The ParSeq Trace
+   * @return The bytes
+   */
+  def toBytes(trace: Trace): Array[Byte] = {
+    val strings = new java.util.HashMap[String, Integer]
+    val table = new Writer
+    // Null is 0, the strings are 1-based and written into the table when first seen
+    val string: String => Int = s => if (s == null) 0 else {
+      val index = strings.get(s)
+      if (index != null) index else {
+        val bytes = s.getBytes(StandardCharsets.UTF_8)
+        table.writeInt(bytes.length)
+        table.write(bytes)
+        strings.put(s, strings.size + 1)
+        strings.size
+      }
+    }
+    val traces: Array[ShallowTrace] = trace.getTraceMap.values.toArray(new Array[ShallowTrace](0)).sortBy(_.getId.longValue)
+    val positions = new java.util.HashMap[java.lang.Long, Integer]
+    traces.indices.foreach(i => positions.put(traces(i).getId, i))
+    val base: Long = traces.flatMap(t => Option(t.getStartNanos)).map(_.longValue).reduceOption(_ min _).getOrElse(0L)
+    // Write the body first to collect the strings
+    val body = new Writer
+    body.writeLong(base)
+    body.writeInt(string(trace.getPlanClass))
+    body.writeOptionalLong(trace.getPlanId)
+    body.writeInt(traces.length)
+    traces.foldLeft(0L)((previous, t) => {
+      body.writeLong(t.getId - previous)
+      body.writeInt((if (t.getHidden) 1 else 0) | (if (t.getSystemHidden) 2 else 0))
+      body.writeInt(string(t.getName))
+      body.writeInt(string(t.getValue))
+      body.writeInt(string(t.getTaskType))
+      body.writeInt(if (t.getResultType == null) 0 else t.getResultType.ordinal + 1)
+      // The other times are relative to the start, which is relative to the earliest start
+      val start: Long = if (t.getStartNanos == null) base else t.getStartNanos
+      body.writeOptionalLong(t.getStartNanos, base)
+      body.writeOptionalLong(t.getPendingNanos, start)
+      body.writeOptionalLong(t.getEndNanos, start)
+      val attributes = t.getAttributes
+      body.writeInt(attributes.size)
+      attributes.asScala.foreach {
+        case (key, value) =>
+          body.writeInt(string(key))
+          body.writeInt(string(value))
+      }
+      t.getId.longValue
+    })
+    val relationships = trace.getRelationships.asScala.toSeq
+    body.writeInt(relationships.size)
+    relationships.foreach(r => {
+      body.writeInt(r.getRelationhsip.ordinal)
+      Seq(r.getFrom, r.getTo).foreach(id => {
+        val position = positions.get(id)
+        if (position != null) body.writeInt(position + 1) else {
+          // Relationships may refer to Tasks outside of the Trace
+          body.writeInt(0)
+          body.writeLong(id)
+        }
+      })
+    })
+    // Write the header and the string table in front of the body
+    val output = new Writer
+    output.write(ParSeqTraceBinaryCodec.Magic)
+    output.writeInt(strings.size)
+    table.writeTo(output)
+    body.writeTo(output)
+    output.toByteArray
+  }
+
+  /**
+   * The method fromBytes decodes a Trace from bytes.
+   *
+   * @param bytes The bytes
+   * @return The ParSeq Trace
+   */
+  def fromBytes(bytes: Array[Byte]): Trace = new Reader(bytes).readTrace
+
+  /**
+   * The class Writer writes variable-length integers.
+   */
+  private[this] class Writer extends ByteArrayOutputStream {
+
+    /**
+     * The method writeInt writes a non-negative Int in 7-bit groups.
+     *
+     * @param value The Int
+     */
+    def writeInt(value: Int): Unit = {
+      var v = value
+      while ((v & ~0x7F) != 0) {
+        write((v & 0x7F) | 0x80)
+        v >>>= 7
+      }
+      write(v)
+    }
+
+    /**
+     * The method writeLong writes a Long in zigzag 7-bit groups, so that small negative values stay small.
+     *
+     * @param value The Long
+     */
+    def writeLong(value: Long): Unit = {
+      var v = (value << 1) ^ (value >> 63)
+      while ((v & ~0x7FL) != 0) {
+        write(((v & 0x7F) | 0x80).toInt)
+        v >>>= 7
+      }
+      write(v.toInt)
+    }
+
+    /**
+     * The method writeOptionalLong writes a nullable Long relative to an origin.
+     *
+     * @param value The Long or null
+     * @param origin The origin
+     */
+    def writeOptionalLong(value: java.lang.Long, origin: Long = 0L): Unit = if (value == null) write(0) else {
+      write(1)
+      writeLong(value - origin)
+    }
+
+  }
+
+  /**
+   * The method readBytes reads a whole stream, which must not be larger than [[ParSeqTraceBinaryCodec.MaxBytes]].
+   *
+   * @param inputStream The input
+   * @return The bytes
+   */
+  private[this] def readBytes(inputStream: InputStream): Array[Byte] = {
+    val output = new ByteArrayOutputStream
+    val buffer = new Array[Byte](8192)
+    var read = inputStream.read(buffer)
+    while (read >= 0) {
+      output.write(buffer, 0, read)
+      if (output.size > ParSeqTraceBinaryCodec.MaxBytes) throw new IOException("ParSeq Trace too large.")
+      read = inputStream.read(buffer)
+    }
+    output.toByteArray
+  }
+
+  /**
+   * The class Reader reads a Trace written by the Writer. Every length and count is checked against the bytes left
+   * before anything is allocated for it, as every string byte and every element takes at least one byte, so that a
+   * malformed or hostile input fails with an IOException rather than exhausting the memory.
+   *
+   * @param bytes The input
+   */
+  private[this] class Reader(bytes: Array[Byte]) {
+
+    /**
+     * The field position is the position of the next byte to read.
+     */
+    private[this] var position: Int = 0
+
+    /**
+     * The method remaining gets the number of bytes left.
+     *
+     * @return The number of bytes
+     */
+    private[this] def remaining: Int = bytes.length - position
+
+    /**
+     * The method readByte reads one byte.
+     *
+     * @return The byte
+     */
+    private[this] def readByte: Int = {
+      if (remaining <= 0) throw new EOFException("Truncated ParSeq Trace.")
+      val b = bytes(position) & 0xFF
+      position += 1
+      b
+    }
+
+    /**
+     * The method readInt reads a non-negative Int.
+     *
+     * @return The Int
+     */
+    def readInt: Int = {
+      var value = 0
+      var shift = 0
+      var b = readByte
+      while ((b & 0x80) != 0) {
+        value |= (b & 0x7F) << shift
+        shift += 7
+        if (shift > 28) throw new IOException("Malformed ParSeq Trace.")
+        b = readByte
+      }
+      value |= b << shift
+      if (value < 0) throw new IOException("Malformed ParSeq Trace.")
+      value
+    }
+
+    /**
+     * The method readCount reads the number of elements or bytes which follow, each of which takes at least one byte.
+     *
+     * @return The count
+     */
+    def readCount: Int = {
+      val count = readInt
+      if (count > remaining) throw new EOFException("Truncated ParSeq Trace.")
+      count
+    }
+
+    /**
+     * The method readIndex reads an index into a table.
+     *
+     * @param size The size of the table
+     * @return The index
+     */
+    def readIndex(size: Int): Int = {
+      val index = readInt
+      if (index >= size) throw new IOException("Malformed ParSeq Trace.")
+      index
+    }
+
+    /**
+     * The method readLong reads a zigzag Long.
+     *
+     * @return The Long
+     */
+    def readLong: Long = {
+      var value = 0L
+      var shift = 0
+      var b = readByte
+      while ((b & 0x80) != 0) {
+        value |= (b & 0x7FL) << shift
+        shift += 7
+        if (shift > 63) throw new IOException("Malformed ParSeq Trace.")
+        b = readByte
+      }
+      value |= b.toLong << shift
+      (value >>> 1) ^ -(value & 1)
+    }
+
+    /**
+     * The method readOptionalLong reads a nullable Long.
+     *
+     * @return The Long or null
+     */
+    def readOptionalLong: java.lang.Long = if (readByte == 0) null else readLong
+
+    /**
+     * The method readTrace reads the whole Trace.
+     *
+     * @return The ParSeq Trace
+     */
+    def readTrace: Trace = {
+      val magic = new Array[Byte](ParSeqTraceBinaryCodec.Magic.length)
+      magic.indices.foreach(i => magic(i) = readByte.toByte)
+      if (!java.util.Arrays.equals(magic, ParSeqTraceBinaryCodec.Magic)) throw new IOException("Not a binary ParSeq Trace.")
+      val strings: IndexedSeq[String] = null +: (0 until readCount).map(_ => {
+        val length = readCount
+        val string = new String(bytes, position, length, StandardCharsets.UTF_8)
+        position += length
+        string
+      })
+      val string: () => String = () => strings(readIndex(strings.size))
+      val base = readLong
+      val planClass = string()
+      val planId = readOptionalLong
+      val resultTypes = ResultType.values
+      var previous = 0L
+      val builders: IndexedSeq[ShallowTraceBuilder] = (0 until readCount).map(_ => {
+        previous += readLong
+        val builder = new ShallowTraceBuilder(java.lang.Long.valueOf(previous))
+        val flags = readInt
+        builder.setHidden((flags & 1) != 0).setSystemHidden((flags & 2) != 0)
+          .setName(string()).setValue(string()).setTaskType(string())
+        val resultType = readIndex(resultTypes.length + 1)
+        if (resultType > 0) builder.setResultType(resultTypes(resultType - 1))
+        val start = Option(readOptionalLong).map(_ + base)
+        start.foreach(s => builder.setStartNanos(s))
+        Option(readOptionalLong).foreach(p => builder.setPendingNanos(p + start.getOrElse(base)))
+        Option(readOptionalLong).foreach(e => builder.setEndNanos(e + start.getOrElse(base)))
+        (0 until readCount).foreach(_ => builder.addAttribute(string(), string()))
+        builder
+      })
+      val relationshipTypes = Relationship.values
+      val relationships = new java.util.HashSet[TraceRelationship]
+      (0 until readCount).foreach(_ => {
+        val relationship = relationshipTypes(readIndex(relationshipTypes.length))
+        val Seq(from, to) = (1 to 2).map(_ => readIndex(builders.size + 1) match {
+          case 0 => new ShallowTraceBuilder(java.lang.Long.valueOf(readLong))
+          case position => builders(position - 1)
+        })
+        relationships.add(new TraceRelationship(from, to, relationship))
+      })
+      val traceMap = new java.util.HashMap[java.lang.Long, ShallowTrace]
+      builders.foreach(builder => traceMap.put(builder.getId, builder.build))
+      new Trace(traceMap, relationships, planClass, planId)
+    }
+
+  }
+
+}
+
+/**
+ * The object ParSeqTraceBinaryCodec defines the binary format of the [[ParSeqTraceBinaryCodec]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceBinaryCodec {
+
+  /**
+   * The field ContentType is the media type of the binary form.
+   */
+  val ContentType = "application/x-parseq-trace"
+
+  /**
+   * The field Magic is the header of the binary form, with the version of the format at the end.
+   */
+  private val Magic: Array[Byte] = Array('P'.toByte, 'Q'.toByte, 'T'.toByte, 1.toByte)
+
+  /**
+   * The field MaxBytes is the largest binary form decoded from a stream, 64 MiB.
+   */
+  private val MaxBytes: Int = 64 << 20
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import java.net.URLEncoder
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit}
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.http.HttpConfiguration
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+
+/**
+ * The class ParSeqTraceCollapser keeps huge ParSeq Traces renderable. A Trace with more than
+ * `parseq.trace.collapse.maxTasks` Tasks is collapsed before it is shown: sibling Tasks with the same name are replaced
+ * by one aggregate Task with their count and percentiles of their durations once there are at least
+ * `parseq.trace.collapse.minGroupSize` of them, and the Tasks beyond the budget are replaced by one aggregate Task per
+ * parent, the shallower Tasks being kept first. The full Trace is kept, at most `parseq.trace.collapse.capacity` of
+ * them, so that the children behind an aggregate Task can be expanded page by page at the link in its `expand`
+ * attribute. It will try to load these key-values from your conf file, otherwise it will use the default values, which
+ * are 1000, 5 and 16.
+ *
+ * @param configuration The injected Configuration component
+ * @param httpConfiguration The injected HttpConfiguration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceCollapser @Inject()(configuration: Configuration, httpConfiguration: HttpConfiguration) {
+
+  /**
+   * The field maxTasks is the number of Tasks above which a Trace is collapsed.
+   */
+  private[this] val maxTasks: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.collapse.maxTasks").getOrElse(1000))
+
+  /**
+   * The field minGroupSize is the number of siblings with the same name from which they are collapsed.
+   */
+  private[this] val minGroupSize: Int = Math.max(2, configuration.getOptional[Int]("parseq.trace.collapse.minGroupSize").getOrElse(5))
+
+  /**
+   * The field capacity is the number of full Traces kept for expanding.
+   */
+  private[this] val capacity: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.collapse.capacity").getOrElse(16))
+
+  /**
+   * The field kept are the full Traces in the binary form by token.
+   */
+  private[this] val kept = new ConcurrentHashMap[String, Array[Byte]]
+
+  /**
+   * The field order is the tokens of the kept Traces, the oldest first.
+   */
+  private[this] val order = new ConcurrentLinkedQueue[String]
+
+  /**
+   * The method collapse collapses a Trace if it has too many Tasks, and keeps the full Trace for expanding.
+   *
+   * @param trace The ParSeq Trace
+   * @return The collapsed Trace, or the Trace if it is small enough
+   */
+  def collapse(trace: Trace): Trace =
+    if (trace.getTraceMap.size <= maxTasks) trace
+    else {
+      val token = ParSeqTraceStitcher.newId
+      kept.put(token, new ParSeqTraceBinaryCodec().toBytes(trace))
+      order.add(token)
+      // Drop the oldest Traces over the capacity
+      while (kept.size > capacity) Option(order.poll).foreach(kept.remove)
+      ParSeqTraceCollapser.collapse(trace, maxTasks, minGroupSize, link(token))
+    }
+
+  /**
+   * The method expand gets a page of the children behind an aggregate Task together with their descendants, collapsed
+   * again if there are too many.
+   *
+   * @param token The token of the full Trace
+   * @param parent The id of the parent, or empty for the roots
+   * @param name The name of the children, or empty for all children
+   * @param offset The index of the first child
+   * @param limit The number of children
+   * @return The Trace of the page, or empty if the full Trace is no longer kept
+   */
+  def expand(token: String, parent: Option[Long], name: Option[String], offset: Int, limit: Int): Option[Trace] =
+    Option(kept.get(token)).map(bytes => {
+      val page = ParSeqTraceCollapser.page(new ParSeqTraceBinaryCodec().fromBytes(bytes), parent, name, offset, limit)
+      if (page.getTraceMap.size <= maxTasks) page else ParSeqTraceCollapser.collapse(page, maxTasks, minGroupSize, link(token))
+    })
+
+  /**
+   * The method link builds the links of the aggregate Tasks of a kept Trace.
+   *
+   * @param token The token of the full Trace
+   * @param group The Tasks behind an aggregate Task
+   * @return The link
+   */
+  private[this] def link(token: String)(group: ParSeqTraceCollapser.Group): String = {
+    val encode: String => String = URLEncoder.encode(_, StandardCharsets.UTF_8.name)
+    s"${httpConfiguration.context.stripSuffix("/")}/tracevis/expand/$token?offset=${group.offset}" +
+      group.parent.map(p => s"&parent=$p").getOrElse("") + group.name.map(n => s"&name=${encode(n)}").getOrElse("")
+  }
+
+}
+
+/**
+ * The object ParSeqTraceCollapser collapses and pages ParSeq Traces.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceCollapser {
+
+  /**
+   * The field CollapsedAttribute is the attribute with the number of Tasks behind an aggregate Task.
+   */
+  val CollapsedAttribute = "collapsed"
+
+  /**
+   * The field ExpandAttribute is the attribute with the link expanding an aggregate Task.
+   */
+  val ExpandAttribute = "expand"
+
+  /**
+   * The class Group identifies the Tasks behind an aggregate Task among the children of their parent, ordered by start.
+   *
+   * @param parent The id of the parent, or empty for the roots
+   * @param name The name of the Tasks, or empty for all children
+   * @param offset The index of the first Task among the matching children
+   */
+  case class Group(parent: Option[Long], name: Option[String], offset: Int)
+
+  /**
+   * The method collapse collapses a Trace into at most about twice the given number of Tasks.
+   *
+   * @param trace The ParSeq Trace
+   * @param maxTasks The number of Tasks to keep
+   * @param minGroupSize The number of siblings with the same name from which they are collapsed
+   * @param link The link expanding the Tasks behind an aggregate Task
+   * @return The collapsed Trace
+   */
+  def collapse(trace: Trace, maxTasks: Int, minGroupSize: Int, link: Group => String): Trace = {
+    val children = this.children(trace)
+    val representatives = mutable.Map[java.lang.Long, ShallowTraceBuilder]()
+    var budget = maxTasks
+    // Visit the shallower Tasks first, so that the budget is spent on the top of the plan
+    val parents = mutable.Queue[Option[Long]](None)
+    while (parents.nonEmpty) {
+      val parent = parents.dequeue
+      val siblings = children.getOrElse(parent, IndexedSeq.empty)
+      val groups = siblings.groupBy(_.getName).filter(_._2.size >= minGroupSize)
+      val rest = mutable.ArrayBuffer[ShallowTrace]()
+      siblings.foreach(t => groups.get(t.getName) match {
+        case Some(group) =>
+          // Collapse the group at its first Task
+          if (group.head eq t) {
+            aggregate(group, representatives, link(Group(parent, Some(t.getName), 0)))
+            budget -= 1
+          }
+        case None if budget > 0 =>
+          representatives(t.getId) = new ShallowTraceBuilder(t)
+          budget -= 1
+          parents.enqueue(Some(t.getId.longValue))
+        case None => rest += t
+      })
+      if (rest.nonEmpty) aggregate(rest, representatives, link(Group(parent, None, siblings.indexOf(rest.head))))
+    }
+    build(trace, representatives)
+  }
+
+  /**
+   * The method page gets a page of the children of a Task, or of the roots, together with their descendants.
+   *
+   * @param trace The ParSeq Trace
+   * @param parent The id of the parent, or empty for the roots
+   * @param name The name of the children, or empty for all children
+   * @param offset The index of the first child among the matching children
+   * @param limit The number of children
+   * @return The Trace of the page
+   */
+  def page(trace: Trace, parent: Option[Long], name: Option[String], offset: Int, limit: Int): Trace = {
+    val children = this.children(trace)
+    val representatives = mutable.Map[java.lang.Long, ShallowTraceBuilder]()
+    val pending = mutable.Stack[ShallowTrace](children.getOrElse(parent, IndexedSeq.empty)
+      .filter(t => name.forall(_ == t.getName)).slice(Math.max(0, offset), Math.max(0, offset) + Math.max(0, limit)): _*)
+    while (pending.nonEmpty) {
+      val t = pending.pop
+      representatives(t.getId) = new ShallowTraceBuilder(t)
+      children.get(Some(t.getId.longValue)).foreach(pending.pushAll)
+    }
+    build(trace, representatives)
+  }
+
+  /**
+   * The method children gets the children of every Task, and the roots under empty, ordered by start.
+   *
+   * @param trace The ParSeq Trace
+   * @return The children by the id of the parent
+   */
+  private[this] def children(trace: Trace): Map[Option[Long], IndexedSeq[ShallowTrace]] = {
+    val traces = trace.getTraceMap
+    val parents = mutable.Map[Long, Long]()
+    trace.getRelationships.asScala.foreach(r =>
+      if (r.getRelationhsip == Relationship.PARENT_OF && traces.containsKey(r.getFrom) && traces.containsKey(r.getTo))
+        parents(r.getTo.longValue) = r.getFrom.longValue)
+    traces.values.asScala.toIndexedSeq.groupBy(t => parents.get(t.getId.longValue))
+      .mapValues(_.sortBy(t => (Option(t.getStartNanos).map(_.longValue).getOrElse(Long.MaxValue), t.getId.longValue))).toMap
+  }
+
+  /**
+   * The method aggregate replaces Tasks by one aggregate Task, which takes the id of the first of them.
+   *
+   * @param group The Tasks
+   * @param representatives The Tasks representing every kept Task by id
+   * @param link The link expanding the Tasks
+   */
+  private[this] def aggregate(group: Seq[ShallowTrace], representatives: mutable.Map[java.lang.Long, ShallowTraceBuilder], link: String): Unit = {
+    val finished = group.filter(t => t.getStartNanos != null && t.getPendingNanos != null && t.getEndNanos != null)
+    val durations = finished.map(t => t.getEndNanos - t.getStartNanos).sorted
+    val percentile: Double => String = p =>
+      "%.3f".format(TimeUnit.NANOSECONDS.toMicros(durations(Math.max(0, Math.ceil(p * durations.size).toInt - 1))) / 1000.0)
+    val names = group.map(_.getName).distinct
+    val builder = new ShallowTraceBuilder(group.map(_.getId).minBy(_.longValue))
+      .setName(if (names.size == 1) s"${names.head} (${group.size}x)" else s"${group.size} more")
+      .setTaskType(group.head.getTaskType)
+      .setHidden(group.forall(_.getHidden))
+      .setSystemHidden(group.forall(_.getSystemHidden))
+      .addAttribute(CollapsedAttribute, group.size.toString)
+      .addAttribute(ExpandAttribute, link)
+    group.flatMap(t => Option(t.getStartNanos)).map(_.longValue).reduceOption(_ min _).foreach(s => builder.setStartNanos(s))
+    if (finished.size == group.size) {
+      builder.setPendingNanos(finished.map(_.getPendingNanos.longValue).max).setEndNanos(finished.map(_.getEndNanos.longValue).max)
+        .setResultType(if (group.exists(_.getResultType == ResultType.ERROR)) ResultType.ERROR else ResultType.SUCCESS)
+    } else builder.setResultType(ResultType.UNFINISHED)
+    if (durations.nonEmpty) {
+      builder.addAttribute("p50Milliseconds", percentile(0.5)).addAttribute("p90Milliseconds", percentile(0.9))
+        .addAttribute("p99Milliseconds", percentile(0.99)).addAttribute("maxMilliseconds", percentile(1))
+    }
+    // Keep the marks of the critical path
+    group.flatMap(_.getAttributes.asScala.get(ParSeqTraceAnalyzer.CriticalPathAttribute)).headOption
+      .foreach(builder.addAttribute(ParSeqTraceAnalyzer.CriticalPathAttribute, _))
+    group.foreach(t => representatives(t.getId) = builder)
+  }
+
+  /**
+   * The method build builds the Trace of the representing Tasks, with the relationships between them.
+   *
+   * @param trace The ParSeq Trace
+   * @param representatives The Tasks representing every kept Task by id
+   * @return The Trace
+   */
+  private[this] def build(trace: Trace, representatives: mutable.Map[java.lang.Long, ShallowTraceBuilder]): Trace = {
+    val relationships = new java.util.HashSet[TraceRelationship]
+    trace.getRelationships.asScala.foreach(r => for {
+      from <- representatives.get(r.getFrom)
+      to <- representatives.get(r.getTo)
+      if from ne to
+    } relationships.add(new TraceRelationship(from, to, r.getRelationhsip)))
+    val traceMap = new java.util.HashMap[java.lang.Long, ShallowTrace]
+    // An aggregate Task represents many Tasks but is built once
+    representatives.values.foreach(builder => if (!traceMap.containsKey(builder.getId)) traceMap.put(builder.getId, builder.build))
+    new Trace(traceMap, relationships, trace.getPlanClass, trace.getPlanId)
+  }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, RejectedExecutionException, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.libs.json.{JsObject, Json}
+import play.api.mvc.Result
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
+
+
+/**
+ * The class ParSeqTraceDotScheduler admits the graphviz builds of the `/tracevis/dot` endpoint. Concurrent builds of
+ * the same hash are coalesced into one, at most `parseq.trace.dot.maxRunning` builds run at a time, and the others
+ * wait in a queue of `parseq.trace.dot.queueSize` builds, beyond which builds fail fast with a
+ * `RejectedExecutionException`. Builds already in the cache of the GraphvizEngine skip the queue. It will try to load
+ * these key-values from your conf file, otherwise it will use the default values, which are `parseq.trace.parallelLevel`
+ * and 64.
+ *
+ * @param configuration The injected Configuration component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceDotScheduler @Inject()(configuration: Configuration)(implicit executionContext: ExecutionContext) {
+
+  /**
+   * The field maxRunning is the number of builds running at a time.
+   */
+  private[this] val maxRunning: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.dot.maxRunning")
+    .orElse(configuration.getOptional[Int]("parseq.trace.parallelLevel")).getOrElse(Runtime.getRuntime.availableProcessors))
+
+  /**
+   * The field queueSize is the number of builds admitted at a time, running or waiting.
+   */
+  private[this] val queueSize: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.dot.queueSize").getOrElse(64))
+
+  /**
+   * The field inFlight are the admitted builds by hash.
+   */
+  private[this] val inFlight = new ConcurrentHashMap[String, Future[Result]]
+
+  /**
+   * The field waiting are the builds waiting to run.
+   */
+  private[this] val waiting = new ConcurrentLinkedQueue[Runnable]
+
+  /**
+   * The field admitted is the number of admitted builds, running or waiting.
+   */
+  private[this] val admitted = new AtomicInteger
+
+  /**
+   * The field running is the number of running builds.
+   */
+  private[this] val running = new AtomicInteger
+
+  /**
+   * The field requests is the number of builds requested so far.
+   */
+  private[this] val requests = new AtomicLong
+
+  /**
+   * The field cacheHits is the number of builds served from the cache so far.
+   */
+  private[this] val cacheHits = new AtomicLong
+
+  /**
+   * The field coalesced is the number of builds joining a build of the same hash so far.
+   */
+  private[this] val coalesced = new AtomicLong
+
+  /**
+   * The field rejected is the number of builds rejected because the queue is full so far.
+   */
+  private[this] val rejected = new AtomicLong
+
+  /**
+   * The field completed is the number of builds run so far.
+   */
+  private[this] val completed = new AtomicLong
+
+  /**
+   * The field waitNanos is the total time builds waited in the queue.
+   */
+  private[this] val waitNanos = new AtomicLong
+
+  /**
+   * The field maxWaitNanos is the longest time a build waited in the queue.
+   */
+  private[this] val maxWaitNanos = new AtomicLong
+
+  /**
+   * The field runNanos is the total time builds ran.
+   */
+  private[this] val runNanos = new AtomicLong
+
+  /**
+   * The method submit admits a build.
+   *
+   * @param hash The hash of the graph
+   * @param cached Whether the graph is already in the cache
+   * @param build The build
+   * @return The Future of Result, failed with a `RejectedExecutionException` if the queue is full
+   */
+  def submit(hash: String, cached: Boolean)(build: () => Future[Result]): Future[Result] = {
+    requests.incrementAndGet
+    if (cached) {
+      cacheHits.incrementAndGet
+      run(build)
+    } else {
+      val promise = Promise[Result]()
+      val existing = inFlight.putIfAbsent(hash, promise.future)
+      if (existing != null) {
+        coalesced.incrementAndGet
+        existing
+      } else if (admitted.incrementAndGet > queueSize) {
+        admitted.decrementAndGet
+        rejected.incrementAndGet
+        // Fail the builds which joined in the meantime as well
+        inFlight.remove(hash, promise.future)
+        promise.failure(new RejectedExecutionException("Too many graphviz builds are waiting.")).future
+      } else {
+        val admittedNanos = System.nanoTime
+        waiting.add(new Runnable {
+          override def run(): Unit = {
+            val startNanos = System.nanoTime
+            val wait = startNanos - admittedNanos
+            waitNanos.addAndGet(wait)
+            maxWaitNanos.accumulateAndGet(wait, new java.util.function.LongBinaryOperator {
+              override def applyAsLong(left: Long, right: Long): Long = Math.max(left, right)
+            })
+            ParSeqTraceDotScheduler.this.run(build).onComplete(result => {
+              runNanos.addAndGet(System.nanoTime - startNanos)
+              completed.incrementAndGet
+              inFlight.remove(hash, promise.future)
+              admitted.decrementAndGet
+              running.decrementAndGet
+              promise.complete(result)
+              drain()
+            })
+          }
+        })
+        drain()
+        promise.future
+      }
+    }
+  }
+
+  /**
+   * The method getStats gets the metrics of the builds so far.
+   *
+   * @return The metrics in JSON
+   */
+  def getStats: JsObject = {
+    val requestCount = requests.get
+    val completedCount = completed.get
+    val millis: Long => Double = nanos => TimeUnit.NANOSECONDS.toMicros(nanos) / 1000.0
+    Json.obj(
+      "requests" -> requestCount,
+      "cacheHits" -> cacheHits.get,
+      "coalesced" -> coalesced.get,
+      "rejected" -> rejected.get,
+      "completed" -> completedCount,
+      "cacheHitRatio" -> (if (requestCount == 0) 0.0 else (cacheHits.get + coalesced.get).toDouble / requestCount),
+      "running" -> running.get,
+      "waiting" -> waiting.size,
+      "averageWaitMilliseconds" -> (if (completedCount == 0) 0.0 else millis(waitNanos.get / completedCount)),
+      "maxWaitMilliseconds" -> millis(maxWaitNanos.get),
+      "averageRunMilliseconds" -> (if (completedCount == 0) 0.0 else millis(runNanos.get / completedCount)))
+  }
+
+  /**
+   * The method drain runs the waiting builds while there is room.
+   */
+  private[this] def drain(): Unit = {
+    var more = true
+    while (more) {
+      val count = running.get
+      if (count >= maxRunning || waiting.isEmpty) more = false
+      else if (running.compareAndSet(count, count + 1)) {
+        val next = waiting.poll
+        // Another thread took the last build in the meantime
+        if (next == null) running.decrementAndGet else next.run()
+      }
+    }
+  }
+
+  /**
+   * The method run starts a build, turning a thrown exception into a failed Future.
+   *
+   * @param build The build
+   * @return The Future of Result
+   */
+  private[this] def run(build: () => Future[Result]): Future[Result] = try build() catch {
+    case NonFatal(e) => Future.failed(e)
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import java.util.concurrent.{ArrayBlockingQueue, CompletableFuture, CompletionStage, RejectedExecutionException, ThreadFactory, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.function.Supplier
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.inject.ApplicationLifecycle
+import scala.concurrent.{Future, Promise}
+import scala.util.{Failure, Success, Try}
+
+
+/**
+ * The class ParSeqTraceExecutor is a dedicated executor for rendering ParSeq Trace, so that merging, encoding and
+ * templating of Traces never run on the threads serving normal requests. Both its pool and its queue are bounded, the
+ * ParSeqTraceExecutor will try to load the key-value of `parseq.trace.render.numThreads` (The number of threads) and
+ * `parseq.trace.render.queueSize` (The number of waiting renderings) from your conf file, otherwise it will use the
+ * default values, which are 2 and 16. Work submitted beyond that fails fast with a `RejectedExecutionException`.
+ *
+ * @param configuration The injected Configuration component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceExecutor @Inject()(configuration: Configuration, applicationLifecycle: ApplicationLifecycle) {
+
+  /**
+   * The field rejected is the number of renderings rejected so far.
+   */
+  private[this] val rejected = new AtomicLong
+
+  /**
+   * The field executor is the bounded pool for rendering.
+   */
+  private[this] val executor: ThreadPoolExecutor = new ThreadPoolExecutor(getNumThreads, getNumThreads, 0L,
+    TimeUnit.MILLISECONDS, new ArrayBlockingQueue[Runnable](getQueueSize), new RenderThreadFactory, new ThreadPoolExecutor.AbortPolicy)
+
+  // Setup
+  applicationLifecycle.addStopHook(() => Future.successful(executor.shutdown()))
+
+  /**
+   * The method submit runs a rendering on the dedicated pool.
+   *
+   * @param f The rendering
+   * @tparam T The type parameter of the output
+   * @return The Future of the output, which fails with a RejectedExecutionException if the pool is overloaded
+   */
+  def submit[T](f: => T): Future[T] = {
+    val promise: Promise[T] = Promise[T]()
+    execute(new Runnable {
+      override def run(): Unit = promise.complete(Try(f))
+    }, promise.failure)
+    promise.future
+  }
+
+  /**
+   * The method supply runs a Java rendering on the dedicated pool.
+   *
+   * @param supplier The rendering
+   * @tparam T The type parameter of the output
+   * @return The CompletionStage of the output, which fails with a RejectedExecutionException if the pool is overloaded
+   */
+  def supply[T](supplier: Supplier[T]): CompletionStage[T] = {
+    val completableFuture: CompletableFuture[T] = new CompletableFuture[T]
+    execute(new Runnable {
+      override def run(): Unit = Try(supplier.get) match {
+        case Success(output) => completableFuture.complete(output)
+        case Failure(throwable) => completableFuture.completeExceptionally(throwable)
+      }
+    }, completableFuture.completeExceptionally)
+    completableFuture
+  }
+
+  /**
+   * The method getRejected gets the number of renderings rejected so far.
+   *
+   * @return The number of renderings
+   */
+  def getRejected: Long = rejected.get
+
+  /**
+   * The method getQueued gets the number of renderings waiting for a thread.
+   *
+   * @return The number of renderings
+   */
+  def getQueued: Int = executor.getQueue.size
+
+  /**
+   * The method getActive gets the number of renderings running.
+   *
+   * @return The number of renderings
+   */
+  def getActive: Int = executor.getActiveCount
+
+  /**
+   * The method execute hands a Runnable to the pool, and reports the rejection if the pool is overloaded.
+   *
+   * @param runnable The Runnable
+   * @param reject The rejection handler
+   */
+  private[this] def execute(runnable: Runnable, reject: Throwable => Any): Unit = {
+    try {
+      executor.execute(runnable)
+    } catch {
+      case e: RejectedExecutionException =>
+        rejected.incrementAndGet
+        reject(e)
+    }
+  }
+
+  /**
+   * The method getNumThreads gets the number of rendering threads. It will load from conf file, otherwise it will use a
+   * default value, which is 2.
+   *
+   * @return The number of threads
+   */
+  private[this] def getNumThreads: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.render.numThreads").getOrElse(2))
+
+  /**
+   * The method getQueueSize gets the number of renderings allowed to wait for a thread. It will load from conf file,
+   * otherwise it will use a default value, which is 16.
+   *
+   * @return The size of the queue
+   */
+  private[this] def getQueueSize: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.render.queueSize").getOrElse(16))
+
+  /**
+   * The class RenderThreadFactory names the rendering threads.
+   */
+  private[this] class RenderThreadFactory extends ThreadFactory {
+
+    /**
+     * The field count is the number of threads created so far.
+     */
+    private[this] val count = new AtomicInteger
+
+    /**
+     * @inheritdoc
+     */
+    override def newThread(runnable: Runnable): Thread = {
+      val thread = new Thread(runnable, s"parseq-trace-render-${count.incrementAndGet}")
+      thread.setDaemon(true)
+      thread
+    }
+
+  }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, Trace}
+import java.net.{HttpURLConnection, URL}
+import java.nio.charset.StandardCharsets
+import java.security.SecureRandom
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.{Inject, Singleton}
+import play.api.{Configuration, Logger}
+import play.api.inject.ApplicationLifecycle
+import play.api.libs.json.{JsArray, JsObject, JsValue, Json}
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.Future
+import scala.util.control.NonFatal
+
+
+/**
+ * The class ParSeqTraceExporter exports merged ParSeq Traces as OpenTelemetry spans to a collector. Traces are put
+ * into a bounded queue and sent in batches by a background thread with OTLP/HTTP JSON, so that exporting never blocks
+ * requests, and Traces beyond the queue are dropped. The ParSeqTraceExporter is only active if
+ * `parseq.trace.otlp.endpoint` (The URL of the collector, e.g. `http://localhost:4318/v1/traces`) is set in your conf
+ * file. It will also try to load the key-value of `parseq.trace.otlp.serviceName` (The name of the service),
+ * `parseq.trace.otlp.queueSize` (The number of Traces waiting for export), `parseq.trace.otlp.batchSize` (The number of
+ * Traces per request to the collector) and `parseq.trace.otlp.timeoutMilliseconds` (The timeout of a request to the
+ * collector) from your conf file, otherwise it will use the default values, which are `play-parseq`, 1000, 100 and
+ * 5000.
+ *
+ * @param configuration The injected Configuration component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceExporter @Inject()(configuration: Configuration, applicationLifecycle: ApplicationLifecycle) {
+
+  /**
+   * A happy logger.
+   */
+  private[this] val logger = Logger(classOf[ParSeqTraceExporter])
+
+  /**
+   * The field endpoint is the URL of the collector.
+   */
+  private[this] val endpoint: Option[String] = configuration.getOptional[String]("parseq.trace.otlp.endpoint").filter(_.nonEmpty)
+
+  /**
+   * The field enabled is whether the export is enabled.
+   */
+  val enabled: Boolean = endpoint.isDefined
+
+  /**
+   * The field serviceName is the name of the service in the exported spans.
+   */
+  private[this] val serviceName: String = configuration.getOptional[String]("parseq.trace.otlp.serviceName").getOrElse("play-parseq")
+
+  /**
+   * The field batchSize is the number of Traces per request to the collector.
+   */
+  private[this] val batchSize: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.otlp.batchSize").getOrElse(100))
+
+  /**
+   * The field timeoutMilliseconds is the timeout of a request to the collector.
+   */
+  private[this] val timeoutMilliseconds: Int = configuration.getOptional[Int]("parseq.trace.otlp.timeoutMilliseconds").getOrElse(5000)
+
+  /**
+   * The field queue is the bounded queue of Traces waiting for export.
+   */
+  private[this] val queue = new ArrayBlockingQueue[ParSeqTraceExporter.Export](Math.max(1, configuration.getOptional[Int]("parseq.trace.otlp.queueSize").getOrElse(1000)))
+
+  /**
+   * The field exported is the number of Traces exported so far.
+   */
+  private[this] val exported = new AtomicLong
+
+  /**
+   * The field dropped is the number of Traces dropped because the queue is full.
+   */
+  private[this] val dropped = new AtomicLong
+
+  /**
+   * The field failed is the number of Traces the collector failed to accept.
+   */
+  private[this] val failed = new AtomicLong
+
+  /**
+   * The field worker is the background thread sending the batches.
+   */
+  private[this] val worker: Option[Thread] = endpoint.map(url => {
+    val thread = new Thread(new Runnable {
+      override def run(): Unit = try {
+        while (!Thread.currentThread.isInterrupted) {
+          val batch = new java.util.ArrayList[ParSeqTraceExporter.Export]
+          batch.add(queue.take)
+          queue.drainTo(batch, batchSize - 1)
+          send(url, batch.asScala)
+        }
+      } catch {
+        case _: InterruptedException => // Stopped
+      }
+    }, "parseq-trace-otlp-exporter")
+    thread.setDaemon(true)
+    thread.start()
+    thread
+  })
+
+  // Setup
+  applicationLifecycle.addStopHook(() => Future.successful(worker.foreach(_.interrupt())))
+
+  /**
+   * The method export queues a merged Trace for export. It never blocks, the Trace is dropped if the queue is full.
+   *
+   * @param route The route of the request, which names the root span
+   * @param trace The merged ParSeq Trace
+   * @return Whether the Trace is queued
+   */
+  def export(route: String, trace: Trace): Boolean =
+    if (enabled) {
+      val queued = queue.offer(ParSeqTraceExporter.Export(route, trace, ParSeqTraceExporter.epochOffsetNanos))
+      if (!queued) dropped.incrementAndGet
+      queued
+    } else false
+
+  /**
+   * The method getExported gets the number of Traces exported so far.
+   *
+   * @return The number of Traces
+   */
+  def getExported: Long = exported.get
+
+  /**
+   * The method getDropped gets the number of Traces dropped because the queue is full.
+   *
+   * @return The number of Traces
+   */
+  def getDropped: Long = dropped.get
+
+  /**
+   * The method getFailed gets the number of Traces the collector failed to accept.
+   *
+   * @return The number of Traces
+   */
+  def getFailed: Long = failed.get
+
+  /**
+   * The method send sends a batch of Traces to the collector.
+   *
+   * @param url The URL of the collector
+   * @param batch The batch of Traces
+   */
+  private[this] def send(url: String, batch: Seq[ParSeqTraceExporter.Export]): Unit = {
+    val body: Array[Byte] = Json.stringify(ParSeqTraceExporter.toOtlp(serviceName,
+      batch.flatMap(export => ParSeqTraceExporter.toSpans(export.route, export.trace, export.epochOffsetNanos)))).getBytes(StandardCharsets.UTF_8)
+    try {
+      val connection = new URL(url).openConnection.asInstanceOf[HttpURLConnection]
+      try {
+        connection.setConnectTimeout(timeoutMilliseconds)
+        connection.setReadTimeout(timeoutMilliseconds)
+        connection.setRequestMethod("POST")
+        connection.setRequestProperty("Content-Type", "application/json")
+        connection.setDoOutput(true)
+        connection.setFixedLengthStreamingMode(body.length)
+        val output = connection.getOutputStream
+        try output.write(body) finally output.close()
+        val status = connection.getResponseCode
+        if (status / 100 == 2) exported.addAndGet(batch.size)
+        else {
+          failed.addAndGet(batch.size)
+          logger.warn(s"Failed to export ${batch.size} ParSeq Traces to $url with status $status.")
+        }
+      } finally connection.disconnect()
+    } catch {
+      case NonFatal(e) =>
+        failed.addAndGet(batch.size)
+        logger.warn(s"Failed to export ${batch.size} ParSeq Traces to $url.", e)
+    }
+  }
+
+}
+
+/**
+ * The object ParSeqTraceExporter converts merged ParSeq Traces into the Chrome trace-event format and into OpenTelemetry
+ * spans. Parent-child relationships become nesting, and predecessor-successor relationships become flows and links.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceExporter {
+
+  /**
+   * The field random generates trace ids.
+   */
+  private[this] val random = new SecureRandom
+
+  /**
+   * The class Export is a Trace waiting for export.
+   *
+   * @param route The route of the request
+   * @param trace The merged ParSeq Trace
+   * @param epochOffsetNanos The offset from `System.nanoTime` to the epoch when the Trace was queued
+   */
+  private case class Export(route: String, trace: Trace, epochOffsetNanos: Long)
+
+  /**
+   * The class Span is one exported Task.
+   *
+   * @param traceId The trace id in hex
+   * @param spanId The span id in hex
+   * @param parentSpanId The span id of the parent in hex
+   * @param name The name of the Task
+   * @param startEpochNanos The start time since the epoch
+   * @param endEpochNanos The end time since the epoch
+   * @param attributes The attributes
+   * @param links The span ids of the predecessors in hex
+   * @param error Whether the Task failed
+   */
+  case class Span(traceId: String, spanId: String, parentSpanId: Option[String], name: String, startEpochNanos: Long,
+    endEpochNanos: Long, attributes: Map[String, String], links: Seq[String], error: Boolean)
+
+  /**
+   * The method toChromeTrace converts a merged Trace into the Chrome trace-event format, which can be loaded by
+   * `chrome://tracing` and Perfetto. Overlapping Tasks which are not nested are put into different threads.
+   *
+   * @param trace The merged ParSeq Trace
+   * @return The JSON
+   */
+  def toChromeTrace(trace: Trace): JsObject = {
+    val traces: Map[java.lang.Long, ShallowTrace] = ParSeqTraceAnalyzer.finished(trace)
+    val parents: Map[java.lang.Long, java.lang.Long] = ParSeqTraceAnalyzer.parents(trace, traces)
+    val origin: Long = if (traces.isEmpty) 0L else traces.values.map(_.getStartNanos.longValue).min
+    val micros: Long => Double = nanos => (nanos - origin) / 1000.0
+    // Longer Tasks first on ties, so that parents open before their children
+    val sorted: Seq[ShallowTrace] = traces.values.toSeq.sortBy(t => (t.getStartNanos.longValue, -t.getEndNanos.longValue))
+    // Every lane is a stack of the Tasks open in it, with the innermost at the head
+    val lanes = mutable.ArrayBuffer[List[ShallowTrace]]()
+    val laneOf = mutable.Map[java.lang.Long, Int]()
+    sorted.foreach(t => {
+      // Close the Tasks which ended before this one starts
+      lanes.indices.foreach(i => lanes(i) = lanes(i).dropWhile(_.getEndNanos <= t.getStartNanos))
+      val lane = lanes.indexWhere(stack => stack.isEmpty || stack.head.getEndNanos >= t.getEndNanos)
+      val index = if (lane >= 0) lane else {
+        lanes += Nil
+        lanes.size - 1
+      }
+      lanes(index) = t :: lanes(index)
+      laneOf(t.getId) = index
+    })
+    val events: Seq[JsValue] = sorted.map(t => Json.obj(
+      "name" -> t.getName,
+      "cat" -> "parseq",
+      "ph" -> "X",
+      "ts" -> micros(t.getStartNanos),
+      "dur" -> (t.getEndNanos - t.getStartNanos) / 1000.0,
+      "pid" -> 1,
+      "tid" -> laneOf(t.getId),
+      "args" -> (Json.obj("id" -> t.getId.longValue, "resultType" -> t.getResultType.toString) ++
+        JsObject(parents.get(t.getId).map(parent => "parentId" -> Json.toJson(parent.longValue)).toSeq ++
+          Option(t.getTaskType).map(taskType => "taskType" -> Json.toJson(taskType)) ++
+          t.getAttributes.asScala.mapValues(Json.toJson(_))))))
+    // Draw an arrow from every predecessor to its successor
+    val flows: Seq[JsValue] = successors(trace, traces).zipWithIndex.flatMap {
+      case ((from, to), index) => Seq(
+        Json.obj("name" -> "successor", "cat" -> "parseq", "ph" -> "s", "id" -> index, "pid" -> 1, "tid" -> laneOf(from),
+          "ts" -> micros(traces(from).getEndNanos)),
+        Json.obj("name" -> "successor", "cat" -> "parseq", "ph" -> "f", "bp" -> "e", "id" -> index, "pid" -> 1, "tid" -> laneOf(to),
+          "ts" -> micros(traces(to).getStartNanos)))
+    }
+    Json.obj("traceEvents" -> JsArray(events ++ flows), "displayTimeUnit" -> "ms")
+  }
+
+  /**
+   * The method toSpans converts a merged Trace into spans of a new trace. A root span named by the route covers all
+   * plans of the request.
+   *
+   * @param route The route of the request
+   * @param trace The merged ParSeq Trace
+   * @param epochOffsetNanos The offset from `System.nanoTime` to the epoch
+   * @return The spans, the root first
+   */
+  def toSpans(route: String, trace: Trace, epochOffsetNanos: Long): Seq[Span] = {
+    val traces: Map[java.lang.Long, ShallowTrace] = ParSeqTraceAnalyzer.finished(trace)
+    if (traces.isEmpty) Seq.empty
+    else {
+      val parents: Map[java.lang.Long, java.lang.Long] = ParSeqTraceAnalyzer.parents(trace, traces)
+      val predecessors: Map[java.lang.Long, Seq[java.lang.Long]] = successors(trace, traces).groupBy(_._2).mapValues(_.map(_._1))
+      val traceId: String = "%016x%016x".format(random.nextLong, random.nextLong)
+      val salt: Long = random.nextLong
+      val spanId: java.lang.Long => String = id => "%016x".format(java.lang.Long.rotateLeft(id ^ salt, 17) | 1L)
+      val rootSpanId: String = "%016x".format(salt | 1L << 63)
+      val root = Span(traceId, rootSpanId, None, route, traces.values.map(_.getStartNanos.longValue).min + epochOffsetNanos,
+        traces.values.map(_.getEndNanos.longValue).max + epochOffsetNanos, Map.empty, Seq.empty, error = false)
+      root +: traces.values.toSeq.sortBy(_.getStartNanos.longValue).map(t => Span(
+        traceId,
+        spanId(t.getId),
+        Some(parents.get(t.getId).map(spanId).getOrElse(rootSpanId)),
+        t.getName,
+        t.getStartNanos + epochOffsetNanos,
+        t.getEndNanos + epochOffsetNanos,
+        t.getAttributes.asScala.toMap ++ Map(
+          "parseq.taskId" -> t.getId.toString,
+          "parseq.resultType" -> t.getResultType.toString) ++ Option(t.getTaskType).map("parseq.taskType" -> _),
+        predecessors.getOrElse(t.getId, Seq.empty).map(spanId),
+        t.getResultType == ResultType.ERROR))
+    }
+  }
+
+  /**
+   * The method toOtlp builds the body of an OTLP/HTTP JSON export request.
+   *
+   * @param serviceName The name of the service
+   * @param spans The spans
+   * @return The JSON
+   */
+  def toOtlp(serviceName: String, spans: Seq[Span]): JsObject = {
+    val attributes: Map[String, String] => JsArray = map =>
+      JsArray(map.toSeq.map { case (key, value) => Json.obj("key" -> key, "value" -> Json.obj("stringValue" -> value)) })
+    Json.obj("resourceSpans" -> Json.arr(Json.obj(
+      "resource" -> Json.obj("attributes" -> attributes(Map("service.name" -> serviceName))),
+      "scopeSpans" -> Json.arr(Json.obj(
+        "scope" -> Json.obj("name" -> "play-parseq"),
+        "spans" -> JsArray(spans.map(span => JsObject(span.parentSpanId.map("parentSpanId" -> Json.toJson(_)).toSeq) ++ Json.obj(
+          "traceId" -> span.traceId,
+          "spanId" -> span.spanId,
+          "name" -> span.name,
+          // SPAN_KIND_INTERNAL
+          "kind" -> 1,
+          "startTimeUnixNano" -> span.startEpochNanos.toString,
+          "endTimeUnixNano" -> span.endEpochNanos.toString,
+          "attributes" -> attributes(span.attributes),
+          "links" -> JsArray(span.links.map(link => Json.obj("traceId" -> span.traceId, "spanId" -> link))),
+          // STATUS_CODE_ERROR or STATUS_CODE_UNSET
+          "status" -> Json.obj("code" -> (if (span.error) 2 else 0))))))))))
+  }
+
+  /**
+   * The method epochOffsetNanos gets the offset from `System.nanoTime`, which the ShallowTraces use, to the epoch.
+   *
+   * @return The offset in nanoseconds
+   */
+  private[playparseq] def epochOffsetNanos: Long = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis) - System.nanoTime
+
+  /**
+   * The method successors gets the predecessor-successor pairs among the given Tasks of a Trace.
+   *
+   * @param trace The merged ParSeq Trace
+   * @param traces The ShallowTraces of the Tasks by id
+   * @return The pairs of predecessor and successor ids
+   */
+  private[this] def successors(trace: Trace, traces: Map[java.lang.Long, ShallowTrace]): Seq[(java.lang.Long, java.lang.Long)] =
+    trace.getRelationships.asScala.toSeq.filter(r => traces.contains(r.getFrom) && traces.contains(r.getTo)).collect {
+      case r if r.getRelationhsip == Relationship.SUCCESSOR_OF => r.getTo -> r.getFrom
+    }
+
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.Trace
+import java.io.{File, IOException, InputStream, RandomAccessFile}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, ConcurrentSkipListMap, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.locks.LockSupport
+import javax.inject.{Inject, Singleton}
+import play.api.{Configuration, Logger}
+import play.api.inject.ApplicationLifecycle
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+import scala.util.control.NonFatal
+
+
+/**
+ * The class ParSeqTraceJournal appends the encoded ParSeq Traces of completed requests to a rotating set of
+ * memory-mapped segment files, so that they survive the request for post-mortem analysis. Requests put their Traces
+ * into a lock-free queue, and a single writer thread appends them, so appending never blocks requests, and Traces
+ * beyond the queue are dropped. Once the segments exceed the disk budget the oldest segment is deleted. The journaled
+ * Traces are indexed by time and route in memory, and are read back from the mapped segments one at a time. A segment
+ * is reference-counted by its readers, and is unmapped and deleted once the last of them is done with it, rather than
+ * when the garbage collector gets to its mapping. The
+ * ParSeqTraceJournal is only active if `parseq.trace.journal.directory` (The directory of the segment files) is set in
+ * your conf file. It will also try to load the key-value of `parseq.trace.journal.maxBytes` (The disk budget of all
+ * segments), `parseq.trace.journal.segmentBytes` (The size of one segment) and `parseq.trace.journal.queueSize` (The
+ * number of Traces waiting to be appended) from your conf file, otherwise it will use the default values, which are
+ * 268435456, 16777216 and 1000.
+ *
+ * @param configuration The injected Configuration component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceJournal @Inject()(configuration: Configuration, applicationLifecycle: ApplicationLifecycle) {
+
+  /**
+   * A happy logger.
+   */
+  private[this] val logger = Logger(classOf[ParSeqTraceJournal])
+
+  /**
+   * The field directory is the directory of the segment files.
+   */
+  private[this] val directory: Option[File] = configuration.getOptional[String]("parseq.trace.journal.directory").filter(_.nonEmpty).map(new File(_))
+
+  /**
+   * The field enabled is whether the journal is enabled.
+   */
+  val enabled: Boolean = directory.isDefined
+
+  /**
+   * The field segmentBytes is the size of one segment file.
+   */
+  private[this] val segmentBytes: Int = Math.max(ParSeqTraceJournal.MinSegmentBytes,
+    configuration.getOptional[Long]("parseq.trace.journal.segmentBytes").getOrElse(16L << 20).min(Int.MaxValue).toInt)
+
+  /**
+   * The field maxSegments is the number of segment files within the disk budget.
+   */
+  private[this] val maxSegments: Long = Math.max(2L, configuration.getOptional[Long]("parseq.trace.journal.maxBytes").getOrElse(256L << 20) / segmentBytes)
+
+  /**
+   * The field queueSize is the number of Traces waiting to be appended, beyond which they are dropped.
+   */
+  private[this] val queueSize: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.journal.queueSize").getOrElse(1000))
+
+  /**
+   * The field queue is the lock-free queue of Traces waiting to be appended.
+   */
+  private[this] val queue = new ConcurrentLinkedQueue[ParSeqTraceJournal.Record]
+
+  /**
+   * The field pending is the number of Traces in the queue.
+   */
+  private[this] val pending = new AtomicInteger
+
+  /**
+   * The field journaled is the number of Traces appended so far.
+   */
+  private[this] val journaled = new AtomicLong
+
+  /**
+   * The field dropped is the number of Traces dropped because the queue is full or they don't fit into a segment.
+   */
+  private[this] val dropped = new AtomicLong
+
+  /**
+   * The field segments are the live segments by sequence number.
+   */
+  private[this] val segments = new ConcurrentSkipListMap[java.lang.Long, Segment]
+
+  /**
+   * The field byTime is the index of the journaled Traces by time.
+   */
+  private[this] val byTime = new ConcurrentSkipListMap[(Long, Long), ParSeqTraceJournal.Entry](Ordering[(Long, Long)])
+
+  /**
+   * The field byRoute is the index of the journaled Traces by route and time.
+   */
+  private[this] val byRoute = new ConcurrentHashMap[String, ConcurrentSkipListMap[(Long, Long), ParSeqTraceJournal.Entry]]
+
+  /**
+   * The field writer is the single thread appending to the segments.
+   */
+  private[this] val writer: Option[Thread] = directory.flatMap(dir => try {
+    if (!dir.isDirectory && !dir.mkdirs) throw new IOException(s"Can't create $dir.")
+    recover(dir)
+    val thread = new Thread(new Runnable {
+      override def run(): Unit = {
+        var current: Segment = null
+        while (!Thread.currentThread.isInterrupted) {
+          val record = queue.poll
+          if (record == null) LockSupport.parkNanos(ParSeqTraceJournal.IdleNanos)
+          else {
+            pending.decrementAndGet
+            try {
+              if (current == null || !current.append(record)) {
+                if (current != null) current.buffer.force()
+                current = roll(dir)
+                if (!current.append(record)) dropped.incrementAndGet
+              }
+            } catch {
+              case NonFatal(e) =>
+                dropped.incrementAndGet
+                logger.warn(s"Failed to journal the ParSeq Trace of ${record.route}.", e)
+            }
+          }
+        }
+        if (current != null) current.buffer.force()
+      }
+    }, "parseq-trace-journal")
+    thread.setDaemon(true)
+    thread.start()
+    Some(thread)
+  } catch {
+    case NonFatal(e) =>
+      logger.error(s"Failed to open the ParSeq Trace journal in $dir.", e)
+      None
+  })
+
+  // Setup
+  applicationLifecycle.addStopHook(() => Future.successful(writer.foreach(thread => {
+    thread.interrupt()
+    thread.join(TimeUnit.SECONDS.toMillis(5))
+  })))
+
+  /**
+   * The method append queues an encoded Trace to be appended. It never blocks, the Trace is dropped if the queue is
+   * full.
+   *
+   * @param route The route of the request
+   * @param timestamp The completion time of the request in milliseconds
+   * @param latencyNanos The latency of the request
+   * @param reason The reason the Trace is kept by tail-based sampling, or empty if it isn't
+   * @param encodedTrace The merged ParSeq Trace encoded by the [[ParSeqTraceBinaryCodec]]
+   * @return Whether the Trace is queued
+   */
+  def append(route: String, timestamp: Long, latencyNanos: Long, reason: String, encodedTrace: Array[Byte]): Boolean =
+    if (writer.isDefined) {
+      // Reserve a place first, so that the queue never grows beyond its size
+      val queued = pending.incrementAndGet <= queueSize
+      if (queued) queue.offer(ParSeqTraceJournal.Record(route, timestamp, latencyNanos, reason, encodedTrace))
+      else {
+        pending.decrementAndGet
+        dropped.incrementAndGet
+      }
+      queued
+    } else false
+
+  /**
+   * The method find finds journaled Traces, the newest first.
+   *
+   * @param route The route of the requests, or all routes if empty
+   * @param from The earliest completion time in milliseconds
+   * @param to The latest completion time in milliseconds
+   * @param limit The maximum number of entries
+   * @return The entries
+   */
+  def find(route: Option[String], from: Long, to: Long, limit: Int): Seq[ParSeqTraceJournal.Entry] =
+    route.map(r => Option(byRoute.get(r))).getOrElse(Some(byTime)).map(index =>
+      index.subMap((from, Long.MinValue), true, (to, Long.MaxValue), true).descendingMap.values.asScala.take(limit).toList
+    ).getOrElse(Nil)
+
+  /**
+   * The method getRoutes gets the routes of the journaled Traces.
+   *
+   * @return The routes
+   */
+  def getRoutes: Seq[String] = byRoute.asScala.filter(_._2.size > 0).keys.toList.sorted
+
+  /**
+   * The method get reads one journaled Trace back from its segment, copying nothing but its own bytes.
+   *
+   * @param id The id of the entry
+   * @return The ParSeq Trace
+   */
+  def get(id: Long): Option[Trace] = Option(segments.get(id >>> 32)).filter(_.acquire()).flatMap(segment =>
+    try {
+      // Read only the records the index knows, and keep the segment mapped while reading
+      if (!segment.entries.containsKey(id.toInt)) None
+      else segment.read(id.toInt).map(stored => new ParSeqTraceBinaryCodec().decode(stored.trace))
+    } catch {
+      case NonFatal(e) =>
+        logger.warn(s"Failed to read the journaled ParSeq Trace $id.", e)
+        None
+    } finally segment.release())
+
+  /**
+   * The method getJournaled gets the number of Traces appended so far.
+   *
+   * @return The number of Traces
+   */
+  def getJournaled: Long = journaled.get
+
+  /**
+   * The method getDropped gets the number of Traces dropped because the queue is full or they don't fit into a segment.
+   *
+   * @return The number of Traces
+   */
+  def getDropped: Long = dropped.get
+
+  /**
+   * The method recover indexes the segments left by previous runs, and deletes those over the disk budget.
+   *
+   * @param dir The directory of the segment files
+   */
+  private[this] def recover(dir: File): Unit = {
+    Option(dir.listFiles).getOrElse(Array.empty[File]).flatMap(file => ParSeqTraceJournal.sequence(file.getName).map(_ -> file))
+      .sortBy(_._1).foreach { case (sequence, file) =>
+        try {
+          val segment = new Segment(sequence, file, create = false)
+          segments.put(sequence, segment)
+          segment.scan()
+        } catch {
+          case NonFatal(e) => logger.warn(s"Skipped the unreadable ParSeq Trace journal segment $file.", e)
+        }
+      }
+    trim()
+  }
+
+  /**
+   * The method roll starts a new segment, and deletes the oldest segments over the disk budget.
+   *
+   * @param dir The directory of the segment files
+   * @return The new segment
+   */
+  private[this] def roll(dir: File): Segment = {
+    val sequence: Long = if (segments.isEmpty) 0L else segments.lastKey + 1
+    val segment = new Segment(sequence, new File(dir, ParSeqTraceJournal.fileName(sequence)), create = true)
+    segments.put(sequence, segment)
+    trim()
+    segment
+  }
+
+  /**
+   * The method trim drops the oldest segments over the disk budget together with their index entries. A dropped segment
+   * is deleted once the readers still reading it are done.
+   */
+  private[this] def trim(): Unit = while (segments.size > maxSegments) {
+    Option(segments.pollFirstEntry).map(_.getValue).foreach(segment => {
+      segment.entries.values.asScala.foreach(entry => {
+        byTime.remove(entry.timestamp -> entry.id)
+        Option(byRoute.get(entry.route)).foreach(_.remove(entry.timestamp -> entry.id))
+      })
+      segment.release()
+    })
+  }
+
+  /**
+   * The method index adds a committed record to the indexes.
+   *
+   * @param entry The entry of the record
+   */
+  private[this] def index(entry: ParSeqTraceJournal.Entry): Unit = {
+    byTime.put(entry.timestamp -> entry.id, entry)
+    byRoute.computeIfAbsent(entry.route, new java.util.function.Function[String, ConcurrentSkipListMap[(Long, Long), ParSeqTraceJournal.Entry]] {
+      override def apply(route: String) = new ConcurrentSkipListMap[(Long, Long), ParSeqTraceJournal.Entry](Ordering[(Long, Long)])
+    }).put(entry.timestamp -> entry.id, entry)
+  }
+
+  /**
+   * The class Segment is one memory-mapped segment file. A segment starts with the magic, followed by records of their
+   * length and their content, and ends with a zero length. Only the writer thread appends, and a record is committed by
+   * writing its length after its content. The journal holds one reference to a live segment, and every reader holds one
+   * while reading, and the segment is unmapped and deleted when the last reference is released. The writer only
+   * appends to the newest segment, which is never dropped.
+   *
+   * @param sequence The sequence number of the segment
+   * @param file The segment file
+   * @param create Whether to create a new file
+   */
+  private[this] class Segment(sequence: Long, val file: File, create: Boolean) {
+
+    /**
+     * The field buffer is the mapping of the whole file.
+     */
+    val buffer: MappedByteBuffer = {
+      val randomAccessFile = new RandomAccessFile(file, "rw")
+      try {
+        if (create) randomAccessFile.setLength(segmentBytes)
+        randomAccessFile.getChannel.map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length)
+      } finally randomAccessFile.close()
+    }
+
+    /**
+     * The field entries are the entries of the records in the segment by their offsets.
+     */
+    val entries = new ConcurrentHashMap[Int, ParSeqTraceJournal.Entry]
+
+    /**
+     * The field references is the number of references to the segment, the one of the journal included.
+     */
+    private[this] val references = new AtomicInteger(1)
+
+    /**
+     * The field committed is the end of the committed records.
+     */
+    @volatile var committed: Int = ParSeqTraceJournal.Magic.length
+
+    if (create) buffer.duplicate.put(ParSeqTraceJournal.Magic)
+    else {
+      val magic = new Array[Byte](ParSeqTraceJournal.Magic.length)
+      buffer.duplicate.get(magic)
+      if (!java.util.Arrays.equals(magic, ParSeqTraceJournal.Magic)) throw new IOException("Not a ParSeq Trace journal segment.")
+    }
+
+    /**
+     * The method append appends a record if it fits into the rest of the segment.
+     *
+     * @param record The record
+     * @return Whether the record is appended
+     */
+    def append(record: ParSeqTraceJournal.Record): Boolean = {
+      val route = record.route.getBytes(StandardCharsets.UTF_8)
+      val reason = record.reason.getBytes(StandardCharsets.UTF_8)
+      val length = 8 + 8 + 4 + route.length + 4 + reason.length + record.trace.length
+      // Keep room for the zero length ending the segment
+      if (committed + 4 + length + 4 > buffer.capacity) false
+      else {
+        val view = buffer.duplicate
+        view.position(committed + 4)
+        view.putLong(record.timestamp).putLong(record.latencyNanos)
+        view.putInt(route.length).put(route).putInt(reason.length).put(reason).put(record.trace)
+        view.putInt(committed, length)
+        val offset = committed
+        committed += 4 + length
+        val entry = ParSeqTraceJournal.Entry(sequence << 32 | offset, record.timestamp, record.route, record.latencyNanos, record.reason)
+        entries.put(offset, entry)
+        index(entry)
+        journaled.incrementAndGet
+        true
+      }
+    }
+
+    /**
+     * The method read reads one record without its Trace into the heap.
+     *
+     * @param offset The offset of the record
+     * @return The record with a stream over its Trace
+     */
+    def read(offset: Int): Option[ParSeqTraceJournal.Stored] = {
+      val view = buffer.duplicate
+      val length = view.getInt(offset)
+      if (length <= 0 || offset + 4 + length > view.capacity) None
+      else {
+        view.position(offset + 4)
+        view.limit(offset + 4 + length)
+        val timestamp = view.getLong
+        val latencyNanos = view.getLong
+        val route = string(view)
+        val reason = string(view)
+        Some(ParSeqTraceJournal.Stored(ParSeqTraceJournal.Entry(sequence << 32 | offset, timestamp, route, latencyNanos, reason),
+          new ParSeqTraceJournal.ByteBufferInputStream(view.slice)))
+      }
+    }
+
+    /**
+     * The method scan indexes the committed records of a segment left by a previous run.
+     */
+    def scan(): Unit = {
+      var offset = committed
+      var stored = if (offset + 4 <= buffer.capacity) read(offset) else None
+      while (stored.isDefined) {
+        entries.put(offset, stored.get.entry)
+        index(stored.get.entry)
+        offset += 4 + buffer.getInt(offset)
+        stored = if (offset + 4 <= buffer.capacity) read(offset) else None
+      }
+      committed = offset
+    }
+
+    /**
+     * The method string reads a string with its length.
+     *
+     * @param view The view of the buffer
+     * @return The string
+     */
+    private[this] def string(view: ByteBuffer): String = {
+      val length = view.getInt
+      if (length < 0 || length > view.remaining) throw new IOException("Malformed ParSeq Trace journal record.")
+      val bytes = new Array[Byte](length)
+      view.get(bytes)
+      new String(bytes, StandardCharsets.UTF_8)
+    }
+
+    /**
+     * The method acquire takes a reference to the segment unless it has been released already.
+     *
+     * @return Whether the reference is taken, in which case it has to be released
+     */
+    def acquire(): Boolean = {
+      var count = references.get
+      while (count > 0 && !references.compareAndSet(count, count + 1)) count = references.get
+      count > 0
+    }
+
+    /**
+     * The method release releases a reference to the segment, and unmaps and deletes it if it was the last one.
+     */
+    def release(): Unit = if (references.decrementAndGet == 0) {
+      if (!ParSeqTraceJournal.unmap(buffer)) logger.debug(s"Left the unmapping of $file to the garbage collector.")
+      if (!file.delete) logger.warn(s"Failed to delete the ParSeq Trace journal segment $file.")
+    }
+
+  }
+
+}
+
+/**
+ * The object ParSeqTraceJournal defines the records and the file layout of the [[ParSeqTraceJournal]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceJournal {
+
+  /**
+   * The class Entry is the index entry of one journaled Trace.
+   *
+   * @param id The id of the entry, which is the sequence number of its segment and its offset in the segment
+   * @param timestamp The completion time of the request in milliseconds
+   * @param route The route of the request
+   * @param latencyNanos The latency of the request
+   * @param reason The reason the Trace is kept by tail-based sampling, or empty if it isn't
+   */
+  case class Entry(id: Long, timestamp: Long, route: String, latencyNanos: Long, reason: String)
+
+  /**
+   * The class Record is a Trace waiting to be appended.
+   *
+   * @param route The route of the request
+   * @param timestamp The completion time of the request in milliseconds
+   * @param latencyNanos The latency of the request
+   * @param reason The reason the Trace is kept by tail-based sampling, or empty if it isn't
+   * @param trace The encoded Trace
+   */
+  private case class Record(route: String, timestamp: Long, latencyNanos: Long, reason: String, trace: Array[Byte])
+
+  /**
+   * The class Stored is a record read back from a segment.
+   *
+   * @param entry The entry of the record
+   * @param trace The stream over the encoded Trace
+   */
+  private case class Stored(entry: Entry, trace: InputStream)
+
+  /**
+   * The class ByteBufferInputStream streams a ByteBuffer, so that the mapped segment is decoded in place.
+   *
+   * @param buffer The ByteBuffer
+   */
+  private class ByteBufferInputStream(buffer: ByteBuffer) extends InputStream {
+
+    /**
+     * @inheritdoc
+     */
+    override def read(): Int = if (buffer.hasRemaining) buffer.get & 0xFF else -1
+
+    /**
+     * @inheritdoc
+     */
+    override def read(bytes: Array[Byte], offset: Int, length: Int): Int =
+      if (!buffer.hasRemaining) -1
+      else {
+        val count = Math.min(length, buffer.remaining)
+        buffer.get(bytes, offset, count)
+        count
+      }
+
+  }
+
+  /**
+   * The field Magic is the header of a segment, with the version of the layout at the end.
+   */
+  private val Magic: Array[Byte] = Array('P'.toByte, 'Q'.toByte, 'J'.toByte, 1.toByte)
+
+  /**
+   * The field MinSegmentBytes is the minimum size of a segment.
+   */
+  private val MinSegmentBytes: Int = 64 << 10
+
+  /**
+   * The field IdleNanos is how long the writer thread waits when the queue is empty.
+   */
+  private val IdleNanos: Long = TimeUnit.MILLISECONDS.toNanos(10)
+
+  /**
+   * The field Suffix is the file name suffix of a segment.
+   */
+  private val Suffix = ".segment"
+
+  /**
+   * The method fileName gets the file name of a segment, which sorts by sequence number.
+   *
+   * @param sequence The sequence number of the segment
+   * @return The file name
+   */
+  private def fileName(sequence: Long): String = "%016x%s".format(sequence, Suffix)
+
+  /**
+   * The method unmap releases the mapping of a segment right away, through `Unsafe.invokeCleaner` on Java 9 and later
+   * and through the cleaner of the buffer on Java 8. The buffer must not be touched anymore.
+   *
+   * @param buffer The mapping
+   * @return Whether it is unmapped, otherwise the garbage collector unmaps it eventually
+   */
+  private def unmap(buffer: MappedByteBuffer): Boolean = try {
+    val unsafeClass = Class.forName("sun.misc.Unsafe")
+    val theUnsafe = unsafeClass.getDeclaredField("theUnsafe")
+    theUnsafe.setAccessible(true)
+    unsafeClass.getMethod("invokeCleaner", classOf[ByteBuffer]).invoke(theUnsafe.get(null), buffer)
+    true
+  } catch {
+    case NonFatal(_) => try {
+      val cleanerMethod = buffer.getClass.getMethod("cleaner")
+      cleanerMethod.setAccessible(true)
+      val cleaner = cleanerMethod.invoke(buffer)
+      cleaner.getClass.getMethod("clean").invoke(cleaner)
+      true
+    } catch {
+      case NonFatal(_) => false
+    }
+  }
+
+  /**
+   * The method sequence gets the sequence number of a segment from its file name.
+   *
+   * @param fileName The file name
+   * @return The sequence number if it is a segment
+   */
+  private def sequence(fileName: String): Option[Long] =
+    if (fileName.length == 16 + Suffix.length && fileName.endsWith(Suffix))
+      scala.util.Try(java.lang.Long.parseUnsignedLong(fileName.take(16), 16)).toOption
+    else None
+
+}
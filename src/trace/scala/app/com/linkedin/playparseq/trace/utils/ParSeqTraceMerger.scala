@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.trace.{ShallowTrace, Trace, TraceRelationship}
+import scala.collection.JavaConverters._
+
+
+/**
+ * The object ParSeqTraceMerger merges the Traces of all ParSeq Tasks of one request into one `Trace`.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceMerger {
+
+  /**
+   * The method merge merges the Traces of ParSeq Tasks into one Trace.
+   *
+   * @param tasks The ParSeq Tasks
+   * @return The merged Trace
+   */
+  def merge(tasks: Iterable[Task[_]]): Trace = {
+    val traceMap = new java.util.HashMap[java.lang.Long, ShallowTrace]
+    val relationships = new java.util.HashSet[TraceRelationship]
+    tasks.foreach(task => {
+      val trace = task.getTrace
+      traceMap.putAll(trace.getTraceMap)
+      relationships.addAll(trace.getRelationships)
+    })
+    new Trace(traceMap, relationships)
+  }
+
+  /**
+   * The method merge merges the Traces of a Java Set of ParSeq Tasks into one Trace.
+   *
+   * @param tasks The ParSeq Tasks
+   * @return The merged Trace
+   */
+  def merge(tasks: java.util.Set[Task[_]]): Trace = merge(tasks.asScala)
+
+}
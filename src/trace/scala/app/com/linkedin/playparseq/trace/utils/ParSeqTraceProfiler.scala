@@ -0,0 +1,448 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{ShallowTrace, Trace}
+import java.util.Locale
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.libs.json.{JsObject, Json}
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+
+/**
+ * The class ParSeqTraceProfiler aggregates sampled ParSeq Traces per route into a tree keyed by the path of Task names,
+ * so that the Tasks dominating the latency across many requests can be found. Every node of the tree sums up the
+ * total time, the self time, which is not covered by any child, and the wait time, which is the part of the self time
+ * the Task spent pending on an asynchronous result. The memory is bounded, Task names are interned and the times are
+ * kept in primitive arrays. The ParSeqTraceProfiler will try to load the key-value of `parseq.trace.profile.maxRoutes`
+ * (The number of profiled routes) and `parseq.trace.profile.maxNodes` (The number of nodes per route) from your conf
+ * file, otherwise it will use the default values, which are 100 and 1000. The time of Tasks beyond that is attributed
+ * to their nearest profiled ancestor.
+ *
+ * @param configuration The injected Configuration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceProfiler @Inject()(configuration: Configuration) {
+
+  /**
+   * The field maxRoutes is the number of profiled routes.
+   */
+  private[this] val maxRoutes: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.profile.maxRoutes").getOrElse(100))
+
+  /**
+   * The field maxNodes is the number of nodes per route.
+   */
+  private[this] val maxNodes: Int = Math.max(2, configuration.getOptional[Int]("parseq.trace.profile.maxNodes").getOrElse(1000))
+
+  /**
+   * The field trees are the profiles per route.
+   */
+  private[this] val trees = new ConcurrentHashMap[String, Tree]
+
+  /**
+   * The field nameIds are the ids of the interned Task names.
+   */
+  private[this] val nameIds = new java.util.HashMap[String, Integer]
+
+  /**
+   * The field names are the interned Task names by id.
+   */
+  private[this] val names = new mutable.ArrayBuffer[String]
+
+  /**
+   * The field dropped is the number of Traces dropped because there are too many routes.
+   */
+  private[this] val dropped = new AtomicLong
+
+  /**
+   * The method add aggregates a merged Trace into the profile of the route.
+   *
+   * @param route The route of the request
+   * @param trace The merged ParSeq Trace
+   */
+  def add(route: String, trace: Trace): Unit = {
+    val tree: Tree = Option(trees.get(route)).getOrElse(
+      if (trees.size < maxRoutes) trees.computeIfAbsent(route, new java.util.function.Function[String, Tree] {
+        override def apply(route: String): Tree = new Tree(route)
+      }) else null)
+    if (tree == null) dropped.incrementAndGet
+    else {
+      val traces: Map[java.lang.Long, ShallowTrace] = ParSeqTraceAnalyzer.finished(trace)
+      val parents: Map[java.lang.Long, java.lang.Long] = ParSeqTraceAnalyzer.parents(trace, traces)
+      val children: Map[java.lang.Long, Seq[java.lang.Long]] = parents.toSeq.groupBy(_._2).mapValues(_.map(_._1))
+      tree.synchronized {
+        tree.traces += 1
+        // Walk down from the roots, so that the node of a parent is known before its children
+        val stack = mutable.Stack[(java.lang.Long, Int)](traces.keys.filterNot(parents.contains).map(id => (id, 0)).toSeq: _*)
+        while (stack.nonEmpty) {
+          val (id, parentNode) = stack.pop
+          val shallowTrace: ShallowTrace = traces(id)
+          val node: Int = tree.child(parentNode, shallowTrace.getName)
+          val start: Long = shallowTrace.getStartNanos
+          val end: Long = shallowTrace.getEndNanos
+          val intervals: Seq[(Long, Long)] = children.getOrElse(id, Seq.empty).map(c => (traces(c).getStartNanos.longValue, traces(c).getEndNanos.longValue))
+          val pending: Long = Option(shallowTrace.getPendingNanos).map(_.longValue).getOrElse(end)
+          tree.add(node, end - start, ParSeqTraceProfiler.uncovered(start, end, intervals), ParSeqTraceProfiler.uncovered(Math.max(start, pending), end, intervals))
+          children.getOrElse(id, Seq.empty).foreach(c => stack.push((c, node)))
+        }
+      }
+    }
+  }
+
+  /**
+   * The method getRoutes gets the profiled routes with their numbers of Traces.
+   *
+   * @return The numbers of Traces per route
+   */
+  def getRoutes: Map[String, Long] = trees.asScala.map { case (route, tree) => route -> tree.synchronized(tree.traces) }.toMap
+
+  /**
+   * The method getProfile gets a snapshot of the profile of a route.
+   *
+   * @param route The route
+   * @return The profile if the route is profiled
+   */
+  def getProfile(route: String): Option[ParSeqTraceProfiler.Profile] = Option(trees.get(route)).map(_.snapshot)
+
+  /**
+   * The method getDropped gets the number of Traces dropped because there are too many routes.
+   *
+   * @return The number of Traces
+   */
+  def getDropped: Long = dropped.get
+
+  /**
+   * The method intern gets the id of a Task name, and interns the name if it is new.
+   *
+   * @param name The Task name
+   * @return The id
+   */
+  private[this] def intern(name: String): Int = nameIds.synchronized {
+    Option(nameIds.get(name)).map(_.intValue).getOrElse {
+      names += name
+      nameIds.put(name, names.size - 1)
+      names.size - 1
+    }
+  }
+
+  /**
+   * The method lookup gets the id of a Task name without interning it.
+   *
+   * @param name The Task name
+   * @return The id if the name is interned
+   */
+  private[this] def lookup(name: String): Option[Int] = nameIds.synchronized(Option(nameIds.get(name)).map(_.intValue))
+
+  /**
+   * The method nameOf gets an interned Task name.
+   *
+   * @param id The id
+   * @return The Task name
+   */
+  private[this] def nameOf(id: Int): String = nameIds.synchronized(names(id))
+
+  /**
+   * The class Tree is the profile of one route. The node 0 is the route itself, and every other node is a Task name
+   * under its parent node. It must be accessed while holding its lock.
+   *
+   * @param route The route
+   */
+  private[this] class Tree(route: String) {
+
+    /**
+     * The field traces is the number of aggregated Traces.
+     */
+    var traces: Long = 0
+
+    /**
+     * The field size is the number of nodes.
+     */
+    private[this] var size: Int = 1
+
+    /**
+     * The field parents are the parent nodes.
+     */
+    private[this] var parents: Array[Int] = Array.fill(16)(-1)
+
+    /**
+     * The field nameIds are the ids of the Task names of the nodes.
+     */
+    private[this] var nameIds: Array[Int] = new Array[Int](16)
+
+    /**
+     * The field counts are the numbers of Tasks per node.
+     */
+    private[this] var counts: Array[Long] = new Array[Long](16)
+
+    /**
+     * The field totals are the total times per node.
+     */
+    private[this] var totals: Array[Long] = new Array[Long](16)
+
+    /**
+     * The field selves are the self times per node.
+     */
+    private[this] var selves: Array[Long] = new Array[Long](16)
+
+    /**
+     * The field waits are the wait times per node.
+     */
+    private[this] var waits: Array[Long] = new Array[Long](16)
+
+    /**
+     * The field index are the child nodes keyed by the parent node in the high and the name id in the low bits.
+     */
+    private[this] val index = new java.util.HashMap[java.lang.Long, Integer]
+
+    /**
+     * The method child gets the node of a Task name under a parent node, and creates it if there is room.
+     *
+     * @param parent The parent node
+     * @param name The Task name
+     * @return The node, or the parent node if the tree is full
+     */
+    def child(parent: Int, name: String): Int = {
+      val existing: Option[Int] = lookup(name).flatMap(nameId => Option(index.get(key(parent, nameId))).map(_.intValue))
+      existing.getOrElse {
+        if (size >= maxNodes) parent
+        else {
+          if (size == parents.length) grow()
+          val nameId = intern(name)
+          parents(size) = parent
+          nameIds(size) = nameId
+          index.put(key(parent, nameId), size)
+          size += 1
+          size - 1
+        }
+      }
+    }
+
+    /**
+     * The method add adds the times of one Task to a node.
+     *
+     * @param node The node
+     * @param total The total time
+     * @param self The self time
+     * @param wait The wait time
+     */
+    def add(node: Int, total: Long, self: Long, wait: Long): Unit = {
+      counts(node) += 1
+      totals(node) += total
+      selves(node) += self
+      waits(node) += wait
+    }
+
+    /**
+     * The method snapshot copies the profile.
+     *
+     * @return The profile
+     */
+    def snapshot: ParSeqTraceProfiler.Profile = synchronized {
+      ParSeqTraceProfiler.Profile(route, traces, (0 until size).map(node => ParSeqTraceProfiler.Node(
+        if (node == 0) route else nameOf(nameIds(node)), parents(node), counts(node), totals(node), selves(node), waits(node))))
+    }
+
+    /**
+     * The method key builds the key of a child node.
+     *
+     * @param parent The parent node
+     * @param nameId The id of the Task name
+     * @return The key
+     */
+    private[this] def key(parent: Int, nameId: Int): java.lang.Long = (parent.toLong << 32) | (nameId & 0xFFFFFFFFL)
+
+    /**
+     * The method grow doubles the arrays, up to the maximum number of nodes.
+     */
+    private[this] def grow(): Unit = {
+      val length = Math.min(maxNodes, parents.length * 2)
+      parents = java.util.Arrays.copyOf(parents, length)
+      nameIds = java.util.Arrays.copyOf(nameIds, length)
+      counts = java.util.Arrays.copyOf(counts, length)
+      totals = java.util.Arrays.copyOf(totals, length)
+      selves = java.util.Arrays.copyOf(selves, length)
+      waits = java.util.Arrays.copyOf(waits, length)
+    }
+
+  }
+
+}
+
+/**
+ * The object ParSeqTraceProfiler defines the profiles of the [[ParSeqTraceProfiler]] and their renderings.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceProfiler {
+
+  /**
+   * The field FlameGraphWidth is the width of the flame graph in pixels.
+   */
+  private val FlameGraphWidth = 1200
+
+  /**
+   * The field FrameHeight is the height of one frame of the flame graph in pixels.
+   */
+  private val FrameHeight = 16
+
+  /**
+   * The class Node is one node of a profile.
+   *
+   * @param name The Task name, or the route for the root
+   * @param parent The parent node, or -1 for the root
+   * @param count The number of Tasks
+   * @param totalNanos The sum of the total times
+   * @param selfNanos The sum of the self times
+   * @param waitNanos The sum of the wait times
+   */
+  case class Node(name: String, parent: Int, count: Long, totalNanos: Long, selfNanos: Long, waitNanos: Long)
+
+  /**
+   * The class Profile is a snapshot of the profile of one route. Every node comes after its parent.
+   *
+   * @param route The route
+   * @param traces The number of aggregated Traces
+   * @param nodes The nodes, the root first
+   */
+  case class Profile(route: String, traces: Long, nodes: IndexedSeq[Node]) {
+
+    /**
+     * The method stacks gets the Task name paths of all nodes.
+     *
+     * @return The paths
+     */
+    def stacks: IndexedSeq[Seq[String]] = {
+      val paths = new Array[List[String]](nodes.size)
+      nodes.indices.foreach(i => paths(i) = if (nodes(i).parent < 0) List(nodes(i).name) else nodes(i).name :: paths(nodes(i).parent))
+      paths.map(_.reverse).toIndexedSeq
+    }
+
+    /**
+     * The method toFolded renders the profile as folded stacks, one line per path with its self time in microseconds,
+     * which can be fed to the usual flame graph tools.
+     *
+     * @return The folded stacks
+     */
+    def toFolded: String = {
+      val paths = stacks
+      nodes.indices.filter(nodes(_).selfNanos > 0).map(i =>
+        paths(i).map(_.replaceAll("[;\\r\\n]", "_")).mkString(";") + " " + TimeUnit.NANOSECONDS.toMicros(nodes(i).selfNanos)
+      ).mkString("", "\n", "\n")
+    }
+
+    /**
+     * The method toJson renders the profile as a JSON tree.
+     *
+     * @return The JSON
+     */
+    def toJson: JsObject = {
+      val children = nodes.indices.groupBy(nodes(_).parent)
+      def json(i: Int): JsObject = Json.obj(
+        "name" -> nodes(i).name,
+        "count" -> nodes(i).count,
+        "totalMilliseconds" -> millis(nodes(i).totalNanos),
+        "selfMilliseconds" -> millis(nodes(i).selfNanos),
+        "waitMilliseconds" -> millis(nodes(i).waitNanos),
+        "children" -> children.getOrElse(i, Seq.empty).map(json))
+      json(0) + ("traces" -> Json.toJson(traces))
+    }
+
+    /**
+     * The method toSvg renders the profile as a flame graph. The width of a frame is its self time plus the widths of
+     * its children, the same as the flame graph of the folded stacks.
+     *
+     * @return The SVG document
+     */
+    def toSvg: String = {
+      val children = nodes.indices.groupBy(nodes(_).parent).mapValues(_.sortBy(nodes(_).name))
+      // Every node comes after its parent, so the widths are summed up backwards
+      val widths = nodes.map(_.selfNanos).toArray
+      nodes.indices.reverse.filter(nodes(_).parent >= 0).foreach(i => widths(nodes(i).parent) += widths(i))
+      val depths = new Array[Int](nodes.size)
+      nodes.indices.filter(nodes(_).parent >= 0).foreach(i => depths(i) = depths(nodes(i).parent) + 1)
+      val height = (depths.max + 1) * FrameHeight
+      val scale = if (widths(0) > 0) FlameGraphWidth.toDouble / widths(0) else 0.0
+      val frames = new StringBuilder
+      def frame(i: Int, x: Double): Unit = {
+        val width = widths(i) * scale
+        if (width >= 0.1) {
+          val node = nodes(i)
+          val y = height - (depths(i) + 1) * FrameHeight
+          val hash = node.name.hashCode
+          val title = "%s (%d Tasks, total %.3f ms, self %.3f ms, wait %.3f ms)".formatLocal(Locale.ROOT,
+            node.name, node.count, millis(node.totalNanos), millis(node.selfNanos), millis(node.waitNanos))
+          frames ++= "<g><title>%s</title><rect x=\"%.1f\" y=\"%d\" width=\"%.1f\" height=\"%d\" fill=\"rgb(%d,%d,%d)\" rx=\"2\"/>".formatLocal(Locale.ROOT,
+            escape(title), x, y, width, FrameHeight - 1, 205 + (hash & 0x31), 80 + ((hash >>> 8) & 0x7F), 55 + ((hash >>> 16) & 0x1F))
+          val chars = (width / 7).toInt
+          if (chars >= 3) {
+            val label = if (node.name.length <= chars) node.name else node.name.take(chars - 2) + ".."
+            frames ++= "<text x=\"%.1f\" y=\"%d\">%s</text>".formatLocal(Locale.ROOT, x + 3, y + FrameHeight - 4, escape(label))
+          }
+          frames ++= "</g>\n"
+          children.getOrElse(i, Seq.empty).foldLeft(x)((offset, child) => {
+            frame(child, offset)
+            offset + widths(child) * scale
+          })
+        }
+      }
+      frame(0, 0)
+      "<?xml version=\"1.0\" standalone=\"no\"?>\n" +
+        "<svg version=\"1.1\" width=\"%d\" height=\"%d\" xmlns=\"http://www.w3.org/2000/svg\" font-family=\"Verdana\" font-size=\"12\">\n"
+          .format(FlameGraphWidth, height) + frames.toString + "</svg>\n"
+    }
+
+  }
+
+  /**
+   * The method uncovered gets the time of a window which is not covered by any of the intervals.
+   *
+   * @param start The start of the window
+   * @param end The end of the window
+   * @param intervals The intervals
+   * @return The uncovered time
+   */
+  private[playparseq] def uncovered(start: Long, end: Long, intervals: Seq[(Long, Long)]): Long = {
+    var cursor = start
+    var covered = 0L
+    intervals.map { case (s, e) => (Math.max(s, start), Math.min(e, end)) }.filter(i => i._1 < i._2).sortBy(_._1).foreach {
+      case (s, e) =>
+        if (e > cursor) {
+          covered += e - Math.max(s, cursor)
+          cursor = e
+        }
+    }
+    Math.max(0L, end - start - covered)
+  }
+
+  /**
+   * The method escape makes a text safe for XML.
+   *
+   * @param text The text
+   * @return The escaped text
+   */
+  private def escape(text: String): String =
+    text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+
+  /**
+   * The method millis converts nanoseconds to fractional milliseconds.
+   *
+   * @param nanos The time in nanoseconds
+   * @return The time in milliseconds
+   */
+  private def millis(nanos: Long): Double = nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble
+
+}
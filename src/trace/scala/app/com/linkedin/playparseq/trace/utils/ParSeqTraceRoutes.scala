@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import java.util.regex.Pattern
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.mvc.RequestHeader
+
+
+/**
+ * The class ParSeqTraceRoutes decides which requests the ParSeqTraceFilter covers. It will try to load the key-values
+ * of `parseq.trace.filter.include` and `parseq.trace.filter.exclude` from your conf file, which are lists of regular
+ * expressions matched against the action of a routed request, e.g. `controllers\.Assets\..*`, or its path, e.g.
+ * `/assets/.*`. A request is covered if it matches an included pattern, or there are none, and no excluded pattern.
+ *
+ * @param configuration The injected Configuration component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceRoutes @Inject()(configuration: Configuration) {
+
+  /**
+   * The field include are the patterns of the covered requests, or empty for all.
+   */
+  private[this] val include: Seq[Pattern] = patterns("parseq.trace.filter.include")
+
+  /**
+   * The field exclude are the patterns of the requests which are not covered.
+   */
+  private[this] val exclude: Seq[Pattern] = patterns("parseq.trace.filter.exclude")
+
+  /**
+   * The method covers decides whether a request is covered.
+   *
+   * @param requestHeader The request
+   * @return Whether the request is covered
+   */
+  def covers(requestHeader: RequestHeader): Boolean =
+    if (include.isEmpty && exclude.isEmpty) true
+    else {
+      val action: String = ParSeqTraceSampler.route(requestHeader)
+      val path: String = requestHeader.path
+      val matches: Pattern => Boolean = pattern => pattern.matcher(action).matches || pattern.matcher(path).matches
+      (include.isEmpty || include.exists(matches)) && !exclude.exists(matches)
+    }
+
+  /**
+   * The method patterns loads a list of patterns from the conf file.
+   *
+   * @param key The key of the list
+   * @return The patterns
+   */
+  private[this] def patterns(key: String): Seq[Pattern] =
+    configuration.getOptional[Seq[String]](key).getOrElse(Seq.empty).map(Pattern.compile)
+
+}
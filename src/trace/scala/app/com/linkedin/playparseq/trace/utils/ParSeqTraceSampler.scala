@@ -0,0 +1,357 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.trace.Trace
+import com.linkedin.playparseq.utils.PlayParSeqHelper
+import java.util.concurrent.{CompletableFuture, CompletionStage, ConcurrentHashMap, ConcurrentLinkedDeque, RejectedExecutionException, ThreadLocalRandom, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.function.{BiConsumer, Supplier}
+import javax.inject.{Inject, Singleton}
+import play.api.Configuration
+import play.api.mvc.{RequestHeader, Result}
+import play.api.routing.Router
+import play.mvc.{Result => JavaResult}
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future}
+
+
+/**
+ * The class ParSeqTraceSampler captures ParSeq Traces of completed requests by tail-based sampling. A recorded request
+ * runs its plans with the relationships between their Tasks, as whether it is interesting is only known once it is
+ * done, which is why `parseq.trace.tail.recordedRatio` limits the share of requests which are recorded, 1 by default.
+ * The Traces of a recorded request are merged and kept only if the request turns out to be interesting, which means it
+ * is slower than `parseq.trace.tail.latencyThresholdMilliseconds`, it failed, or its route has not used up its
+ * `parseq.trace.tail.routeQuotaPerMinute` yet. The merging, encoding and analysis of a kept Trace run on the
+ * [[ParSeqTraceExecutor]] rather than on the thread completing the request, and are dropped if it is overloaded. At
+ * most `parseq.trace.tail.capacity` Traces are kept, the oldest are dropped first. The ParSeqTraceSampler is only
+ * active if `parseq.trace.tail.enabled` is true in your conf file, or if the [[ParSeqTraceJournal]] is enabled, which
+ * gets the Traces of all recorded requests.
+ *
+ * @param configuration The injected Configuration component
+ * @param parSeqTraceAnalyzer The injected [[ParSeqTraceAnalyzer]] component
+ * @param parSeqTraceProfiler The injected [[ParSeqTraceProfiler]] component
+ * @param parSeqTraceExporter The injected [[ParSeqTraceExporter]] component
+ * @param parSeqTraceJournal The injected [[ParSeqTraceJournal]] component
+ * @param parSeqTraceExecutor The injected [[ParSeqTraceExecutor]] component
+ * @param executionContext The injected [[ExecutionContext]] component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceSampler @Inject()(configuration: Configuration, parSeqTraceAnalyzer: ParSeqTraceAnalyzer, parSeqTraceProfiler: ParSeqTraceProfiler, parSeqTraceExporter: ParSeqTraceExporter, parSeqTraceJournal: ParSeqTraceJournal, parSeqTraceExecutor: ParSeqTraceExecutor)(implicit executionContext: ExecutionContext) extends PlayParSeqHelper {
+
+  /**
+   * The field enabled is whether the tail-based sampling is enabled.
+   */
+  val enabled: Boolean = configuration.getOptional[Boolean]("parseq.trace.tail.enabled").getOrElse(false)
+
+  /**
+   * The field active is whether the requests are sampled at all, in which case their plans may be traced.
+   */
+  val active: Boolean = enabled || parSeqTraceJournal.enabled
+
+  /**
+   * The field recordedRatio is the share of requests which are recorded, as only their Traces can be kept.
+   */
+  private[this] val recordedRatio: Double =
+    Math.min(1.0, Math.max(0.0, configuration.getOptional[Double]("parseq.trace.tail.recordedRatio").getOrElse(1.0)))
+
+  /**
+   * The field latencyThresholdNanos is the latency above which a request is kept.
+   */
+  private[this] val latencyThresholdNanos: Long = TimeUnit.MILLISECONDS.toNanos(configuration.getOptional[Long]("parseq.trace.tail.latencyThresholdMilliseconds").getOrElse(1000))
+
+  /**
+   * The field routeQuota is the number of requests kept per route and minute regardless of their outcome.
+   */
+  private[this] val routeQuota: Int = configuration.getOptional[Int]("parseq.trace.tail.routeQuotaPerMinute").getOrElse(1)
+
+  /**
+   * The field capacity is the maximum number of kept Traces.
+   */
+  private[this] val capacity: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.tail.capacity").getOrElse(100))
+
+  /**
+   * The field captures are the kept Traces, the newest first.
+   */
+  private[this] val captures = new ConcurrentLinkedDeque[ParSeqTraceSampler.Capture]
+
+  /**
+   * The field size is the number of kept Traces.
+   */
+  private[this] val size = new AtomicInteger
+
+  /**
+   * The field ids is the generator of capture ids.
+   */
+  private[this] val ids = new AtomicLong
+
+  /**
+   * The field sampled is the number of requests sampled so far.
+   */
+  private[this] val sampled = new AtomicLong
+
+  /**
+   * The field dropped is the number of Traces which were to be kept but were dropped, as the executor was overloaded.
+   */
+  private[this] val dropped = new AtomicLong
+
+  /**
+   * The field quotas are the quota windows per route, which are bounded by the routes of the router.
+   */
+  private[this] val quotas = new ConcurrentHashMap[String, Quota]
+
+  /**
+   * The method record decides whether a new request is recorded, which means its plans have to be traced, and its
+   * Traces may be kept once it completes.
+   *
+   * @return Whether the request is recorded
+   */
+  def record(): Boolean = active && (recordedRatio >= 1.0 || ThreadLocalRandom.current.nextDouble < recordedRatio)
+
+  /**
+   * The method capture samples the request once its `Result` is completely sent or has failed.
+   *
+   * @param result The Future of Result
+   * @param recorded Whether the request is recorded, see [[record]]
+   * @param route The route of the request
+   * @param startNanos The start time of the request
+   * @param tasks The ParSeq Tasks of the request, resolved only if the request is kept
+   * @return The Future of Result to be sent instead of the origin
+   */
+  def capture(result: Future[Result], recorded: Boolean, route: String, startNanos: Long, tasks: () => Iterable[Task[_]]): Future[Result] =
+    if (recorded) {
+      result.transform(r => watchResult(r, () => sample(route, System.nanoTime - startNanos, r.header.status >= 500, tasks())), throwable => {
+        sample(route, System.nanoTime - startNanos, failed = true, tasks())
+        throwable
+      })
+    } else result
+
+  /**
+   * The method capture samples the request once its Java `Result` is completely sent or has failed.
+   *
+   * @param result The CompletionStage of Result
+   * @param recorded Whether the request is recorded, see [[record]]
+   * @param route The route of the request
+   * @param startNanos The start time of the request
+   * @param tasks The ParSeq Tasks of the request, resolved only if the request is kept
+   * @return The CompletionStage of Result to be sent instead of the origin
+   */
+  def capture(result: CompletionStage[JavaResult], recorded: Boolean, route: String, startNanos: Long, tasks: Supplier[java.util.Set[Task[_]]]): CompletionStage[JavaResult] =
+    if (recorded) {
+      val completableFuture: CompletableFuture[JavaResult] = new CompletableFuture[JavaResult]
+      result.whenComplete(new BiConsumer[JavaResult, Throwable] {
+        override def accept(r: JavaResult, throwable: Throwable): Unit = if (throwable == null) {
+          completableFuture.complete(watchResult(r, new Runnable {
+            override def run(): Unit = sample(route, System.nanoTime - startNanos, r.status >= 500, tasks.get.asScala)
+          }))
+        } else {
+          sample(route, System.nanoTime - startNanos, failed = true, tasks.get.asScala)
+          completableFuture.completeExceptionally(throwable)
+        }
+      })
+      completableFuture
+    } else result
+
+  /**
+   * The method sample decides whether to keep the Trace of a completed request, and keeps it on the
+   * [[ParSeqTraceExecutor]] if so. The Trace is journaled regardless if the [[ParSeqTraceJournal]] is enabled.
+   *
+   * @param route The route of the request
+   * @param latencyNanos The latency of the request
+   * @param failed Whether the request failed
+   * @param tasks The ParSeq Tasks of the request, resolved only if the request is kept
+   * @return The Future of the capture if the Trace is kept
+   */
+  def sample(route: String, latencyNanos: Long, failed: Boolean, tasks: => Iterable[Task[_]]): Future[Option[ParSeqTraceSampler.Capture]] = {
+    sampled.incrementAndGet
+    val reason: Option[String] =
+      if (!enabled) None
+      else if (failed) Some(ParSeqTraceSampler.FailedReason)
+      else if (latencyNanos > latencyThresholdNanos) Some(ParSeqTraceSampler.SlowReason)
+      else if (quotas.computeIfAbsent(route, new java.util.function.Function[String, Quota] {
+        override def apply(route: String): Quota = new Quota
+      }).tryAcquire) Some(ParSeqTraceSampler.QuotaReason)
+      else None
+    if (reason.isEmpty && !parSeqTraceJournal.enabled) Future.successful(None)
+    else parSeqTraceExecutor.submit(keep(route, latencyNanos, reason, tasks)).recover {
+      case _: RejectedExecutionException =>
+        dropped.incrementAndGet
+        None
+    }
+  }
+
+  /**
+   * The method keep merges, encodes, journals and analyzes the Trace of a completed request.
+   *
+   * @param route The route of the request
+   * @param latencyNanos The latency of the request
+   * @param reason The reason of keeping the Trace, or None if it is only journaled
+   * @param tasks The ParSeq Tasks of the request
+   * @return The capture if the Trace is kept
+   */
+  private[this] def keep(route: String, latencyNanos: Long, reason: Option[String], tasks: Iterable[Task[_]]): Option[ParSeqTraceSampler.Capture] = {
+    val taskSet = tasks
+    if (taskSet.isEmpty) None
+    else {
+      val trace = ParSeqTraceMerger.merge(taskSet)
+      val timestamp = System.currentTimeMillis
+      // Keep the Trace in the compact binary form
+      val encodedTrace = new ParSeqTraceBinaryCodec().toBytes(trace)
+      parSeqTraceJournal.append(route, timestamp, latencyNanos, reason.getOrElse(""), encodedTrace)
+      reason.map(r => {
+        parSeqTraceProfiler.add(route, trace)
+        parSeqTraceExporter.export(route, trace)
+        val capture = ParSeqTraceSampler.Capture(ids.incrementAndGet, route, timestamp, latencyNanos, r, encodedTrace,
+          parSeqTraceAnalyzer.analyze(route, trace))
+        captures.addFirst(capture)
+        // Drop the oldest Traces over the capacity
+        if (size.incrementAndGet > capacity) Option(captures.pollLast).foreach(_ => size.decrementAndGet)
+        capture
+      })
+    }
+  }
+
+  /**
+   * The method getCaptures gets the kept Traces, the newest first.
+   *
+   * @return The captures
+   */
+  def getCaptures: Seq[ParSeqTraceSampler.Capture] = captures.asScala.toList
+
+  /**
+   * The method getCapture gets one kept Trace.
+   *
+   * @param id The id of the capture
+   * @return The capture
+   */
+  def getCapture(id: Long): Option[ParSeqTraceSampler.Capture] = captures.asScala.find(_.id == id)
+
+  /**
+   * The method getSampled gets the number of requests sampled so far.
+   *
+   * @return The number of requests
+   */
+  def getSampled: Long = sampled.get
+
+  /**
+   * The method getKept gets the number of requests whose Traces were kept so far.
+   *
+   * @return The number of requests
+   */
+  def getKept: Long = ids.get
+
+  /**
+   * The method getDropped gets the number of Traces which were to be kept but were dropped, as the
+   * [[ParSeqTraceExecutor]] was overloaded.
+   *
+   * @return The number of Traces
+   */
+  def getDropped: Long = dropped.get
+
+  /**
+   * The class Quota is the quota window of one route.
+   */
+  private[this] class Quota {
+
+    /**
+     * The field minute is the current window.
+     */
+    private[this] var minute: Long = -1
+
+    /**
+     * The field used is the number of requests kept in the current window.
+     */
+    private[this] var used: Int = 0
+
+    /**
+     * The method tryAcquire uses one unit of the quota if there is any left in the current window.
+     *
+     * @return Whether the quota is acquired
+     */
+    def tryAcquire: Boolean = synchronized {
+      val now = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis)
+      if (now != minute) {
+        minute = now
+        used = 0
+      }
+      if (used < routeQuota) {
+        used += 1
+        true
+      } else false
+    }
+
+  }
+
+}
+
+/**
+ * The object ParSeqTraceSampler defines the captures of the [[ParSeqTraceSampler]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceSampler {
+
+  /**
+   * The field FailedReason is the reason of keeping a failed request.
+   */
+  val FailedReason = "failed"
+
+  /**
+   * The field SlowReason is the reason of keeping a slow request.
+   */
+  val SlowReason = "slow"
+
+  /**
+   * The field QuotaReason is the reason of keeping a request within its route's quota.
+   */
+  val QuotaReason = "quota"
+
+  /**
+   * The class Capture is one kept Trace.
+   *
+   * @param id The id of the capture
+   * @param route The route of the request
+   * @param timestamp The completion time of the request in milliseconds
+   * @param latencyNanos The latency of the request
+   * @param reason The reason of keeping the Trace
+   * @param encodedTrace The merged ParSeq Trace of the request encoded by the [[ParSeqTraceBinaryCodec]]
+   * @param analysis The analysis of the Trace
+   */
+  case class Capture(id: Long, route: String, timestamp: Long, latencyNanos: Long, reason: String, encodedTrace: Array[Byte], analysis: ParSeqTraceAnalyzer.Analysis) {
+
+    /**
+     * The method trace decodes the merged ParSeq Trace of the request.
+     *
+     * @return The Trace
+     */
+    def trace: Trace = new ParSeqTraceBinaryCodec().fromBytes(encodedTrace)
+
+  }
+
+  /**
+   * The field UnroutedRoute is the route of all requests which are not routed, so that the routes stay bounded by the
+   * router rather than by the paths the callers choose.
+   */
+  val UnroutedRoute = "unrouted"
+
+  /**
+   * The method route gets the route of a request, which is the action if it is routed, otherwise [[UnroutedRoute]].
+   *
+   * @param requestHeader The request
+   * @return The route
+   */
+  def route(requestHeader: RequestHeader): String = requestHeader.attrs.get(Router.Attrs.HandlerDef)
+    .map(handlerDef => s"${handlerDef.controller}.${handlerDef.method}").getOrElse(UnroutedRoute)
+
+}
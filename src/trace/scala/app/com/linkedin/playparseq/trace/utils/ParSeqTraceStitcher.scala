@@ -0,0 +1,429 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.Task
+import com.linkedin.parseq.trace.{Relationship, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import com.linkedin.parseq.trace.codec.TraceCodec
+import com.linkedin.parseq.trace.codec.json.JsonTraceCodec
+import java.net.{HttpURLConnection, URL}
+import java.nio.charset.StandardCharsets
+import java.security.{MessageDigest, SecureRandom}
+import java.util.concurrent.{ArrayBlockingQueue, ConcurrentHashMap, ConcurrentLinkedQueue, RejectedExecutionException, ScheduledExecutorService, ScheduledThreadPoolExecutor, ThreadFactory, ThreadPoolExecutor, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.{BiFunction, Supplier}
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+import javax.inject.{Inject, Singleton}
+import play.api.{Configuration, Logger}
+import play.api.inject.{ApplicationLifecycle, DefaultApplicationLifecycle}
+import play.api.mvc.RequestHeader
+import play.mvc.Http
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.control.NonFatal
+
+
+/**
+ * The class ParSeqTraceStitcher stitches the ParSeq Traces of several services using Play-ParSeq into one Trace. A
+ * Task calling another service is created by the method remote, which hands a correlation id to the call to be sent as
+ * the `X-ParSeq-Trace-Id` header, and marks the Task with the id and the origin of the other service. The other service
+ * keeps the Tasks of a request with that header under the id, and serves their Trace at `/tracevis/remote/<id>`, in the
+ * binary form of the [[ParSeqTraceBinaryCodec]] if accepted, so that the caller can fetch it and inline it under the
+ * calling Task when showing its own Trace. The header is only honoured if it is signed with the shared secret of
+ * `parseq.trace.stitch.secret`, or if the request comes from one of the addresses of
+ * `parseq.trace.stitch.trustedAddresses`, as it makes the request traced and kept. The remote Traces are fetched in
+ * parallel on threads of their own, and whatever is fetched within the deadline is inlined. The ParSeqTraceStitcher
+ * will try to load the key-value of `parseq.trace.stitch.capacity` (The number of requests kept by id),
+ * `parseq.trace.stitch.timeoutMilliseconds` (The deadline of fetching the remote Traces of a Trace),
+ * `parseq.trace.stitch.numThreads` (The number of threads fetching) and `parseq.trace.stitch.queueSize` (The number of
+ * fetches waiting for a thread) from your conf file, otherwise it will use the default values, which are 1000, 1000, 4
+ * and 64.
+ *
+ * @param configuration The injected Configuration component
+ * @param applicationLifecycle The injected ApplicationLifecycle component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceStitcher @Inject()(configuration: Configuration, applicationLifecycle: ApplicationLifecycle) {
+
+  /**
+   * The constructor keeps the former signature working, its threads are never stopped before the JVM exits.
+   *
+   * @param configuration The Configuration
+   */
+  def this(configuration: Configuration) = this(configuration, new DefaultApplicationLifecycle)
+
+  /**
+   * A happy logger.
+   */
+  private[this] val logger = Logger(classOf[ParSeqTraceStitcher])
+
+  /**
+   * The field capacity is the number of requests kept by id.
+   */
+  private[this] val capacity: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.stitch.capacity").getOrElse(1000))
+
+  /**
+   * The field timeoutMilliseconds is the deadline of fetching the remote Traces of a Trace.
+   */
+  private[this] val timeoutMilliseconds: Int = configuration.getOptional[Int]("parseq.trace.stitch.timeoutMilliseconds").getOrElse(1000)
+
+  /**
+   * The field secret is the key signing the correlation ids, if any.
+   */
+  private[this] val secret: Option[SecretKeySpec] = configuration.getOptional[String]("parseq.trace.stitch.secret").filter(_.nonEmpty)
+    .map(key => new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ParSeqTraceStitcher.SignatureAlgorithm))
+
+  /**
+   * The field trustedAddresses are the addresses of the services whose unsigned correlation ids are honoured.
+   */
+  private[this] val trustedAddresses: Set[String] =
+    configuration.getOptional[Seq[String]]("parseq.trace.stitch.trustedAddresses").getOrElse(Seq.empty).toSet
+
+  /**
+   * The field fetcher is the executor fetching the remote Traces, which rejects fetches once its queue is full.
+   */
+  private[this] val fetcher: ThreadPoolExecutor = {
+    val numThreads: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.stitch.numThreads").getOrElse(4))
+    val queueSize: Int = Math.max(1, configuration.getOptional[Int]("parseq.trace.stitch.queueSize").getOrElse(64))
+    val count = new AtomicInteger
+    val executor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue[Runnable](queueSize), new ThreadFactory {
+      override def newThread(runnable: Runnable): Thread = {
+        val thread = new Thread(runnable, s"parseq-trace-stitch-${count.incrementAndGet}")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+    executor.allowCoreThreadTimeOut(true)
+    executor
+  }
+
+  /**
+   * The field timer is the scheduler for the deadlines of the fetches.
+   */
+  private[this] val timer: ScheduledExecutorService = {
+    val executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory {
+      override def newThread(runnable: Runnable): Thread = {
+        val thread = new Thread(runnable, "parseq-trace-stitch-timer")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+    // Drop the deadlines of completed fetches right away
+    executor.setRemoveOnCancelPolicy(true)
+    executor
+  }
+
+  applicationLifecycle.addStopHook(() => Future.successful {
+    fetcher.shutdownNow()
+    timer.shutdownNow()
+  })
+
+  /**
+   * The field kept are the Tasks of the kept requests by id.
+   */
+  private[this] val kept = new ConcurrentHashMap[String, () => Iterable[Task[_]]]
+
+  /**
+   * The field order is the ids of the kept requests, the oldest first.
+   */
+  private[this] val order = new ConcurrentLinkedQueue[String]
+
+  /**
+   * The method remote creates a Task calling another service, and marks it for stitching.
+   *
+   * @param origin The origin of the other service, e.g. `http://localhost:9001`, under which `/tracevis` is routed
+   * @param call The call given the name and the value of the header to send along
+   * @tparam T The type parameter of the Task
+   * @return The ParSeq Task
+   */
+  def remote[T](origin: String)(call: (String, String) => Task[T]): Task[T] = {
+    val id = ParSeqTraceStitcher.newId
+    // Sign the id if there is a secret, otherwise the other service has to trust this one by its address
+    val task = call(ParSeqTraceStitcher.HeaderName, secret.map(key => s"$id.${ParSeqTraceStitcher.sign(key, id)}").getOrElse(id))
+    task.getShallowTraceBuilder
+      .addAttribute(ParSeqTraceStitcher.RemoteIdAttribute, id)
+      .addAttribute(ParSeqTraceStitcher.RemoteOriginAttribute, origin.stripSuffix("/"))
+    task
+  }
+
+  /**
+   * The method remote creates a Java Task calling another service, and marks it for stitching.
+   *
+   * @param origin The origin of the other service, e.g. `http://localhost:9001`, under which `/tracevis` is routed
+   * @param call The call given the name and the value of the header to send along
+   * @tparam T The type parameter of the Task
+   * @return The ParSeq Task
+   */
+  def remote[T](origin: String, call: BiFunction[String, String, Task[T]]): Task[T] = remote(origin)((name, value) => call.apply(name, value))
+
+  /**
+   * The method keep keeps the Tasks of a request under its correlation id if it has a trusted one.
+   *
+   * @param requestHeader The request
+   * @param tasks The ParSeq Tasks of the request
+   */
+  def keep(requestHeader: RequestHeader, tasks: () => Iterable[Task[_]]): Unit = correlationId(requestHeader).foreach(id => {
+    if (kept.put(id, tasks) == null) {
+      order.add(id)
+      // Drop the oldest requests over the capacity
+      while (kept.size > capacity) Option(order.poll).foreach(kept.remove)
+    }
+  })
+
+  /**
+   * The method keep keeps the Java Tasks of a request under its correlation id if it has a trusted one.
+   *
+   * @param request The request
+   * @param tasks The ParSeq Tasks of the request
+   */
+  def keep(request: Http.RequestHeader, tasks: Supplier[java.util.Set[Task[_]]]): Unit = keep(request.asScala, () => tasks.get.asScala)
+
+  /**
+   * The method isStitched decides whether a request comes from another service with a trusted correlation id, so its
+   * Tasks will be kept.
+   *
+   * @param requestHeader The request
+   * @return The decision
+   */
+  def isStitched(requestHeader: RequestHeader): Boolean = correlationId(requestHeader).isDefined
+
+  /**
+   * The method correlationId gets the correlation id of a request, if its header is signed with the secret or the
+   * request comes from a trusted address.
+   *
+   * @param requestHeader The request
+   * @return The correlation id if it is trusted
+   */
+  private[this] def correlationId(requestHeader: RequestHeader): Option[String] =
+    requestHeader.headers.get(ParSeqTraceStitcher.HeaderName).flatMap(_.split('.') match {
+      case Array(id, signature) if ParSeqTraceStitcher.isValid(id) && secret.exists(key =>
+        MessageDigest.isEqual(ParSeqTraceStitcher.sign(key, id).getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII))) => Some(id)
+      case Array(id) if ParSeqTraceStitcher.isValid(id) && trustedAddresses.contains(requestHeader.remoteAddress) => Some(id)
+      case _ => None
+    })
+
+  /**
+   * The method get gets the Trace of a kept request, which is yet to be stitched.
+   *
+   * @param id The correlation id
+   * @return The Trace if the request is kept
+   */
+  def get(id: String): Option[Trace] = Option(kept.get(id)).map(tasks => ParSeqTraceMerger.merge(tasks()))
+
+  /**
+   * The method stitch fetches the Traces of the remote calls in a Trace in parallel, and inlines them under the calling
+   * Tasks once all of them are fetched or the deadline has passed. The remote calls whose Traces can't be fetched in
+   * time are left as they are.
+   *
+   * @param trace The merged ParSeq Trace
+   * @return The Future of the stitched Trace
+   */
+  def stitch(trace: Trace): Future[Trace] = {
+    val calls: Seq[(java.lang.Long, String, Future[Option[Trace]])] = trace.getTraceMap.values.asScala.toSeq.flatMap(shallowTrace => for {
+      id <- Option(shallowTrace.getAttributes.get(ParSeqTraceStitcher.RemoteIdAttribute)).filter(ParSeqTraceStitcher.isValid)
+      origin <- Option(shallowTrace.getAttributes.get(ParSeqTraceStitcher.RemoteOriginAttribute))
+    } yield (shallowTrace.getId, origin, fetchAsync(origin, id)))
+    if (calls.isEmpty) Future.successful(trace)
+    else {
+      val done = Promise[Unit]
+      val deadline = timer.schedule(new Runnable {
+        override def run(): Unit = done.trySuccess(())
+      }, timeoutMilliseconds, TimeUnit.MILLISECONDS)
+      Future.sequence(calls.map(_._3))(implicitly, ParSeqTraceStitcher.SameThread).onComplete(_ => {
+        deadline.cancel(false)
+        done.trySuccess(())
+      })(ParSeqTraceStitcher.SameThread)
+      // Inline whatever has been fetched by then
+      done.future.map(_ => calls.foldLeft(trace) {
+        case (stitched, (callerId, origin, remote)) =>
+          remote.value.flatMap(_.toOption).flatten.map(ParSeqTraceStitcher.inline(stitched, callerId, origin, _)).getOrElse(stitched)
+      })(ParSeqTraceStitcher.SameThread)
+    }
+  }
+
+  /**
+   * The method fetchAsync fetches the Trace of a remote call on the fetcher, and gives up if the fetcher is overloaded.
+   *
+   * @param origin The origin of the other service
+   * @param id The correlation id
+   * @return The Future of the Trace if it can be fetched
+   */
+  private[this] def fetchAsync(origin: String, id: String): Future[Option[Trace]] = {
+    val promise = Promise[Option[Trace]]
+    try fetcher.execute(new Runnable {
+      override def run(): Unit = promise.success(fetch(origin, id))
+    }) catch {
+      case _: RejectedExecutionException =>
+        logger.warn(s"Too many remote ParSeq Traces are being fetched, skipped $id from $origin.")
+        promise.success(None)
+    }
+    promise.future
+  }
+
+  /**
+   * The method fetch fetches the Trace of a remote call.
+   *
+   * @param origin The origin of the other service
+   * @param id The correlation id
+   * @return The Trace if it can be fetched
+   */
+  private[this] def fetch(origin: String, id: String): Option[Trace] = {
+    try {
+      val connection = new URL(s"$origin/tracevis/remote/$id").openConnection.asInstanceOf[HttpURLConnection]
+      try {
+        connection.setConnectTimeout(timeoutMilliseconds)
+        connection.setReadTimeout(timeoutMilliseconds)
+        // Prefer the compact binary form, older services only answer in JSON
+        connection.setRequestProperty("Accept", s"${ParSeqTraceBinaryCodec.ContentType}, application/json;q=0.5")
+        if (connection.getResponseCode == HttpURLConnection.HTTP_OK) {
+          val codec: TraceCodec = if (Option(connection.getContentType).exists(_.startsWith(ParSeqTraceBinaryCodec.ContentType))) new ParSeqTraceBinaryCodec
+          else new JsonTraceCodec
+          val input = connection.getInputStream
+          try Some(codec.decode(input)) finally input.close()
+        } else None
+      } finally connection.disconnect()
+    } catch {
+      case NonFatal(e) =>
+        logger.warn(s"Failed to fetch the remote ParSeq Trace $id from $origin.", e)
+        None
+    }
+  }
+
+}
+
+/**
+ * The object ParSeqTraceStitcher defines the correlation of the [[ParSeqTraceStitcher]] and inlines remote Traces.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceStitcher {
+
+  /**
+   * The field HeaderName is the name of the header carrying the correlation id.
+   */
+  val HeaderName = "X-ParSeq-Trace-Id"
+
+  /**
+   * The field RemoteIdAttribute is the key of the trace attribute holding the correlation id of a remote call.
+   */
+  val RemoteIdAttribute = "remoteTraceId"
+
+  /**
+   * The field RemoteOriginAttribute is the key of the trace attribute holding the origin of a remote call.
+   */
+  val RemoteOriginAttribute = "remoteOrigin"
+
+  /**
+   * The field SignatureAlgorithm is the algorithm signing the correlation ids.
+   */
+  private val SignatureAlgorithm = "HmacSHA256"
+
+  /**
+   * The field SameThread runs the callbacks of the fetches on the thread completing them, which is the fetcher or the
+   * timer, as they only inline the fetched Traces.
+   */
+  private val SameThread: ExecutionContext = new ExecutionContext {
+    override def execute(runnable: Runnable): Unit = runnable.run()
+    override def reportFailure(cause: Throwable): Unit = Logger(classOf[ParSeqTraceStitcher]).error("Failed to stitch the ParSeq Trace.", cause)
+  }
+
+  /**
+   * The field random generates correlation ids.
+   */
+  private[this] val random = new SecureRandom
+
+  /**
+   * The method newId generates a correlation id, which can't be guessed.
+   *
+   * @return The correlation id
+   */
+  private[playparseq] def newId: String = "%016x%016x".format(random.nextLong, random.nextLong)
+
+  /**
+   * The method isValid checks whether a correlation id is well-formed.
+   *
+   * @param id The correlation id
+   * @return Whether it is well-formed
+   */
+  private[playparseq] def isValid(id: String): Boolean = id.matches("[0-9a-f]{32}")
+
+  /**
+   * The method sign signs a correlation id with the shared secret.
+   *
+   * @param key The shared secret
+   * @param id The correlation id
+   * @return The signature in hex
+   */
+  private def sign(key: SecretKeySpec, id: String): String = {
+    val mac: Mac = Mac.getInstance(SignatureAlgorithm)
+    mac.init(key)
+    mac.doFinal(id.getBytes(StandardCharsets.US_ASCII)).map("%02x".format(_)).mkString
+  }
+
+  /**
+   * The method inline puts a remote Trace under the calling Task. The remote Tasks get new ids, and their times are
+   * shifted into the clock of the caller, centered within the calling Task since the clocks of two services can't be
+   * compared.
+   *
+   * @param trace The Trace of the caller
+   * @param callerId The id of the calling Task
+   * @param origin The origin of the other service
+   * @param remote The remote Trace
+   * @return The stitched Trace
+   */
+  private[playparseq] def inline(trace: Trace, callerId: java.lang.Long, origin: String, remote: Trace): Trace = {
+    val caller: ShallowTrace = trace.getTraceMap.get(callerId)
+    val remoteTraces: Seq[ShallowTrace] = remote.getTraceMap.values.asScala.toSeq
+    val starts: Seq[Long] = remoteTraces.flatMap(t => Option(t.getStartNanos)).map(_.longValue)
+    if (caller == null || caller.getStartNanos == null || starts.isEmpty) trace
+    else {
+      val remoteStart: Long = starts.min
+      val remoteEnd: Long = remoteTraces.flatMap(t => Option(t.getEndNanos)).map(_.longValue).foldLeft(remoteStart)(Math.max)
+      val callerDuration: Long = Option(caller.getEndNanos).map(_ - caller.getStartNanos).getOrElse(remoteEnd - remoteStart)
+      val shift: Long = caller.getStartNanos + Math.max(0L, callerDuration - (remoteEnd - remoteStart)) / 2 - remoteStart
+      val shifted: java.lang.Long => java.lang.Long = nanos => if (nanos == null) null else nanos + shift
+      // Give the remote Tasks ids after the ones of the caller
+      val nextId: Long = trace.getTraceMap.keySet.asScala.map(_.longValue).max + 1
+      val builders: Map[java.lang.Long, ShallowTraceBuilder] = remoteTraces.sortBy(_.getId.longValue).zipWithIndex.map {
+        case (t, index) =>
+          val builder = new ShallowTraceBuilder(java.lang.Long.valueOf(nextId + index))
+            .setName(t.getName).setHidden(t.getHidden).setSystemHidden(t.getSystemHidden).setValue(t.getValue)
+            .setResultType(t.getResultType).setTaskType(t.getTaskType).setStartNanos(shifted(t.getStartNanos))
+            .setPendingNanos(shifted(t.getPendingNanos)).setEndNanos(shifted(t.getEndNanos))
+          t.getAttributes.asScala.foreach { case (key, value) => builder.addAttribute(key, value) }
+          t.getId -> builder
+      }.toMap
+      val remoteChildren: Set[java.lang.Long] = remote.getRelationships.asScala.collect {
+        case r if r.getRelationhsip == Relationship.PARENT_OF => r.getTo
+        case r if r.getRelationhsip == Relationship.CHILD_OF => r.getFrom
+      }.toSet
+      val callerBuilder = new ShallowTraceBuilder(caller)
+      val traceMap = new java.util.HashMap[java.lang.Long, ShallowTrace](trace.getTraceMap)
+      val relationships = new java.util.HashSet[TraceRelationship](trace.getRelationships)
+      builders.foreach {
+        case (id, builder) =>
+          // Hang the remote roots under the calling Task
+          if (!remoteChildren.contains(id)) {
+            builder.addAttribute(RemoteOriginAttribute, origin)
+            relationships.add(new TraceRelationship(callerBuilder, builder, Relationship.PARENT_OF))
+          }
+          traceMap.put(builder.getId, builder.build)
+      }
+      remote.getRelationships.asScala.filter(r => builders.contains(r.getFrom) && builders.contains(r.getTo)).foreach(r =>
+        relationships.add(new TraceRelationship(builders(r.getFrom), builders(r.getTo), r.getRelationhsip)))
+      new Trace(traceMap, relationships)
+    }
+  }
+
+}
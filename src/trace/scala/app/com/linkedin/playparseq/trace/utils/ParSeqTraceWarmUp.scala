@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.playparseq.trace.controllers.ParSeqTraceViewer
+import com.linkedin.playparseq.utils.ParSeqWarmUpStep
+import javax.inject.{Inject, Singleton}
+import play.api.Environment
+
+
+/**
+ * The class ParSeqTraceWarmUp is the step of the ParSeqWarmUp for ParSeq Trace, which is enabled by
+ * `parseq.warmUp.steps += "com.linkedin.playparseq.trace.utils.ParSeqTraceWarmUp"` in your conf file. It reads and
+ * splits the template of the Trace page, and starts the GraphvizEngine of the [[ParSeqTraceViewer]].
+ *
+ * @param parSeqTraceViewer The injected [[ParSeqTraceViewer]] component
+ * @param environment The injected Environment component
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+@Singleton
+class ParSeqTraceWarmUp @Inject()(parSeqTraceViewer: ParSeqTraceViewer, environment: Environment) extends ParSeqWarmUpStep {
+
+  /**
+   * @inheritdoc
+   */
+  override def warmUp(): Unit = {
+    ParSeqTraceBaseVisualizer.preload(environment)
+    parSeqTraceViewer.warmUp()
+  }
+
+}
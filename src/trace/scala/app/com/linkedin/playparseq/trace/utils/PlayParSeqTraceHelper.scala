@@ -11,46 +11,119 @@
  */
 package com.linkedin.playparseq.trace.utils
 
-import akka.Done
-import akka.japi.function.Procedure
-import akka.stream.Materializer
-import akka.util.ByteString
-import com.linkedin.playparseq.s.PlayParSeqImplicits._
+import com.linkedin.parseq.Task
 import com.linkedin.playparseq.utils.PlayParSeqHelper
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.{CompletableFuture, CompletionStage}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+import java.util.function.{BiConsumer, Supplier, Function => JavaFunction}
 import play.api.mvc.Result
 import play.mvc.{Result => JavaResult}
-import scala.concurrent.Future
+import scala.collection.JavaConverters._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success, Try}
 
 
 /**
- * The class PlayParSeqTraceHelper provides consuming for `Result` together with the help from the class
- * [[PlayParSeqHelper]].
+ * The class PlayParSeqTraceHelper provides completing `Result` and joining completions together with the help from the
+ * class [[PlayParSeqHelper]].
  *
  * @author Yinan Ding (yding@linkedin.com)
  */
 private[playparseq] abstract class PlayParSeqTraceHelper extends PlayParSeqHelper {
 
   /**
-   * The method consumeResult consumes the `Result` body stream.
+   * The method completeResult completes once the origin `Result` is returned and the ParSeq Tasks of the request are
+   * done. The body is never run: the Tasks are in the store by the time the Result is returned, and a body replaced by
+   * the ParSeq Trace is not sent anyway, so pulling it through would only burn time before rendering. Whatever needs the
+   * completion of the body which is actually sent watches its termination instead, see `watchResult`.
    *
-   * @param result The Result
-   * @param materializer The Materializer for consuming the data stream
-   * @return The consumed Result
+   * @param origin The Future of the origin Result
+   * @param tasks The ParSeq Tasks of the request, resolved once the Result is returned
+   * @param executionContext The ExecutionContext for the countdown
+   * @return The Future which completes when the Result and the Tasks are done
    */
-  private[playparseq] def consumeResult(result: Result)(implicit materializer: Materializer): Future[Any] = result.body.dataStream.runForeach(_ => ())
+  private[playparseq] def completeResult(origin: Future[Result], tasks: () => Iterable[Task[_]])(implicit executionContext: ExecutionContext): Future[Unit] =
+    origin.flatMap(_ => joinAll(tasks().map(bindTaskToFuture(_))))
 
   /**
-   * The method consumeResult consumes the Java `Result` body stream.
+   * The method completeResult completes once the origin Java `Result` is returned and the ParSeq Tasks of the request
+   * are done, without running the body.
    *
-   * @param result The Result
-   * @param materializer The Materializer for consuming the data stream
-   * @return The consumed Result
+   * @param origin The CompletionStage of the origin Result
+   * @param tasks The ParSeq Tasks of the request, resolved once the Result is returned
+   * @return The CompletionStage which completes when the Result and the Tasks are done
    */
-  private[playparseq] def consumeResult(result: JavaResult, materializer: Materializer): CompletionStage[Object] = result.body.dataStream.runForeach(
-    new Procedure[ByteString] {
-      @scala.throws[Exception](classOf[Exception])
-      override def apply(param: ByteString): Unit = ()
-    }, materializer).thenApplyAsync((done: Done) => done.asInstanceOf[Object])
+  private[playparseq] def completeResult(origin: CompletionStage[JavaResult], tasks: Supplier[java.util.Set[Task[_]]]): CompletionStage[Void] =
+    origin.thenCompose(new JavaFunction[JavaResult, CompletionStage[Void]] {
+      override def apply(result: JavaResult): CompletionStage[Void] =
+        joinAll(tasks.get.asScala.map(task => bindTaskToCompletionStage(task)).asJavaCollection)
+    })
+
+  /**
+   * The method joinAll joins `Future`s with a countdown, which completes once every Future has completed. It fails
+   * with the first failure if any of the Futures fails.
+   *
+   * @param futures The Futures
+   * @param executionContext The ExecutionContext for the countdown
+   * @return The Future which completes when all Futures complete
+   */
+  private[playparseq] def joinAll(futures: Iterable[Future[Any]])(implicit executionContext: ExecutionContext): Future[Unit] = {
+    val promise: Promise[Unit] = Promise[Unit]()
+    val countdown: Countdown = new Countdown(futures.size, promise.complete)
+    futures.foreach(_.onComplete(countdown.countDown))
+    promise.future
+  }
+
+  /**
+   * The method joinAll joins `CompletionStage`s with a countdown, which completes once every CompletionStage has
+   * completed. It fails with the first failure if any of the CompletionStages fails.
+   *
+   * @param completionStages The CompletionStages
+   * @return The CompletionStage which completes when all CompletionStages complete
+   */
+  private[playparseq] def joinAll(completionStages: java.util.Collection[_ <: CompletionStage[_]]): CompletionStage[Void] = {
+    val completableFuture: CompletableFuture[Void] = new CompletableFuture[Void]
+    val countdown: Countdown = new Countdown(completionStages.size, {
+      case Failure(throwable) => completableFuture.completeExceptionally(throwable)
+      case Success(_) => completableFuture.complete(null)
+    })
+    completionStages.asScala.foreach(_.whenComplete(new BiConsumer[Any, Throwable] {
+      override def accept(value: Any, throwable: Throwable): Unit = countdown.countDown(if (throwable == null) Success(value) else Failure(throwable))
+    }))
+    completableFuture
+  }
+
+  /**
+   * The class Countdown counts completions down and calls back once with the overall outcome.
+   *
+   * @param count The number of completions to wait for
+   * @param callback The callback with the first failure, or a success
+   */
+  private[this] class Countdown(count: Int, callback: Try[Unit] => Unit) {
+
+    /**
+     * The field remaining is the number of completions still to wait for.
+     */
+    private[this] val remaining: AtomicInteger = new AtomicInteger(count)
+
+    /**
+     * The field failure is the first failure.
+     */
+    private[this] val failure: AtomicReference[Throwable] = new AtomicReference[Throwable]
+
+    // Nothing to wait for
+    if (count == 0) callback(Success(()))
+
+    /**
+     * The method countDown records one completion.
+     *
+     * @param outcome The outcome of the completion
+     */
+    def countDown(outcome: Try[Any]): Unit = {
+      outcome.failed.foreach(failure.compareAndSet(null, _))
+      if (remaining.decrementAndGet == 0) callback(Option(failure.get).map(Failure(_)).getOrElse(Success(())))
+    }
+
+  }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.controllers
+
+import java.io.File
+import play.api.{Configuration, Environment, Mode}
+import play.api.mvc.{BodyParsers, Results}
+import play.api.test.Helpers.stubControllerComponents
+import play.api.test.{FakeRequest, PlaySpecification}
+import scala.concurrent.ExecutionContext.Implicits.global
+
+
+/**
+ * The class ParSeqTraceEndpointActionSpec is a specification class for [[ParSeqTraceEndpointAction]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceEndpointActionSpec extends PlaySpecification {
+
+  /**
+   * The method newAction creates a [[ParSeqTraceEndpointAction]].
+   *
+   * @param configuration The Configuration
+   * @param mode The mode of the application
+   * @return The ParSeqTraceEndpointAction
+   */
+  private[this] def newAction(configuration: Configuration, mode: Mode): ParSeqTraceEndpointAction =
+    new ParSeqTraceEndpointAction(configuration, Environment.simple(new File("."), mode),
+      new BodyParsers.Default(stubControllerComponents().parsers))
+
+  "The ParSeqTraceEndpointAction" should {
+    "be able to hide the endpoints unless they are enabled" in {
+      // Assert the default outside of dev mode
+      status(newAction(Configuration.empty, Mode.Prod)(Results.Ok)(FakeRequest())) must equalTo(NOT_FOUND)
+      status(newAction(Configuration.empty, Mode.Test)(Results.Ok)(FakeRequest())) must equalTo(NOT_FOUND)
+    }
+
+    "be able to serve the endpoints in dev mode or if enabled" in {
+      // Assert the default in dev mode, and the opt-in and the opt-out
+      status(newAction(Configuration.empty, Mode.Dev)(Results.Ok)(FakeRequest())) must equalTo(OK)
+      status(newAction(Configuration("parseq.trace.endpoints.enabled" -> true), Mode.Prod)(Results.Ok)(FakeRequest())) must equalTo(OK)
+      status(newAction(Configuration("parseq.trace.endpoints.enabled" -> false), Mode.Dev)(Results.Ok)(FakeRequest())) must equalTo(NOT_FOUND)
+    }
+  }
+
+}
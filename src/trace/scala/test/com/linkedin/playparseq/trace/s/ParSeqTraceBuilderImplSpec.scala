@@ -13,6 +13,7 @@ package com.linkedin.playparseq.trace.s
 
 import akka.Done
 import akka.stream.Materializer
+import akka.stream.scaladsl.Source
 import com.linkedin.playparseq.s.stores.ParSeqTaskStore
 import com.linkedin.playparseq.trace.s.sensors.ParSeqTraceSensor
 import com.linkedin.playparseq.trace.s.renderers.ParSeqTraceRenderer
@@ -53,6 +54,29 @@ class ParSeqTraceBuilderImplSpec extends PlaySpecification with Mockito {
       contentType(result) must beSome("text/plain")
       contentAsString(result) must equalTo(render)
     }
+
+    "be able to build ParSeq Trace without running a streamed origin" in {
+      val render: String = "render"
+      // Mock ParSeqTaskStore
+      val mockStore: ParSeqTaskStore = mock[ParSeqTaskStore]
+      mockStore.get(any) returns Set.empty
+      // Mock ParSeqTraceSensor
+      val mockTraceSensor: ParSeqTraceSensor = mock[ParSeqTraceSensor]
+      mockTraceSensor.isEnabled(any)(any) returns true
+      // Mock ParSeqTraceRenderer
+      val mockTraceRenderer: ParSeqTraceRenderer = mock[ParSeqTraceRenderer]
+      mockTraceRenderer.render(any)(any) returns Future.successful(Results.Ok(render))
+      // Mock Materializer
+      val mockMaterializer: Materializer = mock[Materializer]
+      mockMaterializer.materialize[Future[Done]](any) returns Future.successful(Done)
+      // Build ParSeq Trace
+      val playParSeqTraceImpl: ParSeqTraceBuilderImpl = new ParSeqTraceBuilderImpl()(mockMaterializer, ExecutionContext.global)
+      val origin: Result = Results.NotFound.chunked(Source.single("origin"))
+      val result: Future[Result] = playParSeqTraceImpl.build(Future.successful(origin), mockStore, mockTraceSensor, mockTraceRenderer)(mock[RequestHeader])
+      // Assert the content and the stream not being run
+      contentAsString(result) must equalTo(render)
+      there was no(mockMaterializer).materialize[Future[Done]](any)
+    }
   }
 
   "The PlayParSeqTrace" should {
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.s
+
+import akka.actor.ActorSystem
+import akka.stream.{ActorMaterializer, Materializer}
+import com.linkedin.parseq.Task
+import com.linkedin.playparseq.s.stores.ParSeqTaskStoreImpl
+import com.linkedin.playparseq.trace.s.renderers.ParSeqTraceRenderer
+import com.linkedin.playparseq.trace.s.sensors.ParSeqTraceSensor
+import com.linkedin.playparseq.trace.utils._
+import org.specs2.mock.Mockito
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.libs.streams.Accumulator
+import play.api.mvc.{EssentialAction, Result, Results}
+import play.api.test.{FakeRequest, PlaySpecification}
+import scala.concurrent.ExecutionContext
+import scala.concurrent.ExecutionContext.Implicits._
+import scala.concurrent.Future
+
+
+/**
+ * The class ParSeqTraceFilterSpec is a specification class for [[ParSeqTraceFilter]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceFilterSpec extends PlaySpecification with Mockito {
+
+  /**
+   * The method newFilter creates a [[ParSeqTraceFilter]] which excludes the assets.
+   *
+   * @param parSeqTaskStore The store
+   * @param parSeqTraceSampler The sampler
+   * @param materializer The Materializer
+   * @return The filter
+   */
+  private[this] def newFilter(parSeqTaskStore: ParSeqTaskStoreImpl, parSeqTraceSampler: ParSeqTraceSampler = newSampler(Configuration.empty))(implicit materializer: Materializer): ParSeqTraceFilter = {
+    val configuration: Configuration = Configuration("parseq.trace.filter.exclude" -> Seq("/assets/.*"))
+    val sensor: ParSeqTraceSensor = mock[ParSeqTraceSensor]
+    sensor.isEnabled(any)(any) returns false
+    new ParSeqTraceFilter(parSeqTaskStore, new ParSeqTraceBuilderImpl()(materializer, ExecutionContext.global), sensor,
+      mock[ParSeqTraceRenderer], parSeqTraceSampler,
+      new ParSeqServerTiming(configuration),
+      new ParSeqTraceStitcher(Configuration.empty), new ParSeqTraceRoutes(configuration))
+  }
+
+  /**
+   * The method newSampler creates a [[ParSeqTraceSampler]].
+   *
+   * @param configuration The configuration of the sampler
+   * @return The sampler
+   */
+  private[this] def newSampler(configuration: Configuration): ParSeqTraceSampler = {
+    val lifecycle = new DefaultApplicationLifecycle
+    new ParSeqTraceSampler(configuration, new ParSeqTraceAnalyzer, new ParSeqTraceProfiler(Configuration.empty),
+      new ParSeqTraceExporter(Configuration.empty, lifecycle), new ParSeqTraceJournal(Configuration.empty, lifecycle),
+      new ParSeqTraceExecutor(Configuration.empty, lifecycle))
+  }
+
+  "The ParSeqTraceFilter" should {
+    "be able to set up the store for the covered requests only" in {
+      val actorSystem: ActorSystem = ActorSystem("ParSeqTraceFilterSpec")
+      implicit val materializer: Materializer = ActorMaterializer()(actorSystem)
+      try {
+        val parSeqTaskStore: ParSeqTaskStoreImpl = new ParSeqTaskStoreImpl
+        // An Action which tells whether its request has a store
+        val action: EssentialAction = EssentialAction(request =>
+          Accumulator.done(Results.Ok(request.attrs.contains(parSeqTaskStore.ArgumentsKey).toString)))
+        val filtered: EssentialAction = newFilter(parSeqTaskStore).apply(action)
+        val covered: Future[Result] = filtered(FakeRequest("GET", "/members/1")).run()
+        val excluded: Future[Result] = filtered(FakeRequest("GET", "/assets/main.css")).run()
+        // Assert the store only for the covered request
+        contentAsString(covered) must equalTo("true")
+        contentAsString(excluded) must equalTo("false")
+      } finally {
+        await(actorSystem.terminate())
+      }
+    }
+
+    "be able to sample the failed requests" in {
+      val actorSystem: ActorSystem = ActorSystem("ParSeqTraceFilterSpec")
+      implicit val materializer: Materializer = ActorMaterializer()(actorSystem)
+      try {
+        val parSeqTaskStore: ParSeqTaskStoreImpl = new ParSeqTaskStoreImpl
+        val parSeqTraceSampler: ParSeqTraceSampler = newSampler(Configuration("parseq.trace.tail.enabled" -> true))
+        // An Action which puts a Task into the store and fails rather than returning a Result
+        val action: EssentialAction = EssentialAction(request => {
+          parSeqTaskStore.put(Task.value("test", "test"))(request)
+          Accumulator.done(Future.failed[Result](new IllegalStateException("failed")))
+        })
+        val failed: Future[Result] = newFilter(parSeqTaskStore, parSeqTraceSampler).apply(action)(FakeRequest("GET", "/members/1")).run()
+        // Assert the failure is passed on and the request is sampled as failed
+        await(failed) must throwA[IllegalStateException]
+        parSeqTraceSampler.getCaptures.exists(_.reason == ParSeqTraceSampler.FailedReason) must beTrue.eventually
+      } finally {
+        await(actorSystem.terminate())
+      }
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import play.api.Configuration
+import play.api.mvc.{Result, Results}
+import play.api.test.PlaySpecification
+
+
+/**
+ * The class ParSeqServerTimingSpec is a specification class for [[ParSeqServerTiming]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqServerTimingSpec extends PlaySpecification {
+
+  /**
+   * The method runTasks runs ParSeq Tasks to completion on a ParSeq Engine.
+   *
+   * @param tasks The ParSeq Tasks
+   * @return The ParSeq Tasks
+   */
+  private[this] def runTasks(tasks: Task[_]*): Set[Task[_]] = {
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      tasks.foreach(task => {
+        engine.run(task)
+        task.await(1, TimeUnit.SECONDS)
+      })
+      tasks.toSet
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  "The ParSeqServerTiming" should {
+    "be able to leave the Result untouched when disabled" in {
+      val serverTiming: ParSeqServerTiming = new ParSeqServerTiming(Configuration.empty)
+      val result: Result = serverTiming.addHeader(Results.Ok, runTasks(Task.value("test", "test")))
+      // Assert no header
+      result.header.headers.get(ParSeqServerTiming.HeaderName) must beNone
+    }
+
+    "be able to add the slowest Tasks to the header" in {
+      val serverTiming: ParSeqServerTiming = new ParSeqServerTiming(Configuration(
+        "parseq.trace.serverTiming.enabled" -> true,
+        "parseq.trace.serverTiming.maxTasks" -> 1))
+      val slow: Task[String] = Task.callable("slow \"one\"", () => {
+        Thread.sleep(20)
+        "slow"
+      })
+      val result: Result = serverTiming.addHeader(Results.Ok, runTasks(slow, Task.value("fast", "fast")))
+      // Assert the header
+      result.header.headers.get(ParSeqServerTiming.HeaderName) must beSome(beMatching("""task0;desc="slow \\"one\\"";dur=\d+\.\d{3}"""))
+    }
+  }
+
+}
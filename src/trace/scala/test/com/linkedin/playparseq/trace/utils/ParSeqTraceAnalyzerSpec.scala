@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.trace.Trace
+import java.util.concurrent.{Callable, Executor, Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import play.api.test.PlaySpecification
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceAnalyzerSpec is a specification class for [[ParSeqTraceAnalyzer]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceAnalyzerSpec extends PlaySpecification {
+
+  /**
+   * The method sleep creates a ParSeq Task which blocks for some time, so that several of them can run in parallel.
+   *
+   * @param name The name of the Task
+   * @param millis The time in milliseconds
+   * @param executor The Executor for blocking
+   * @return The ParSeq Task
+   */
+  private[this] def sleep(name: String, millis: Long)(implicit executor: Executor): Task[String] = Task.blocking(name, new Callable[String] {
+    override def call(): String = {
+      Thread.sleep(millis)
+      name
+    }
+  }, executor)
+
+  /**
+   * The method runTrace runs a ParSeq Task to completion and gets its Trace.
+   *
+   * @param plan The ParSeq Task given the Executor for blocking
+   * @return The Trace
+   */
+  private[this] def runTrace(plan: Executor => Task[_]): Trace = {
+    val blockingExecutor: ExecutorService = Executors.newFixedThreadPool(2)
+    val task: Task[_] = plan(blockingExecutor)
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      engine.run(task)
+      task.await(5, TimeUnit.SECONDS)
+      ParSeqTraceMerger.merge(Seq(task))
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+      blockingExecutor.shutdown()
+    }
+  }
+
+  "The ParSeqTraceAnalyzer" should {
+    "be able to find the critical path of a plan" in {
+      val trace: Trace = runTrace(implicit executor => Task.par(sleep("slow", 100), sleep("fast", 10)).flatMap("next", (_, _) => sleep("last", 20)))
+      val analysis: ParSeqTraceAnalyzer.Analysis = new ParSeqTraceAnalyzer().analyze("route", trace)
+      val names: Seq[String] = analysis.criticalPath.map(id => trace.getTraceMap.get(id).getName)
+      val idOf: String => Long = name => trace.getTraceMap.asScala.values.find(_.getName == name).get.getId
+      // Assert the critical path
+      names must containAllOf(Seq("slow", "last")).inOrder
+      names must not(contain("fast"))
+      // Assert the slack
+      analysis.slackNanos(idOf("fast")) must beGreaterThan(TimeUnit.MILLISECONDS.toNanos(50))
+      analysis.slackNanos(idOf("slow")) must beLessThan(TimeUnit.MILLISECONDS.toNanos(50))
+      // Assert the parallelism
+      analysis.maxParallelism must beGreaterThan(1.0)
+    }
+
+    "be able to mark the critical path in the Trace" in {
+      val trace: Trace = runTrace(implicit executor => sleep("only", 10))
+      val analyzer: ParSeqTraceAnalyzer = new ParSeqTraceAnalyzer()
+      val annotated: Trace = ParSeqTraceAnalyzer.annotate(trace, analyzer.analyze("route", trace))
+      // Assert the attributes and the aggregation
+      annotated.getTraceMap.values.asScala.map(_.getAttributes.get(ParSeqTraceAnalyzer.CriticalPathAttribute)).toSeq must contain("true")
+      analyzer.getRoutes("route").count.get must equalTo(1)
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.function.Function1
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import com.linkedin.parseq.trace.codec.json.JsonTraceCodec
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import play.api.test.PlaySpecification
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceBinaryCodecSpec is a specification class for [[ParSeqTraceBinaryCodec]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceBinaryCodecSpec extends PlaySpecification {
+
+  /**
+   * The method runTrace runs a plan of a few Tasks to completion and gets its Trace.
+   *
+   * @return The Trace
+   */
+  private[this] def runTrace: Trace = {
+    val task: Task[String] = Task.par(Task.value("first", "first"), Task.value("second", "second")).flatMap("third",
+      new Function1[com.linkedin.parseq.function.Tuple2[String, String], Task[String]] {
+        override def apply(values: com.linkedin.parseq.function.Tuple2[String, String]): Task[String] =
+          Task.value("last", values._1 + values._2)
+      })
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      engine.run(task)
+      task.await(5, TimeUnit.SECONDS)
+      ParSeqTraceMerger.merge(Seq(task))
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  /**
+   * The method fields gets the comparable fields of a ShallowTrace.
+   *
+   * @param trace The ShallowTrace
+   * @return The fields
+   */
+  private[this] def fields(trace: ShallowTrace): Seq[Any] = Seq(trace.getId, trace.getName, trace.getHidden,
+    trace.getSystemHidden, trace.getValue, trace.getResultType, trace.getTaskType, trace.getStartNanos,
+    trace.getPendingNanos, trace.getEndNanos, trace.getAttributes.asScala.toMap)
+
+  /**
+   * The method relationships gets the comparable relationships of a Trace.
+   *
+   * @param trace The Trace
+   * @return The relationships
+   */
+  private[this] def relationships(trace: Trace): Set[(java.lang.Long, java.lang.Long, Relationship)] =
+    trace.getRelationships.asScala.map(r => (r.getFrom, r.getTo, r.getRelationhsip)).toSet
+
+  /**
+   * The method beSameTraceAs asserts two Traces are equal field by field.
+   *
+   * @param expected The expected Trace
+   * @param actual The actual Trace
+   * @return The result
+   */
+  private[this] def beSameTraceAs(expected: Trace, actual: Trace) = {
+    actual.getTraceMap.asScala.mapValues(fields).toMap must equalTo(expected.getTraceMap.asScala.mapValues(fields).toMap)
+    relationships(actual) must equalTo(relationships(expected))
+    actual.getPlanClass must equalTo(expected.getPlanClass)
+    actual.getPlanId must equalTo(expected.getPlanId)
+  }
+
+  "The ParSeqTraceBinaryCodec" should {
+    "be able to decode what it encodes in a fraction of the size of JSON" in {
+      val trace: Trace = runTrace
+      val codec: ParSeqTraceBinaryCodec = new ParSeqTraceBinaryCodec
+      val bytes: Array[Byte] = codec.toBytes(trace)
+      // Assert the round trip keeps everything and is smaller than JSON
+      beSameTraceAs(trace, codec.fromBytes(bytes))
+      beSameTraceAs(trace, codec.decode(codec.encode(trace)))
+      bytes.length * 3 must beLessThan(new JsonTraceCodec().encode(trace).getBytes(StandardCharsets.UTF_8).length)
+    }
+
+    "be able to keep unfinished Tasks, attributes and relationships to Tasks outside of the Trace" in {
+      val parent: ShallowTraceBuilder = new ShallowTraceBuilder(java.lang.Long.valueOf(7L)).setName("parent")
+        .setResultType(ResultType.UNFINISHED).setStartNanos(-100L).addAttribute("key", "värde")
+      val outside: ShallowTraceBuilder = new ShallowTraceBuilder(java.lang.Long.valueOf(Long.MaxValue)).setName("outside")
+      val trace: Trace = new Trace(Map[java.lang.Long, ShallowTrace](parent.getId -> parent.build).asJava,
+        Set(new TraceRelationship(parent, outside, Relationship.PARENT_OF)).asJava)
+      // Assert the nulls, the negative time and the id outside of the Trace survive
+      beSameTraceAs(trace, new ParSeqTraceBinaryCodec().fromBytes(new ParSeqTraceBinaryCodec().toBytes(trace)))
+    }
+
+    "be able to reject what it does not encode" in {
+      new ParSeqTraceBinaryCodec().fromBytes(new JsonTraceCodec().encode(runTrace).getBytes(StandardCharsets.UTF_8)) must
+        throwA[IOException]
+    }
+
+    "be able to reject lengths and counts beyond the input before allocating" in {
+      val codec: ParSeqTraceBinaryCodec = new ParSeqTraceBinaryCodec
+      val magic: Array[Byte] = Array('P'.toByte, 'Q'.toByte, 'T'.toByte, 1.toByte)
+      val huge: Array[Byte] = Array(0xFF, 0xFF, 0xFF, 0xFF, 0x07).map(_.toByte)
+      val negative: Array[Byte] = Array(0xFF, 0xFF, 0xFF, 0xFF, 0x0F).map(_.toByte)
+      // Assert a huge string count, a huge string length, a negative count and an index beyond the string table
+      codec.fromBytes(magic ++ huge) must throwA[IOException]
+      codec.fromBytes(magic ++ Array(1.toByte) ++ huge) must throwA[IOException]
+      codec.fromBytes(magic ++ negative) must throwA[IOException]
+      codec.fromBytes(magic ++ Array(0, 0, 5).map(_.toByte)) must throwA[IOException]
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import com.linkedin.parseq.trace.codec.TraceCodec
+import com.linkedin.parseq.trace.codec.json.JsonTraceCodec
+import java.io.ByteArrayOutputStream
+import scala.collection.JavaConverters._
+
+
+/**
+ * The object ParSeqTraceCodecBenchmark compares the size and the encoding and decoding time of the
+ * [[ParSeqTraceBinaryCodec]] with the `JsonTraceCodec` on synthetic Traces. Run it with
+ * `sbt "play-parseq-trace-scala/test:runMain com.linkedin.playparseq.trace.utils.ParSeqTraceCodecBenchmark [tasks] [iterations]"`.
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+object ParSeqTraceCodecBenchmark {
+
+  /**
+   * The method trace builds a synthetic Trace shaped like a fan-out request, with a few repeated Task names.
+   *
+   * @param size The number of Tasks
+   * @return The Trace
+   */
+  def trace(size: Int): Trace = {
+    val base: Long = System.nanoTime
+    val builders: IndexedSeq[ShallowTraceBuilder] = (0 until size).map(i => new ShallowTraceBuilder(java.lang.Long.valueOf(i.toLong))
+      .setName(s"fetch ${i % 20}").setTaskType("fusion").setValue(i.toString).setResultType(ResultType.SUCCESS)
+      .setStartNanos(base + i * 1000L).setPendingNanos(base + i * 1000L + 500L).setEndNanos(base + i * 1000L + 900L))
+    val relationships: Set[TraceRelationship] = (1 until size).map(i =>
+      new TraceRelationship(builders((i - 1) / 4), builders(i), Relationship.PARENT_OF)).toSet
+    new Trace(builders.map(b => b.getId -> (b.build: ShallowTrace)).toMap.asJava, relationships.asJava)
+  }
+
+  /**
+   * The method time measures the average time of a block in microseconds after warming it up.
+   *
+   * @param iterations The number of iterations
+   * @param f The block
+   * @return The average time in microseconds
+   */
+  private[this] def time(iterations: Int)(f: => Any): Double = {
+    (1 to iterations).foreach(_ => f)
+    val start: Long = System.nanoTime
+    (1 to iterations).foreach(_ => f)
+    (System.nanoTime - start) / 1000.0 / iterations
+  }
+
+  /**
+   * The method main prints the comparison.
+   *
+   * @param args The number of Tasks and the number of iterations
+   */
+  def main(args: Array[String]): Unit = {
+    val size: Int = args.headOption.map(_.toInt).getOrElse(1000)
+    val iterations: Int = args.lift(1).map(_.toInt).getOrElse(200)
+    val input: Trace = trace(size)
+    val codecs: Seq[(String, TraceCodec)] = Seq("json" -> new JsonTraceCodec, "binary" -> new ParSeqTraceBinaryCodec)
+    codecs.foreach {
+      case (name, codec) =>
+        val output = new ByteArrayOutputStream
+        codec.encode(input, output)
+        val bytes: Array[Byte] = output.toByteArray
+        val encode: Double = time(iterations)(codec.encode(input, new ByteArrayOutputStream))
+        val decode: Double = time(iterations)(codec.decode(new java.io.ByteArrayInputStream(bytes)))
+        println(f"$name%-6s tasks=$size%d bytes=${bytes.length}%d encode=$encode%.1fus decode=$decode%.1fus")
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{Relationship, ResultType, ShallowTrace, ShallowTraceBuilder, Trace, TraceRelationship}
+import play.api.Configuration
+import play.api.http.HttpConfiguration
+import play.api.test.PlaySpecification
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+
+/**
+ * The class ParSeqTraceCollapserSpec is a specification class for [[ParSeqTraceCollapser]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceCollapserSpec extends PlaySpecification {
+
+  /**
+   * The method fanOut builds the Trace of a plan fanning out over items, each of them fetched and parsed.
+   *
+   * @param items The number of items
+   * @param name The name of an item given its index
+   * @return The Trace
+   */
+  private[this] def fanOut(items: Int, name: Int => String): Trace = {
+    val builders = mutable.ArrayBuffer[ShallowTraceBuilder]()
+    val relationships = new java.util.HashSet[TraceRelationship]
+    val task: (String, Long, Option[ShallowTraceBuilder]) => ShallowTraceBuilder = (n, millis, parent) => {
+      val builder = new ShallowTraceBuilder(java.lang.Long.valueOf(builders.size.toLong)).setName(n).setResultType(ResultType.SUCCESS)
+        .setStartNanos(0L).setPendingNanos(millis * 1000000).setEndNanos(millis * 1000000)
+      builders += builder
+      parent.foreach(p => relationships.add(new TraceRelationship(p, builder, Relationship.PARENT_OF)))
+      builder
+    }
+    val root = task("root", 1000, None)
+    task("other", 1, Some(root))
+    (1 to items).foreach(i => {
+      val item = task(name(i), i, Some(root))
+      task("fetch", 1, Some(item))
+      task("parse", 1, Some(item))
+    })
+    new Trace(builders.map(b => b.getId -> (b.build: ShallowTrace)).toMap.asJava, relationships)
+  }
+
+  /**
+   * The method byName gets the ShallowTraces of a Trace by name.
+   *
+   * @param trace The Trace
+   * @return The ShallowTraces by name
+   */
+  private[this] def byName(trace: Trace): Map[String, ShallowTrace] = trace.getTraceMap.values.asScala.map(t => t.getName -> t).toMap
+
+  "The ParSeqTraceCollapser" should {
+    "be able to collapse siblings with the same name into an aggregate Task" in {
+      val collapsed: Trace = ParSeqTraceCollapser.collapse(fanOut(1000, _ => "item"), 50, 5, _ => "link")
+      val tasks: Map[String, ShallowTrace] = byName(collapsed)
+      // Assert the fan-out is one Task with the count and the percentiles
+      tasks.keySet must equalTo(Set("root", "other", "item (1000x)"))
+      val item: ShallowTrace = tasks("item (1000x)")
+      item.getAttributes.get(ParSeqTraceCollapser.CollapsedAttribute) must equalTo("1000")
+      item.getAttributes.get("p50Milliseconds") must equalTo("500.000")
+      item.getAttributes.get("maxMilliseconds") must equalTo("1000.000")
+      item.getAttributes.get(ParSeqTraceCollapser.ExpandAttribute) must equalTo("link")
+      collapsed.getRelationships.asScala.map(r => (r.getFrom, r.getTo)) must contain((tasks("root").getId, item.getId))
+    }
+
+    "be able to keep the shallower Tasks within the budget" in {
+      val groups = mutable.ArrayBuffer[ParSeqTraceCollapser.Group]()
+      val collapsed: Trace = ParSeqTraceCollapser.collapse(fanOut(200, i => s"item $i"), 50, 5, group => {
+        groups += group
+        "link"
+      })
+      // Assert the Tasks beyond the budget are one aggregate Task per parent
+      collapsed.getTraceMap.size must beLessThanOrEqualTo(2 * 50 + 1)
+      byName(collapsed).keySet must contain("item 1", "152 more")
+      groups.filter(_.parent.contains(0L)) must equalTo(Seq(ParSeqTraceCollapser.Group(Some(0L), None, 49)))
+    }
+
+    "be able to expand an aggregate Task page by page" in {
+      val collapser = new ParSeqTraceCollapser(Configuration("parseq.trace.collapse.maxTasks" -> 50), HttpConfiguration())
+      val small: Trace = fanOut(2, _ => "item")
+      collapser.collapse(small) must beTheSameAs(small)
+      val link: String = byName(collapser.collapse(fanOut(1000, _ => "item")))("item (1000x)").getAttributes.get(ParSeqTraceCollapser.ExpandAttribute)
+      val token: String = link.stripPrefix("/tracevis/expand/").takeWhile(_ != '?')
+      // Assert a page has the items with their children
+      val page: Option[Trace] = collapser.expand(token, Some(0L), Some("item"), 10, 5)
+      page.map(_.getTraceMap.size) must beSome(15)
+      page.map(byName(_).keySet) must equalTo(Some(Set("item", "fetch", "parse")))
+      collapser.expand("unknown", Some(0L), Some("item"), 0, 5) must beNone
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+import play.api.Configuration
+import play.api.mvc.{Result, Results}
+import play.api.test.PlaySpecification
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.{Future, Promise}
+
+
+/**
+ * The class ParSeqTraceDotSchedulerSpec is a specification class for [[ParSeqTraceDotScheduler]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceDotSchedulerSpec extends PlaySpecification {
+
+  "The ParSeqTraceDotScheduler" should {
+    "be able to coalesce concurrent builds of the same hash" in {
+      val scheduler = new ParSeqTraceDotScheduler(Configuration.empty)
+      val builds = new AtomicInteger
+      val promise = Promise[Result]()
+      val build: () => Future[Result] = () => {
+        builds.incrementAndGet
+        promise.future
+      }
+      val first: Future[Result] = scheduler.submit("hash", cached = false)(build)
+      val second: Future[Result] = scheduler.submit("hash", cached = false)(build)
+      promise.success(Results.Ok)
+      // Assert both requests get the result of one build
+      await(first).header.status must equalTo(OK)
+      await(second).header.status must equalTo(OK)
+      builds.get must equalTo(1)
+      (scheduler.getStats \ "coalesced").as[Long] must equalTo(1)
+      // Assert a later build of the same hash runs again
+      await(scheduler.submit("hash", cached = false)(build))
+      builds.get must equalTo(2)
+    }
+
+    "be able to queue builds over the running limit and reject builds over the queue" in {
+      val scheduler = new ParSeqTraceDotScheduler(Configuration("parseq.trace.dot.maxRunning" -> 1, "parseq.trace.dot.queueSize" -> 2))
+      val promise = Promise[Result]()
+      val started = new AtomicInteger
+      val build: () => Future[Result] = () => {
+        started.incrementAndGet
+        promise.future
+      }
+      val running: Future[Result] = scheduler.submit("a", cached = false)(build)
+      val waiting: Future[Result] = scheduler.submit("b", cached = false)(build)
+      // Assert the second build waits and the third is rejected, while cached builds skip the queue
+      started.get must equalTo(1)
+      await(scheduler.submit("c", cached = false)(build)) must throwA[RejectedExecutionException]
+      scheduler.submit("d", cached = true)(() => Future.successful(Results.Ok)).isCompleted must beTrue
+      promise.success(Results.Ok)
+      await(running).header.status must equalTo(OK)
+      await(waiting).header.status must equalTo(OK)
+      started.get must equalTo(2)
+      (scheduler.getStats \ "rejected").as[Long] must equalTo(1)
+      (scheduler.getStats \ "cacheHits").as[Long] must equalTo(1)
+      eventually((scheduler.getStats \ "completed").as[Long] must equalTo(2))
+    }
+  }
+
+}
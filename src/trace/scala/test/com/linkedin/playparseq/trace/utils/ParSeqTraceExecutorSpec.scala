@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import java.util.concurrent.{CountDownLatch, RejectedExecutionException}
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.test.PlaySpecification
+import scala.concurrent.Future
+
+
+/**
+ * The class ParSeqTraceExecutorSpec is a specification class for [[ParSeqTraceExecutor]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceExecutorSpec extends PlaySpecification {
+
+  "The ParSeqTraceExecutor" should {
+    "be able to run renderings" in {
+      val executor: ParSeqTraceExecutor = new ParSeqTraceExecutor(Configuration.empty, new DefaultApplicationLifecycle)
+      // Assert the output
+      await(executor.submit("render")) must equalTo("render")
+    }
+
+    "be able to reject renderings when overloaded" in {
+      val executor: ParSeqTraceExecutor = new ParSeqTraceExecutor(Configuration(
+        "parseq.trace.render.numThreads" -> 1,
+        "parseq.trace.render.queueSize" -> 1), new DefaultApplicationLifecycle)
+      val latch: CountDownLatch = new CountDownLatch(1)
+      // Occupy the only thread and the only queue slot
+      val running: Future[String] = executor.submit {
+        latch.await()
+        "running"
+      }
+      val queued: Future[String] = executor.submit("queued")
+      // Assert the rejection
+      await(executor.submit("rejected")) must throwA[RejectedExecutionException]
+      executor.getRejected must equalTo(1)
+      // Assert the accepted renderings still complete
+      latch.countDown()
+      await(running) must equalTo("running")
+      await(queued) must equalTo("queued")
+    }
+  }
+
+}
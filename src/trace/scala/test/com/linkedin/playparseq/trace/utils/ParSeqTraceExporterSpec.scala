@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.function.Function1
+import com.linkedin.parseq.trace.Trace
+import com.sun.net.httpserver.{HttpExchange, HttpHandler, HttpServer}
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{CountDownLatch, Executors, ExecutorService, LinkedBlockingQueue, ScheduledExecutorService, TimeUnit}
+import org.apache.commons.io.IOUtils
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.libs.json.{JsObject, JsValue, Json}
+import play.api.test.PlaySpecification
+
+
+/**
+ * The class ParSeqTraceExporterSpec is a specification class for [[ParSeqTraceExporter]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceExporterSpec extends PlaySpecification {
+
+  /**
+   * The method runTrace runs a plan of two successive Tasks to completion and gets its Trace.
+   *
+   * @return The Trace
+   */
+  private[this] def runTrace: Trace = {
+    val task: Task[String] = Task.value("first", "first").flatMap("second", new Function1[String, Task[String]] {
+      override def apply(first: String): Task[String] = Task.value("last", first + "last")
+    })
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      engine.run(task)
+      task.await(5, TimeUnit.SECONDS)
+      ParSeqTraceMerger.merge(Seq(task))
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  /**
+   * The method withCollector runs a local stand-in of the collector, which hands over the received bodies.
+   *
+   * @param gate The latch the collector waits for before responding
+   * @param f The test given the endpoint and the received bodies
+   * @tparam T The type parameter of the output
+   * @return The output
+   */
+  private[this] def withCollector[T](gate: CountDownLatch)(f: (String, LinkedBlockingQueue[JsValue]) => T): T = {
+    val bodies = new LinkedBlockingQueue[JsValue]
+    val server: HttpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    server.createContext("/v1/traces", new HttpHandler {
+      override def handle(exchange: HttpExchange): Unit = {
+        bodies.put(Json.parse(IOUtils.toString(exchange.getRequestBody, StandardCharsets.UTF_8)))
+        gate.await(5, TimeUnit.SECONDS)
+        exchange.sendResponseHeaders(200, -1)
+        exchange.close()
+      }
+    })
+    server.start()
+    try f(s"http://localhost:${server.getAddress.getPort}/v1/traces", bodies) finally server.stop(0)
+  }
+
+  "The ParSeqTraceExporter" should {
+    "be able to convert a Trace into Chrome trace events" in {
+      val trace: Trace = runTrace
+      val events: Seq[JsValue] = (ParSeqTraceExporter.toChromeTrace(trace) \ "traceEvents").as[Seq[JsValue]]
+      val complete: Seq[JsValue] = events.filter(e => (e \ "ph").as[String] == "X")
+      // Assert every Task is a complete event and the successors are connected by flows
+      complete.map(e => (e \ "name").as[String]) must containAllOf(Seq("first", "second", "last"))
+      complete.size must equalTo(ParSeqTraceAnalyzer.finished(trace).size)
+      events.map(e => (e \ "ph").as[String]) must containAllOf(Seq("s", "f"))
+    }
+
+    "be able to send Traces as OTLP spans to the collector" in {
+      withCollector(new CountDownLatch(0))((endpoint, bodies) => {
+        val applicationLifecycle = new DefaultApplicationLifecycle
+        val exporter = new ParSeqTraceExporter(Configuration("parseq.trace.otlp.endpoint" -> endpoint), applicationLifecycle)
+        exporter.export("route", runTrace) must beTrue
+        val spans: Seq[JsObject] = (bodies.poll(5, TimeUnit.SECONDS) \ "resourceSpans" \ 0 \ "scopeSpans" \ 0 \ "spans").as[Seq[JsObject]]
+        val spanIds: Seq[String] = spans.map(span => (span \ "spanId").as[String])
+        // Assert the root span and the relationships
+        spans.filter(span => (span \ "parentSpanId").toOption.isEmpty).map(span => (span \ "name").as[String]) must equalTo(Seq("route"))
+        spans.flatMap(span => (span \ "parentSpanId").asOpt[String]) must contain((id: String) => spanIds must contain(id)).forall
+        spans.map(span => (span \ "name").as[String]) must containAllOf(Seq("first", "second", "last"))
+        spans.map(span => (span \ "traceId").as[String]).distinct.size must equalTo(1)
+        spans.flatMap(span => (span \ "links").as[Seq[JsObject]]) must not(beEmpty)
+        eventually(exporter.getExported must equalTo(1))
+        await(applicationLifecycle.stop())
+        success
+      })
+    }
+
+    "be able to drop Traces instead of blocking if the queue is full" in {
+      val gate = new CountDownLatch(1)
+      withCollector(gate)((endpoint, _) => {
+        val applicationLifecycle = new DefaultApplicationLifecycle
+        val exporter = new ParSeqTraceExporter(Configuration(
+          "parseq.trace.otlp.endpoint" -> endpoint,
+          "parseq.trace.otlp.queueSize" -> 1,
+          "parseq.trace.otlp.batchSize" -> 1), applicationLifecycle)
+        val trace: Trace = runTrace
+        // Assert the Traces beyond the queue are dropped while the collector is stuck
+        (1 to 3).map(_ => exporter.export("route", trace)) must contain(false)
+        exporter.getDropped must beGreaterThanOrEqualTo(1L)
+        await(applicationLifecycle.stop())
+        gate.countDown()
+        success
+      })
+    }
+  }
+
+}
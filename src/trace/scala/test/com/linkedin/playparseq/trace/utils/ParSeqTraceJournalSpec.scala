@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.trace.{ResultType, ShallowTrace, ShallowTraceBuilder, Trace}
+import java.io.File
+import java.nio.file.Files
+import org.apache.commons.io.FileUtils
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.test.PlaySpecification
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceJournalSpec is a specification class for [[ParSeqTraceJournal]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceJournalSpec extends PlaySpecification {
+
+  /**
+   * The method trace builds a Trace of one Task.
+   *
+   * @param name The name of the Task
+   * @param value The value of the Task
+   * @return The Trace
+   */
+  private[this] def trace(name: String, value: String = ""): Trace = {
+    val builder: ShallowTraceBuilder = new ShallowTraceBuilder(java.lang.Long.valueOf(1L)).setName(name).setValue(value)
+      .setResultType(ResultType.SUCCESS).setStartNanos(0L).setPendingNanos(1L).setEndNanos(2L)
+    new Trace(Map[java.lang.Long, ShallowTrace](builder.getId -> builder.build).asJava, new java.util.HashSet())
+  }
+
+  /**
+   * The method withJournal runs a test with journals in a temporary directory, which are stopped afterwards.
+   *
+   * @param settings The settings besides the directory
+   * @param f The test given a way to open a journal
+   * @tparam T The type parameter of the output
+   * @return The output
+   */
+  private[this] def withJournal[T](settings: (String, Any)*)(f: (() => ParSeqTraceJournal, File) => T): T = {
+    val directory: File = Files.createTempDirectory("journal").toFile
+    val applicationLifecycle = new DefaultApplicationLifecycle
+    try f(() => new ParSeqTraceJournal(Configuration.from(Map("parseq.trace.journal.directory" -> directory.getPath) ++ settings),
+      applicationLifecycle), directory) finally {
+      await(applicationLifecycle.stop())
+      FileUtils.deleteDirectory(directory)
+    }
+  }
+
+  "The ParSeqTraceJournal" should {
+    "be able to read journaled Traces back by time and route, also after a restart" in {
+      withJournal()((open, _) => {
+        val codec = new ParSeqTraceBinaryCodec
+        val journal: ParSeqTraceJournal = open()
+        journal.append("a", 1000, 5, "", codec.toBytes(trace("first"))) must beTrue
+        journal.append("b", 2000, 5, ParSeqTraceSampler.SlowReason, codec.toBytes(trace("second"))) must beTrue
+        journal.append("a", 3000, 5, "", codec.toBytes(trace("third"))) must beTrue
+        eventually(journal.getJournaled must equalTo(3))
+        // Assert the index
+        journal.find(None, 0, Long.MaxValue, 10).map(_.timestamp) must equalTo(Seq(3000, 2000, 1000))
+        journal.find(Some("a"), 0, 2500, 10).map(_.timestamp) must equalTo(Seq(1000))
+        journal.find(Some("c"), 0, Long.MaxValue, 10) must beEmpty
+        journal.getRoutes must equalTo(Seq("a", "b"))
+        val second = journal.find(Some("b"), 0, Long.MaxValue, 1).head
+        second.reason must equalTo(ParSeqTraceSampler.SlowReason)
+        journal.get(second.id).map(_.getTraceMap.values.asScala.head.getName) must beSome("second")
+        journal.get(second.id + 1) must beNone
+        // Assert a new journal on the same directory indexes what was journaled before
+        val restarted: ParSeqTraceJournal = open()
+        restarted.find(None, 0, Long.MaxValue, 10).map(_.route) must equalTo(Seq("a", "b", "a"))
+        restarted.get(second.id).map(_.getTraceMap.values.asScala.head.getName) must beSome("second")
+      })
+    }
+
+    "be able to stay within its disk budget by deleting the oldest segments" in {
+      withJournal("parseq.trace.journal.segmentBytes" -> 65536, "parseq.trace.journal.maxBytes" -> 131072)((open, directory) => {
+        val journal: ParSeqTraceJournal = open()
+        val bytes: Array[Byte] = new ParSeqTraceBinaryCodec().toBytes(trace("large", "x" * 20000))
+        journal.append("route", 1, 0, "", bytes) must beTrue
+        eventually(journal.getJournaled must equalTo(1))
+        val first: Long = journal.find(None, 0, Long.MaxValue, 1).head.id
+        (2 to 10).foreach(i => eventually(journal.append("route", i, 0, "", bytes) must beTrue))
+        eventually(journal.getJournaled must equalTo(10))
+        // Assert only the newest Traces are left within two segments
+        directory.listFiles.length must beLessThanOrEqualTo(2)
+        val timestamps: Seq[Long] = journal.find(None, 0, Long.MaxValue, 10).map(_.timestamp)
+        timestamps.head must equalTo(10)
+        timestamps.size must beLessThan(10)
+        timestamps.foreach(t => journal.find(None, t, t, 1).headOption.flatMap(e => journal.get(e.id)) must beSome)
+        // Assert the deleted segment can't be read anymore
+        journal.get(first) must beNone
+        success
+      })
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.trace.Trace
+import java.util.concurrent.{Callable, Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import play.api.Configuration
+import play.api.test.PlaySpecification
+
+
+/**
+ * The class ParSeqTraceProfilerSpec is a specification class for [[ParSeqTraceProfiler]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceProfilerSpec extends PlaySpecification {
+
+  /**
+   * The method sleep creates a ParSeq Task which takes some time.
+   *
+   * @param name The name of the Task
+   * @param millis The time in milliseconds
+   * @return The ParSeq Task
+   */
+  private[this] def sleep(name: String, millis: Long): Task[String] = Task.callable(name, new Callable[String] {
+    override def call(): String = {
+      Thread.sleep(millis)
+      name
+    }
+  })
+
+  /**
+   * The method runTrace runs a ParSeq Task to completion and gets its Trace.
+   *
+   * @param task The ParSeq Task
+   * @return The Trace
+   */
+  private[this] def runTrace(task: Task[_]): Trace = {
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      engine.run(task)
+      task.await(5, TimeUnit.SECONDS)
+      ParSeqTraceMerger.merge(Seq(task))
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  "The ParSeqTraceProfiler" should {
+    "be able to aggregate Traces by the path of Task names" in {
+      val profiler: ParSeqTraceProfiler = new ParSeqTraceProfiler(Configuration.empty)
+      (1 to 2).foreach(_ => profiler.add("route", runTrace(Task.par(sleep("slow", 20), sleep("fast", 5)))))
+      val profile: ParSeqTraceProfiler.Profile = profiler.getProfile("route").get
+      val slow: ParSeqTraceProfiler.Node = profile.nodes.find(_.name == "slow").get
+      // Assert the aggregation
+      profiler.getRoutes must equalTo(Map("route" -> 2L))
+      slow.count must equalTo(2)
+      slow.totalNanos must beGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40))
+      slow.selfNanos must equalTo(slow.totalNanos)
+      profile.nodes(profile.nodes(profile.nodes.indexOf(slow)).parent).selfNanos must beLessThan(slow.totalNanos)
+      // Assert the renderings
+      profile.toFolded.split("\n").toSeq must contain((line: String) => line must startWith("route;") and contain(";slow "))
+      profile.toSvg must contain("<svg") and contain("slow")
+    }
+
+    "be able to bound the number of nodes and routes" in {
+      val profiler: ParSeqTraceProfiler = new ParSeqTraceProfiler(Configuration(
+        "parseq.trace.profile.maxRoutes" -> 1,
+        "parseq.trace.profile.maxNodes" -> 2))
+      val trace: Trace = runTrace(Task.par(sleep("slow", 5), sleep("fast", 5)))
+      profiler.add("route", trace)
+      profiler.add("other", trace)
+      // Assert only the root and one Task are kept, and the other route is dropped
+      profiler.getProfile("route").get.nodes.size must equalTo(2)
+      profiler.getProfile("other") must beNone
+      profiler.getDropped must equalTo(1)
+    }
+
+    "be able to measure the time not covered by children" in {
+      // Assert overlapping and out-of-window intervals
+      ParSeqTraceProfiler.uncovered(0, 100, Seq((10L, 30L), (20L, 40L), (90L, 120L), (-10L, 0L))) must equalTo(60)
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import play.api.Configuration
+import play.api.routing.{HandlerDef, Router}
+import play.api.test.{FakeRequest, PlaySpecification}
+
+
+/**
+ * The class ParSeqTraceRoutesSpec is a specification class for [[ParSeqTraceRoutes]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceRoutesSpec extends PlaySpecification {
+
+  "The ParSeqTraceRoutes" should {
+    "be able to cover all requests by default" in {
+      new ParSeqTraceRoutes(Configuration.empty).covers(FakeRequest("GET", "/assets/main.css")) must beTrue
+    }
+
+    "be able to cover requests by their actions and paths" in {
+      val routes: ParSeqTraceRoutes = new ParSeqTraceRoutes(Configuration(
+        "parseq.trace.filter.include" -> Seq("controllers\\.Application\\..*", "/api/.*"),
+        "parseq.trace.filter.exclude" -> Seq("/api/health")))
+      val routed = FakeRequest("GET", "/members/1").addAttr(Router.Attrs.HandlerDef, HandlerDef(getClass.getClassLoader,
+        "router", "controllers.Application", "member", Seq.empty, "GET", "/members/$id<[^/]+>"))
+      // Assert an included action, an included path, an excluded path and a path included by none
+      routes.covers(routed) must beTrue
+      routes.covers(FakeRequest("GET", "/api/members")) must beTrue
+      routes.covers(FakeRequest("GET", "/api/health")) must beFalse
+      routes.covers(FakeRequest("GET", "/assets/main.css")) must beFalse
+    }
+  }
+
+}
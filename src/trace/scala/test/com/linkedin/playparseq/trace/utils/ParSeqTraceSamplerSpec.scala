@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.Task
+import java.util.concurrent.TimeUnit
+import play.api.Configuration
+import play.api.inject.DefaultApplicationLifecycle
+import play.api.mvc.{Result, Results}
+import play.api.test.{FakeRequest, PlaySpecification}
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+
+
+/**
+ * The class ParSeqTraceSamplerSpec is a specification class for [[ParSeqTraceSampler]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceSamplerSpec extends PlaySpecification {
+
+  /**
+   * The method newSampler creates a [[ParSeqTraceSampler]].
+   *
+   * @param configuration The Configuration
+   * @return The ParSeqTraceSampler
+   */
+  private[this] def newSampler(configuration: Configuration): ParSeqTraceSampler = new ParSeqTraceSampler(configuration,
+    new ParSeqTraceAnalyzer, new ParSeqTraceProfiler(Configuration.empty),
+    new ParSeqTraceExporter(Configuration.empty, new DefaultApplicationLifecycle),
+    new ParSeqTraceJournal(Configuration.empty, new DefaultApplicationLifecycle),
+    new ParSeqTraceExecutor(Configuration.empty, new DefaultApplicationLifecycle))
+
+  /**
+   * The method newSampler creates an enabled [[ParSeqTraceSampler]] without route quota.
+   *
+   * @param capacity The maximum number of kept Traces
+   * @return The ParSeqTraceSampler
+   */
+  private[this] def newSampler(capacity: Int): ParSeqTraceSampler = newSampler(Configuration(
+    "parseq.trace.tail.enabled" -> true,
+    "parseq.trace.tail.latencyThresholdMilliseconds" -> 100,
+    "parseq.trace.tail.routeQuotaPerMinute" -> 0,
+    "parseq.trace.tail.capacity" -> capacity))
+
+  /**
+   * The field tasks are the ParSeq Tasks of a request.
+   */
+  private[this] val tasks: Set[Task[_]] = Set(Task.value("test", "test"))
+
+  "The ParSeqTraceSampler" should {
+    "be able to drop fast and successful requests" in {
+      val sampler: ParSeqTraceSampler = newSampler(10)
+      // Assert the drop
+      await(sampler.sample("route", TimeUnit.MILLISECONDS.toNanos(10), failed = false, tasks)) must beNone
+      sampler.getSampled must equalTo(1)
+      sampler.getCaptures must beEmpty
+    }
+
+    "be able to keep slow and failed requests" in {
+      val sampler: ParSeqTraceSampler = newSampler(10)
+      // Assert the reasons
+      await(sampler.sample("route", TimeUnit.MILLISECONDS.toNanos(200), failed = false, tasks)).map(_.reason) must beSome(ParSeqTraceSampler.SlowReason)
+      await(sampler.sample("route", TimeUnit.MILLISECONDS.toNanos(10), failed = true, tasks)).map(_.reason) must beSome(ParSeqTraceSampler.FailedReason)
+      // Assert the kept Traces
+      sampler.getCaptures.map(_.reason) must equalTo(Seq(ParSeqTraceSampler.FailedReason, ParSeqTraceSampler.SlowReason))
+      sampler.getCapture(1).map(_.trace.getTraceMap.size) must beSome(1)
+    }
+
+    "be able to keep requests within the route quota" in {
+      val sampler: ParSeqTraceSampler = newSampler(Configuration(
+        "parseq.trace.tail.enabled" -> true,
+        "parseq.trace.tail.routeQuotaPerMinute" -> 1))
+      // Assert only the first request of each route is kept
+      await(sampler.sample("route", 0, failed = false, tasks)).map(_.reason) must beSome(ParSeqTraceSampler.QuotaReason)
+      await(sampler.sample("route", 0, failed = false, tasks)) must beNone
+      await(sampler.sample("other", 0, failed = false, tasks)) must beSome
+    }
+
+    "be able to drop the oldest Traces over the capacity" in {
+      val sampler: ParSeqTraceSampler = newSampler(2)
+      (1 to 3).foreach(_ => await(sampler.sample("route", 0, failed = true, tasks)))
+      // Assert the capacity
+      sampler.getCaptures.map(_.id) must equalTo(Seq(3, 2))
+    }
+
+    "be able to capture a failed Result" in {
+      val sampler: ParSeqTraceSampler = newSampler(10)
+      val result: Future[Result] = sampler.capture(Future.successful(Results.InternalServerError), recorded = true, "route", System.nanoTime, () => tasks)
+      // Assert the capture, which is kept on the executor
+      status(result) must equalTo(INTERNAL_SERVER_ERROR)
+      sampler.getCaptures.map(_.reason) must equalTo(Seq(ParSeqTraceSampler.FailedReason)).eventually
+    }
+
+    "be able to record only the configured share of requests" in {
+      // Assert the recorded ratio
+      (1 to 10).map(_ => newSampler(Configuration("parseq.trace.tail.enabled" -> true)).record()) must contain(be_==(true)).forall
+      (1 to 10).map(_ => newSampler(Configuration("parseq.trace.tail.enabled" -> true, "parseq.trace.tail.recordedRatio" -> 0)).record()) must contain(be_==(false)).forall
+      newSampler(Configuration.empty).record() must beFalse
+    }
+
+    "be able to put all unrouted requests in one route" in {
+      // Assert the route of requests without handler
+      ParSeqTraceSampler.route(FakeRequest("GET", "/a")) must equalTo(ParSeqTraceSampler.UnroutedRoute)
+      ParSeqTraceSampler.route(FakeRequest("POST", "/b")) must equalTo(ParSeqTraceSampler.UnroutedRoute)
+    }
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 LinkedIn Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ */
+package com.linkedin.playparseq.trace.utils
+
+import com.linkedin.parseq.{Engine, EngineBuilder, Task}
+import com.linkedin.parseq.function.Function1
+import com.linkedin.parseq.trace.{Relationship, ShallowTrace, Trace}
+import com.linkedin.playparseq.trace.controllers.{ParSeqTraceEndpointAction, ParSeqTraceRemotes}
+import java.util.concurrent.{Callable, Executors, ExecutorService, ScheduledExecutorService, TimeUnit}
+import play.api.{Configuration, Environment}
+import play.api.mvc.{BodyParsers, Handler, RequestHeader}
+import play.api.test.Helpers.stubControllerComponents
+import play.api.test.{FakeRequest, PlaySpecification}
+import play.core.server.Server
+import scala.collection.JavaConverters._
+
+
+/**
+ * The class ParSeqTraceStitcherSpec is a specification class for [[ParSeqTraceStitcher]].
+ *
+ * @author Yinan Ding (yding@linkedin.com)
+ */
+class ParSeqTraceStitcherSpec extends PlaySpecification {
+
+  /**
+   * The method sleep creates a ParSeq Task which takes some time.
+   *
+   * @param name The name of the Task
+   * @param millis The time in milliseconds
+   * @return The ParSeq Task
+   */
+  private[this] def sleep(name: String, millis: Long): Task[String] = Task.callable(name, new Callable[String] {
+    override def call(): String = {
+      Thread.sleep(millis)
+      name
+    }
+  })
+
+  /**
+   * The method run runs a ParSeq Task to completion.
+   *
+   * @param task The ParSeq Task
+   * @tparam T The type parameter of the Task
+   * @return The ParSeq Task
+   */
+  private[this] def run[T](task: Task[T]): Task[T] = {
+    val taskScheduler: ExecutorService = Executors.newFixedThreadPool(2)
+    val timerScheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor
+    val engine: Engine = new EngineBuilder().setTaskExecutor(taskScheduler).setTimerScheduler(timerScheduler).build
+    try {
+      engine.run(task)
+      task.await(5, TimeUnit.SECONDS)
+      task
+    } finally {
+      engine.shutdown()
+      taskScheduler.shutdown()
+      timerScheduler.shutdown()
+    }
+  }
+
+  /**
+   * The method header gets the value of the header a remote call of a ParSeqTraceStitcher sends along.
+   *
+   * @param stitcher The ParSeqTraceStitcher
+   * @return The value of the header
+   */
+  private[this] def header(stitcher: ParSeqTraceStitcher): String = {
+    var header: String = null
+    stitcher.remote("http://localhost")((_, value) => {
+      header = value
+      Task.value(value)
+    })
+    header
+  }
+
+  "The ParSeqTraceStitcher" should {
+    "be able to inline the Trace of another service under the calling Task" in {
+      val callee: ParSeqTraceStitcher = new ParSeqTraceStitcher(Configuration("parseq.trace.stitch.secret" -> "secret"))
+      // Run the other service serving its kept Traces
+      Server.withRouterFromComponents() { components =>
+        val endpointAction = new ParSeqTraceEndpointAction(Configuration("parseq.trace.endpoints.enabled" -> true),
+          Environment.simple(), new BodyParsers.Default(components.playBodyParsers))(components.executionContext)
+        val remotes = new ParSeqTraceRemotes(callee, new ParSeqTraceExecutor(Configuration.empty, components.applicationLifecycle),
+          endpointAction, stubControllerComponents())(components.executionContext)
+        val routes: PartialFunction[RequestHeader, Handler] = {
+          case request if request.path.startsWith("/tracevis/remote/") => remotes.show(request.path.stripPrefix("/tracevis/remote/"))
+        }
+        routes
+      } { implicit port =>
+        val caller: ParSeqTraceStitcher = new ParSeqTraceStitcher(Configuration("parseq.trace.stitch.secret" -> "secret"))
+        // The call hands the header over to the other service, which runs its own plan
+        val task: Task[String] = caller.remote(s"http://localhost:$port")((name, id) => sleep("call", 50).flatMap("handle", new Function1[String, Task[String]] {
+          override def apply(value: String): Task[String] = {
+            name must equalTo(ParSeqTraceStitcher.HeaderName)
+            val remote = run(sleep("remote", 10))
+            callee.keep(FakeRequest().withHeaders(name -> id), () => Seq(remote))
+            Task.value(value)
+          }
+        }))
+        val trace: Trace = await(caller.stitch(ParSeqTraceMerger.merge(Seq(run(task)))))
+        val byName: Map[String, ShallowTrace] = trace.getTraceMap.values.asScala.map(t => t.getName -> t).toMap
+        // Assert the remote Task is inlined under the calling Task within its time
+        byName must haveKey("remote")
+        byName("remote").getAttributes.get(ParSeqTraceStitcher.RemoteOriginAttribute) must equalTo(s"http://localhost:$port")
+        trace.getRelationships.asScala.exists(r => r.getRelationhsip == Relationship.PARENT_OF &&
+          r.getFrom == task.getId && r.getTo == byName("remote").getId) must beTrue
+        byName("remote").getStartNanos.longValue must beGreaterThanOrEqualTo(byName(task.getName).getStartNanos.longValue)
+        byName("remote").getEndNanos.longValue must beLessThanOrEqualTo(byName(task.getName).getEndNanos.longValue)
+      }
+    }
+
+    "be able to keep only requests with a valid correlation id up to the capacity" in {
+      val stitcher: ParSeqTraceStitcher = new ParSeqTraceStitcher(Configuration(
+        "parseq.trace.stitch.capacity" -> 1,
+        "parseq.trace.stitch.trustedAddresses" -> Seq("127.0.0.1")))
+      val task: Task[String] = run(Task.value("value", "value"))
+      val first: String = ParSeqTraceStitcher.newId
+      val second: String = ParSeqTraceStitcher.newId
+      stitcher.keep(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> "../../etc"), () => Seq(task))
+      stitcher.keep(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> first), () => Seq(task))
+      stitcher.keep(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> second), () => Seq(task))
+      // Assert the invalid id is ignored and the oldest request is dropped
+      stitcher.get("../../etc") must beNone
+      stitcher.get(first) must beNone
+      stitcher.get(second) must beSome
+    }
+
+    "be able to honour only correlation ids which are signed or from a trusted address" in {
+      val stitcher: ParSeqTraceStitcher = new ParSeqTraceStitcher(Configuration("parseq.trace.stitch.secret" -> "secret"))
+      val signed: String = header(stitcher)
+      val forged: String = header(new ParSeqTraceStitcher(Configuration("parseq.trace.stitch.secret" -> "other")))
+      val unsigned: String = ParSeqTraceStitcher.newId
+      // Assert only the id signed with the same secret is honoured
+      stitcher.isStitched(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> signed)) must beTrue
+      stitcher.isStitched(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> forged)) must beFalse
+      stitcher.isStitched(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> unsigned)) must beFalse
+      new ParSeqTraceStitcher(Configuration.empty).isStitched(FakeRequest().withHeaders(ParSeqTraceStitcher.HeaderName -> unsigned)) must beFalse
+    }
+  }
+
+}